@@ -35,10 +35,12 @@ import org.gatein.wsrp.consumer.EndpointConfigurationInfo;
 import org.gatein.wsrp.consumer.ProducerInfo;
 import org.gatein.wsrp.consumer.RegistrationInfo;
 import org.gatein.wsrp.consumer.RegistrationProperty;
+import org.gatein.wsrp.consumer.metrics.ConsumerMetrics;
 import org.gatein.wsrp.consumer.migration.ExportInfo;
 import org.gatein.wsrp.consumer.migration.ImportInfo;
 import org.gatein.wsrp.consumer.migration.MigrationService;
 import org.gatein.wsrp.consumer.registry.ConsumerRegistry;
+import org.gatein.wsrp.metrics.OperationStatistics;
 
 import javax.faces.event.ActionEvent;
 import javax.faces.event.ValueChangeEvent;
@@ -713,6 +715,32 @@ public class ConsumerBean extends WSRPManagedBean implements Serializable
       return existingExports;
    }
 
+   public String resumeExport()
+   {
+      final ExportInfoDisplay currentExport = getCurrentExport();
+      final WSRPConsumer consumer = getConsumer();
+      if (currentExport != null && consumer != null)
+      {
+         try
+         {
+            setCurrentExport(new ExportInfoDisplay(consumer.resumeExport(currentExport.getExport()), beanContext.getLocale(), consumer.getMigrationService().getStructureProvider()));
+         }
+         catch (Exception e)
+         {
+            beanContext.createErrorMessageFrom(e);
+            return null;
+         }
+         finally
+         {
+            existingExports = null; // force rebuild of export list to reflect progress
+         }
+         return ConsumerManagerBean.EXPORT_DETAIL;
+      }
+
+      beanContext.createErrorMessage(CANNOT_EXPORT);
+      return null;
+   }
+
    public String viewExport()
    {
       selectExport();
@@ -843,6 +871,41 @@ public class ConsumerBean extends WSRPManagedBean implements Serializable
       getProducerInfo().getEndpointConfigurationInfo().setWSSEnabled(enable);
    }
 
+   public ConsumerMetrics getMetrics()
+   {
+      final WSRPConsumer consumer = getConsumer();
+      return consumer != null ? consumer.getMetrics() : null;
+   }
+
+   public boolean isMetricsAvailable()
+   {
+      return getMetrics() != null;
+   }
+
+   public List<OperationStatistics> getOperationStatistics()
+   {
+      final ConsumerMetrics metrics = getMetrics();
+      if (metrics == null)
+      {
+         return Collections.emptyList();
+      }
+
+      // display the most invoked operations first
+      final List<OperationStatistics> operations = metrics.getOperationStatistics();
+      Collections.sort(operations, OperationStatistics.BY_INVOCATION_COUNT);
+      return operations;
+   }
+
+   public String resetMetrics()
+   {
+      final ConsumerMetrics metrics = getMetrics();
+      if (metrics != null)
+      {
+         metrics.reset();
+      }
+      return null;
+   }
+
    public WSRPConsumer getConsumer()
    {
       if (consumer == null)
@@ -1045,6 +1108,21 @@ public class ConsumerBean extends WSRPManagedBean implements Serializable
          return !failedPortlets.isEmpty();
       }
 
+      public boolean isComplete()
+      {
+         return export.isComplete();
+      }
+
+      public int getProgress()
+      {
+         return export.getProgress();
+      }
+
+      public int getRemainingPortletsCount()
+      {
+         return export.getRemainingPortletHandles().size();
+      }
+
       public List<SelectablePortletHandle> getExportedPortlets()
       {
          return exportedPortlets;
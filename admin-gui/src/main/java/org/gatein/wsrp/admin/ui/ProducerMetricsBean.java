@@ -0,0 +1,124 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2011, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.admin.ui;
+
+import org.gatein.wsrp.metrics.OperationStatistics;
+import org.gatein.wsrp.producer.metrics.KeyStatistics;
+import org.gatein.wsrp.producer.metrics.ProducerMetrics;
+import org.gatein.wsrp.producer.metrics.ProducerMetricsMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Displays the producer metrics, as published over JMX by the producer.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class ProducerMetricsBean
+{
+   private static final Logger log = LoggerFactory.getLogger(ProducerMetricsBean.class);
+
+   private static final String METRICS = "producerMetrics";
+
+   private ProducerMetricsMXBean metrics;
+   private boolean initialized;
+
+   private ProducerMetricsMXBean getMetrics()
+   {
+      if (!initialized)
+      {
+         initialized = true;
+         try
+         {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(ProducerMetrics.OBJECT_NAME);
+            if (server.isRegistered(name))
+            {
+               metrics = JMX.newMXBeanProxy(server, name, ProducerMetricsMXBean.class);
+            }
+         }
+         catch (Exception e)
+         {
+            log.debug("Couldn't access producer metrics", e);
+         }
+      }
+      return metrics;
+   }
+
+   public boolean isAvailable()
+   {
+      return getMetrics() != null;
+   }
+
+   public int getInFlight()
+   {
+      return isAvailable() ? metrics.getInFlight() : 0;
+   }
+
+   public List<OperationStatistics> getOperations()
+   {
+      if (!isAvailable())
+      {
+         return Collections.emptyList();
+      }
+
+      // display the most invoked operations first
+      final List<OperationStatistics> operations = new ArrayList<OperationStatistics>(metrics.getOperationStatistics());
+      Collections.sort(operations, OperationStatistics.BY_INVOCATION_COUNT);
+      return operations;
+   }
+
+   public List<KeyStatistics> getTopRegistrations()
+   {
+      return isAvailable() ? metrics.getTopRegistrations() : Collections.<KeyStatistics>emptyList();
+   }
+
+   public List<KeyStatistics> getTopPortlets()
+   {
+      return isAvailable() ? metrics.getTopPortlets() : Collections.<KeyStatistics>emptyList();
+   }
+
+   public String refresh()
+   {
+      return METRICS;
+   }
+
+   public String reset()
+   {
+      if (isAvailable())
+      {
+         metrics.reset();
+      }
+      return METRICS;
+   }
+}
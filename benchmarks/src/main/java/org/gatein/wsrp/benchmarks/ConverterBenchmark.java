@@ -0,0 +1,172 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.benchmarks;
+
+import org.gatein.pc.api.OpaqueStateString;
+import org.gatein.wsrp.WSRPConstants;
+import org.gatein.wsrp.WSRPTypeFactory;
+import org.gatein.wsrp.spec.v1.V1ToV2Converter;
+import org.gatein.wsrp.spec.v1.V2ToV1Converter;
+import org.gatein.wsrp.spec.v1.WSRP1TypeFactory;
+import org.oasis.wsrp.v1.V1GetMarkup;
+import org.oasis.wsrp.v1.V1MarkupResponse;
+import org.oasis.wsrp.v2.GetMarkup;
+import org.oasis.wsrp.v2.MarkupContext;
+import org.oasis.wsrp.v2.MarkupParams;
+import org.oasis.wsrp.v2.MarkupResponse;
+import org.oasis.wsrp.v2.NamedString;
+import org.oasis.wsrp.v2.PortletContext;
+import org.oasis.wsrp.v2.RegistrationContext;
+import org.oasis.wsrp.v2.RuntimeContext;
+import org.oasis.wsrp.v2.SessionContext;
+import org.oasis.wsrp.v2.UserContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of going through the WSRP 1 compatibility layer for a full markup round-trip, i.e. what happens
+ * when the consumer talks to a WSRP 1 producer (V2 to V1 conversion of the request, V1 to V2 conversion of the
+ * response) and what happens when a WSRP 1 consumer talks to our producer (V1 to V2 conversion of the request, V2 to
+ * V1 conversion of the response).
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ConverterBenchmark
+{
+   private static final List<String> LOCALES = Arrays.asList("en", "fr", "de");
+   private static final List<String> MIME_TYPES = Arrays.asList("text/html", "application/xhtml+xml");
+
+   /** Number of extensions to attach to each element supporting them, to simulate vendor-specific producers. */
+   @Param({"0", "3"})
+   public int extensions;
+
+   /** Size of the markup fragment returned by the simulated portlet. */
+   @Param({"1024", "65536"})
+   public int markupSize;
+
+   private GetMarkup getMarkup;
+   private MarkupResponse markupResponse;
+
+   @Setup
+   public void setUp()
+   {
+      RegistrationContext registrationContext = WSRPTypeFactory.createRegistrationContext("registration");
+      PortletContext portletContext = WSRPTypeFactory.createPortletContext("/portlet-app.Portlet", new byte[256]);
+      RuntimeContext runtimeContext = WSRPTypeFactory.createRuntimeContext(WSRPConstants.NONE_USER_AUTHENTICATION, "portletInstanceKey", "namespace");
+      runtimeContext.setSessionParams(WSRPTypeFactory.createSessionParams("sessionID"));
+      UserContext userContext = WSRPTypeFactory.createUserContext("user");
+      userContext.getUserCategories().add("full");
+      MarkupParams markupParams = WSRPTypeFactory.createMarkupParams(false, LOCALES, MIME_TYPES, WSRPConstants.VIEW_MODE, WSRPConstants.NORMAL_WINDOW_STATE);
+      markupParams.setClientData(WSRPTypeFactory.createClientData("Mozilla/5.0"));
+      markupParams.setNavigationalContext(WSRPTypeFactory.createNavigationalContextOrNull(new OpaqueStateString("navigationalState"), null));
+      markupParams.getValidNewModes().addAll(Arrays.asList(WSRPConstants.VIEW_MODE, WSRPConstants.EDIT_MODE, WSRPConstants.HELP_MODE));
+      markupParams.getValidNewWindowStates().addAll(Arrays.asList(WSRPConstants.NORMAL_WINDOW_STATE, WSRPConstants.MAXIMIZED_WINDOW_STATE, WSRPConstants.MINIMIZED_WINDOW_STATE));
+
+      for (int i = 0; i < extensions; i++)
+      {
+         NamedString any = WSRPTypeFactory.createNamedString("extension" + i, "value" + i);
+         registrationContext.getExtensions().add(WSRPTypeFactory.createExtension(any));
+         portletContext.getExtensions().add(WSRPTypeFactory.createExtension(any));
+         runtimeContext.getExtensions().add(WSRPTypeFactory.createExtension(any));
+         userContext.getExtensions().add(WSRPTypeFactory.createExtension(any));
+         markupParams.getExtensions().add(WSRPTypeFactory.createExtension(any));
+         markupParams.getClientData().getExtensions().add(WSRPTypeFactory.createExtension(any));
+      }
+
+      getMarkup = WSRPTypeFactory.createGetMarkup(registrationContext, portletContext, runtimeContext, userContext, markupParams);
+
+      StringBuilder markup = new StringBuilder(markupSize);
+      while (markup.length() < markupSize)
+      {
+         markup.append("<div class='portlet'><a href='/portal/page'>link</a></div>");
+      }
+      MarkupContext markupContext = WSRPTypeFactory.createMarkupContext("text/html", markup.toString(), null, null);
+      markupContext.setCacheControl(WSRPTypeFactory.createCacheControl(60, WSRPConstants.CACHE_PER_USER));
+      markupContext.setLocale("en");
+      markupContext.setPreferredTitle("Portlet");
+      markupResponse = WSRPTypeFactory.createMarkupResponse(markupContext);
+      SessionContext sessionContext = WSRPTypeFactory.createSessionContext("sessionID", 300);
+      markupResponse.setSessionContext(sessionContext);
+
+      for (int i = 0; i < extensions; i++)
+      {
+         NamedString any = WSRPTypeFactory.createNamedString("extension" + i, "value" + i);
+         markupContext.getExtensions().add(WSRPTypeFactory.createExtension(any));
+         markupContext.getCacheControl().getExtensions().add(WSRPTypeFactory.createExtension(any));
+         sessionContext.getExtensions().add(WSRPTypeFactory.createExtension(any));
+         markupResponse.getExtensions().add(WSRPTypeFactory.createExtension(any));
+      }
+   }
+
+   /**
+    * Converts a V2 GetMarkup request to its V1 counterpart, as the consumer does when talking to a WSRP 1 producer, then
+    * back to V2 as the producer does when receiving a WSRP 1 request.
+    */
+   @Benchmark
+   public GetMarkup getMarkupRoundTrip()
+   {
+      V1GetMarkup v1GetMarkup = WSRP1TypeFactory.createMarkupRequest(
+         V2ToV1Converter.toV1PortletContext(getMarkup.getPortletContext()),
+         V2ToV1Converter.toV1RuntimeContext(getMarkup.getRuntimeContext()),
+         V2ToV1Converter.toV1MarkupParams(getMarkup.getMarkupParams()));
+      v1GetMarkup.setRegistrationContext(V2ToV1Converter.toV1RegistrationContext(getMarkup.getRegistrationContext()));
+      v1GetMarkup.setUserContext(V2ToV1Converter.toV1UserContext(getMarkup.getUserContext()));
+
+      return V1ToV2Converter.toV2GetMarkup(v1GetMarkup);
+   }
+
+   /**
+    * Converts a V2 MarkupResponse to its V1 counterpart, as the producer does when answering a WSRP 1 consumer, then
+    * back to V2 as the consumer does when receiving a response from a WSRP 1 producer.
+    */
+   @Benchmark
+   public MarkupResponse markupResponseRoundTrip()
+   {
+      V1MarkupResponse v1MarkupResponse = V2ToV1Converter.toV1MarkupResponse(markupResponse);
+
+      MarkupResponse result = WSRPTypeFactory.createMarkupResponse(V1ToV2Converter.toV2MarkupContext(v1MarkupResponse.getMarkupContext()));
+      result.setSessionContext(V1ToV2Converter.toV2SessionContext(v1MarkupResponse.getSessionContext()));
+      return result;
+   }
+}
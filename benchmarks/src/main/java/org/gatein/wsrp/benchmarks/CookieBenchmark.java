@@ -0,0 +1,96 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.benchmarks;
+
+import org.gatein.wsrp.handler.CookieUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cookie handling the consumer performs on each SOAP exchange with a producer: extracting the cookies set
+ * by the producer from the response headers and coalescing the stored cookies into the Cookie header of the next
+ * request.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CookieBenchmark
+{
+   /** Number of cookies set by the producer. */
+   @Param({"2", "10"})
+   public int cookies;
+
+   private URL producerURL;
+   private List<String> setCookieHeaders;
+   private List<CookieUtil.Cookie> extracted;
+
+   @Setup
+   public void setUp() throws Exception
+   {
+      producerURL = new URL("http://producer.example.com:8080/wsrp-producer/v2/MarkupService");
+
+      setCookieHeaders = new ArrayList<String>(cookies);
+      setCookieHeaders.add("JSESSIONID=7F3A9C2B1E8D4F6A0B5C7D9E1F3A5B7C; Path=/wsrp-producer; HttpOnly");
+      for (int i = 1; i < cookies; i++)
+      {
+         setCookieHeaders.add("pref" + i + "=\"value" + i + "\"; Version=1; Domain=.example.com; Path=/; Max-Age=3600");
+      }
+
+      extracted = CookieUtil.extractCookiesFrom(producerURL, setCookieHeaders);
+   }
+
+   /** Extracts and validates the cookies from the Set-Cookie headers of a producer response. */
+   @Benchmark
+   public List<CookieUtil.Cookie> extractCookies()
+   {
+      return CookieUtil.extractCookiesFrom(producerURL, setCookieHeaders);
+   }
+
+   /** Coalesces the stored cookies into a single Cookie header value. */
+   @Benchmark
+   public String coalesceAndExternalizeCookies()
+   {
+      return CookieUtil.coalesceAndExternalizeCookies(extracted);
+   }
+}
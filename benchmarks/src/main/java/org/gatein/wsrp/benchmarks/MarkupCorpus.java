@@ -0,0 +1,129 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.benchmarks;
+
+import org.gatein.wsrp.WSRPRewritingConstants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gives access to the markup samples used by the benchmarks. The samples, found in the <code>markup</code> resource
+ * directory, are typical of what remote portlets send back: forms, data tables with many links, JavaScript using
+ * escaped URLs and markup without any URL to rewrite.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class MarkupCorpus
+{
+   private MarkupCorpus()
+   {
+   }
+
+   /**
+    * Loads the specified markup sample, repeating it so that the returned markup is at least of the specified size.
+    *
+    * @param name    the name of the sample, without extension
+    * @param minSize the minimum size of the returned markup
+    * @return the markup built from the specified sample
+    */
+   public static String load(String name, int minSize)
+   {
+      final String sample = read(name);
+      final StringBuilder markup = new StringBuilder(minSize + sample.length());
+      do
+      {
+         markup.append(sample);
+      }
+      while (markup.length() < minSize);
+      return markup.toString();
+   }
+
+   /**
+    * Extracts the WSRP URLs, boundaries included, found in the specified markup sample.
+    *
+    * @param name the name of the sample, without extension
+    * @return the WSRP URLs found in the specified sample, in document order
+    */
+   public static List<String> extractURLs(String name)
+   {
+      final String sample = read(name);
+      final List<String> urls = new ArrayList<String>();
+      int start = sample.indexOf(WSRPRewritingConstants.BEGIN_WSRP_REWRITE);
+      while (start >= 0)
+      {
+         final int end = sample.indexOf(WSRPRewritingConstants.END_WSRP_REWRITE, start);
+         if (end < 0)
+         {
+            break;
+         }
+
+         urls.add(sample.substring(start, end + WSRPRewritingConstants.END_WSRP_REWRITE.length()));
+         start = sample.indexOf(WSRPRewritingConstants.BEGIN_WSRP_REWRITE, end);
+      }
+      return urls;
+   }
+
+   private static String read(String name)
+   {
+      final InputStream stream = MarkupCorpus.class.getResourceAsStream("/markup/" + name + ".html");
+      if (stream == null)
+      {
+         throw new IllegalArgumentException("Unknown markup sample: " + name);
+      }
+
+      try
+      {
+         final Reader reader = new InputStreamReader(stream, "UTF-8");
+         final StringBuilder sample = new StringBuilder(4096);
+         final char[] buffer = new char[4096];
+         int read;
+         while ((read = reader.read(buffer)) != -1)
+         {
+            sample.append(buffer, 0, read);
+         }
+         return sample.toString();
+      }
+      catch (IOException e)
+      {
+         throw new RuntimeException("Couldn't read markup sample: " + name, e);
+      }
+      finally
+      {
+         try
+         {
+            stream.close();
+         }
+         catch (IOException e)
+         {
+            // ignore
+         }
+      }
+   }
+}
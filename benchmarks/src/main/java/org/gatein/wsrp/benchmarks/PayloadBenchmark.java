@@ -0,0 +1,114 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.benchmarks;
+
+import org.gatein.wsrp.payload.PayloadUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Element;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures marshalling and unmarshalling simple-typed event payloads and extensions to and from DOM elements, which
+ * happens for each event or extension exchanged between consumer and producer, as well as the XML serialization used
+ * when persisting extensions.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PayloadBenchmark
+{
+   /** Type of the payload to marshall. */
+   @Param({"string", "integer", "double"})
+   public String type;
+
+   private Serializable payload;
+   private Element element;
+   private String xml;
+
+   @Setup
+   public void setUp()
+   {
+      if ("string".equals(type))
+      {
+         payload = "AAPL:182.52;GOOG:141.80;MSFT:404.27";
+      }
+      else if ("integer".equals(type))
+      {
+         payload = 1824;
+      }
+      else
+      {
+         payload = 182.52d;
+      }
+
+      element = PayloadUtils.marshallPayload(payload);
+      xml = PayloadUtils.outputToXML(element);
+   }
+
+   /** Marshalls the payload into a DOM element. */
+   @Benchmark
+   public Element marshallPayload()
+   {
+      return PayloadUtils.marshallPayload(payload);
+   }
+
+   /** Unmarshalls the payload from its DOM element. */
+   @Benchmark
+   public Serializable unmarshallPayload()
+   {
+      return PayloadUtils.unmarshallPayload(element);
+   }
+
+   /** Serializes the payload element to XML then parses it back. */
+   @Benchmark
+   public Element xmlRoundTrip()
+   {
+      return PayloadUtils.parseFromXMLString(PayloadUtils.outputToXML(element));
+   }
+
+   /** Parses the payload element from its XML form and unmarshalls it. */
+   @Benchmark
+   public Serializable parseAndUnmarshall()
+   {
+      return PayloadUtils.unmarshallPayload(PayloadUtils.parseFromXMLString(xml));
+   }
+}
@@ -0,0 +1,108 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.benchmarks;
+
+import org.gatein.wsrp.WSRPPortletURL;
+import org.gatein.wsrp.WSRPUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing the WSRP URLs found in portlet markup, which the consumer does for each URL it rewrites, as well as
+ * encoding and decoding public navigational state changes, which happens for each URL carrying public parameters.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PortletURLBenchmark
+{
+   /** Markup sample from which to extract the URLs to parse, see {@link MarkupCorpus}. */
+   @Param({"form", "table"})
+   public String corpus;
+
+   /** Number of public render parameters to encode and decode. */
+   @Param({"1", "10"})
+   public int publicParameters;
+
+   private String[] urls;
+   private int next;
+   private Map<String, String[]> publicNS;
+   private String encodedPublicNS;
+
+   @Setup
+   public void setUp()
+   {
+      final List<String> extracted = MarkupCorpus.extractURLs(corpus);
+      urls = extracted.toArray(new String[extracted.size()]);
+
+      publicNS = new HashMap<String, String[]>(publicParameters);
+      for (int i = 0; i < publicParameters; i++)
+      {
+         publicNS.put("publicParam" + i, i % 3 == 0 ? new String[]{"value " + i, "other value"} : new String[]{"value" + i});
+      }
+      encodedPublicNS = WSRPUtils.encodePublicNS(publicNS);
+   }
+
+   /** Parses the next URL of the corpus, cycling through all of them. */
+   @Benchmark
+   public WSRPPortletURL create()
+   {
+      next = (next + 1) % urls.length;
+      return WSRPPortletURL.create(urls[next]);
+   }
+
+   /** Encodes public navigational state changes to pass them as a single URL parameter. */
+   @Benchmark
+   public String encodePublicNS()
+   {
+      return WSRPUtils.encodePublicNS(publicNS);
+   }
+
+   /** Decodes public navigational state changes from their URL parameter form. */
+   @Benchmark
+   public Map<String, String[]> decodePublicNS()
+   {
+      return WSRPUtils.decodePublicNS(encodedPublicNS);
+   }
+}
@@ -0,0 +1,152 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.benchmarks;
+
+import org.gatein.pc.api.OpaqueStateString;
+import org.gatein.pc.api.PortletContext;
+import org.gatein.pc.api.StateString;
+import org.gatein.pc.api.WindowState;
+import org.gatein.pc.api.cache.CacheLevel;
+import org.gatein.wsrp.ResourceServingUtil;
+import org.gatein.wsrp.WSRPPortletURL;
+import org.oasis.wsrp.v2.GetResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding resource URLs pointing directly at the producer, as the producer does for each resource URL when the
+ * consumer doesn't proxy resources, and decoding them back into a GetResource request as the producer resource servlet
+ * does for each request.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ResourceServingBenchmark
+{
+   private static final String RESOURCE_ID = "/css/portfolio.css";
+   private static final StateString NAVIGATIONAL_STATE = new OpaqueStateString("view:holdings;sort:desc");
+   private static final StateString RESOURCE_STATE = new OpaqueStateString("chart:yearly");
+
+   private WSRPPortletURL.URLContext context;
+   private HttpServletRequest request;
+
+   @Setup
+   public void setUp() throws Exception
+   {
+      context = new WSRPPortletURL.URLContext();
+      context.setValueFor(WSRPPortletURL.URLContext.SERVER_ADDRESS, "http://producer.example.com:8080");
+      context.setValueFor(WSRPPortletURL.URLContext.PORTLET_CONTEXT, PortletContext.createPortletContext("/portfolio.PortfolioPortlet", false));
+      context.setValueFor(WSRPPortletURL.URLContext.INSTANCE_KEY, "portal classic home portfolio");
+      context.setValueFor(WSRPPortletURL.URLContext.NAMESPACE, "wsrp_3f8a_portfolio");
+      context.setValueFor(WSRPPortletURL.URLContext.REGISTRATION_HANDLE, "a3f8c2e1");
+
+      request = createRequest(encode());
+   }
+
+   /** Encodes a resource URL pointing at the producer resource servlet. */
+   @Benchmark
+   public URL encode()
+   {
+      return ResourceServingUtil.encode(org.gatein.pc.api.Mode.VIEW, WindowState.NORMAL, false, NAVIGATIONAL_STATE,
+         RESOURCE_STATE, RESOURCE_ID, CacheLevel.PAGE, context);
+   }
+
+   /** Decodes a request for a resource URL into a GetResource request. */
+   @Benchmark
+   public GetResource decode()
+   {
+      return ResourceServingUtil.decode(request);
+   }
+
+   /**
+    * Creates a request matching what the resource servlet would receive for the specified URL. Only the methods
+    * ResourceServingUtil uses are implemented.
+    */
+   private static HttpServletRequest createRequest(URL url) throws UnsupportedEncodingException
+   {
+      final String path = url.getPath();
+      final String pathInfo = path.substring(path.indexOf("/resource/") + "/resource".length());
+      final Map<String, String> parameters = new HashMap<String, String>();
+      for (String parameter : url.getQuery().split("&"))
+      {
+         final int equals = parameter.indexOf('=');
+         // the servlet container decodes parameter values
+         parameters.put(parameter.substring(0, equals), URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+      }
+      final Locale[] locales = new Locale[]{Locale.ENGLISH, Locale.FRENCH};
+
+      return (HttpServletRequest)Proxy.newProxyInstance(ResourceServingBenchmark.class.getClassLoader(), new Class[]{HttpServletRequest.class}, new InvocationHandler()
+      {
+         public Object invoke(Object proxy, Method method, Object[] args)
+         {
+            final String name = method.getName();
+            if ("getPathInfo".equals(name))
+            {
+               return pathInfo;
+            }
+            else if ("getParameter".equals(name))
+            {
+               return parameters.get((String)args[0]);
+            }
+            else if ("getLocales".equals(name))
+            {
+               return Collections.enumeration(Arrays.asList(locales));
+            }
+            else if ("isSecure".equals(name))
+            {
+               return Boolean.FALSE;
+            }
+            throw new UnsupportedOperationException(name);
+         }
+      });
+   }
+}
@@ -0,0 +1,163 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer.handlers;
+
+import org.gatein.common.net.media.MediaType;
+import org.gatein.pc.api.ActionURL;
+import org.gatein.pc.api.ContainerURL;
+import org.gatein.pc.api.PortletContext;
+import org.gatein.pc.api.ResourceURL;
+import org.gatein.pc.api.StateString;
+import org.gatein.pc.api.URLFormat;
+import org.gatein.pc.portlet.impl.spi.AbstractPortletInvocationContext;
+import org.gatein.wsrp.WSRPConsumer;
+import org.gatein.wsrp.benchmarks.MarkupCorpus;
+import org.gatein.wsrp.consumer.ProducerInfo;
+import org.gatein.wsrp.consumer.WSRPConsumerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of rewriting the markup sent by remote portlets, i.e. replacing WSRP URLs by portal URLs and
+ * namespacing tokens, as the consumer does for each markup or resource requiring rewriting. Lives in the handlers
+ * package to access {@link MimeResponseHandler#processMarkup(String, String, org.gatein.pc.api.spi.PortletInvocationContext,
+ * PortletContext, URLFormat, WSRPConsumer)} directly.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MarkupRewritingBenchmark
+{
+   private static final String NAMESPACE = "wsrp_3f8a_portfolio";
+   private static final PortletContext TARGET = PortletContext.createPortletContext("/portfolio.PortfolioPortlet", false);
+   private static final URLFormat FORMAT = new URLFormat(false, false, true, true);
+
+   /** Markup sample to rewrite, see {@link MarkupCorpus}. */
+   @Param({"form", "table", "javascript", "static"})
+   public String corpus;
+
+   /** Minimum size of the markup to rewrite. */
+   @Param({"4096", "65536"})
+   public int markupSize;
+
+   private String markup;
+   private WSRPConsumer consumer;
+   private BenchmarkInvocationContext context;
+
+   @Setup
+   public void setUp()
+   {
+      markup = MarkupCorpus.load(corpus, markupSize);
+      consumer = new WSRPConsumerImpl(new ProducerInfo(null));
+      context = new BenchmarkInvocationContext();
+   }
+
+   @Benchmark
+   public String processMarkup()
+   {
+      return MimeResponseHandler.processMarkup(markup, NAMESPACE, context, TARGET, FORMAT, consumer);
+   }
+
+   /** Renders portal URLs similar to what the portal would output. */
+   private static class BenchmarkInvocationContext extends AbstractPortletInvocationContext
+   {
+      private BenchmarkInvocationContext()
+      {
+         super(MediaType.TEXT_HTML);
+      }
+
+      public HttpServletRequest getClientRequest()
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      public HttpServletResponse getClientResponse()
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      public String encodeResourceURL(String url)
+      {
+         return url;
+      }
+
+      public String renderURL(ContainerURL containerURL, URLFormat format)
+      {
+         final String amp = format.getWantEscapeXML() ? "&amp;" : "&";
+         final StringBuilder url = new StringBuilder(128).append("/portal/classic/home?portal:componentId=").append(NAMESPACE);
+         if (containerURL instanceof ActionURL)
+         {
+            url.append(amp).append("portal:type=action");
+            appendState(url, amp, "interactionstate", ((ActionURL)containerURL).getInteractionState());
+         }
+         else if (containerURL instanceof ResourceURL)
+         {
+            url.append(amp).append("portal:type=serveResource").append(amp).append("portal:resourceID=")
+               .append(((ResourceURL)containerURL).getResourceId());
+         }
+         else
+         {
+            url.append(amp).append("portal:type=render");
+         }
+
+         appendState(url, amp, "navigationalstate", containerURL.getNavigationalState());
+         if (containerURL.getMode() != null)
+         {
+            url.append(amp).append("portal:portletMode=").append(containerURL.getMode());
+         }
+         if (containerURL.getWindowState() != null)
+         {
+            url.append(amp).append("portal:windowState=").append(containerURL.getWindowState());
+         }
+         return url.toString();
+      }
+
+      private static void appendState(StringBuilder url, String amp, String name, StateString state)
+      {
+         if (state != null)
+         {
+            url.append(amp).append(name).append('=').append(state.getStringValue());
+         }
+      }
+   }
+}
@@ -0,0 +1,298 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2012, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+
+package org.gatein.wsrp;
+
+import org.gatein.common.net.URLTools;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Makes the server-relative URLs (i.e. starting with a single <code>/</code>) found in <code>href</code>,
+ * <code>src</code>, <code>action</code> and <code>location</code> attributes of markup absolute by prepending the
+ * server address. This does the same work as {@link URLTools#replaceURLsBy(String,
+ * org.gatein.common.net.URLTools.URLReplacementGenerator)} with a {@link WSRPUtils.AbsoluteURLReplacementGenerator}
+ * but in a single pass without regular expressions, without copying the markup at all if it doesn't contain any URL
+ * to rewrite and without decoding binary markup.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class AbsoluteURLRewriter
+{
+   private static final String REQUEST_ATTRIBUTE = AbsoluteURLRewriter.class.getName();
+   private static final String[] ATTRIBUTES = {"href", "src", "action", "location"};
+   private static final String ASCII_PROBE = "\"'=/" + Arrays.toString(ATTRIBUTES);
+   private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+   private final String serverAddress;
+   private final byte[] serverAddressBytes;
+
+   public AbsoluteURLRewriter(String serverAddress)
+   {
+      this.serverAddress = serverAddress;
+      this.serverAddressBytes = serverAddress.getBytes(US_ASCII);
+   }
+
+   /**
+    * Retrieves the rewriter associated with the specified request, creating it if needed, so that the server address
+    * is only computed once per request.
+    *
+    * @param request the request for which we want a rewriter
+    * @return the rewriter associated with the specified request
+    */
+   public static AbsoluteURLRewriter getFor(HttpServletRequest request)
+   {
+      AbsoluteURLRewriter rewriter = (AbsoluteURLRewriter)request.getAttribute(REQUEST_ATTRIBUTE);
+      if (rewriter == null)
+      {
+         rewriter = new AbsoluteURLRewriter(URLTools.getServerAddressFrom(request));
+         request.setAttribute(REQUEST_ATTRIBUTE, rewriter);
+      }
+      return rewriter;
+   }
+
+   public String getServerAddress()
+   {
+      return serverAddress;
+   }
+
+   /**
+    * Rewrites the specified markup.
+    *
+    * @param markup the markup to rewrite
+    * @return the rewritten markup or the specified markup itself if it didn't contain any URL to rewrite
+    */
+   public String rewrite(String markup)
+   {
+      // fast path: all URLs to rewrite start with a quote directly followed by a slash
+      if (markup == null || (markup.indexOf("\"/") < 0 && markup.indexOf("'/") < 0))
+      {
+         return markup;
+      }
+
+      final int[] url = new int[2];
+      int copied = 0;
+      StringBuilder result = null;
+      while (findNextURLToRewrite(markup, url[1], url))
+      {
+         if (result == null)
+         {
+            result = new StringBuilder(markup.length() + 4 * serverAddress.length());
+         }
+         result.append(markup, copied, url[0]).append(serverAddress);
+         copied = url[0];
+      }
+
+      if (result == null)
+      {
+         return markup;
+      }
+
+      result.append(markup, copied, markup.length());
+      return result.toString();
+   }
+
+   /**
+    * Rewrites the specified binary markup, encoded using the specified charset, without decoding it. Markup encoded
+    * with a charset that doesn't encode ASCII characters the same way as ASCII (e.g. UTF-16) is returned as is.
+    *
+    * @param markup  the markup to rewrite
+    * @param charset the name of the charset used to encode the markup
+    * @return the rewritten markup or the specified markup itself if it didn't contain any URL to rewrite
+    */
+   public byte[] rewrite(byte[] markup, String charset)
+   {
+      if (markup == null || !isASCIICompatible(charset))
+      {
+         return markup;
+      }
+
+      final CharSequence chars = new ASCIISequence(markup);
+      final int[] url = new int[2];
+      int copied = 0;
+      ByteArrayOutputStream result = null;
+      while (findNextURLToRewrite(chars, url[1], url))
+      {
+         if (result == null)
+         {
+            result = new ByteArrayOutputStream(markup.length + 4 * serverAddressBytes.length);
+         }
+         result.write(markup, copied, url[0] - copied);
+         result.write(serverAddressBytes, 0, serverAddressBytes.length);
+         copied = url[0];
+      }
+
+      if (result == null)
+      {
+         return markup;
+      }
+
+      result.write(markup, copied, markup.length - copied);
+      return result.toByteArray();
+   }
+
+   /**
+    * Looks for the next attribute value, starting at the specified index, that is a server-relative URL.
+    *
+    * @param markup the markup to look into
+    * @param from   the index to start looking at
+    * @param url    array in which the start and end indices (exclusive) of the URL are recorded if one is found
+    * @return <code>true</code> if a URL to rewrite was found, <code>false</code> otherwise
+    */
+   static boolean findNextURLToRewrite(CharSequence markup, int from, int[] url)
+   {
+      final int length = markup.length();
+      for (int i = from; i < length - 1; i++)
+      {
+         // only consider quotes opening an attribute value, closing quotes (e.g. followed by "/>") are ignored
+         final char quote = markup.charAt(i);
+         if ((quote != '"' && quote != '\'') || !isPrecededByEqualSign(markup, i))
+         {
+            continue;
+         }
+
+         // find the closing quote, if there isn't any, we're done
+         int end = i + 1;
+         while (end < length && markup.charAt(end) != quote)
+         {
+            end++;
+         }
+         if (end == length)
+         {
+            return false;
+         }
+
+         // only server-relative URLs need rewriting, network-path references (//host/path) are already absolute
+         final boolean isServerRelativeURL = i + 1 < end && markup.charAt(i + 1) == '/' && (i + 2 == end || markup.charAt(i + 2) != '/');
+         if (isServerRelativeURL && isPrecededByRewritableAttribute(markup, i))
+         {
+            url[0] = i + 1;
+            url[1] = end;
+            return true;
+         }
+
+         // skip the attribute value so that quotes it contains aren't mistaken for opening ones
+         i = end;
+      }
+
+      return false;
+   }
+
+   private static boolean isPrecededByEqualSign(CharSequence markup, int quoteIndex)
+   {
+      final int i = skipWhitespaceBackwards(markup, quoteIndex - 1);
+      return i >= 0 && markup.charAt(i) == '=';
+   }
+
+   private static boolean isPrecededByRewritableAttribute(CharSequence markup, int quoteIndex)
+   {
+      // skip whitespace between the equal sign and the quote, then between the attribute name and the equal sign
+      int i = skipWhitespaceBackwards(markup, quoteIndex - 1);
+      i = skipWhitespaceBackwards(markup, i - 1);
+
+      for (String attribute : ATTRIBUTES)
+      {
+         final int start = i - attribute.length() + 1;
+         if (start >= 0 && regionMatchesIgnoreCase(markup, start, attribute) && isAttributeNameStart(markup, start))
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /** Makes sure we matched a whole attribute name and not the end of another one (e.g. <code>data-src</code>). */
+   private static boolean isAttributeNameStart(CharSequence markup, int start)
+   {
+      if (start == 0)
+      {
+         return true;
+      }
+      final char previous = markup.charAt(start - 1);
+      return Character.isWhitespace(previous) || previous == '<';
+   }
+
+   private static int skipWhitespaceBackwards(CharSequence markup, int i)
+   {
+      while (i >= 0 && Character.isWhitespace(markup.charAt(i)))
+      {
+         i--;
+      }
+      return i;
+   }
+
+   private static boolean regionMatchesIgnoreCase(CharSequence markup, int start, String attribute)
+   {
+      for (int j = 0; j < attribute.length(); j++)
+      {
+         if (Character.toLowerCase(markup.charAt(start + j)) != attribute.charAt(j))
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static boolean isASCIICompatible(String charset)
+   {
+      try
+      {
+         return Arrays.equals(ASCII_PROBE.getBytes(US_ASCII), ASCII_PROBE.getBytes(charset));
+      }
+      catch (Exception e)
+      {
+         // unknown charset
+         return false;
+      }
+   }
+
+   /** Views bytes as ISO-8859-1 characters so that ASCII characters can be matched without decoding the bytes. */
+   private static class ASCIISequence implements CharSequence
+   {
+      private final byte[] bytes;
+
+      private ASCIISequence(byte[] bytes)
+      {
+         this.bytes = bytes;
+      }
+
+      public int length()
+      {
+         return bytes.length;
+      }
+
+      public char charAt(int index)
+      {
+         return (char)(bytes[index] & 0xFF);
+      }
+
+      public CharSequence subSequence(int start, int end)
+      {
+         return new String(bytes, start, end - start, US_ASCII);
+      }
+   }
+}
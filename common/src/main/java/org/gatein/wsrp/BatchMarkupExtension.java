@@ -0,0 +1,284 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2012, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+
+package org.gatein.wsrp;
+
+import org.gatein.common.util.ParameterValidation;
+import org.gatein.wsrp.payload.PayloadUtils;
+import org.oasis.wsrp.v2.Extension;
+import org.oasis.wsrp.v2.ExtensionDescription;
+import org.oasis.wsrp.v2.GetMarkup;
+import org.oasis.wsrp.v2.MarkupResponse;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * GateIn-specific WSRP extension allowing a consumer to render several portlets of the same producer using a single
+ * <code>getMarkup</code> call. Additional <code>GetMarkup</code> requests are carried in an extension of the
+ * <code>MarkupParams</code> of the actual request and the producer sends the associated <code>MarkupResponse</code>s
+ * back in an extension of its response, in the same order. Producers supporting the extension advertise it in the
+ * <code>extensionDescriptions</code> of their service description: consumers must not use it with other producers.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class BatchMarkupExtension
+{
+   public static final String NAMESPACE = "urn:gatein:wsrp:extensions:batchMarkup";
+   public static final QName NAME = new QName(NAMESPACE, "batchMarkup");
+
+   private static final String PREFIX = "gtnbm:";
+   private static final String REQUESTS = "getMarkups";
+   private static final String RESPONSES = "markupResponses";
+   private static final QName GET_MARKUP = new QName(NAMESPACE, "getMarkup");
+   private static final QName MARKUP_RESPONSE = new QName(NAMESPACE, "markupResponse");
+   private static final String FAILURE = "failure";
+
+   private static final JAXBContext CONTEXT;
+
+   static
+   {
+      try
+      {
+         CONTEXT = JAXBContext.newInstance(GetMarkup.class, MarkupResponse.class);
+      }
+      catch (JAXBException e)
+      {
+         throw new RuntimeException("Couldn't initialize JAXB context for batch markup extension", e);
+      }
+   }
+
+   private BatchMarkupExtension()
+   {
+   }
+
+   public static ExtensionDescription createExtensionDescription()
+   {
+      ExtensionDescription description = new ExtensionDescription();
+      description.setName(NAME);
+      description.setDescription(WSRPTypeFactory.createLocalizedString("Allows rendering several portlets in a single getMarkup call"));
+      return description;
+   }
+
+   /**
+    * Determines whether the batch markup extension is part of the specified extension descriptions, as advertised by a
+    * producer.
+    *
+    * @param extensionDescriptions the extension descriptions found in a producer's service description
+    * @return <code>true</code> if the producer supports the batch markup extension
+    */
+   public static boolean isAdvertisedIn(List<ExtensionDescription> extensionDescriptions)
+   {
+      if (extensionDescriptions != null)
+      {
+         for (ExtensionDescription description : extensionDescriptions)
+         {
+            if (NAME.equals(description.getName()))
+            {
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Creates the extension carrying the specified requests that need to be processed along with the request the
+    * extension will be attached to.
+    *
+    * @param requests the batched requests
+    * @return an extension to add to the <code>MarkupParams</code> of the main request
+    */
+   public static Extension createRequestExtension(List<GetMarkup> requests)
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(requests, "batched requests");
+
+      Element batch = PayloadUtils.createElement(NAMESPACE, PREFIX + REQUESTS);
+      try
+      {
+         Marshaller marshaller = CONTEXT.createMarshaller();
+         for (GetMarkup request : requests)
+         {
+            marshaller.marshal(new JAXBElement<GetMarkup>(GET_MARKUP, GetMarkup.class, request), batch);
+         }
+      }
+      catch (JAXBException e)
+      {
+         throw new IllegalArgumentException("Couldn't marshall batched requests", e);
+      }
+
+      return WSRPTypeFactory.createExtension(batch);
+   }
+
+   /**
+    * Extracts the batched requests found in the specified extensions, removing the associated extension.
+    *
+    * @param extensions the extensions of the main request's <code>MarkupParams</code>
+    * @return the batched requests or <code>null</code> if the extensions didn't contain any
+    */
+   public static List<GetMarkup> removeBatchedRequests(List<Extension> extensions)
+   {
+      Element batch = remove(extensions, REQUESTS);
+      if (batch == null)
+      {
+         return null;
+      }
+
+      List<GetMarkup> requests = new ArrayList<GetMarkup>();
+      try
+      {
+         Unmarshaller unmarshaller = CONTEXT.createUnmarshaller();
+         for (Element child : children(batch))
+         {
+            requests.add(unmarshaller.unmarshal(child, GetMarkup.class).getValue());
+         }
+      }
+      catch (JAXBException e)
+      {
+         throw new IllegalArgumentException("Couldn't unmarshall batched requests", e);
+      }
+      return requests;
+   }
+
+   /**
+    * Creates the extension carrying the responses to batched requests.
+    *
+    * @param responses the responses, in the same order as the batched requests, <code>null</code> indicating that the
+    *                  associated request failed and should be performed again on its own to get the proper error
+    * @return an extension to add to the main request's response
+    */
+   public static Extension createResponseExtension(List<MarkupResponse> responses)
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(responses, "batched responses");
+
+      Element batch = PayloadUtils.createElement(NAMESPACE, PREFIX + RESPONSES);
+      try
+      {
+         Marshaller marshaller = CONTEXT.createMarshaller();
+         for (MarkupResponse response : responses)
+         {
+            if (response != null)
+            {
+               marshaller.marshal(new JAXBElement<MarkupResponse>(MARKUP_RESPONSE, MarkupResponse.class, response), batch);
+            }
+            else
+            {
+               batch.appendChild(batch.getOwnerDocument().createElementNS(NAMESPACE, PREFIX + FAILURE));
+            }
+         }
+      }
+      catch (JAXBException e)
+      {
+         throw new IllegalArgumentException("Couldn't marshall batched responses", e);
+      }
+
+      return WSRPTypeFactory.createExtension(batch);
+   }
+
+   /**
+    * Extracts the responses to batched requests found in the specified extensions, removing the associated extension.
+    *
+    * @param extensions the extensions of the main response
+    * @return the responses to the batched requests, <code>null</code> elements indicating failed requests, or
+    *         <code>null</code> if the extensions didn't contain any batched responses
+    */
+   public static List<MarkupResponse> removeBatchedResponses(List<Extension> extensions)
+   {
+      Element batch = remove(extensions, RESPONSES);
+      if (batch == null)
+      {
+         return null;
+      }
+
+      List<MarkupResponse> responses = new ArrayList<MarkupResponse>();
+      try
+      {
+         Unmarshaller unmarshaller = CONTEXT.createUnmarshaller();
+         for (Element child : children(batch))
+         {
+            if (FAILURE.equals(child.getLocalName()))
+            {
+               responses.add(null);
+            }
+            else
+            {
+               responses.add(unmarshaller.unmarshal(child, MarkupResponse.class).getValue());
+            }
+         }
+      }
+      catch (JAXBException e)
+      {
+         throw new IllegalArgumentException("Couldn't unmarshall batched responses", e);
+      }
+      return responses;
+   }
+
+   private static Element remove(List<Extension> extensions, String name)
+   {
+      if (extensions == null || extensions.isEmpty())
+      {
+         return null;
+      }
+
+      for (Iterator<Extension> iterator = extensions.iterator(); iterator.hasNext(); )
+      {
+         Object any = iterator.next().getAny();
+         if (any instanceof Element)
+         {
+            Element element = (Element)any;
+            if (NAMESPACE.equals(element.getNamespaceURI()) && name.equals(element.getLocalName()))
+            {
+               iterator.remove();
+               return element;
+            }
+         }
+      }
+      return null;
+   }
+
+   private static List<Element> children(Element element)
+   {
+      NodeList nodes = element.getChildNodes();
+      List<Element> children = new ArrayList<Element>(nodes.getLength());
+      for (int i = 0; i < nodes.getLength(); i++)
+      {
+         Node node = nodes.item(i);
+         if (node instanceof Element)
+         {
+            children.add((Element)node);
+         }
+      }
+      return children;
+   }
+}
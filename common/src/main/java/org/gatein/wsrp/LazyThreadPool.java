@@ -0,0 +1,110 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2012, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.gatein.wsrp;
+
+import org.gatein.common.util.ParameterValidation;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed-size pool of daemon threads which is only created when first needed and can be shut down when its owner is
+ * stopped. A new pool is created if the pool is used again after having been shut down, so that owners can be
+ * restarted.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class LazyThreadPool
+{
+   private final String name;
+   private final int size;
+   private volatile ExecutorService executor;
+
+   /**
+    * @param name the name of the pool, used as prefix for the names of its threads
+    * @param size the number of threads of the pool
+    */
+   public LazyThreadPool(String name, int size)
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNullOrEmpty(name, "name", null);
+      this.name = name;
+      this.size = Math.max(1, size);
+   }
+
+   public int getSize()
+   {
+      return size;
+   }
+
+   /**
+    * Retrieves the pool, creating it if needed.
+    *
+    * @return the ExecutorService backing this pool
+    */
+   public ExecutorService getExecutor()
+   {
+      ExecutorService result = executor;
+      if (result == null)
+      {
+         synchronized (this)
+         {
+            result = executor;
+            if (result == null)
+            {
+               result = Executors.newFixedThreadPool(size, new ThreadFactory()
+               {
+                  private final AtomicInteger count = new AtomicInteger();
+
+                  public Thread newThread(Runnable runnable)
+                  {
+                     Thread thread = new Thread(runnable, name + " " + count.incrementAndGet());
+                     thread.setDaemon(true);
+                     return thread;
+                  }
+               });
+               executor = result;
+            }
+         }
+      }
+      return result;
+   }
+
+   /** Shuts the pool down, if it was created, letting the already submitted tasks complete. */
+   public void shutdown()
+   {
+      final ExecutorService toShutdown;
+      synchronized (this)
+      {
+         toShutdown = executor;
+         executor = null;
+      }
+
+      if (toShutdown != null)
+      {
+         toShutdown.shutdown();
+      }
+   }
+}
@@ -24,7 +24,6 @@
 package org.gatein.wsrp;
 
 import com.google.common.base.Function;
-import com.google.common.collect.Lists;
 import org.gatein.common.i18n.LocaleFormat;
 import org.gatein.common.net.URLTools;
 import org.gatein.common.util.ConversionException;
@@ -520,13 +519,20 @@ public class WSRPUtils
    }
 
    /**
+    * Eagerly applies the specified function to each element of the specified list. Contrary to {@link
+    * com.google.common.collect.Lists#transform(java.util.List, com.google.common.base.Function)}, the conversion is
+    * only performed once per element, regardless of how many times the resulting list is iterated over (JAXB, for
+    * example, walks lists several times when marshalling). Empty lists are all mapped to the same immutable empty list
+    * so that no allocation happens in the common case where there is nothing to convert.
+    *
     * Todo: Should be moved to common module?
     *
-    * @param fromList
-    * @param function
-    * @param <F>
-    * @param <T>
-    * @return
+    * @param fromList the list to convert, might be <code>null</code>
+    * @param function the conversion function
+    * @param <F>      the type of the elements in the original list
+    * @param <T>      the type of the converted elements
+    * @return a new, pre-sized list containing the converted elements, an immutable empty list if the specified list was
+    *         empty or <code>null</code> if the specified list was <code>null</code>
     */
    public static <F, T> List<T> transform(List<F> fromList, Function<? super F, ? extends T> function)
    {
@@ -536,7 +542,51 @@ public class WSRPUtils
       }
       else
       {
-         return Lists.transform(fromList, function);
+         final int size = fromList.size();
+         if (size == 0)
+         {
+            return Collections.emptyList();
+         }
+
+         List<T> result = new ArrayList<T>(size);
+         for (F from : fromList)
+         {
+            result.add(function.apply(from));
+         }
+         return result;
+      }
+   }
+
+   /**
+    * Eagerly applies the specified function to each element of the specified list, adding the converted elements
+    * directly to the specified target list, thus avoiding the creation of an intermediate list as would happen when
+    * calling <code>toList.addAll(transform(fromList, function))</code>.
+    *
+    * @param fromList the list to convert, might be <code>null</code> in which case nothing happens
+    * @param function the conversion function
+    * @param toList   the list to which converted elements are added
+    * @param <F>      the type of the elements in the original list
+    * @param <T>      the type of the converted elements
+    */
+   public static <F, T> void transformInto(List<F> fromList, Function<? super F, ? extends T> function, List<? super T> toList)
+   {
+      if (fromList != null)
+      {
+         final int size = fromList.size();
+         if (size == 0)
+         {
+            return;
+         }
+
+         if (toList instanceof ArrayList)
+         {
+            ((ArrayList)toList).ensureCapacity(toList.size() + size);
+         }
+
+         for (F from : fromList)
+         {
+            toList.add(function.apply(from));
+         }
       }
    }
 
@@ -0,0 +1,94 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram using exponentially growing buckets: bucket <code>i</code> counts the durations in
+ * microseconds lower than <code>2^i</code> and greater or equal to <code>2^(i-1)</code>, the last bucket counting all
+ * the durations above about a minute. Percentiles are thus estimated with a precision of a factor 2 at most, which is
+ * enough to spot latency problems while only costing an atomic increment per recorded duration.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class LatencyHistogram
+{
+   private static final int BUCKETS = 27;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+   public void record(long nanos)
+   {
+      final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+      final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+      counts.incrementAndGet(bucket);
+   }
+
+   /**
+    * Estimates the specified percentile of the recorded durations.
+    *
+    * @param percentile the percentile to estimate, between 0 and 1
+    * @return the upper bound, in milliseconds, of the bucket containing the specified percentile or <code>0</code> if
+    *         no duration was recorded
+    */
+   public double getPercentileMillis(double percentile)
+   {
+      final long[] snapshot = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         snapshot[i] = counts.get(i);
+         total += snapshot[i];
+      }
+
+      if (total == 0)
+      {
+         return 0;
+      }
+
+      final long rank = Math.max(1, (long)Math.ceil(percentile * total));
+      long cumulated = 0;
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         cumulated += snapshot[i];
+         if (cumulated >= rank)
+         {
+            return (1L << i) / 1000d;
+         }
+      }
+
+      return (1L << (BUCKETS - 1)) / 1000d;
+   }
+
+   public void reset()
+   {
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         counts.set(i, 0);
+      }
+   }
+}
@@ -0,0 +1,140 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the metrics of a single WSRP operation.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class OperationMetrics
+{
+   private final String operation;
+   private final AtomicLong invocations = new AtomicLong();
+   private final AtomicLong errors = new AtomicLong();
+   private final AtomicInteger inFlight = new AtomicInteger();
+   private final AtomicLong totalNanos = new AtomicLong();
+   private final AtomicLong maxNanos = new AtomicLong();
+   private final LatencyHistogram latencies = new LatencyHistogram();
+   private final ConcurrentMap<String, AtomicLong> faults = new ConcurrentHashMap<String, AtomicLong>();
+   private final AtomicLong requestSizes = new AtomicLong();
+   private final AtomicLong responseSizes = new AtomicLong();
+   private final AtomicLong maxResponseSize = new AtomicLong();
+
+   public OperationMetrics(String operation)
+   {
+      this.operation = operation;
+   }
+
+   public void started()
+   {
+      inFlight.incrementAndGet();
+   }
+
+   public void ended(long nanos, String fault, long requestSize, long responseSize)
+   {
+      inFlight.decrementAndGet();
+      invocations.incrementAndGet();
+      totalNanos.addAndGet(nanos);
+      updateMax(maxNanos, nanos);
+      latencies.record(nanos);
+      requestSizes.addAndGet(requestSize);
+      responseSizes.addAndGet(responseSize);
+      updateMax(maxResponseSize, responseSize);
+
+      if (fault != null)
+      {
+         errors.incrementAndGet();
+         AtomicLong count = faults.get(fault);
+         if (count == null)
+         {
+            AtomicLong newCount = new AtomicLong();
+            count = faults.putIfAbsent(fault, newCount);
+            if (count == null)
+            {
+               count = newCount;
+            }
+         }
+         count.incrementAndGet();
+      }
+   }
+
+   private static void updateMax(AtomicLong max, long value)
+   {
+      long current = max.get();
+      while (value > current && !max.compareAndSet(current, value))
+      {
+         current = max.get();
+      }
+   }
+
+   public int getInFlight()
+   {
+      return inFlight.get();
+   }
+
+   public OperationStatistics getStatistics()
+   {
+      final long count = invocations.get();
+      final Map<String, Long> faultCounts = new HashMap<String, Long>(faults.size());
+      for (Map.Entry<String, AtomicLong> entry : faults.entrySet())
+      {
+         faultCounts.put(entry.getKey(), entry.getValue().get());
+      }
+
+      return new OperationStatistics(operation, count, errors.get(), inFlight.get(),
+         count == 0 ? 0 : toMillis(totalNanos.get()) / count, toMillis(maxNanos.get()),
+         latencies.getPercentileMillis(0.5), latencies.getPercentileMillis(0.95), latencies.getPercentileMillis(0.99),
+         faultCounts, count == 0 ? 0 : requestSizes.get() / count, count == 0 ? 0 : responseSizes.get() / count,
+         maxResponseSize.get());
+   }
+
+   public static double toMillis(long nanos)
+   {
+      return nanos / (double)TimeUnit.MILLISECONDS.toNanos(1);
+   }
+
+   /** Resets all the metrics but the in-flight count since the invocations being processed will still complete. */
+   public void reset()
+   {
+      invocations.set(0);
+      errors.set(0);
+      totalNanos.set(0);
+      maxNanos.set(0);
+      latencies.reset();
+      faults.clear();
+      requestSizes.set(0);
+      responseSizes.set(0);
+      maxResponseSize.set(0);
+   }
+}
@@ -0,0 +1,158 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.metrics;
+
+import java.beans.ConstructorProperties;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * A snapshot of the metrics recorded for a given WSRP operation, as published over JMX by both the producer and the
+ * consumers. Payload sizes only account for the portlet data carried by the messages (portlet states, markup and
+ * resources, exported portlets) and are expressed in bytes or characters.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class OperationStatistics
+{
+   /** Orders statistics so that the most invoked operations come first. */
+   public static final Comparator<OperationStatistics> BY_INVOCATION_COUNT = new Comparator<OperationStatistics>()
+   {
+      public int compare(OperationStatistics o1, OperationStatistics o2)
+      {
+         final long count1 = o1.getInvocationCount();
+         final long count2 = o2.getInvocationCount();
+         return count1 < count2 ? 1 : (count1 == count2 ? 0 : -1);
+      }
+   };
+
+   private final String operation;
+   private final long invocationCount;
+   private final long errorCount;
+   private final int inFlight;
+   private final double meanLatencyMillis;
+   private final double maxLatencyMillis;
+   private final double medianLatencyMillis;
+   private final double percentile95LatencyMillis;
+   private final double percentile99LatencyMillis;
+   private final Map<String, Long> errorCountsByFault;
+   private final long meanRequestSize;
+   private final long meanResponseSize;
+   private final long maxResponseSize;
+
+   @ConstructorProperties({"operation", "invocationCount", "errorCount", "inFlight", "meanLatencyMillis",
+      "maxLatencyMillis", "medianLatencyMillis", "percentile95LatencyMillis", "percentile99LatencyMillis",
+      "errorCountsByFault", "meanRequestSize", "meanResponseSize", "maxResponseSize"})
+   public OperationStatistics(String operation, long invocationCount, long errorCount, int inFlight,
+                              double meanLatencyMillis, double maxLatencyMillis, double medianLatencyMillis,
+                              double percentile95LatencyMillis, double percentile99LatencyMillis,
+                              Map<String, Long> errorCountsByFault, long meanRequestSize, long meanResponseSize,
+                              long maxResponseSize)
+   {
+      this.operation = operation;
+      this.invocationCount = invocationCount;
+      this.errorCount = errorCount;
+      this.inFlight = inFlight;
+      this.meanLatencyMillis = meanLatencyMillis;
+      this.maxLatencyMillis = maxLatencyMillis;
+      this.medianLatencyMillis = medianLatencyMillis;
+      this.percentile95LatencyMillis = percentile95LatencyMillis;
+      this.percentile99LatencyMillis = percentile99LatencyMillis;
+      this.errorCountsByFault = errorCountsByFault;
+      this.meanRequestSize = meanRequestSize;
+      this.meanResponseSize = meanResponseSize;
+      this.maxResponseSize = maxResponseSize;
+   }
+
+   /** @return the name of the WSRP operation, e.g. <code>getMarkup</code> */
+   public String getOperation()
+   {
+      return operation;
+   }
+
+   /** @return the number of completed invocations */
+   public long getInvocationCount()
+   {
+      return invocationCount;
+   }
+
+   /** @return the number of invocations which resulted in a fault */
+   public long getErrorCount()
+   {
+      return errorCount;
+   }
+
+   /** @return the number of invocations currently being processed */
+   public int getInFlight()
+   {
+      return inFlight;
+   }
+
+   public double getMeanLatencyMillis()
+   {
+      return meanLatencyMillis;
+   }
+
+   public double getMaxLatencyMillis()
+   {
+      return maxLatencyMillis;
+   }
+
+   public double getMedianLatencyMillis()
+   {
+      return medianLatencyMillis;
+   }
+
+   public double getPercentile95LatencyMillis()
+   {
+      return percentile95LatencyMillis;
+   }
+
+   public double getPercentile99LatencyMillis()
+   {
+      return percentile99LatencyMillis;
+   }
+
+   /** @return the number of faults, indexed by the simple name of the fault class (e.g. <code>InvalidHandle</code>) */
+   public Map<String, Long> getErrorCountsByFault()
+   {
+      return errorCountsByFault;
+   }
+
+   public long getMeanRequestSize()
+   {
+      return meanRequestSize;
+   }
+
+   public long getMeanResponseSize()
+   {
+      return meanResponseSize;
+   }
+
+   public long getMaxResponseSize()
+   {
+      return maxResponseSize;
+   }
+}
@@ -24,7 +24,6 @@
 package org.gatein.wsrp.spec.v1;
 
 import com.google.common.base.Function;
-import com.google.common.collect.Lists;
 import org.gatein.common.util.ParameterValidation;
 import org.gatein.pc.api.OpaqueStateString;
 import org.gatein.pc.portlet.impl.jsr168.PortletUtils;
@@ -197,11 +196,7 @@ public class V1ToV2Converter
             markupParams.getValidNewWindowStates().addAll(validNewWindowStates);
          }
 
-         List<Extension> extensions = WSRPUtils.transform(v1MarkupParams.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            markupParams.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(v1MarkupParams.getExtensions(), EXTENSION, markupParams.getExtensions());
          return markupParams;
       }
       else
@@ -219,7 +214,7 @@ public class V1ToV2Converter
          List<V1Extension> extensions = v1ClientData.getExtensions();
          if (extensions != null)
          {
-            clientData.getExtensions().addAll(Lists.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, clientData.getExtensions());
          }
 
          return clientData;
@@ -239,7 +234,7 @@ public class V1ToV2Converter
          List<V1Extension> extensions = v1PortletContext.getExtensions();
          if (extensions != null)
          {
-            portletContext.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, portletContext.getExtensions());
          }
 
          return portletContext;
@@ -256,11 +251,7 @@ public class V1ToV2Converter
       {
          RegistrationContext result = WSRPTypeFactory.createRegistrationContext(registrationContext.getRegistrationHandle());
          result.setRegistrationState(registrationContext.getRegistrationState());
-         List<Extension> extensions = WSRPUtils.transform(registrationContext.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(registrationContext.getExtensions(), EXTENSION, result.getExtensions());
 
          return result;
       }
@@ -304,7 +295,7 @@ public class V1ToV2Converter
          List<V1Extension> extensions = v1RuntimeContext.getExtensions();
          if (extensions != null)
          {
-            runtimeContext.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, runtimeContext.getExtensions());
          }
 
          return runtimeContext;
@@ -332,7 +323,7 @@ public class V1ToV2Converter
          List<V1Extension> extensions = v1Templates.getExtensions();
          if (extensions != null)
          {
-            templates.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, templates.getExtensions());
          }
 
          return templates;
@@ -353,7 +344,7 @@ public class V1ToV2Converter
          List<V1Extension> extensions = v1UserContext.getExtensions();
          if (extensions != null)
          {
-            userContext.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, userContext.getExtensions());
          }
 
          if (v1UserContext.getUserCategories() != null)
@@ -401,7 +392,7 @@ public class V1ToV2Converter
          List<V1Extension> extensions = v1EmployerInfo.getExtensions();
          if (extensions != null)
          {
-            employerInfo.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, employerInfo.getExtensions());
          }
 
          return employerInfo;
@@ -421,7 +412,7 @@ public class V1ToV2Converter
          List<V1Extension> extensions = v1PersonName.getExtensions();
          if (extensions != null)
          {
-            personName.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, personName.getExtensions());
          }
 
          return personName;
@@ -444,7 +435,7 @@ public class V1ToV2Converter
          List<V1Extension> extensions = v1Contact.getExtensions();
          if (extensions != null)
          {
-            contact.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, contact.getExtensions());
          }
 
          return contact;
@@ -464,7 +455,7 @@ public class V1ToV2Converter
          List<V1Extension> extensions = v1Online.getExtensions();
          if (extensions != null)
          {
-            online.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, online.getExtensions());
          }
 
          return online;
@@ -484,7 +475,7 @@ public class V1ToV2Converter
          List<V1Extension> extensions = v1Postal.getExtensions();
          if (extensions != null)
          {
-            postal.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, postal.getExtensions());
          }
 
          return postal;
@@ -508,7 +499,7 @@ public class V1ToV2Converter
          List<V1Extension> extensions = v1Telecom.getExtensions();
          if (extensions != null)
          {
-            telecom.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, telecom.getExtensions());
          }
 
          return telecom;
@@ -533,7 +524,7 @@ public class V1ToV2Converter
          List<V1Extension> extensions = v1TelephoneNum.getExtensions();
          if (extensions != null)
          {
-            telephoneNum.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, telephoneNum.getExtensions());
          }
 
          return telephoneNum;
@@ -576,9 +567,9 @@ public class V1ToV2Converter
       {
          InteractionParams interactionParams = WSRPTypeFactory.createInteractionParams(toV2StateChange(v1InteractionParams.getPortletStateChange()));
          interactionParams.setInteractionState(v1InteractionParams.getInteractionState());
-         interactionParams.getExtensions().addAll(Lists.transform(v1InteractionParams.getExtensions(), EXTENSION));
-         interactionParams.getFormParameters().addAll(Lists.transform(v1InteractionParams.getFormParameters(), NAMEDSTRING));
-         interactionParams.getUploadContexts().addAll(Lists.transform(v1InteractionParams.getUploadContexts(), UPLOADCONTEXT));
+         WSRPUtils.transformInto(v1InteractionParams.getExtensions(), EXTENSION, interactionParams.getExtensions());
+         WSRPUtils.transformInto(v1InteractionParams.getFormParameters(), NAMEDSTRING, interactionParams.getFormParameters());
+         WSRPUtils.transformInto(v1InteractionParams.getUploadContexts(), UPLOADCONTEXT, interactionParams.getUploadContexts());
 
          return interactionParams;
       }
@@ -622,11 +613,7 @@ public class V1ToV2Converter
       if (v1ModelDescription != null)
       {
          ModelDescription result = WSRPTypeFactory.createModelDescription(WSRPUtils.transform(v1ModelDescription.getPropertyDescriptions(), PROPERTYDESCRIPTION));
-         List<Extension> extensions = WSRPUtils.transform(v1ModelDescription.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(v1ModelDescription.getExtensions(), EXTENSION, result.getExtensions());
          result.setModelTypes(toV2ModelTypes(v1ModelDescription.getModelTypes()));
 
          return result;
@@ -658,11 +645,7 @@ public class V1ToV2Converter
          List<Resource> resources = WSRPUtils.transform(v1ResourceList.getResources(), RESOURCE);
          ResourceList result = WSRPTypeFactory.createResourceList(resources);
 
-         List<Extension> extensions = WSRPUtils.transform(v1ResourceList.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(v1ResourceList.getExtensions(), EXTENSION, result.getExtensions());
 
          return result;
       }
@@ -678,23 +661,11 @@ public class V1ToV2Converter
       {
          PropertyList result = WSRPTypeFactory.createPropertyList();
 
-         List<Property> properties = WSRPUtils.transform(v1PropertyList.getProperties(), PROPERTY);
-         if (properties != null)
-         {
-            result.getProperties().addAll(properties);
-         }
+         WSRPUtils.transformInto(v1PropertyList.getProperties(), PROPERTY, result.getProperties());
 
-         List<ResetProperty> resetProperties = WSRPUtils.transform(v1PropertyList.getResetProperties(), RESETPROPERTY);
-         if (resetProperties != null)
-         {
-            result.getResetProperties().addAll(resetProperties);
-         }
+         WSRPUtils.transformInto(v1PropertyList.getResetProperties(), RESETPROPERTY, result.getResetProperties());
 
-         List<Extension> extensions = WSRPUtils.transform(v1PropertyList.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(v1PropertyList.getExtensions(), EXTENSION, result.getExtensions());
 
          return result;
       }
@@ -734,11 +705,7 @@ public class V1ToV2Converter
       {
          RegistrationData result = WSRPTypeFactory.createRegistrationData(registrationData.getConsumerName(), registrationData.getConsumerAgent(), registrationData.isMethodGetSupported());
 
-         List<Property> properties = WSRPUtils.transform(registrationData.getRegistrationProperties(), PROPERTY);
-         if (properties != null)
-         {
-            result.getRegistrationProperties().addAll(properties);
-         }
+         WSRPUtils.transformInto(registrationData.getRegistrationProperties(), PROPERTY, result.getRegistrationProperties());
          List<String> modes = registrationData.getConsumerModes();
          if (ParameterValidation.existsAndIsNotEmpty(modes))
          {
@@ -754,11 +721,7 @@ public class V1ToV2Converter
          {
             result.getConsumerWindowStates().addAll(windowStates);
          }
-         List<Extension> extensions = WSRPUtils.transform(registrationData.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(registrationData.getExtensions(), EXTENSION, result.getExtensions());
 
          return result;
       }
@@ -783,7 +746,7 @@ public class V1ToV2Converter
          List<V1Extension> extensions = v1MarkupContext.getExtensions();
          if (extensions != null)
          {
-            result.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, result.getExtensions());
          }
 
          return result;
@@ -804,7 +767,7 @@ public class V1ToV2Converter
          List<V1Extension> extensions = v1CacheControl.getExtensions();
          if (extensions != null)
          {
-            result.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, result.getExtensions());
          }
 
          return result;
@@ -820,7 +783,7 @@ public class V1ToV2Converter
       if (sessionContext != null)
       {
          SessionContext result = WSRPTypeFactory.createSessionContext(sessionContext.getSessionID(), sessionContext.getExpires());
-         result.getExtensions().addAll(Lists.transform(sessionContext.getExtensions(), EXTENSION));
+         WSRPUtils.transformInto(sessionContext.getExtensions(), EXTENSION, result.getExtensions());
 
          return result;
       }
@@ -1084,16 +1047,8 @@ public class V1ToV2Converter
                WSRPUtils.transform(from.getMarkupTypes(), MARKUPTYPE));
             result.setDescription(LOCALIZEDSTRING.apply(from.getDescription()));
             result.setDisplayName(LOCALIZEDSTRING.apply(from.getDisplayName()));
-            List<Extension> extensions = WSRPUtils.transform(from.getExtensions(), EXTENSION);
-            if (extensions != null)
-            {
-               result.getExtensions().addAll(extensions);
-            }
-            List<LocalizedString> keywords = WSRPUtils.transform(from.getKeywords(), LOCALIZEDSTRING);
-            if (keywords != null)
-            {
-               result.getKeywords().addAll(keywords);
-            }
+            WSRPUtils.transformInto(from.getExtensions(), EXTENSION, result.getExtensions());
+            WSRPUtils.transformInto(from.getKeywords(), LOCALIZEDSTRING, result.getKeywords());
             List<String> userCategories = from.getUserCategories();
             if (userCategories != null)
             {
@@ -1133,11 +1088,7 @@ public class V1ToV2Converter
          {
             LocalizedString description = LOCALIZEDSTRING.apply(from.getDescription());
             ItemDescription result = WSRPTypeFactory.createItemDescription(description, null, from.getItemName());
-            List<Extension> extensions = WSRPUtils.transform(from.getExtensions(), EXTENSION);
-            if (extensions != null)
-            {
-               result.getExtensions().addAll(extensions);
-            }
+            WSRPUtils.transformInto(from.getExtensions(), EXTENSION, result.getExtensions());
             return result;
          }
          else
@@ -1170,8 +1121,8 @@ public class V1ToV2Converter
          if (v1UploadContext != null)
          {
             UploadContext result = WSRPTypeFactory.createUploadContext(v1UploadContext.getMimeType(), v1UploadContext.getUploadData());
-            result.getExtensions().addAll(Lists.transform(v1UploadContext.getExtensions(), EXTENSION));
-            result.getMimeAttributes().addAll(Lists.transform(v1UploadContext.getMimeAttributes(), NAMEDSTRING));
+            WSRPUtils.transformInto(v1UploadContext.getExtensions(), EXTENSION, result.getExtensions());
+            WSRPUtils.transformInto(v1UploadContext.getMimeAttributes(), NAMEDSTRING, result.getMimeAttributes());
 
             return result;
          }
@@ -1191,11 +1142,7 @@ public class V1ToV2Converter
          if (from != null)
          {
             MarkupType result = WSRPTypeFactory.createMarkupType(from.getMimeType(), from.getModes(), from.getWindowStates(), from.getLocales());
-            List<Extension> extensions = WSRPUtils.transform(from.getExtensions(), EXTENSION);
-            if (extensions != null)
-            {
-               result.getExtensions().addAll(extensions);
-            }
+            WSRPUtils.transformInto(from.getExtensions(), EXTENSION, result.getExtensions());
 
             return result;
          }
@@ -1248,11 +1195,7 @@ public class V1ToV2Converter
          {
             ResourceValue result = WSRPTypeFactory.createResourceValue(from.getLang(), from.getValue());
             
-            List<Extension> extensions = WSRPUtils.transform(from.getExtensions(), EXTENSION);
-            if (extensions != null)
-            {
-               result.getExtensions().addAll(extensions);
-            }
+            WSRPUtils.transformInto(from.getExtensions(), EXTENSION, result.getExtensions());
 
             return result;
          }
@@ -1272,11 +1215,7 @@ public class V1ToV2Converter
             PropertyDescription result = WSRPTypeFactory.createPropertyDescription(from.getName(), from.getType());
             result.setHint(toV2LocalizedString(from.getHint()));
             result.setLabel(toV2LocalizedString(from.getLabel()));
-            List<Extension> extensions = WSRPUtils.transform(from.getExtensions(), EXTENSION);
-            if (extensions != null)
-            {
-               result.getExtensions().addAll(extensions);
-            }
+            WSRPUtils.transformInto(from.getExtensions(), EXTENSION, result.getExtensions());
 
             return result;
          }
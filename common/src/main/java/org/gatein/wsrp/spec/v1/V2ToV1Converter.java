@@ -24,7 +24,6 @@
 package org.gatein.wsrp.spec.v1;
 
 import com.google.common.base.Function;
-import com.google.common.collect.Lists;
 import org.gatein.common.util.ParameterValidation;
 import org.gatein.wsrp.WSRPUtils;
 import org.oasis.wsrp.v1.V1BlockingInteractionResponse;
@@ -158,11 +157,7 @@ public class V2ToV1Converter
       {
          V1PortletContext v1PortletContext = WSRP1TypeFactory.createPortletContext(portletContext.getPortletHandle(), portletContext.getPortletState());
 
-         List<V1Extension> extensions = WSRPUtils.transform(portletContext.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            v1PortletContext.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(portletContext.getExtensions(), EXTENSION, v1PortletContext.getExtensions());
 
          return v1PortletContext;
       }
@@ -205,11 +200,7 @@ public class V2ToV1Converter
             v1MarkupParams.getValidNewWindowStates().addAll(validNewWindowStates);
          }
 
-         List<V1Extension> extensions = WSRPUtils.transform(markupParams.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            v1MarkupParams.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(markupParams.getExtensions(), EXTENSION, v1MarkupParams.getExtensions());
 
          return v1MarkupParams;
       }
@@ -228,7 +219,7 @@ public class V2ToV1Converter
          List<Extension> extensions = clientData.getExtensions();
          if (extensions != null)
          {
-            v1ClientData.getExtensions().addAll(Lists.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, v1ClientData.getExtensions());
          }
 
          return v1ClientData;
@@ -256,7 +247,7 @@ public class V2ToV1Converter
          List<Extension> extensions = runtimeContext.getExtensions();
          if (extensions != null)
          {
-            v1RuntimeContext.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, v1RuntimeContext.getExtensions());
          }
 
          return v1RuntimeContext;
@@ -284,7 +275,7 @@ public class V2ToV1Converter
          List<Extension> extensions = templates.getExtensions();
          if (extensions != null)
          {
-            v1Templates.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, v1Templates.getExtensions());
          }
 
          return v1Templates;
@@ -306,7 +297,7 @@ public class V2ToV1Converter
          List<Extension> extensions = userContext.getExtensions();
          if (extensions != null)
          {
-            v1UserContext.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, v1UserContext.getExtensions());
          }
 
          if (userContext.getUserCategories() != null)
@@ -354,7 +345,7 @@ public class V2ToV1Converter
          List<Extension> extensions = employerInfo.getExtensions();
          if (extensions != null)
          {
-            v1EmployerInfo.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, v1EmployerInfo.getExtensions());
          }
 
          return v1EmployerInfo;
@@ -380,7 +371,7 @@ public class V2ToV1Converter
          List<Extension> extensions = personName.getExtensions();
          if (extensions != null)
          {
-            v1PersonName.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, v1PersonName.getExtensions());
          }
 
          return v1PersonName;
@@ -403,7 +394,7 @@ public class V2ToV1Converter
          List<Extension> extensions = contact.getExtensions();
          if (extensions != null)
          {
-            v1Contact.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, v1Contact.getExtensions());
          }
 
          return v1Contact;
@@ -425,7 +416,7 @@ public class V2ToV1Converter
          List<Extension> extensions = online.getExtensions();
          if (extensions != null)
          {
-            v1Online.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, v1Online.getExtensions());
          }
 
          return v1Online;
@@ -452,7 +443,7 @@ public class V2ToV1Converter
          List<Extension> extensions = postal.getExtensions();
          if (extensions != null)
          {
-            v1Postal.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, v1Postal.getExtensions());
          }
 
          return v1Postal;
@@ -476,7 +467,7 @@ public class V2ToV1Converter
          List<Extension> extensions = telecom.getExtensions();
          if (extensions != null)
          {
-            v1Telecom.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, v1Telecom.getExtensions());
          }
 
          return v1Telecom;
@@ -501,7 +492,7 @@ public class V2ToV1Converter
          List<Extension> extensions = telephoneNum.getExtensions();
          if (extensions != null)
          {
-            v1TelephoneNum.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, v1TelephoneNum.getExtensions());
          }
 
          return v1TelephoneNum;
@@ -525,7 +516,7 @@ public class V2ToV1Converter
          List<Extension> extensions = markupContext.getExtensions();
          if (extensions != null)
          {
-            v1MarkupContext.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, v1MarkupContext.getExtensions());
          }
 
          return v1MarkupContext;
@@ -546,7 +537,7 @@ public class V2ToV1Converter
          List<Extension> extensions = cacheControl.getExtensions();
          if (extensions != null)
          {
-            v1CacheControl.getExtensions().addAll(WSRPUtils.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, v1CacheControl.getExtensions());
          }
 
          return v1CacheControl;
@@ -563,11 +554,7 @@ public class V2ToV1Converter
       {
          V1RegistrationContext result = WSRP1TypeFactory.createRegistrationContext(registrationContext.getRegistrationHandle());
          result.setRegistrationState(registrationContext.getRegistrationState());
-         List<V1Extension> extensions = WSRPUtils.transform(registrationContext.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(registrationContext.getExtensions(), EXTENSION, result.getExtensions());
          return result;
       }
       else
@@ -618,11 +605,7 @@ public class V2ToV1Converter
       if (modelDescription != null)
       {
          V1ModelDescription result = WSRP1TypeFactory.createModelDescription(WSRPUtils.transform(modelDescription.getPropertyDescriptions(), PROPERTYDESCRIPTION));
-         List<V1Extension> extensions = WSRPUtils.transform(modelDescription.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(modelDescription.getExtensions(), EXTENSION, result.getExtensions());
          result.setModelTypes(toV1ModelTypes(modelDescription.getModelTypes()));
 
          return result;
@@ -652,16 +635,8 @@ public class V2ToV1Converter
       if (resourceList != null)
       {
          V1ResourceList result = new V1ResourceList();
-         List<V1Extension> extensions = WSRPUtils.transform(resourceList.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
-         List<V1Resource> v1Resources = WSRPUtils.transform(resourceList.getResources(), RESOURCE);
-         if (v1Resources != null)
-         {
-            result.getResources().addAll(v1Resources);
-         }
+         WSRPUtils.transformInto(resourceList.getExtensions(), EXTENSION, result.getExtensions());
+         WSRPUtils.transformInto(resourceList.getResources(), RESOURCE, result.getResources());
          return result;
       }
       else
@@ -680,19 +655,19 @@ public class V2ToV1Converter
          List<Extension> extensions = interactionParams.getExtensions();
          if (extensions != null)
          {
-            v1InteractionParams.getExtensions().addAll(Lists.transform(extensions, EXTENSION));
+            WSRPUtils.transformInto(extensions, EXTENSION, v1InteractionParams.getExtensions());
          }
 
          List<NamedString> formParameters = interactionParams.getFormParameters();
          if (formParameters != null)
          {
-            v1InteractionParams.getFormParameters().addAll(Lists.transform(formParameters, NAMEDSTRING));
+            WSRPUtils.transformInto(formParameters, NAMEDSTRING, v1InteractionParams.getFormParameters());
          }
 
          List<UploadContext> uploadContext = interactionParams.getUploadContexts();
          if (uploadContext != null)
          {
-            v1InteractionParams.getUploadContexts().addAll(Lists.transform(uploadContext, UPLOADCONTEXT));
+            WSRPUtils.transformInto(uploadContext, UPLOADCONTEXT, v1InteractionParams.getUploadContexts());
          }
 
          return v1InteractionParams;
@@ -745,7 +720,7 @@ public class V2ToV1Converter
       if (sessionContext != null && !ParameterValidation.isNullOrEmpty(sessionContext.getSessionID()))
       {
          V1SessionContext v1SessionContext = WSRP1TypeFactory.createSessionContext(sessionContext.getSessionID(), sessionContext.getExpires());
-         v1SessionContext.getExtensions().addAll(Lists.transform(sessionContext.getExtensions(), EXTENSION));
+         WSRPUtils.transformInto(sessionContext.getExtensions(), EXTENSION, v1SessionContext.getExtensions());
 
          return v1SessionContext;
       }
@@ -804,23 +779,11 @@ public class V2ToV1Converter
       {
          V1PropertyList result = new V1PropertyList();
 
-         List<V1Property> properties = WSRPUtils.transform(propertyList.getProperties(), PROPERTY);
-         if (properties != null)
-         {
-            result.getProperties().addAll(properties);
-         }
+         WSRPUtils.transformInto(propertyList.getProperties(), PROPERTY, result.getProperties());
 
-         List<V1ResetProperty> resetProperties = WSRPUtils.transform(propertyList.getResetProperties(), RESETPROPERTY);
-         if (resetProperties != null)
-         {
-            result.getResetProperties().addAll(resetProperties);
-         }
+         WSRPUtils.transformInto(propertyList.getResetProperties(), RESETPROPERTY, result.getResetProperties());
 
-         List<V1Extension> extensions = WSRPUtils.transform(propertyList.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(propertyList.getExtensions(), EXTENSION, result.getExtensions());
 
          return result;
       }
@@ -837,11 +800,7 @@ public class V2ToV1Converter
          V1RegistrationData result = WSRP1TypeFactory.createRegistrationData(registrationData.getConsumerName(), registrationData.isMethodGetSupported());
          result.setConsumerAgent(registrationData.getConsumerAgent());
 
-         List<V1Property> properties = WSRPUtils.transform(registrationData.getRegistrationProperties(), PROPERTY);
-         if (properties != null)
-         {
-            result.getRegistrationProperties().addAll(properties);
-         }
+         WSRPUtils.transformInto(registrationData.getRegistrationProperties(), PROPERTY, result.getRegistrationProperties());
          List<String> modes = registrationData.getConsumerModes();
          if (ParameterValidation.existsAndIsNotEmpty(modes))
          {
@@ -857,11 +816,7 @@ public class V2ToV1Converter
          {
             result.getConsumerWindowStates().addAll(windowStates);
          }
-         List<V1Extension> extensions = WSRPUtils.transform(registrationData.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(registrationData.getExtensions(), EXTENSION, result.getExtensions());
 
          return result;
       }
@@ -881,23 +836,11 @@ public class V2ToV1Converter
          result.setRequiresRegistration(serviceDescription.isRequiresRegistration());
          result.setResourceList(toV1ResourceList(serviceDescription.getResourceList()));
 
-         List<V1ItemDescription> modes = WSRPUtils.transform(serviceDescription.getCustomModeDescriptions(), ITEMDESCRIPTION);
-         if (modes != null)
-         {
-            result.getCustomModeDescriptions().addAll(modes);
-         }
+         WSRPUtils.transformInto(serviceDescription.getCustomModeDescriptions(), ITEMDESCRIPTION, result.getCustomModeDescriptions());
 
-         List<V1ItemDescription> windowStates = WSRPUtils.transform(serviceDescription.getCustomWindowStateDescriptions(), ITEMDESCRIPTION);
-         if (windowStates != null)
-         {
-            result.getCustomWindowStateDescriptions().addAll(windowStates);
-         }
+         WSRPUtils.transformInto(serviceDescription.getCustomWindowStateDescriptions(), ITEMDESCRIPTION, result.getCustomWindowStateDescriptions());
 
-         List<V1Extension> extensions = WSRPUtils.transform(serviceDescription.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(serviceDescription.getExtensions(), EXTENSION, result.getExtensions());
 
          List<String> locales = result.getLocales();
          if (ParameterValidation.existsAndIsNotEmpty(locales))
@@ -905,17 +848,9 @@ public class V2ToV1Converter
             result.getLocales().addAll(locales);
          }
 
-         List<V1ItemDescription> userCategories = WSRPUtils.transform(serviceDescription.getUserCategoryDescriptions(), ITEMDESCRIPTION);
-         if (userCategories != null)
-         {
-            result.getUserCategoryDescriptions().addAll(userCategories);
-         }
+         WSRPUtils.transformInto(serviceDescription.getUserCategoryDescriptions(), ITEMDESCRIPTION, result.getUserCategoryDescriptions());
 
-         List<V1PortletDescription> portletDescriptions = WSRPUtils.transform(serviceDescription.getOfferedPortlets(), PORTLETDESCRIPTION);
-         if (portletDescriptions != null)
-         {
-            result.getOfferedPortlets().addAll(portletDescriptions);
-         }
+         WSRPUtils.transformInto(serviceDescription.getOfferedPortlets(), PORTLETDESCRIPTION, result.getOfferedPortlets());
 
          return result;
       }
@@ -932,11 +867,7 @@ public class V2ToV1Converter
          V1MarkupResponse result = WSRP1TypeFactory.createMarkupResponse(toV1MarkupContext(markupResponse.getMarkupContext()));
          result.setSessionContext(toV1SessionContext(markupResponse.getSessionContext()));
 
-         List<V1Extension> extensions = WSRPUtils.transform(markupResponse.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(markupResponse.getExtensions(), EXTENSION, result.getExtensions());
 
          return result;
       }
@@ -952,11 +883,7 @@ public class V2ToV1Converter
       {
          V1ReturnAny result = new V1ReturnAny();
 
-         List<V1Extension> extensions = WSRPUtils.transform(returnAny.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(returnAny.getExtensions(), EXTENSION, result.getExtensions());
 
          return result;
       }
@@ -973,11 +900,7 @@ public class V2ToV1Converter
          V1RegistrationState result = new V1RegistrationState();
          result.setRegistrationState(registrationState.getRegistrationState());
 
-         List<V1Extension> extensions = WSRPUtils.transform(registrationState.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(registrationState.getExtensions(), EXTENSION, result.getExtensions());
 
          return result;
       }
@@ -1003,11 +926,7 @@ public class V2ToV1Converter
             result = WSRP1TypeFactory.createBlockingInteractionResponse(updateResponse);
          }
 
-         List<V1Extension> extensions = WSRPUtils.transform(blockingInteractionResponse.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(blockingInteractionResponse.getExtensions(), EXTENSION, result.getExtensions());
 
          return result;
       }
@@ -1025,11 +944,7 @@ public class V2ToV1Converter
          List<V1DestroyFailed> destroyedFailed = WSRPUtils.transform(destroyPortletResponse.getFailedPortlets(), FAILEDPORTLET);
          V1DestroyPortletsResponse result = WSRP1TypeFactory.createDestroyPortletsResponse(destroyedFailed);
 
-         List<V1Extension> extensions = WSRPUtils.transform(destroyPortletResponse.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(destroyPortletResponse.getExtensions(), EXTENSION, result.getExtensions());
 
          return result;
       }
@@ -1048,11 +963,7 @@ public class V2ToV1Converter
          result.setModelDescription(toV1ModelDescription(portletPropertyDescriptionResponse.getModelDescription()));
          result.setResourceList(toV1ResourceList(portletPropertyDescriptionResponse.getResourceList()));
 
-         List<V1Extension> extensions = WSRPUtils.transform(portletPropertyDescriptionResponse.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(portletPropertyDescriptionResponse.getExtensions(), EXTENSION, result.getExtensions());
 
          return result;
       }
@@ -1069,11 +980,7 @@ public class V2ToV1Converter
          V1PortletDescriptionResponse result = WSRP1TypeFactory.createPortletDescriptionResponse(toV1PortletDescription(portletDescriptionResponse.getPortletDescription()));
          result.setResourceList(toV1ResourceList(portletDescriptionResponse.getResourceList()));
 
-         List<V1Extension> extensions = WSRPUtils.transform(portletDescriptionResponse.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(portletDescriptionResponse.getExtensions(), EXTENSION, result.getExtensions());
 
          return result;
       }
@@ -1090,11 +997,7 @@ public class V2ToV1Converter
          V1PropertyDescription result = WSRP1TypeFactory.createPropertyDescription(propertyDescription.getName().toString(), propertyDescription.getType());
          result.setHint(toV1LocalizedString(propertyDescription.getHint()));
          result.setLabel(toV1LocalizedString(propertyDescription.getLabel()));
-         List<V1Extension> extensions = WSRPUtils.transform(propertyDescription.getExtensions(), EXTENSION);
-         if (extensions != null)
-         {
-            result.getExtensions().addAll(extensions);
-         }
+         WSRPUtils.transformInto(propertyDescription.getExtensions(), EXTENSION, result.getExtensions());
 
          return result;
       }
@@ -1132,16 +1035,8 @@ public class V2ToV1Converter
                WSRPUtils.transform(from.getMarkupTypes(), MARKUPTYPE));
             result.setDescription(LOCALIZEDSTRING.apply(from.getDescription()));
             result.setDisplayName(LOCALIZEDSTRING.apply(from.getDisplayName()));
-            List<V1Extension> extensions = WSRPUtils.transform(from.getExtensions(), EXTENSION);
-            if (extensions != null)
-            {
-               result.getExtensions().addAll(extensions);
-            }
-            List<V1LocalizedString> keywords = WSRPUtils.transform(from.getKeywords(), LOCALIZEDSTRING);
-            if (keywords != null)
-            {
-               result.getKeywords().addAll(keywords);
-            }
+            WSRPUtils.transformInto(from.getExtensions(), EXTENSION, result.getExtensions());
+            WSRPUtils.transformInto(from.getKeywords(), LOCALIZEDSTRING, result.getKeywords());
             List<String> userCategories = from.getUserCategories();
             if (userCategories != null)
             {
@@ -1193,11 +1088,7 @@ public class V2ToV1Converter
             {
                result.setDescription(WSRP1TypeFactory.createLocalizedString("No Description Available"));
             }
-            List<V1Extension> extensions = WSRPUtils.transform(from.getExtensions(), EXTENSION);
-            if (extensions != null)
-            {
-               result.getExtensions().addAll(extensions);
-            }
+            WSRPUtils.transformInto(from.getExtensions(), EXTENSION, result.getExtensions());
             return result;
          }
          else
@@ -1247,13 +1138,13 @@ public class V2ToV1Converter
             List<Extension> extensions = uploadContext.getExtensions();
             if (extensions != null)
             {
-               result.getExtensions().addAll(Lists.transform(extensions, EXTENSION));
+               WSRPUtils.transformInto(extensions, EXTENSION, result.getExtensions());
             }
 
             List<NamedString> mimeAttributes = uploadContext.getMimeAttributes();
             if (mimeAttributes != null)
             {
-               result.getMimeAttributes().addAll(Lists.transform(mimeAttributes, NAMEDSTRING));
+               WSRPUtils.transformInto(mimeAttributes, NAMEDSTRING, result.getMimeAttributes());
             }
 
             return result;
@@ -1274,11 +1165,7 @@ public class V2ToV1Converter
          if (from != null)
          {
             V1MarkupType result = WSRP1TypeFactory.createMarkupType(from.getMimeType(), from.getModes(), from.getWindowStates(), from.getLocales());
-            List<V1Extension> extensions = WSRPUtils.transform(from.getExtensions(), EXTENSION);
-            if (extensions != null)
-            {
-               result.getExtensions().addAll(extensions);
-            }
+            WSRPUtils.transformInto(from.getExtensions(), EXTENSION, result.getExtensions());
 
             return result;
          }
@@ -1323,11 +1210,7 @@ public class V2ToV1Converter
          {
             V1Resource result = new V1Resource();
             result.setResourceName(from.getResourceName());
-            List<V1ResourceValue> values = WSRPUtils.transform(from.getValues(), RESOURCEVALUE);
-            if (values != null)
-            {
-               result.getValues().addAll(values);
-            }
+            WSRPUtils.transformInto(from.getValues(), RESOURCEVALUE, result.getValues());
 
             return result;
          }
@@ -1348,11 +1231,7 @@ public class V2ToV1Converter
             V1ResourceValue result = new V1ResourceValue();
             result.setLang(from.getLang());
             result.setValue(from.getValue());
-            List<V1Extension> extensions = WSRPUtils.transform(from.getExtensions(), EXTENSION);
-            if (extensions != null)
-            {
-               result.getExtensions().addAll(extensions);
-            }
+            WSRPUtils.transformInto(from.getExtensions(), EXTENSION, result.getExtensions());
 
             return result;
          }
@@ -0,0 +1,99 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp;
+
+import junit.framework.TestCase;
+import org.gatein.common.net.URLTools;
+import org.gatein.wsrp.test.support.MockHttpServletRequest;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class AbsoluteURLRewriterTestCase extends TestCase
+{
+   private static final String SERVER = "http://example.com:8080";
+   private AbsoluteURLRewriter rewriter = new AbsoluteURLRewriter(SERVER);
+
+   public void testNothingToRewriteReturnsSameInstance()
+   {
+      String markup = "<a href='foo'>link</a><img src=\"http://other.com/img.png\"/><a href=\"//cdn.com/x\">cdn</a>";
+      assertSame(markup, rewriter.rewrite(markup));
+
+      byte[] bytes = markup.getBytes();
+      assertSame(bytes, rewriter.rewrite(bytes, "UTF-8"));
+   }
+
+   public void testRewrite()
+   {
+      String markup = "<a HREF = '/foo'>link</a> <img src=\"/img.png\"/> <form action=\"/submit\"></form> <p title=\"/notAURL\">text</p>";
+      String expected = "<a HREF = '" + SERVER + "/foo'>link</a> <img src=\"" + SERVER + "/img.png\"/> <form action=\"" + SERVER + "/submit\"></form> <p title=\"/notAURL\">text</p>";
+      assertEquals(expected, rewriter.rewrite(markup));
+   }
+
+   public void testAttributesEndingWithRewritableNameAreNotRewritten()
+   {
+      String markup = "<img data-src=\"/lazy.png\"/><a xhref='/foo'>link</a><form data-action=\"/submit\"></form>";
+      assertSame(markup, rewriter.rewrite(markup));
+
+      markup = "<img data-src=\"/lazy.png\"\tsrc=\"/img.png\"/>";
+      String expected = "<img data-src=\"/lazy.png\"\tsrc=\"" + SERVER + "/img.png\"/>";
+      assertEquals(expected, rewriter.rewrite(markup));
+   }
+
+   public void testAttributeAtStartOfMarkupIsRewritten()
+   {
+      assertEquals("href=\"" + SERVER + "/foo\"", rewriter.rewrite("href=\"/foo\""));
+   }
+
+   public void testWSRPEncodedURLIsNotRewritten()
+   {
+      String markup = "<a href=\"wsrp_rewrite?wsrp-urlType=blockingAction&amp;wsrp-interactionState=JBPNS_/wsrp_rewrite\">link</a>";
+      assertSame(markup, rewriter.rewrite(markup));
+   }
+
+   public void testRewriteBytes() throws Exception
+   {
+      String markup = "<p>\u00e9t\u00e9</p><a href=\"/foo\">\u00e9</a>";
+      String expected = "<p>\u00e9t\u00e9</p><a href=\"" + SERVER + "/foo\">\u00e9</a>";
+      assertEquals(expected, new String(rewriter.rewrite(markup.getBytes("UTF-8"), "UTF-8"), "UTF-8"));
+
+      // UTF-16 markup cannot be rewritten without decoding it so it's left as is
+      byte[] utf16 = markup.getBytes("UTF-16");
+      assertSame(utf16, rewriter.rewrite(utf16, "UTF-16"));
+   }
+
+   public void testSameAsReplacementGenerator()
+   {
+      HttpServletRequest request = MockHttpServletRequest.createMockRequest(null);
+      String markup = "<a href=\"/foo\">link</a><img src='/bar.png'/>";
+      String expected = URLTools.replaceURLsBy(markup, new WSRPUtils.AbsoluteURLReplacementGenerator(request));
+      assertEquals(expected, AbsoluteURLRewriter.getFor(request).rewrite(markup));
+
+      // the rewriter is reused for the same request
+      assertSame(AbsoluteURLRewriter.getFor(request), AbsoluteURLRewriter.getFor(request));
+   }
+}
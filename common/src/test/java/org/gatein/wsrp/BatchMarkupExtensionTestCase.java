@@ -0,0 +1,96 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp;
+
+import junit.framework.TestCase;
+import org.oasis.wsrp.v2.Extension;
+import org.oasis.wsrp.v2.ExtensionDescription;
+import org.oasis.wsrp.v2.GetMarkup;
+import org.oasis.wsrp.v2.MarkupResponse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class BatchMarkupExtensionTestCase extends TestCase
+{
+   public void testIsAdvertisedIn()
+   {
+      assertFalse(BatchMarkupExtension.isAdvertisedIn(null));
+      assertFalse(BatchMarkupExtension.isAdvertisedIn(Collections.<ExtensionDescription>emptyList()));
+      assertTrue(BatchMarkupExtension.isAdvertisedIn(Collections.singletonList(BatchMarkupExtension.createExtensionDescription())));
+   }
+
+   public void testRequestsRoundTrip()
+   {
+      List<GetMarkup> requests = Arrays.asList(createGetMarkup("portlet1"), createGetMarkup("portlet2"));
+
+      List<Extension> extensions = new ArrayList<Extension>();
+      extensions.add(WSRPTypeFactory.createExtension(WSRPTypeFactory.createNamedString("other", "value")));
+      extensions.add(BatchMarkupExtension.createRequestExtension(requests));
+
+      List<GetMarkup> batched = BatchMarkupExtension.removeBatchedRequests(extensions);
+      assertNotNull(batched);
+      assertEquals(2, batched.size());
+      assertEquals("portlet1", batched.get(0).getPortletContext().getPortletHandle());
+      assertEquals("portlet2", batched.get(1).getPortletContext().getPortletHandle());
+      assertEquals(WSRPConstants.VIEW_MODE, batched.get(1).getMarkupParams().getMode());
+
+      // the batch extension has been removed, other extensions are left untouched
+      assertEquals(1, extensions.size());
+      assertNull(BatchMarkupExtension.removeBatchedRequests(extensions));
+      assertNull(BatchMarkupExtension.removeBatchedRequests(null));
+   }
+
+   public void testResponsesRoundTrip()
+   {
+      List<MarkupResponse> responses = Arrays.asList(
+         WSRPTypeFactory.createMarkupResponse(WSRPTypeFactory.createMarkupContext("text/html", "markup1", null, null)),
+         null,
+         WSRPTypeFactory.createMarkupResponse(WSRPTypeFactory.createMarkupContext("text/html", "markup3", null, null)));
+
+      List<Extension> extensions = new ArrayList<Extension>();
+      extensions.add(BatchMarkupExtension.createResponseExtension(responses));
+
+      List<MarkupResponse> batched = BatchMarkupExtension.removeBatchedResponses(extensions);
+      assertNotNull(batched);
+      assertEquals(3, batched.size());
+      assertEquals("markup1", batched.get(0).getMarkupContext().getItemString());
+      assertNull(batched.get(1));
+      assertEquals("markup3", batched.get(2).getMarkupContext().getItemString());
+      assertTrue(extensions.isEmpty());
+   }
+
+   private GetMarkup createGetMarkup(String handle)
+   {
+      return WSRPTypeFactory.createGetMarkup(null, WSRPTypeFactory.createPortletContext(handle),
+         WSRPTypeFactory.createRuntimeContext(WSRPConstants.NONE_USER_AUTHENTICATION, "instanceKey", "namespace"),
+         null, WSRPTypeFactory.createMarkupParams(false, Collections.singletonList("en"), Collections.singletonList("text/html"), WSRPConstants.VIEW_MODE, WSRPConstants.NORMAL_WINDOW_STATE));
+   }
+}
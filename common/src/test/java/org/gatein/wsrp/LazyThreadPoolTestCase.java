@@ -0,0 +1,61 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2012, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.gatein.wsrp;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class LazyThreadPoolTestCase extends TestCase
+{
+   public void testPoolIsRecreatedAfterShutdown() throws Exception
+   {
+      final LazyThreadPool pool = new LazyThreadPool("test", 2);
+
+      // shutting down a pool that was never used shouldn't fail
+      pool.shutdown();
+
+      final ExecutorService executor = pool.getExecutor();
+      assertSame(executor, pool.getExecutor());
+      assertTrue(executor.submit(new Callable<Boolean>()
+      {
+         public Boolean call() throws Exception
+         {
+            return Thread.currentThread().isDaemon() && Thread.currentThread().getName().startsWith("test ");
+         }
+      }).get());
+
+      pool.shutdown();
+      assertTrue(executor.isShutdown());
+
+      final ExecutorService newExecutor = pool.getExecutor();
+      assertNotSame(executor, newExecutor);
+      assertFalse(newExecutor.isShutdown());
+      pool.shutdown();
+   }
+}
@@ -22,8 +22,14 @@
 
 package org.gatein.wsrp;
 
+import com.google.common.base.Function;
 import junit.framework.TestCase;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /** @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a> */
 public class WSRPUtilsTestCase extends TestCase
 {
@@ -37,4 +43,51 @@ public class WSRPUtilsTestCase extends TestCase
       System.setProperty(WSRPUtils.DEACTIVATE_URL_REWRITING, "true");
       assertFalse(WSRPUtils.getPropertyAccessor(true).isURLRewritingActive());
    }
+
+   public void testTransformIsEager()
+   {
+      final int[] calls = new int[1];
+      Function<String, Integer> length = new Function<String, Integer>()
+      {
+         public Integer apply(String from)
+         {
+            calls[0]++;
+            return from.length();
+         }
+      };
+
+      List<Integer> lengths = WSRPUtils.transform(Arrays.asList("a", "bb", "ccc"), length);
+      assertEquals(3, calls[0]);
+      assertEquals(Arrays.asList(1, 2, 3), lengths);
+
+      // iterating again shouldn't re-apply the function
+      for (Integer ignored : lengths)
+      {
+         // nothing to do
+      }
+      assertEquals(3, calls[0]);
+
+      assertNull(WSRPUtils.transform(null, length));
+      assertSame(Collections.emptyList(), WSRPUtils.transform(Collections.<String>emptyList(), length));
+   }
+
+   public void testTransformInto()
+   {
+      Function<String, Integer> length = new Function<String, Integer>()
+      {
+         public Integer apply(String from)
+         {
+            return from.length();
+         }
+      };
+
+      List<Integer> result = new ArrayList<Integer>();
+      result.add(0);
+      WSRPUtils.transformInto(Arrays.asList("a", "bb"), length, result);
+      assertEquals(Arrays.asList(0, 1, 2), result);
+
+      WSRPUtils.transformInto(null, length, result);
+      WSRPUtils.transformInto(Collections.<String>emptyList(), length, result);
+      assertEquals(3, result.size());
+   }
 }
@@ -30,6 +30,7 @@ import org.gatein.wsrp.api.session.SessionEventListener;
 import org.gatein.wsrp.consumer.ProducerInfo;
 import org.gatein.wsrp.consumer.RefreshResult;
 import org.gatein.wsrp.consumer.handlers.ProducerSessionInformation;
+import org.gatein.wsrp.consumer.metrics.ConsumerMetrics;
 import org.gatein.wsrp.consumer.migration.ExportInfo;
 import org.gatein.wsrp.consumer.migration.ImportInfo;
 import org.gatein.wsrp.consumer.migration.MigrationService;
@@ -153,6 +154,15 @@ public interface WSRPConsumer extends PortletInvoker, SessionEventListener
     */
    ExportInfo exportPortlets(List<String> portletHandles) throws PortletInvokerException;
 
+   /**
+    * Resumes an export operation that was interrupted before all its portlets could be exported.
+    *
+    * @param exportInfo the metadata of the incomplete export operation
+    * @return the updated metadata of the export operation
+    * @throws PortletInvokerException
+    */
+   ExportInfo resumeExport(ExportInfo exportInfo) throws PortletInvokerException;
+
    /**
     * Tells the remote producer that we don't need the data associated with the specified ExportInfo.
     *
@@ -191,4 +201,11 @@ public interface WSRPConsumer extends PortletInvoker, SessionEventListener
     * @return <code>true</code> if this consumer uses WSRP 2, <code>false</code> otherwise
     */
    boolean isUsingWSRP2();
+
+   /**
+    * Retrieves the runtime metrics of the interactions between this consumer and its remote producer.
+    *
+    * @return the metrics recorded by this consumer
+    */
+   ConsumerMetrics getMetrics();
 }
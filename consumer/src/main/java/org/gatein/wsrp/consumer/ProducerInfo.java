@@ -32,10 +32,12 @@ import org.gatein.pc.api.PortletContext;
 import org.gatein.pc.api.PortletInvokerException;
 import org.gatein.pc.api.info.EventInfo;
 import org.gatein.pc.api.info.TypeInfo;
+import org.gatein.wsrp.BatchMarkupExtension;
 import org.gatein.wsrp.SupportsLastModified;
 import org.gatein.wsrp.WSRPConstants;
 import org.gatein.wsrp.WSRPTypeFactory;
 import org.gatein.wsrp.WSRPUtils;
+import org.gatein.wsrp.consumer.metrics.ConsumerMetrics;
 import org.gatein.wsrp.consumer.portlet.WSRPPortlet;
 import org.gatein.wsrp.consumer.portlet.info.WSRPEventInfo;
 import org.gatein.wsrp.consumer.portlet.info.WSRPPortletInfo;
@@ -168,6 +170,12 @@ public class ProducerInfo extends SupportsLastModified
    /** Supported options */
    private transient Set<String> supportedOptions = Collections.emptySet();
 
+   /** Whether the remote producer supports the GateIn batch markup extension */
+   private transient boolean batchMarkupSupported;
+
+   /** The runtime metrics of the interactions with the remote producer */
+   private final transient ConsumerMetrics metrics = new ConsumerMetrics();
+
    /*protected org.oasis.wsrp.v1.ItemDescription[] userCategoryDescriptions;
    protected org.oasis.wsrp.v1.ItemDescription[] customUserProfileItemDescriptions;   
 
@@ -227,6 +235,11 @@ public class ProducerInfo extends SupportsLastModified
       return registry;
    }
 
+   public ConsumerMetrics getMetrics()
+   {
+      return metrics;
+   }
+
    public String getKey()
    {
       return key;
@@ -387,6 +400,10 @@ public class ProducerInfo extends SupportsLastModified
    public RefreshResult detailedRefresh(boolean forceRefresh) throws PortletInvokerException
    {
       RefreshResult result = internalRefresh(forceRefresh);
+      if (!RefreshResult.Status.BYPASSED.equals(result.getStatus()))
+      {
+         metrics.serviceDescriptionRefreshed(RefreshResult.Status.FAILURE.equals(result.getStatus()));
+      }
 
       // if the refresh failed, return immediately
       if (RefreshResult.Status.FAILURE.equals(result.getStatus()))
@@ -561,6 +578,10 @@ public class ProducerInfo extends SupportsLastModified
          this.supportedOptions = new HashSet<String>(supportedOptions);
       }
 
+      // batch markup extension: only usable if cookies don't depend on the portlets being rendered
+      batchMarkupSupported = BatchMarkupExtension.isAdvertisedIn(serviceDescription.getExtensionDescriptions())
+         && !CookieProtocol.PER_GROUP.equals(requiresInitCookie);
+
       // custom mode descriptions
       customModes = toMap(serviceDescription.getCustomModeDescriptions());
 
@@ -758,6 +779,7 @@ public class ProducerInfo extends SupportsLastModified
       // First try caches if caches are still valid or we just refreshed
       Portlet portlet = getPortletFromCaches(portletHandle, justRefreshed);
 
+      metrics.portletLookedUp(portlet != null);
       if (portlet != null) // we had a match in cache, return it
       {
          log.debug("Portlet was cached");
@@ -767,6 +789,7 @@ public class ProducerInfo extends SupportsLastModified
       {
          log.debug("Trying to retrieve portlet via getPortletDescription");
 
+         final ConsumerMetrics.Invocation invocation = metrics.start("getPortletDescription");
          try
          {
             Holder<PortletDescription> descriptionHolder = new Holder<PortletDescription>();
@@ -778,6 +801,7 @@ public class ProducerInfo extends SupportsLastModified
                descriptionHolder,
                new Holder<ResourceList>(),
                new Holder<List<Extension>>());
+            invocation.end(null, 0);
             portlet = createWSRPPortletFromPortletDescription(descriptionHolder.value);
 
             // add the portlet to the CCP cache
@@ -791,10 +815,12 @@ public class ProducerInfo extends SupportsLastModified
          }
          catch (InvalidHandle invalidHandleFault)
          {
+            invocation.end(invalidHandleFault, 0);
             throw new NoSuchPortletException(invalidHandleFault, portletHandle);
          }
          catch (Exception e)
          {
+            invocation.end(e, 0);
             if (canAttemptRecoveryFrom(e))
             {
                return getPortlet(portletContext);
@@ -950,6 +976,7 @@ public class ProducerInfo extends SupportsLastModified
    {
       //todo: might need to implement customization of default service description
       ServiceDescription serviceDescription;
+      final ConsumerMetrics.Invocation invocation = metrics.start("getServiceDescription");
       try
       {
          Holder<Boolean> requiresRegistration = new Holder<Boolean>();
@@ -991,6 +1018,7 @@ public class ProducerInfo extends SupportsLastModified
             exportDescription,
             mayReturnRegistrationState,
             extensions);
+         invocation.end(null, 0);
 
          // TODO: fix-me
          serviceDescription = WSRPTypeFactory.createServiceDescription(requiresRegistration.value);
@@ -1042,6 +1070,7 @@ public class ProducerInfo extends SupportsLastModified
       }
       catch (Exception e)
       {
+         invocation.end(e, 0);
          if (canAttemptRecoveryFrom(e))
          {
             return getUnmanagedServiceDescription(asUnregistered);
@@ -1446,6 +1475,17 @@ public class ProducerInfo extends SupportsLastModified
       }
    }
 
+   /**
+    * Whether the remote producer can render several portlets in a single getMarkup call, see {@link
+    * BatchMarkupExtension}.
+    *
+    * @return <code>true</code> if markup requests can be batched for this producer
+    */
+   public boolean isBatchMarkupSupported()
+   {
+      return batchMarkupSupported;
+   }
+
    public Collection<String> getSupportedOptions()
    {
       return Collections.unmodifiableSet(supportedOptions);
@@ -35,6 +35,7 @@ import org.gatein.pc.api.PortletInvokerException;
 import org.gatein.pc.api.PortletStateType;
 import org.gatein.pc.api.PortletStatus;
 import org.gatein.pc.api.invocation.PortletInvocation;
+import org.gatein.pc.api.invocation.RenderInvocation;
 import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
 import org.gatein.pc.api.spi.UserContext;
 import org.gatein.pc.api.state.DestroyCloneFailure;
@@ -42,21 +43,25 @@ import org.gatein.pc.api.state.PropertyChange;
 import org.gatein.pc.api.state.PropertyMap;
 import org.gatein.pc.portlet.impl.spi.AbstractPortletInvocationContext;
 import org.gatein.pc.portlet.state.SimplePropertyMap;
+import org.gatein.wsrp.LazyThreadPool;
 import org.gatein.wsrp.UserContextConverter;
 import org.gatein.wsrp.WSRPConstants;
 import org.gatein.wsrp.WSRPConsumer;
 import org.gatein.wsrp.WSRPTypeFactory;
 import org.gatein.wsrp.WSRPUtils;
 import org.gatein.wsrp.api.extensions.DefaultConsumerExtensionAccessor;
+import org.gatein.wsrp.api.servlet.ServletAccess;
 import org.gatein.wsrp.api.session.SessionEvent;
 import org.gatein.wsrp.consumer.handlers.InvocationDispatcher;
 import org.gatein.wsrp.consumer.handlers.InvocationHandler;
 import org.gatein.wsrp.consumer.handlers.ProducerSessionInformation;
 import org.gatein.wsrp.consumer.handlers.SessionHandler;
 import org.gatein.wsrp.consumer.handlers.session.SessionRegistry;
+import org.gatein.wsrp.consumer.metrics.ConsumerMetrics;
 import org.gatein.wsrp.consumer.migration.ExportInfo;
 import org.gatein.wsrp.consumer.migration.ImportInfo;
 import org.gatein.wsrp.consumer.migration.MigrationService;
+import org.gatein.wsrp.consumer.migration.PrunableMigrationService;
 import org.gatein.wsrp.consumer.portlet.WSRPPortlet;
 import org.gatein.wsrp.consumer.portlet.info.WSRPPortletInfo;
 import org.gatein.wsrp.consumer.spi.ConsumerRegistrySPI;
@@ -66,6 +71,7 @@ import org.gatein.wsrp.services.PortletManagementService;
 import org.gatein.wsrp.services.RegistrationService;
 import org.gatein.wsrp.services.ServiceDescriptionService;
 import org.gatein.wsrp.servlet.UserAccess;
+import org.gatein.wsrp.spec.v2.ErrorCodes;
 import org.gatein.wsrp.spec.v2.WSRP2Constants;
 import org.oasis.wsrp.v2.ExportedPortlet;
 import org.oasis.wsrp.v2.Extension;
@@ -91,20 +97,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import javax.xml.namespace.QName;
 import javax.xml.ws.Holder;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * WSRPConsumerImpl is in charge of maintaining the consumer's information with respect to its associated producer. This last bit is done using the {@link ProducerInfo} class.
@@ -132,6 +144,9 @@ public class WSRPConsumerImpl implements WSRPConsumerSPI
    /** ServiceDescription-extracted producer metadata and consumer status with it */
    private ProducerInfo producerInfo;
 
+   /** Processes export and import chunks concurrently, its threads being released when this consumer is stopped */
+   private final LazyThreadPool migrationPool = new LazyThreadPool("WSRP consumer migration", MIGRATION_PARALLELISM);
+
    /** A registration data element used to indicate when no registration was required by the producer */
    private static final RegistrationData REGISTRATION_NOT_NEEDED = WSRPTypeFactory.createDefaultRegistrationData();
 
@@ -139,6 +154,18 @@ public class WSRPConsumerImpl implements WSRPConsumerSPI
 
    private static final String PORTLET_INFO_KEY = "wsrp_portlet_info";
 
+   /** System property specifying how many portlets are exported or imported in a single call to the producer. */
+   public static final String MIGRATION_CHUNK_SIZE_PROPERTY = "org.gatein.wsrp.consumer.migrationChunkSize";
+   /**
+    * System property specifying how many export or import chunks can be processed concurrently. Chunks are processed
+    * sequentially, on the calling thread, by default. Processing them concurrently requires making the current
+    * HttpServletRequest available to the worker threads so that credentials and user context can be propagated to the
+    * producer, which containers don't necessarily support since requests are not meant to be accessed concurrently.
+    */
+   public static final String MIGRATION_PARALLELISM_PROPERTY = "org.gatein.wsrp.consumer.migrationParallelism";
+   private static final int MIGRATION_CHUNK_SIZE = Math.max(1, Integer.getInteger(MIGRATION_CHUNK_SIZE_PROPERTY, 50));
+   private static final int MIGRATION_PARALLELISM = Math.max(1, Integer.getInteger(MIGRATION_PARALLELISM_PROPERTY, 1));
+
    static
    {
       REGISTRATION_NOT_NEEDED.setConsumerAgent("INVALID AGENT");
@@ -177,6 +204,11 @@ public class WSRPConsumerImpl implements WSRPConsumerSPI
       return producerInfo;
    }
 
+   public ConsumerMetrics getMetrics()
+   {
+      return producerInfo.getMetrics();
+   }
+
    // PortletInvoker implementation ************************************************************************************
 
    public Set<Portlet> getPortlets() throws InvokerUnavailableException
@@ -230,6 +262,35 @@ public class WSRPConsumerImpl implements WSRPConsumerSPI
       return response;
    }
 
+   /**
+    * Renders the specified portlets, using a single getMarkup call if the producer supports the {@link
+    * org.gatein.wsrp.BatchMarkupExtension}, performing each invocation individually otherwise. Nothing in WSRP itself
+    * calls this method: it is meant to be used by portals which aggregate several portlets from the same producer on a
+    * page and can therefore gather their render invocations.
+    *
+    * @param invocations the render invocations to perform
+    * @return the responses associated with the specified invocations, in the same order
+    * @throws PortletInvokerException
+    */
+   public List<PortletInvocationResponse> invokeAll(List<RenderInvocation> invocations) throws PortletInvokerException
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(invocations, "render invocations");
+
+      if (invocations.size() > 1 && isUsingWSRP2() && producerInfo.isBatchMarkupSupported())
+      {
+         // failed batched renders are already performed again individually by RenderHandler.handleBatch, which takes
+         // care of recoverable errors, so don't retry them here
+         return dispatcher.dispatchAndHandleRenders(invocations);
+      }
+
+      final List<PortletInvocationResponse> responses = new ArrayList<PortletInvocationResponse>(invocations.size());
+      for (RenderInvocation invocation : invocations)
+      {
+         responses.add(invoke(invocation));
+      }
+      return responses;
+   }
+
    public PortletContext createClone(PortletStateType stateType, PortletContext portletContext) throws IllegalArgumentException, PortletInvokerException, UnsupportedOperationException
    {
       ParameterValidation.throwIllegalArgExceptionIfNull(portletContext, "PortletContext");
@@ -668,6 +729,7 @@ public class WSRPConsumerImpl implements WSRPConsumerSPI
    public void start() throws Exception
    {
       getEndpointConfigurationInfo().start();
+      getMetrics().register(getProducerId());
       started = true;
       log.info("Consumer with id '" + getProducerId() + "' started");
    }
@@ -675,6 +737,8 @@ public class WSRPConsumerImpl implements WSRPConsumerSPI
    public void stop() throws Exception
    {
       getEndpointConfigurationInfo().stop();
+      getMetrics().unregister();
+      migrationPool.shutdown();
       started = false;
       log.info("Consumer with id '" + getProducerId() + "' stopped");
    }
@@ -838,98 +902,279 @@ public class WSRPConsumerImpl implements WSRPConsumerSPI
       {
          if (ParameterValidation.existsAndIsNotEmpty(portletHandles))
          {
-            List<org.oasis.wsrp.v2.PortletContext> portletContexts = new ArrayList<org.oasis.wsrp.v2.PortletContext>(portletHandles.size());
-            for (String handle : portletHandles)
+            // record the export before performing it so that it can be resumed if it fails midway
+            ExportInfo exportInfo = new ExportInfo(System.currentTimeMillis(), portletHandles);
+            getMigrationService().add(exportInfo);
+            return continueExport(exportInfo);
+         }
+         else
+         {
+            throw new IllegalArgumentException("Must provide a non-null, non-empty list of portlet handles.");
+         }
+      }
+      else
+      {
+         throw new UnsupportedOperationException("Producer " + producerInfo.getId() + " doesn't support import/export functionality.");
+      }
+   }
+
+   public ExportInfo resumeExport(ExportInfo exportInfo) throws PortletInvokerException
+   {
+      if (isImportExportSupported())
+      {
+         ParameterValidation.throwIllegalArgExceptionIfNull(exportInfo, "ExportInfo to resume");
+
+         return exportInfo.isComplete() ? exportInfo : continueExport(exportInfo);
+      }
+      else
+      {
+         throw new UnsupportedOperationException("Producer " + producerInfo.getId() + " doesn't support import/export functionality.");
+      }
+   }
+
+   private ExportInfo continueExport(final ExportInfo exportInfo) throws PortletInvokerException
+   {
+      final MigrationService migrationService = getMigrationService();
+      final org.oasis.wsrp.v2.UserContext userContext = UserAccess.getUserContext();
+
+      processInChunks(exportInfo.getRemainingPortletHandles(), new MigrationChunkProcessor()
+      {
+         public void process(List<String> handles) throws PortletInvokerException
+         {
+            exportChunk(exportInfo, handles, userContext);
+
+            // persist progress after each chunk so that only the remaining portlets need to be exported on resume
+            synchronized (exportInfo)
             {
-               portletContexts.add(WSRPTypeFactory.createPortletContext(handle));
+               migrationService.update(exportInfo);
             }
+         }
+      }, true);
 
-            try
-            {
-               Holder<byte[]> exportContextHolder = new Holder<byte[]>();
-               Holder<List<ExportedPortlet>> exportedPortletsHolder = new Holder<List<ExportedPortlet>>();
-               Holder<List<FailedPortlets>> failedPortletsHolder = new Holder<List<FailedPortlets>>();
-               Holder<Lifetime> lifetimeHolder = new Holder<Lifetime>();
-               getPortletManagementService().exportPortlets(getRegistrationContext(), portletContexts, UserAccess.getUserContext(),
-                  lifetimeHolder, true, exportContextHolder, exportedPortletsHolder, failedPortletsHolder,
-                  new Holder<ResourceList>(), new Holder<List<Extension>>());
-
-               SortedMap<String, byte[]> handleToState = null;
-               List<ExportedPortlet> exportedPortlets = exportedPortletsHolder.value;
-               if (ParameterValidation.existsAndIsNotEmpty(exportedPortlets))
-               {
-                  handleToState = new TreeMap<String, byte[]>();
-                  for (ExportedPortlet exportedPortlet : exportedPortlets)
-                  {
-                     handleToState.put(exportedPortlet.getPortletHandle(), exportedPortlet.getExportData());
-                  }
-               }
+      if (exportInfo.isComplete())
+      {
+         releasePrunedExports(migrationService);
+      }
 
-               SortedMap<QName, List<String>> errorCodeToHandle = null;
-               List<FailedPortlets> failedPortlets = failedPortletsHolder.value;
-               if (ParameterValidation.existsAndIsNotEmpty(failedPortlets))
-               {
-                  errorCodeToHandle = new TreeMap<QName, List<String>>();
-                  for (FailedPortlets failedPortletsForReason : failedPortlets)
-                  {
-                     errorCodeToHandle.put(failedPortletsForReason.getErrorCode(), failedPortletsForReason.getPortletHandles());
-                  }
-               }
+      return exportInfo;
+   }
 
-               // todo: deal with expiration time
-               /*Lifetime lifetime = lifetimeHolder.value;
-               if (lifetime != null)
-               {
-                  XMLGregorianCalendar currentTime = lifetime.getCurrentTime();
-                  Duration refreshDuration = lifetime.getRefreshDuration();
-                  XMLGregorianCalendar terminationTime = lifetime.getTerminationTime();
-               }*/
-
-               ExportInfo exportInfo = new ExportInfo(System.currentTimeMillis(), errorCodeToHandle, handleToState, exportContextHolder.value);
-               getConsumerRegistry().getMigrationService().add(exportInfo);
-               return exportInfo;
-            }
-            catch (OperationNotSupported operationNotSupported)
+   /**
+    * Prunes old exports if the MigrationService supports it, releasing them on the producer which otherwise keeps their
+    * data until they expire, which might be never.
+    *
+    * @param migrationService the MigrationService the exports are recorded in
+    */
+   private void releasePrunedExports(MigrationService migrationService)
+   {
+      if (migrationService instanceof PrunableMigrationService)
+      {
+         for (ExportInfo pruned : ((PrunableMigrationService)migrationService).pruneOldExports())
+         {
+            // exports are recorded regardless of the producer they were performed against so releasing might fail
+            try
             {
-               throw new UnsupportedOperationException(operationNotSupported);
+               releaseExport(pruned);
             }
-            catch (InconsistentParameters inconsistentParameters)
+            catch (Exception e)
             {
-               throw new IllegalArgumentException(inconsistentParameters);
+               log.debug("Couldn't release pruned export performed at " + pruned.getExportTime(), e);
             }
-            catch (InvalidRegistration invalidRegistration)
+         }
+      }
+   }
+
+   private void exportChunk(ExportInfo exportInfo, List<String> portletHandles, org.oasis.wsrp.v2.UserContext userContext) throws PortletInvokerException
+   {
+      List<org.oasis.wsrp.v2.PortletContext> portletContexts = new ArrayList<org.oasis.wsrp.v2.PortletContext>(portletHandles.size());
+      for (String handle : portletHandles)
+      {
+         portletContexts.add(WSRPTypeFactory.createPortletContext(handle));
+      }
+
+      try
+      {
+         Holder<byte[]> exportContextHolder = new Holder<byte[]>();
+         Holder<List<ExportedPortlet>> exportedPortletsHolder = new Holder<List<ExportedPortlet>>();
+         Holder<List<FailedPortlets>> failedPortletsHolder = new Holder<List<FailedPortlets>>();
+         Holder<Lifetime> lifetimeHolder = new Holder<Lifetime>();
+         getPortletManagementService().exportPortlets(getRegistrationContext(), portletContexts, userContext,
+            lifetimeHolder, true, exportContextHolder, exportedPortletsHolder, failedPortletsHolder,
+            new Holder<ResourceList>(), new Holder<List<Extension>>());
+
+         Map<String, byte[]> handleToState = null;
+         List<ExportedPortlet> exportedPortlets = exportedPortletsHolder.value;
+         if (ParameterValidation.existsAndIsNotEmpty(exportedPortlets))
+         {
+            handleToState = new HashMap<String, byte[]>(exportedPortlets.size());
+            for (ExportedPortlet exportedPortlet : exportedPortlets)
             {
-               handleInvalidRegistrationFault();
-               throw new PortletInvokerException(invalidRegistration);
+               handleToState.put(exportedPortlet.getPortletHandle(), exportedPortlet.getExportData());
             }
-            catch (ModifyRegistrationRequired modifyRegistrationRequired)
+         }
+
+         Map<QName, List<String>> errorCodeToHandle = null;
+         List<FailedPortlets> failedPortlets = failedPortletsHolder.value;
+         if (ParameterValidation.existsAndIsNotEmpty(failedPortlets))
+         {
+            errorCodeToHandle = new HashMap<QName, List<String>>();
+            for (FailedPortlets failedPortletsForReason : failedPortlets)
             {
-               handleModifyRegistrationRequiredFault();
-               throw new PortletInvokerException(modifyRegistrationRequired);
+               errorCodeToHandle.put(failedPortletsForReason.getErrorCode(), failedPortletsForReason.getPortletHandles());
             }
-            catch (Exception e)
+         }
+
+         // todo: deal with expiration time
+         /*Lifetime lifetime = lifetimeHolder.value;
+         if (lifetime != null)
+         {
+            XMLGregorianCalendar currentTime = lifetime.getCurrentTime();
+            Duration refreshDuration = lifetime.getRefreshDuration();
+            XMLGregorianCalendar terminationTime = lifetime.getTerminationTime();
+         }*/
+
+         exportInfo.addExportedChunk(portletHandles, exportContextHolder.value, handleToState, errorCodeToHandle);
+      }
+      catch (OperationNotSupported operationNotSupported)
+      {
+         throw new UnsupportedOperationException(operationNotSupported);
+      }
+      catch (InconsistentParameters inconsistentParameters)
+      {
+         throw new IllegalArgumentException(inconsistentParameters);
+      }
+      catch (InvalidRegistration invalidRegistration)
+      {
+         handleInvalidRegistrationFault();
+         throw new PortletInvokerException(invalidRegistration);
+      }
+      catch (ModifyRegistrationRequired modifyRegistrationRequired)
+      {
+         handleModifyRegistrationRequiredFault();
+         throw new PortletInvokerException(modifyRegistrationRequired);
+      }
+      catch (Exception e)
+      {
+         if (producerInfo.canAttemptRecoveryFrom(e))
+         {
+            exportChunk(exportInfo, portletHandles, userContext);
+         }
+         else
+         {
+            throw new PortletInvokerException(e.getLocalizedMessage(), e);
+         }
+      }
+   }
+
+   /**
+    * Splits the specified handles in chunks and processes them, concurrently if configured to do so (see {@link
+    * #MIGRATION_PARALLELISM_PROPERTY}).
+    *
+    * @param handles        the handles to process
+    * @param processor      processes each chunk
+    * @param stopOnFailure  whether chunks that haven't been started yet should be skipped once a chunk has failed
+    * @throws PortletInvokerException the first failure that occurred, once all chunks have been processed
+    */
+   private void processInChunks(List<String> handles, final MigrationChunkProcessor processor, final boolean stopOnFailure) throws PortletInvokerException
+   {
+      final int size = handles.size();
+      final List<List<String>> chunks = new ArrayList<List<String>>(size / MIGRATION_CHUNK_SIZE + 1);
+      for (int start = 0; start < size; start += MIGRATION_CHUNK_SIZE)
+      {
+         chunks.add(new ArrayList<String>(handles.subList(start, Math.min(size, start + MIGRATION_CHUNK_SIZE))));
+      }
+
+      final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+      if (chunks.size() == 1 || MIGRATION_PARALLELISM == 1)
+      {
+         for (List<String> chunk : chunks)
+         {
+            processChunk(chunk, processor, failure, stopOnFailure);
+         }
+      }
+      else
+      {
+         // make sure that the workers have access to the current request, which might be needed to propagate credentials
+         final HttpServletRequest request = ServletAccess.getRequest();
+         final HttpServletResponse response = ServletAccess.getResponse();
+
+         List<Future<?>> futures = new ArrayList<Future<?>>(chunks.size());
+         for (final List<String> chunk : chunks)
+         {
+            futures.add(migrationPool.getExecutor().submit(new Runnable()
             {
-               if (producerInfo.canAttemptRecoveryFrom(e))
-               {
-                  return exportPortlets(portletHandles);
-               }
-               else
+               public void run()
                {
-                  throw new PortletInvokerException(e.getLocalizedMessage(), e);
+                  ServletAccess.setRequestAndResponse(request, response);
+                  try
+                  {
+                     processChunk(chunk, processor, failure, stopOnFailure);
+                  }
+                  finally
+                  {
+                     ServletAccess.setRequestAndResponse(null, null);
+                  }
                }
-            }
+            }));
          }
-         else
+
+         for (Future<?> future : futures)
          {
-            throw new IllegalArgumentException("Must provide a non-null, non-empty list of portlet handles.");
+            try
+            {
+               future.get();
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+               failure.compareAndSet(null, e);
+            }
+            catch (ExecutionException e)
+            {
+               failure.compareAndSet(null, e);
+            }
          }
       }
-      else
+
+      final Exception e = failure.get();
+      if (e instanceof PortletInvokerException)
       {
-         throw new UnsupportedOperationException("Producer " + producerInfo.getId() + " doesn't support import/export functionality.");
+         throw (PortletInvokerException)e;
+      }
+      else if (e instanceof RuntimeException)
+      {
+         throw (RuntimeException)e;
+      }
+      else if (e != null)
+      {
+         throw new PortletInvokerException(e.getLocalizedMessage(), e);
       }
    }
 
+   private void processChunk(List<String> chunk, MigrationChunkProcessor processor, AtomicReference<Exception> failure, boolean stopOnFailure)
+   {
+      if (stopOnFailure && failure.get() != null)
+      {
+         return;
+      }
+
+      try
+      {
+         processor.process(chunk);
+      }
+      catch (Exception e)
+      {
+         log.debug("Couldn't process migration chunk for portlets " + chunk, e);
+         failure.compareAndSet(null, e);
+      }
+   }
+
+   /** Processes a chunk of portlets to migrate. */
+   private interface MigrationChunkProcessor
+   {
+      void process(List<String> handles) throws PortletInvokerException;
+   }
+
    private ConsumerRegistrySPI getConsumerRegistry()
    {
       return producerInfo.getRegistry();
@@ -941,20 +1186,10 @@ public class WSRPConsumerImpl implements WSRPConsumerSPI
       {
          ParameterValidation.throwIllegalArgExceptionIfNull(exportInfo, "ExportInfo to release");
 
-         try
+         // chunked exports result in several export contexts on the producer
+         for (byte[] exportContext : exportInfo.getExportContexts())
          {
-            getPortletManagementService().releaseExport(getRegistrationContext(), exportInfo.getExportContext(), UserAccess.getUserContext());
-         }
-         catch (PortletInvokerException e)
-         {
-            if (producerInfo.canAttemptRecoveryFrom(e))
-            {
-               releaseExport(exportInfo);
-            }
-            else
-            {
-               throw e;
-            }
+            releaseExport(exportContext);
          }
       }
       else
@@ -963,6 +1198,25 @@ public class WSRPConsumerImpl implements WSRPConsumerSPI
       }
    }
 
+   private void releaseExport(byte[] exportContext) throws PortletInvokerException
+   {
+      try
+      {
+         getPortletManagementService().releaseExport(getRegistrationContext(), exportContext, UserAccess.getUserContext());
+      }
+      catch (PortletInvokerException e)
+      {
+         if (producerInfo.canAttemptRecoveryFrom(e))
+         {
+            releaseExport(exportContext);
+         }
+         else
+         {
+            throw e;
+         }
+      }
+   }
+
    public ImportInfo importPortlets(ExportInfo exportInfo, List<String> portlets) throws PortletInvokerException
    {
       if (isImportExportSupported())
@@ -971,77 +1225,73 @@ public class WSRPConsumerImpl implements WSRPConsumerSPI
 
          if (ParameterValidation.existsAndIsNotEmpty(portlets))
          {
-            try
+            // portlets exported in different chunks need to be imported using their respective export context
+            Map<ByteBuffer, List<String>> exportContextToPortlets = new LinkedHashMap<ByteBuffer, List<String>>();
+            for (String portlet : portlets)
             {
-               List<ImportPortlet> importPortlets = new ArrayList<ImportPortlet>(portlets.size());
-               for (String portlet : portlets)
+               final byte[] exportContext = exportInfo.getExportContextFor(portlet);
+               final ByteBuffer key = ByteBuffer.wrap(exportContext != null ? exportContext : new byte[0]);
+               List<String> portletsForContext = exportContextToPortlets.get(key);
+               if (portletsForContext == null)
                {
-                  // todo: check semantics
-                  importPortlets.add(WSRPTypeFactory.createImportPortlet(portlet, exportInfo.getPortletStateFor(portlet)));
+                  portletsForContext = new ArrayList<String>();
+                  exportContextToPortlets.put(key, portletsForContext);
                }
+               portletsForContext.add(portlet);
+            }
 
-               Holder<List<ImportedPortlet>> importedPortletsHolder = new Holder<List<ImportedPortlet>>();
-               Holder<List<ImportPortletsFailed>> failedPortletsHolder = new Holder<List<ImportPortletsFailed>>();
-               Holder<ResourceList> resourceListHolder = new Holder<ResourceList>();
-               getPortletManagementService().importPortlets(getRegistrationContext(), exportInfo.getExportContext(),
-                  importPortlets, UserAccess.getUserContext(), null, importedPortletsHolder, failedPortletsHolder,
-                  resourceListHolder, new Holder<List<Extension>>());
-
-               List<ImportedPortlet> importedPortlets = importedPortletsHolder.value;
-               SortedMap<String, PortletContext> importIdToPortletContext = new TreeMap<String, PortletContext>();
-               if (ParameterValidation.existsAndIsNotEmpty(importedPortlets))
+            final SortedMap<String, PortletContext> importIdToPortletContext = new TreeMap<String, PortletContext>();
+            final Map<QName, List<String>> errorCodeToHandle = new HashMap<QName, List<String>>();
+            final org.oasis.wsrp.v2.UserContext userContext = UserAccess.getUserContext();
+            final ExportInfo info = exportInfo;
+            Exception firstFailure = null;
+            for (final Map.Entry<ByteBuffer, List<String>> entry : exportContextToPortlets.entrySet())
+            {
+               try
                {
-                  for (ImportedPortlet importedPortlet : importedPortlets)
+                  processInChunks(entry.getValue(), new MigrationChunkProcessor()
                   {
-                     org.oasis.wsrp.v2.PortletContext portletContext = importedPortlet.getNewPortletContext();
-                     PortletContext apiPC = PortletContext.createPortletContext(portletContext.getPortletHandle(), portletContext.getPortletState(), false);
-                     // we need to reference the resulting PortletContext so that it can then be used properly
-                     importIdToPortletContext.put(importedPortlet.getImportID(), PortletContext.reference(getProducerId(), apiPC));
-                  }
+                     public void process(List<String> handles) throws PortletInvokerException
+                     {
+                        try
+                        {
+                           importChunk(info, info.getExportContextFor(handles.get(0)), handles, userContext, importIdToPortletContext, errorCodeToHandle);
+                        }
+                        catch (PortletInvokerException e)
+                        {
+                           // record the chunk's portlets as failed so that they can be imported again, then propagate
+                           recordFailedPortlets(errorCodeToHandle, ErrorCodes.OperationFailed, handles);
+                           throw e;
+                        }
+                        catch (RuntimeException e)
+                        {
+                           recordFailedPortlets(errorCodeToHandle, ErrorCodes.OperationFailed, handles);
+                           throw e;
+                        }
+                     }
+                  }, false);
                }
-
-               Map<QName, List<String>> errorCodeToHandle = null;
-               List<ImportPortletsFailed> failedPortlets = failedPortletsHolder.value;
-               if (ParameterValidation.existsAndIsNotEmpty(failedPortlets))
+               catch (PortletInvokerException e)
                {
-                  errorCodeToHandle = new HashMap<QName, List<String>>();
-                  for (ImportPortletsFailed failedPortletsForReason : failedPortlets)
-                  {
-                     errorCodeToHandle.put(failedPortletsForReason.getErrorCode(), failedPortletsForReason.getImportID());
-                  }
+                  firstFailure = firstFailure == null ? e : firstFailure;
                }
-
-               return new ImportInfo(System.currentTimeMillis(), errorCodeToHandle, importIdToPortletContext);
-            }
-            catch (OperationNotSupported operationNotSupported)
-            {
-               throw new UnsupportedOperationException(operationNotSupported);
-            }
-            catch (InconsistentParameters inconsistentParameters)
-            {
-               throw new IllegalArgumentException(inconsistentParameters);
-            }
-            catch (InvalidRegistration invalidRegistration)
-            {
-               handleInvalidRegistrationFault();
-               throw new PortletInvokerException(invalidRegistration);
-            }
-            catch (ModifyRegistrationRequired modifyRegistrationRequired)
-            {
-               handleModifyRegistrationRequiredFault();
-               throw new PortletInvokerException(modifyRegistrationRequired);
-            }
-            catch (Exception e)
-            {
-               if (producerInfo.canAttemptRecoveryFrom(e))
+               catch (RuntimeException e)
                {
-                  return importPortlets(exportInfo, portlets);
+                  firstFailure = firstFailure == null ? e : firstFailure;
                }
-               else
+            }
+
+            // only fail if nothing could be imported, otherwise report which portlets failed
+            if (firstFailure != null && importIdToPortletContext.isEmpty())
+            {
+               if (firstFailure instanceof RuntimeException)
                {
-                  throw new PortletInvokerException(e.getLocalizedMessage(), e);
+                  throw (RuntimeException)firstFailure;
                }
+               throw (PortletInvokerException)firstFailure;
             }
+
+            return new ImportInfo(System.currentTimeMillis(), errorCodeToHandle, importIdToPortletContext);
          }
          else
          {
@@ -1054,6 +1304,93 @@ public class WSRPConsumerImpl implements WSRPConsumerSPI
       }
    }
 
+   private void importChunk(ExportInfo exportInfo, byte[] exportContext, List<String> portlets, org.oasis.wsrp.v2.UserContext userContext, Map<String, PortletContext> importIdToPortletContext, Map<QName, List<String>> errorCodeToHandle) throws PortletInvokerException
+   {
+      try
+      {
+         List<ImportPortlet> importPortlets = new ArrayList<ImportPortlet>(portlets.size());
+         for (String portlet : portlets)
+         {
+            // todo: check semantics
+            importPortlets.add(WSRPTypeFactory.createImportPortlet(portlet, exportInfo.getPortletStateFor(portlet)));
+         }
+
+         Holder<List<ImportedPortlet>> importedPortletsHolder = new Holder<List<ImportedPortlet>>();
+         Holder<List<ImportPortletsFailed>> failedPortletsHolder = new Holder<List<ImportPortletsFailed>>();
+         Holder<ResourceList> resourceListHolder = new Holder<ResourceList>();
+         getPortletManagementService().importPortlets(getRegistrationContext(), exportContext,
+            importPortlets, userContext, null, importedPortletsHolder, failedPortletsHolder,
+            resourceListHolder, new Holder<List<Extension>>());
+
+         List<ImportedPortlet> importedPortlets = importedPortletsHolder.value;
+         if (ParameterValidation.existsAndIsNotEmpty(importedPortlets))
+         {
+            for (ImportedPortlet importedPortlet : importedPortlets)
+            {
+               org.oasis.wsrp.v2.PortletContext portletContext = importedPortlet.getNewPortletContext();
+               PortletContext apiPC = PortletContext.createPortletContext(portletContext.getPortletHandle(), portletContext.getPortletState(), false);
+               // we need to reference the resulting PortletContext so that it can then be used properly
+               synchronized (importIdToPortletContext)
+               {
+                  importIdToPortletContext.put(importedPortlet.getImportID(), PortletContext.reference(getProducerId(), apiPC));
+               }
+            }
+         }
+
+         List<ImportPortletsFailed> failedPortlets = failedPortletsHolder.value;
+         if (ParameterValidation.existsAndIsNotEmpty(failedPortlets))
+         {
+            for (ImportPortletsFailed failedPortletsForReason : failedPortlets)
+            {
+               recordFailedPortlets(errorCodeToHandle, failedPortletsForReason.getErrorCode(), failedPortletsForReason.getImportID());
+            }
+         }
+      }
+      catch (OperationNotSupported operationNotSupported)
+      {
+         throw new UnsupportedOperationException(operationNotSupported);
+      }
+      catch (InconsistentParameters inconsistentParameters)
+      {
+         throw new IllegalArgumentException(inconsistentParameters);
+      }
+      catch (InvalidRegistration invalidRegistration)
+      {
+         handleInvalidRegistrationFault();
+         throw new PortletInvokerException(invalidRegistration);
+      }
+      catch (ModifyRegistrationRequired modifyRegistrationRequired)
+      {
+         handleModifyRegistrationRequiredFault();
+         throw new PortletInvokerException(modifyRegistrationRequired);
+      }
+      catch (Exception e)
+      {
+         if (producerInfo.canAttemptRecoveryFrom(e))
+         {
+            importChunk(exportInfo, exportContext, portlets, userContext, importIdToPortletContext, errorCodeToHandle);
+         }
+         else
+         {
+            throw new PortletInvokerException(e.getLocalizedMessage(), e);
+         }
+      }
+   }
+
+   private static void recordFailedPortlets(Map<QName, List<String>> errorCodeToHandle, QName errorCode, List<String> handles)
+   {
+      synchronized (errorCodeToHandle)
+      {
+         List<String> failed = errorCodeToHandle.get(errorCode);
+         if (failed == null)
+         {
+            failed = new ArrayList<String>(handles.size());
+            errorCodeToHandle.put(errorCode, failed);
+         }
+         failed.addAll(handles);
+      }
+   }
+
    public boolean isUsingWSRP2()
    {
       Version wsrpVersion = getWSRPVersion();
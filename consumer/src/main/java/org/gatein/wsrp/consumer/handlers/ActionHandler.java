@@ -30,6 +30,7 @@ import org.gatein.pc.api.invocation.ActionInvocation;
 import org.gatein.pc.api.invocation.response.ErrorResponse;
 import org.gatein.pc.api.invocation.response.HTTPRedirectionResponse;
 import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
+import org.gatein.pc.api.invocation.response.UpdateNavigationalStateResponse;
 import org.gatein.pc.api.spi.InstanceContext;
 import org.gatein.pc.api.spi.RequestContext;
 import org.gatein.pc.api.state.AccessMode;
@@ -41,6 +42,7 @@ import org.gatein.wsrp.consumer.handlers.MultiPartUtil.MultiPartResult;
 import org.oasis.wsrp.v2.BlockingInteractionResponse;
 import org.oasis.wsrp.v2.Extension;
 import org.oasis.wsrp.v2.InteractionParams;
+import org.oasis.wsrp.v2.MarkupContext;
 import org.oasis.wsrp.v2.NamedString;
 import org.oasis.wsrp.v2.PerformBlockingInteraction;
 import org.oasis.wsrp.v2.PortletContext;
@@ -226,9 +228,22 @@ public class ActionHandler extends NavigationalStateUpdatingHandler<ActionInvoca
       }
       else
       {
-         // updateResponse.getMarkupContext(); // ignore bundled markup for now.
+         final UpdateNavigationalStateResponse result = processUpdateResponse(invocation, requestPrecursor, updateResponse, response);
 
-         return processUpdateResponse(invocation, requestPrecursor, updateResponse, response);
+         // remember bundled markup so that the next render of the window doesn't need to call the producer, unless processing events or
+         // public navigational state updates might change what the portlet renders
+         final MarkupContext markupContext = updateResponse.getMarkupContext();
+         if (markupContext != null && !ParameterValidation.existsAndIsNotEmpty(result.getEvents()) && !ParameterValidation.existsAndIsNotEmpty(result.getPublicNavigationalStateUpdates()))
+         {
+            final String key = RenderHandler.getBundledMarkupKey(
+               result.getMode() != null ? result.getMode() : invocation.getMode(),
+               result.getWindowState() != null ? result.getWindowState() : invocation.getWindowState(),
+               result.getNavigationalState() != null ? result.getNavigationalState() : invocation.getNavigationalState(),
+               invocation.getPublicNavigationalState());
+            consumer.getSessionHandler().setBundledMarkup(invocation, key, markupContext);
+         }
+
+         return result;
       }
    }
 
@@ -42,6 +42,7 @@ import org.gatein.wsrp.consumer.WSRPConsumerImpl;
 import org.gatein.wsrp.spec.v2.WSRP2Constants;
 import org.gatein.wsrp.spec.v2.WSRP2RewritingConstants;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -146,6 +147,9 @@ public class InvocationDispatcher
       }
       else if (invocation instanceof EventInvocation)
       {
+         // processing the event might change what the portlet renders
+         consumer.getSessionHandler().removeBundledMarkup(invocation, null);
+
          final ProducerInfo producerInfo = consumer.getProducerInfo();
          if (producerInfo.getSupportedOptions().contains(WSRP2Constants.OPTIONS_EVENTS))
          {
@@ -188,4 +192,43 @@ public class InvocationDispatcher
          ExtensionAccess.getConsumerExtensionAccessor().clear();
       }
    }
+
+   /**
+    * Renders the specified portlets using a single WSRP call, see {@link RenderHandler#handleBatch(java.util.List)},
+    * giving the consumer-side {@link InvocationHandlerDelegate} a chance to pre- and post-process each invocation.
+    *
+    * @param invocations the render invocations to perform
+    * @return the responses associated with the specified invocations, in the same order
+    * @throws PortletInvokerException
+    */
+   public List<PortletInvocationResponse> dispatchAndHandleRenders(List<RenderInvocation> invocations) throws PortletInvokerException
+   {
+      final InvocationHandlerDelegate delegate = InvocationHandlerDelegate.consumerDelegate();
+      if (delegate != null)
+      {
+         for (RenderInvocation invocation : invocations)
+         {
+            delegate.processInvocation(invocation);
+         }
+      }
+
+      try
+      {
+         final List<PortletInvocationResponse> responses = renderHandler.handleBatch(invocations);
+
+         if (delegate != null)
+         {
+            for (int i = 0; i < responses.size(); i++)
+            {
+               delegate.processInvocationResponse(responses.get(i), invocations.get(i));
+            }
+         }
+
+         return responses;
+      }
+      finally
+      {
+         ExtensionAccess.getConsumerExtensionAccessor().clear();
+      }
+   }
 }
@@ -39,6 +39,7 @@ import org.gatein.wsrp.WSRPUtils;
 import org.gatein.wsrp.api.extensions.ExtensionAccess;
 import org.gatein.wsrp.api.extensions.UnmarshalledExtension;
 import org.gatein.wsrp.consumer.WSRPConsumerImpl;
+import org.gatein.wsrp.consumer.metrics.ConsumerMetrics;
 import org.gatein.wsrp.consumer.portlet.info.WSRPPortletInfo;
 import org.gatein.wsrp.consumer.spi.WSRPConsumerSPI;
 import org.gatein.wsrp.payload.PayloadUtils;
@@ -62,6 +63,8 @@ import java.rmi.RemoteException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Handles a specific type of PortletInvocation, translating it back and forth into WSRP-understable structures.
@@ -91,6 +94,9 @@ public abstract class InvocationHandler<Invocation extends PortletInvocation, Re
    /** Maximum number of tries before giving up. */
    private static final int MAXIMUM_RETRY_NUMBER = 3;
 
+   /** Caches the WSRP operation names associated with request classes */
+   private static final ConcurrentMap<Class<?>, String> OPERATION_NAMES = new ConcurrentHashMap<Class<?>, String>(7);
+
    protected InvocationHandler(WSRPConsumerSPI consumer)
    {
       this.consumer = consumer;
@@ -162,27 +168,30 @@ public abstract class InvocationHandler<Invocation extends PortletInvocation, Re
          {
             log.debug("performRequest: " + retryCount + " attempt(s) out of " + MAXIMUM_RETRY_NUMBER + " possible");
          }
+         if (retryCount > 1)
+         {
+            consumer.getMetrics().retried();
+         }
          SessionHandler sessionHandler = consumer.getSessionHandler();
 
          // prepare everything for the request
-         RuntimeContext runtimeContext = getRuntimeContextFrom(request);
-
-         if (runtimeContext != null)
-         {
-            WindowContext windowContext = invocation.getWindowContext();
-            runtimeContext.setNamespacePrefix(WSRPTypeFactory.getNamespaceFrom(windowContext));
-
-            // GTNWSRP-369: InstanceContext doesn't actually provide any useful information, use WindowContext's id instead
-            /*InstanceContext instanceContext = invocation.getInstanceContext();
-            runtimeContext.setPortletInstanceKey(WSRPTypeFactory.getPortletInstanceKey(instanceContext));*/
-            runtimeContext.setPortletInstanceKey(windowContext.getId());
-         }
+         prepareRuntimeContext(request, invocation);
 
          try
          {
             sessionHandler.initCookieIfNeeded(invocation);
 
-            response = performRequest(request);
+            final ConsumerMetrics.Invocation metricsInvocation = consumer.getMetrics().start(getOperationName(request));
+            try
+            {
+               response = performRequest(request);
+               metricsInvocation.end(null, response != null ? getResponseSize(response) : 0);
+            }
+            catch (Exception e)
+            {
+               metricsInvocation.end(e, 0);
+               throw e;
+            }
 
             sessionHandler.updateCookiesIfNeeded(invocation);
          }
@@ -207,6 +216,61 @@ public abstract class InvocationHandler<Invocation extends PortletInvocation, Re
       return response;
    }
 
+   /**
+    * Computes the name under which invocations of the specified request are recorded in the consumer metrics, i.e. the
+    * name of the WSRP operation, derived from the request class name (e.g. <code>getMarkup</code> for {@link
+    * org.oasis.wsrp.v2.GetMarkup}).
+    *
+    * @param request the request which operation name we want
+    * @return the name of the WSRP operation the specified request is sent with
+    */
+   private static String getOperationName(Object request)
+   {
+      final Class<?> requestClass = request.getClass();
+      String name = OPERATION_NAMES.get(requestClass);
+      if (name == null)
+      {
+         final String simpleName = requestClass.getSimpleName();
+         name = Character.toLowerCase(simpleName.charAt(0)) + simpleName.substring(1);
+         OPERATION_NAMES.put(requestClass, name);
+      }
+      return name;
+   }
+
+   /**
+    * Extracts the size of the content carried by the specified response so that it can be recorded in the consumer
+    * metrics. Responses don't carry any significant content by default.
+    *
+    * @param response the producer's response
+    * @return the size of the markup or resource carried by the specified response
+    */
+   protected long getResponseSize(Response response)
+   {
+      return 0;
+   }
+
+   /**
+    * Sets the invocation-specific information of the specified request's RuntimeContext.
+    *
+    * @param request    the request which RuntimeContext needs to be prepared
+    * @param invocation the PortletInvocation that initiated the current WSRP request
+    */
+   protected void prepareRuntimeContext(Request request, PortletInvocation invocation)
+   {
+      RuntimeContext runtimeContext = getRuntimeContextFrom(request);
+
+      if (runtimeContext != null)
+      {
+         WindowContext windowContext = invocation.getWindowContext();
+         runtimeContext.setNamespacePrefix(WSRPTypeFactory.getNamespaceFrom(windowContext));
+
+         // GTNWSRP-369: InstanceContext doesn't actually provide any useful information, use WindowContext's id instead
+         /*InstanceContext instanceContext = invocation.getInstanceContext();
+         runtimeContext.setPortletInstanceKey(WSRPTypeFactory.getPortletInstanceKey(instanceContext));*/
+         runtimeContext.setPortletInstanceKey(windowContext.getId());
+      }
+   }
+
    /**
     * Deals with common error conditions.
     *
@@ -227,6 +291,7 @@ public abstract class InvocationHandler<Invocation extends PortletInvocation, Re
       {
          // we need to re-init the cookies
          log.debug("Re-initializing cookies after InvalidCookieFault.");
+         consumer.getMetrics().recoveredFromInvalidCookie();
          // force a producer info refresh because the invalid cookie might be due to a change of cookie policy on the producer
          consumer.refreshProducerInfo();
          try
@@ -246,6 +311,7 @@ public abstract class InvocationHandler<Invocation extends PortletInvocation, Re
       {
          // invalidate the currently held session information
          log.debug("Session invalidated after InvalidSessionFault, will re-send session-stored information.");
+         consumer.getMetrics().recoveredFromInvalidSession();
          sessionHandler.handleInvalidSessionFault(invocation, runtimeContext);
 
          // and re-attempt invocation as we can recover from this
@@ -139,7 +139,23 @@ public abstract class MimeResponseHandler<Invocation extends PortletInvocation,
 
       // GTNWSRP-336
       final ResponseProperties properties = getResponsePropertiesFrom(mimeResponse, consumer.getProducerInfo().getEndpointConfigurationInfo().getWsdlDefinitionURL());
-      return createContentResponse(mimeResponse, invocation, properties, mimeType, binary, markup, createCacheControl(mimeResponse));
+      final org.gatein.pc.api.cache.CacheControl cacheControl = createCacheControl(mimeResponse);
+      consumer.getMetrics().mimeResponseReceived(Boolean.TRUE.equals(mimeResponse.isUseCachedItem()), cacheControl.getExpirationSecs() != 0);
+      return createContentResponse(mimeResponse, invocation, properties, mimeType, binary, markup, cacheControl);
+   }
+
+   @Override
+   protected long getResponseSize(Response response)
+   {
+      final LocalMimeResponse mimeResponse = getMimeResponseFrom(response);
+      if (mimeResponse == null)
+      {
+         return 0;
+      }
+
+      final String markup = mimeResponse.getItemString();
+      final byte[] binary = mimeResponse.getItemBinary();
+      return markup != null ? markup.length() : (binary != null ? binary.length : 0);
    }
 
    private ResponseProperties getResponsePropertiesFrom(MimeResponse mimeResponse, String producerURLAsString)
@@ -27,6 +27,7 @@ import org.gatein.common.util.ParameterValidation;
 import org.gatein.wsrp.WSRPConstants;
 import org.gatein.wsrp.handler.CookieUtil;
 import org.gatein.wsrp.services.ServiceFactory;
+import org.oasis.wsrp.v2.MarkupContext;
 import org.oasis.wsrp.v2.SessionContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -81,6 +82,12 @@ public class ProducerSessionInformation implements Serializable
    /** The ServiceFactory that handles calls for this consumer session */
    private ServiceFactory factory;
 
+   /** How long, in milliseconds, markup bundled by the producer with its response to an action remains usable */
+   private static final long BUNDLED_MARKUP_VALIDITY = 30000;
+
+   /** Markup bundled by the producer with its responses to actions, only usable for the next render of the associated window */
+   private transient Map<String, BundledMarkup> bundledMarkups;
+
    public String getParentSessionId()
    {
       return parentSessionId;
@@ -550,11 +557,70 @@ public class ProducerSessionInformation implements Serializable
       }
    }
 
+   /**
+    * Records the markup the producer bundled with its response to an action on the specified window.
+    *
+    * @param windowId      the identifier of the window on which the action was performed
+    * @param key           identifies the state in which the window needs to be rendered for the markup to be usable
+    * @param markupContext the bundled markup
+    */
+   void setBundledMarkup(String windowId, String key, MarkupContext markupContext)
+   {
+      setBundledMarkup(windowId, key, markupContext, BUNDLED_MARKUP_VALIDITY);
+   }
+
+   synchronized void setBundledMarkup(String windowId, String key, MarkupContext markupContext, long validity)
+   {
+      if (bundledMarkups == null)
+      {
+         bundledMarkups = new HashMap<String, BundledMarkup>();
+      }
+      bundledMarkups.put(windowId, new BundledMarkup(key, markupContext, now() + validity));
+   }
+
+   /**
+    * Removes the markup bundled with the response to the last action on the specified window, returning it if it's
+    * still usable to render the window in the state identified by the specified key.
+    *
+    * @param windowId the identifier of the window to render
+    * @param key      identifies the state in which the window is to be rendered, <code>null</code> to only discard any
+    *                 bundled markup
+    * @return the bundled markup or <code>null</code> if there is none or if it cannot be used
+    */
+   synchronized MarkupContext removeBundledMarkup(String windowId, String key)
+   {
+      if (bundledMarkups == null)
+      {
+         return null;
+      }
+
+      BundledMarkup bundledMarkup = bundledMarkups.remove(windowId);
+      if (bundledMarkup != null && bundledMarkup.key.equals(key) && now() < bundledMarkup.expirationTime)
+      {
+         return bundledMarkup.markupContext;
+      }
+      return null;
+   }
+
    private static long now()
    {
       return System.currentTimeMillis();
    }
 
+   private static class BundledMarkup
+   {
+      private final String key;
+      private final MarkupContext markupContext;
+      private final long expirationTime;
+
+      private BundledMarkup(String key, MarkupContext markupContext, long expirationTime)
+      {
+         this.key = key;
+         this.markupContext = markupContext;
+         this.expirationTime = expirationTime;
+      }
+   }
+
    private class SessionIdResult
    {
       private String id;
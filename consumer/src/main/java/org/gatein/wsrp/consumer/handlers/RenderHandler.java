@@ -24,14 +24,20 @@
 package org.gatein.wsrp.consumer.handlers;
 
 import org.gatein.common.util.ParameterValidation;
+import org.gatein.pc.api.Mode;
+import org.gatein.pc.api.PortletInvokerException;
+import org.gatein.pc.api.StateString;
+import org.gatein.pc.api.WindowState;
 import org.gatein.pc.api.cache.CacheControl;
 import org.gatein.pc.api.invocation.RenderInvocation;
 import org.gatein.pc.api.invocation.response.FragmentResponse;
 import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
 import org.gatein.pc.api.invocation.response.ResponseProperties;
+import org.gatein.wsrp.BatchMarkupExtension;
 import org.gatein.wsrp.WSRPTypeFactory;
 import org.gatein.wsrp.WSRPUtils;
 import org.gatein.wsrp.consumer.spi.WSRPConsumerSPI;
+import org.gatein.wsrp.spec.v2.WSRP2RewritingConstants;
 import org.oasis.wsrp.v2.Extension;
 import org.oasis.wsrp.v2.GetMarkup;
 import org.oasis.wsrp.v2.MarkupContext;
@@ -41,7 +47,11 @@ import org.oasis.wsrp.v2.RuntimeContext;
 import org.oasis.wsrp.v2.SessionContext;
 
 import javax.xml.ws.Holder;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -56,6 +66,125 @@ public class RenderHandler extends MimeResponseHandler<RenderInvocation, GetMark
       super(consumer);
    }
 
+   @Override
+   public PortletInvocationResponse handle(RenderInvocation invocation) throws PortletInvokerException
+   {
+      // if the producer bundled markup with its response to the last action on this window, use it if it matches what we're asked to render
+      final String publicNS = (String)invocation.getAttribute(WSRP2RewritingConstants.NAVIGATIONAL_VALUES);
+      if (ParameterValidation.isNullOrEmpty(publicNS))
+      {
+         final String key = getBundledMarkupKey(invocation.getMode(), invocation.getWindowState(), invocation.getNavigationalState(), invocation.getPublicNavigationalState());
+         final MarkupContext bundledMarkup = consumer.getSessionHandler().removeBundledMarkup(invocation, key);
+         if (bundledMarkup != null)
+         {
+            if (debug)
+            {
+               log.debug("Using markup bundled with the response to the last action on window '" + invocation.getWindowContext().getId() + "'");
+            }
+            return rewriteResponseIfNeeded(bundledMarkup, invocation);
+         }
+      }
+
+      return super.handle(invocation);
+   }
+
+   /**
+    * Computes a key identifying the state in which a window is rendered, used to decide whether markup bundled by the
+    * producer with its response to an action can be used to render the window.
+    */
+   static String getBundledMarkupKey(Mode mode, WindowState windowState, StateString navigationalState, Map<String, String[]> publicNavigationalState)
+   {
+      StringBuilder key = new StringBuilder(64);
+      key.append(mode).append('|').append(windowState).append('|');
+      if (navigationalState != null)
+      {
+         key.append(navigationalState.getStringValue());
+      }
+      if (ParameterValidation.existsAndIsNotEmpty(publicNavigationalState))
+      {
+         for (Map.Entry<String, String[]> entry : new TreeMap<String, String[]>(publicNavigationalState).entrySet())
+         {
+            key.append('|').append(entry.getKey()).append('=').append(Arrays.toString(entry.getValue()));
+         }
+      }
+      return key.toString();
+   }
+
+   /**
+    * Renders the specified portlets using a single getMarkup call, relying on the {@link BatchMarkupExtension} which
+    * the producer must support. Portlets that the producer couldn't render as part of the batch, or all of them if the
+    * batched call fails, are rendered individually using {@link #handle(org.gatein.pc.api.invocation.PortletInvocation)}
+    * so that errors are dealt with as usual.
+    *
+    * @param invocations the render invocations to perform
+    * @return the responses associated with the specified invocations, in the same order
+    * @throws PortletInvokerException
+    */
+   public List<PortletInvocationResponse> handleBatch(List<RenderInvocation> invocations) throws PortletInvokerException
+   {
+      final int size = invocations.size();
+      final List<PortletInvocationResponse> responses = new ArrayList<PortletInvocationResponse>(size);
+      if (size < 2)
+      {
+         for (RenderInvocation invocation : invocations)
+         {
+            responses.add(handle(invocation));
+         }
+         return responses;
+      }
+
+      // prepare all requests
+      final List<RequestPrecursor<RenderInvocation>> precursors = new ArrayList<RequestPrecursor<RenderInvocation>>(size);
+      final List<GetMarkup> requests = new ArrayList<GetMarkup>(size);
+      for (RenderInvocation invocation : invocations)
+      {
+         final RequestPrecursor<RenderInvocation> requestPrecursor = new RequestPrecursor<RenderInvocation>(consumer, invocation);
+         final GetMarkup request = prepareRequest(requestPrecursor, invocation);
+         prepareRuntimeContext(request, invocation);
+         precursors.add(requestPrecursor);
+         requests.add(request);
+      }
+
+      // piggyback all requests but the first one on the first one
+      final RenderInvocation mainInvocation = invocations.get(0);
+      final MarkupResponse mainResponse;
+      final List<MarkupResponse> batchedResponses;
+      try
+      {
+         final GetMarkup mainRequest = requests.get(0);
+         mainRequest.getMarkupParams().getExtensions().add(BatchMarkupExtension.createRequestExtension(requests.subList(1, size)));
+
+         mainResponse = performRequest(mainRequest, mainInvocation);
+         batchedResponses = BatchMarkupExtension.removeBatchedResponses(mainResponse.getExtensions());
+      }
+      catch (Exception e)
+      {
+         log.debug("Batched getMarkup failed, rendering portlets individually", e);
+         for (RenderInvocation invocation : invocations)
+         {
+            responses.add(handle(invocation));
+         }
+         return responses;
+      }
+
+      responses.add(processResponse(mainResponse, mainInvocation, precursors.get(0)));
+      for (int i = 1; i < size; i++)
+      {
+         final RenderInvocation invocation = invocations.get(i);
+         final MarkupResponse response = batchedResponses != null && batchedResponses.size() >= i ? batchedResponses.get(i - 1) : null;
+         if (response != null)
+         {
+            responses.add(processResponse(response, invocation, precursors.get(i)));
+         }
+         else
+         {
+            responses.add(handle(invocation));
+         }
+      }
+
+      return responses;
+   }
+
    @Override
    protected SessionContext getSessionContextFrom(MarkupResponse response)
    {
@@ -37,6 +37,7 @@ import org.gatein.wsrp.handler.RequestHeaderClientHandler;
 import org.gatein.wsrp.servlet.UserAccess;
 import org.oasis.wsrp.v2.CookieProtocol;
 import org.oasis.wsrp.v2.InvalidRegistration;
+import org.oasis.wsrp.v2.MarkupContext;
 import org.oasis.wsrp.v2.RuntimeContext;
 import org.oasis.wsrp.v2.SessionContext;
 import org.oasis.wsrp.v2.SessionParams;
@@ -313,6 +314,42 @@ public class SessionHandler implements SessionEventListener
       return sessionInformation;
    }
 
+   /**
+    * Records the markup the producer bundled with its response to the specified action so that it can be used to
+    * render the associated window instead of calling the producer again.
+    *
+    * @param invocation    the action invocation
+    * @param key           identifies the state in which the window needs to be rendered for the markup to be usable
+    * @param markupContext the bundled markup
+    */
+   void setBundledMarkup(PortletInvocation invocation, String key, MarkupContext markupContext)
+   {
+      getProducerSessionInformation(invocation).setBundledMarkup(invocation.getWindowContext().getId(), key, markupContext);
+   }
+
+   /**
+    * Retrieves the markup the producer bundled with its response to the last action on the window targeted by the
+    * specified invocation, if it can be used to render the window in the state identified by the specified key. Any
+    * bundled markup is discarded by this call.
+    *
+    * @param invocation the invocation targeting the window
+    * @param key        identifies the state in which the window is to be rendered, <code>null</code> to only discard
+    *                   any bundled markup
+    * @return the bundled markup or <code>null</code> if there is none or if it cannot be used
+    */
+   MarkupContext removeBundledMarkup(PortletInvocation invocation, String key)
+   {
+      // don't create a session just to find out that there is no bundled markup
+      HttpSession session = WSRPConsumerImpl.getHttpRequest(invocation).getSession(false);
+      if (session == null)
+      {
+         return null;
+      }
+
+      ProducerSessionInformation sessionInformation = getProducerSessionInformation(session, false);
+      return sessionInformation != null ? sessionInformation.removeBundledMarkup(invocation.getWindowContext().getId(), key) : null;
+   }
+
    /**
     * Generates a key to store the producer session information in the consumer-side session.
     *
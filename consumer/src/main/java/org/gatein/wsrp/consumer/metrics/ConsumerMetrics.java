@@ -0,0 +1,334 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer.metrics;
+
+import org.gatein.wsrp.metrics.OperationMetrics;
+import org.gatein.wsrp.metrics.OperationStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the runtime metrics of the interactions between a consumer and its remote producer: latency, errors and
+ * response sizes of each WSRP operation, retries, recoveries from InvalidCookie and InvalidSession faults, service
+ * description refreshes and cache efficiency, and publishes them over JMX. Request sizes are not measured as the
+ * consumer requests don't carry any significant portlet data.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class ConsumerMetrics implements ConsumerMetricsMXBean
+{
+   private static final Logger log = LoggerFactory.getLogger(ConsumerMetrics.class);
+
+   /** Prefix of the name under which the metrics of a consumer are published over JMX. */
+   public static final String OBJECT_NAME_PREFIX = "gatein.wsrp:service=ConsumerMetrics,producer=";
+
+   private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<String, OperationMetrics>();
+   private final AtomicLong retries = new AtomicLong();
+   private final AtomicLong invalidCookieRecoveries = new AtomicLong();
+   private final AtomicLong invalidSessionRecoveries = new AtomicLong();
+   private final AtomicLong refreshes = new AtomicLong();
+   private final AtomicLong failedRefreshes = new AtomicLong();
+   private final AtomicLong portletCacheHits = new AtomicLong();
+   private final AtomicLong portletCacheMisses = new AtomicLong();
+   private final AtomicLong mimeResponses = new AtomicLong();
+   private final AtomicLong cachedItems = new AtomicLong();
+   private final AtomicLong cacheableResponses = new AtomicLong();
+
+   /** The name under which these metrics are currently published, <code>null</code> if they are not */
+   private ObjectName objectName;
+
+   public static ObjectName getObjectNameFor(String producerId)
+   {
+      try
+      {
+         return new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(producerId));
+      }
+      catch (Exception e)
+      {
+         throw new IllegalArgumentException("Couldn't create an ObjectName for producer " + producerId, e);
+      }
+   }
+
+   /**
+    * Records the start of an invocation of the specified operation on the remote producer.
+    *
+    * @param operation the name of the invoked WSRP operation
+    * @return the Invocation to end once the remote producer answered
+    */
+   public Invocation start(String operation)
+   {
+      OperationMetrics operationMetrics = operations.get(operation);
+      if (operationMetrics == null)
+      {
+         OperationMetrics newMetrics = new OperationMetrics(operation);
+         operationMetrics = operations.putIfAbsent(operation, newMetrics);
+         if (operationMetrics == null)
+         {
+            operationMetrics = newMetrics;
+         }
+      }
+
+      return new Invocation(operationMetrics);
+   }
+
+   public void retried()
+   {
+      retries.incrementAndGet();
+   }
+
+   public void recoveredFromInvalidCookie()
+   {
+      invalidCookieRecoveries.incrementAndGet();
+   }
+
+   public void recoveredFromInvalidSession()
+   {
+      invalidSessionRecoveries.incrementAndGet();
+   }
+
+   public void serviceDescriptionRefreshed(boolean failed)
+   {
+      refreshes.incrementAndGet();
+      if (failed)
+      {
+         failedRefreshes.incrementAndGet();
+      }
+   }
+
+   public void portletLookedUp(boolean cached)
+   {
+      (cached ? portletCacheHits : portletCacheMisses).incrementAndGet();
+   }
+
+   /**
+    * Records the reception of a markup or resource response.
+    *
+    * @param useCachedItem whether the remote producer asked the portal to use its cached version of the content
+    * @param cacheable     whether the remote producer allowed the portal to cache the content
+    */
+   public void mimeResponseReceived(boolean useCachedItem, boolean cacheable)
+   {
+      mimeResponses.incrementAndGet();
+      if (useCachedItem)
+      {
+         cachedItems.incrementAndGet();
+      }
+      if (cacheable)
+      {
+         cacheableResponses.incrementAndGet();
+      }
+   }
+
+   public List<OperationStatistics> getOperationStatistics()
+   {
+      final List<OperationStatistics> statistics = new ArrayList<OperationStatistics>(operations.size());
+      for (OperationMetrics operationMetrics : operations.values())
+      {
+         statistics.add(operationMetrics.getStatistics());
+      }
+      return statistics;
+   }
+
+   public int getInFlight()
+   {
+      int inFlight = 0;
+      for (OperationMetrics operationMetrics : operations.values())
+      {
+         inFlight += operationMetrics.getInFlight();
+      }
+      return inFlight;
+   }
+
+   public long getRetryCount()
+   {
+      return retries.get();
+   }
+
+   public long getInvalidCookieRecoveryCount()
+   {
+      return invalidCookieRecoveries.get();
+   }
+
+   public long getInvalidSessionRecoveryCount()
+   {
+      return invalidSessionRecoveries.get();
+   }
+
+   public long getServiceDescriptionRefreshCount()
+   {
+      return refreshes.get();
+   }
+
+   public long getFailedServiceDescriptionRefreshCount()
+   {
+      return failedRefreshes.get();
+   }
+
+   public long getPortletCacheHitCount()
+   {
+      return portletCacheHits.get();
+   }
+
+   public long getPortletCacheMissCount()
+   {
+      return portletCacheMisses.get();
+   }
+
+   public double getPortletCacheHitRate()
+   {
+      return ratio(portletCacheHits.get(), portletCacheHits.get() + portletCacheMisses.get());
+   }
+
+   public long getMimeResponseCount()
+   {
+      return mimeResponses.get();
+   }
+
+   public long getCachedItemCount()
+   {
+      return cachedItems.get();
+   }
+
+   public double getMarkupCacheHitRate()
+   {
+      return ratio(cachedItems.get(), mimeResponses.get());
+   }
+
+   public long getCacheableResponseCount()
+   {
+      return cacheableResponses.get();
+   }
+
+   private static double ratio(long count, long total)
+   {
+      return total == 0 ? 0 : count / (double)total;
+   }
+
+   public void reset()
+   {
+      for (OperationMetrics operationMetrics : operations.values())
+      {
+         operationMetrics.reset();
+      }
+      retries.set(0);
+      invalidCookieRecoveries.set(0);
+      invalidSessionRecoveries.set(0);
+      refreshes.set(0);
+      failedRefreshes.set(0);
+      portletCacheHits.set(0);
+      portletCacheMisses.set(0);
+      mimeResponses.set(0);
+      cachedItems.set(0);
+      cacheableResponses.set(0);
+   }
+
+   /**
+    * Publishes these metrics on the platform MBean server for the specified producer, replacing any previous
+    * publication.
+    *
+    * @param producerId the identifier of the producer the consumer recording these metrics is associated with
+    */
+   public synchronized void register(String producerId)
+   {
+      unregister();
+
+      try
+      {
+         final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         final ObjectName name = getObjectNameFor(producerId);
+         if (!server.isRegistered(name))
+         {
+            server.registerMBean(this, name);
+            objectName = name;
+         }
+      }
+      catch (Exception e)
+      {
+         log.warn("Couldn't publish metrics of consumer " + producerId + " over JMX", e);
+      }
+   }
+
+   public synchronized void unregister()
+   {
+      if (objectName != null)
+      {
+         try
+         {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName))
+            {
+               server.unregisterMBean(objectName);
+            }
+         }
+         catch (Exception e)
+         {
+            log.debug("Couldn't unpublish metrics " + objectName, e);
+         }
+         finally
+         {
+            objectName = null;
+         }
+      }
+   }
+
+   /** An invocation of the remote producer being recorded. */
+   public static class Invocation
+   {
+      private final long start = System.nanoTime();
+      private final OperationMetrics operationMetrics;
+      private boolean ended;
+
+      private Invocation(OperationMetrics operationMetrics)
+      {
+         this.operationMetrics = operationMetrics;
+         operationMetrics.started();
+      }
+
+      /**
+       * Records the completion of this invocation. Only the first call is taken into account so that the invocation can
+       * safely be ended again in error handling code.
+       *
+       * @param failure      the fault or exception the invocation resulted in, <code>null</code> if it succeeded
+       * @param responseSize the size of the markup or resource carried by the response
+       */
+      public void end(Throwable failure, long responseSize)
+      {
+         if (!ended)
+         {
+            ended = true;
+            operationMetrics.ended(System.nanoTime() - start, failure != null ? failure.getClass().getSimpleName() : null, 0, responseSize);
+         }
+      }
+   }
+}
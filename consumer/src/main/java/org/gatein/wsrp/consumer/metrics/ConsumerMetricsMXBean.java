@@ -0,0 +1,84 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer.metrics;
+
+import org.gatein.wsrp.metrics.OperationStatistics;
+
+import java.util.List;
+
+/**
+ * Management interface publishing the metrics of a consumer over JMX, registered under {@link
+ * ConsumerMetrics#OBJECT_NAME_PREFIX} followed by the quoted identifier of the producer the consumer is associated
+ * with.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public interface ConsumerMetricsMXBean
+{
+   /** @return the statistics of each WSRP operation invoked on the remote producer since the consumer started or the last reset */
+   List<OperationStatistics> getOperationStatistics();
+
+   /** @return the total number of WSRP invocations currently awaiting an answer from the remote producer */
+   int getInFlight();
+
+   /** @return how many times a markup, interaction, event or resource request was re-sent to the remote producer */
+   long getRetryCount();
+
+   /** @return how many InvalidCookie faults were recovered from by re-initializing the cookies */
+   long getInvalidCookieRecoveryCount();
+
+   /** @return how many InvalidSession faults were recovered from by re-sending the session-stored information */
+   long getInvalidSessionRecoveryCount();
+
+   /** @return how many times the service description of the remote producer was refreshed */
+   long getServiceDescriptionRefreshCount();
+
+   /** @return how many service description refreshes failed */
+   long getFailedServiceDescriptionRefreshCount();
+
+   /** @return how many portlet look ups were answered from the cached portlet descriptions */
+   long getPortletCacheHitCount();
+
+   /** @return how many portlet look ups required a getPortletDescription invocation */
+   long getPortletCacheMissCount();
+
+   /** @return the ratio of portlet look ups answered from the cached portlet descriptions, between 0 and 1 */
+   double getPortletCacheHitRate();
+
+   /** @return how many markup and resource responses were received from the remote producer */
+   long getMimeResponseCount();
+
+   /** @return how many markup and resource responses asked the portal to use its cached version of the content */
+   long getCachedItemCount();
+
+   /** @return the ratio of markup and resource responses asking the portal to use its cached content, between 0 and 1 */
+   double getMarkupCacheHitRate();
+
+   /** @return how many markup and resource responses the portal was allowed to cache */
+   long getCacheableResponseCount();
+
+   /** Discards all the metrics recorded so far. */
+   void reset();
+}
@@ -26,13 +26,13 @@ import org.gatein.common.util.ParameterValidation;
 
 import javax.xml.namespace.QName;
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 /**
  * Provides basic behavior for migration (i.e. WSRP import/export) functionality.
@@ -42,26 +42,58 @@ import java.util.TreeMap;
  */
 public class BaseMigrationInfo
 {
-   protected static final Map<QName, List<String>> EMPTY_FAILED = new TreeMap<QName, List<String>>();
-   protected final Map<QName, List<String>> errorCodeToHandles;
+   protected final Map<QName, List<String>> errorCodeToHandles = new HashMap<QName, List<String>>(7);
    protected final long exportTime;
 
    public BaseMigrationInfo(long exportTime, Map<QName, List<String>> errorCodeToHandles)
+   {
+      addFailedPortlets(errorCodeToHandles);
+      this.exportTime = exportTime;
+   }
+
+   public synchronized Map<QName, List<String>> getErrorCodesToFailedPortletHandlesMapping()
+   {
+      return Collections.unmodifiableMap(new HashMap<QName, List<String>>(errorCodeToHandles));
+   }
+
+   /**
+    * Records the specified failed portlets, merging them with the already known ones failing with the same error code.
+    *
+    * @param errorCodeToHandles the handles of the failed portlets keyed by error code
+    */
+   protected synchronized void addFailedPortlets(Map<QName, List<String>> errorCodeToHandles)
    {
       if (ParameterValidation.existsAndIsNotEmpty(errorCodeToHandles))
       {
-         this.errorCodeToHandles = errorCodeToHandles;
-      }
-      else
-      {
-         this.errorCodeToHandles = EMPTY_FAILED;
+         for (Map.Entry<QName, List<String>> entry : errorCodeToHandles.entrySet())
+         {
+            List<String> handles = this.errorCodeToHandles.get(entry.getKey());
+            if (handles == null)
+            {
+               handles = new ArrayList<String>(entry.getValue());
+               this.errorCodeToHandles.put(entry.getKey(), handles);
+            }
+            else
+            {
+               handles.addAll(entry.getValue());
+            }
+         }
       }
-      this.exportTime = exportTime;
    }
 
-   public Map<QName, List<String>> getErrorCodesToFailedPortletHandlesMapping()
+   /**
+    * Retrieves the number of portlets that failed to be migrated.
+    *
+    * @return the number of failed portlets
+    */
+   public synchronized int getFailedPortletsCount()
    {
-      return Collections.unmodifiableMap(errorCodeToHandles);
+      int count = 0;
+      for (List<String> handles : errorCodeToHandles.values())
+      {
+         count += handles.size();
+      }
+      return count;
    }
 
    public long getExportTime()
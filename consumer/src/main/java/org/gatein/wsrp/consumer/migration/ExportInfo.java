@@ -27,40 +27,101 @@ import org.gatein.common.util.ParameterValidation;
 
 import javax.xml.namespace.QName;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
 /**
- * Provides metadata information about the result of an export operation on a remote producer.
+ * Provides metadata information about the result of an export operation on a remote producer. Large exports are
+ * performed in chunks, each chunk resulting in a separate export operation on the producer, so an ExportInfo can
+ * record partial results, along with the handles of the portlets that still need to be exported, so that an
+ * interrupted export can be resumed.
  *
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @version $Revision$
  */
 public class ExportInfo extends BaseMigrationInfo
 {
-   private final byte[] exportContext;
+   private byte[] exportContext;
    private long expirationTime;
-   private final SortedMap<String, byte[]> handleToExportedState;
-   private static final SortedMap<String, byte[]> EMPTY_EXPORTED = new TreeMap<String, byte[]>();
+   private final SortedMap<String, byte[]> handleToExportedState = new TreeMap<String, byte[]>();
+   /** export context associated with exported portlets when it differs from the main one, i.e. for chunked exports */
+   private final Map<String, byte[]> handleToExportContext = new HashMap<String, byte[]>();
+   /** handles of the portlets that still need to be exported */
+   private final Set<String> remainingHandles = new LinkedHashSet<String>();
+   /** loads exported data on demand when this ExportInfo was retrieved from persistent storage without it */
+   private ExportedDataLoader loader;
+   private boolean specificExportContextsLoaded = true;
+
+   /**
+    * Loads exported data that wasn't retrieved along with the ExportInfo metadata, so that listing exports doesn't
+    * require reading the exported state of all their portlets.
+    */
+   public interface ExportedDataLoader
+   {
+      /**
+       * Loads the exported state of the specified portlet.
+       *
+       * @param exportInfo    the ExportInfo the portlet belongs to
+       * @param portletHandle the handle of the exported portlet
+       * @return the exported state of the portlet, possibly <code>null</code>
+       */
+      byte[] loadPortletState(ExportInfo exportInfo, String portletHandle);
+
+      /**
+       * Loads the export contexts associated with exported portlets when they differ from the main one.
+       *
+       * @param exportInfo the ExportInfo which export contexts we want to load
+       * @return the export contexts keyed by portlet handle
+       */
+      Map<String, byte[]> loadSpecificExportContexts(ExportInfo exportInfo);
+   }
 
    public ExportInfo(long exportTime, SortedMap<QName, List<String>> errorCodeToHandles, SortedMap<String, byte[]> handleToState, byte[] exportContext)
+   {
+      this(exportTime, errorCodeToHandles, handleToState, exportContext, null, null);
+   }
+
+   public ExportInfo(long exportTime, Map<QName, List<String>> errorCodeToHandles, Map<String, byte[]> handleToState, byte[] exportContext, Map<String, byte[]> handleToExportContext, List<String> remainingHandles)
    {
       super(exportTime, errorCodeToHandles);
 
       if (ParameterValidation.existsAndIsNotEmpty(handleToState))
       {
-         this.handleToExportedState = handleToState;
+         this.handleToExportedState.putAll(handleToState);
+      }
+
+      if (ParameterValidation.existsAndIsNotEmpty(handleToExportContext))
+      {
+         this.handleToExportContext.putAll(handleToExportContext);
       }
-      else
+
+      if (ParameterValidation.existsAndIsNotEmpty(remainingHandles))
       {
-         handleToExportedState = EMPTY_EXPORTED;
+         this.remainingHandles.addAll(remainingHandles);
       }
 
       this.exportContext = exportContext;
    }
 
+   /**
+    * Creates an ExportInfo for an export operation that hasn't been performed yet.
+    *
+    * @param exportTime     the time at which the export was started
+    * @param portletHandles the handles of the portlets to export
+    */
+   public ExportInfo(long exportTime, List<String> portletHandles)
+   {
+      this(exportTime, null, null, null, null, portletHandles);
+   }
+
    public long getExpirationTime()
    {
       return expirationTime;
@@ -71,14 +132,137 @@ public class ExportInfo extends BaseMigrationInfo
       return getHumanReadableTime(locale, expirationTime);
    }
 
-   public List<String> getExportedPortletHandles()
+   public synchronized List<String> getExportedPortletHandles()
    {
       return new ArrayList<String>(handleToExportedState.keySet());
    }
 
    public byte[] getPortletStateFor(String portletHandle)
    {
-      return handleToExportedState.get(portletHandle);
+      final ExportedDataLoader currentLoader;
+      synchronized (this)
+      {
+         final byte[] state = handleToExportedState.get(portletHandle);
+         if (state != null || loader == null || !handleToExportedState.containsKey(portletHandle))
+         {
+            return state;
+         }
+         currentLoader = loader;
+      }
+
+      // load outside of the lock since this might involve accessing persistent storage
+      final byte[] state = currentLoader.loadPortletState(this, portletHandle);
+      synchronized (this)
+      {
+         handleToExportedState.put(portletHandle, state);
+      }
+      return state;
+   }
+
+   /**
+    * Specifies how the exported data that wasn't provided when this ExportInfo was created should be loaded. Exported
+    * portlets with a <code>null</code> state will have their state loaded on demand.
+    *
+    * @param loader the ExportedDataLoader to use
+    */
+   public synchronized void setExportedDataLoader(ExportedDataLoader loader)
+   {
+      this.loader = loader;
+      specificExportContextsLoaded = loader == null;
+   }
+
+   private void loadSpecificExportContextsIfNeeded()
+   {
+      if (!specificExportContextsLoaded)
+      {
+         final Map<String, byte[]> contexts = loader.loadSpecificExportContexts(this);
+         if (contexts != null)
+         {
+            for (Map.Entry<String, byte[]> entry : contexts.entrySet())
+            {
+               if (!handleToExportContext.containsKey(entry.getKey()))
+               {
+                  handleToExportContext.put(entry.getKey(), entry.getValue());
+               }
+            }
+         }
+         specificExportContextsLoaded = true;
+      }
+   }
+
+   /**
+    * Records the result of exporting a chunk of this export's portlets.
+    *
+    * @param portletHandles the handles of the portlets that were part of the chunk
+    * @param exportContext  the export context the producer returned for this chunk
+    * @param handleToState  the exported state of the successfully exported portlets
+    * @param errorCodeToHandles the handles of the portlets that couldn't be exported, keyed by error code
+    */
+   public synchronized void addExportedChunk(List<String> portletHandles, byte[] exportContext, Map<String, byte[]> handleToState, Map<QName, List<String>> errorCodeToHandles)
+   {
+      remainingHandles.removeAll(portletHandles);
+
+      // the first chunk provides the main export context, only record other ones when needed
+      if (this.exportContext == null)
+      {
+         this.exportContext = exportContext;
+      }
+      boolean specificContext = exportContext != null && !Arrays.equals(this.exportContext, exportContext);
+
+      if (ParameterValidation.existsAndIsNotEmpty(handleToState))
+      {
+         for (Map.Entry<String, byte[]> entry : handleToState.entrySet())
+         {
+            handleToExportedState.put(entry.getKey(), entry.getValue());
+            if (specificContext)
+            {
+               handleToExportContext.put(entry.getKey(), exportContext);
+            }
+         }
+      }
+
+      addFailedPortlets(errorCodeToHandles);
+   }
+
+   /**
+    * Retrieves the handles of the portlets that still need to be exported for this export to be complete.
+    *
+    * @return the handles of the portlets that still need to be exported
+    */
+   public synchronized List<String> getRemainingPortletHandles()
+   {
+      return new ArrayList<String>(remainingHandles);
+   }
+
+   /**
+    * Whether all the portlets this export was started for have been processed by the producer.
+    *
+    * @return <code>true</code> if the export is complete, <code>false</code> if it needs to be resumed
+    */
+   public synchronized boolean isComplete()
+   {
+      return remainingHandles.isEmpty();
+   }
+
+   /**
+    * Retrieves the total number of portlets this export was started for.
+    *
+    * @return the total number of portlets this export was started for
+    */
+   public synchronized int getTotalPortletsCount()
+   {
+      return handleToExportedState.size() + getFailedPortletsCount() + remainingHandles.size();
+   }
+
+   /**
+    * Retrieves the percentage of this export's portlets that have been processed so far.
+    *
+    * @return a percentage between 0 and 100
+    */
+   public synchronized int getProgress()
+   {
+      final int total = getTotalPortletsCount();
+      return total == 0 ? 100 : (int)((total - remainingHandles.size()) * 100L / total);
    }
 
    @Override
@@ -109,8 +293,65 @@ public class ExportInfo extends BaseMigrationInfo
       return (int)(exportTime ^ (exportTime >>> 32));
    }
 
-   public byte[] getExportContext()
+   public synchronized byte[] getExportContext()
    {
       return exportContext;
    }
+
+   /**
+    * Retrieves the export context that needs to be passed to the producer when importing the specified portlet.
+    *
+    * @param portletHandle the handle of an exported portlet
+    * @return the export context associated with the specified portlet
+    */
+   public synchronized byte[] getExportContextFor(String portletHandle)
+   {
+      loadSpecificExportContextsIfNeeded();
+      final byte[] specific = handleToExportContext.get(portletHandle);
+      return specific != null ? specific : exportContext;
+   }
+
+   /**
+    * Retrieves the export contexts associated with exported portlets, when they differ from the main export context.
+    *
+    * @return the export contexts specific to some exported portlets, keyed by portlet handle
+    */
+   public synchronized Map<String, byte[]> getSpecificExportContexts()
+   {
+      loadSpecificExportContextsIfNeeded();
+      return Collections.unmodifiableMap(new HashMap<String, byte[]>(handleToExportContext));
+   }
+
+   /**
+    * Retrieves all the distinct export contexts associated with this export, the main one first.
+    *
+    * @return all the distinct export contexts associated with this export
+    */
+   public synchronized List<byte[]> getExportContexts()
+   {
+      loadSpecificExportContextsIfNeeded();
+      List<byte[]> contexts = new ArrayList<byte[]>();
+      if (exportContext != null)
+      {
+         contexts.add(exportContext);
+      }
+      for (byte[] context : handleToExportContext.values())
+      {
+         boolean known = false;
+         for (byte[] existing : contexts)
+         {
+            if (Arrays.equals(existing, context))
+            {
+               known = true;
+               break;
+            }
+         }
+
+         if (!known)
+         {
+            contexts.add(context);
+         }
+      }
+      return contexts;
+   }
 }
@@ -67,6 +67,12 @@ public class InMemoryMigrationService implements MigrationService
       getExportInfos().put(info.getExportTime(), info);
    }
 
+   public void update(ExportInfo info)
+   {
+      // ExportInfos are kept as-is in memory so there's nothing more to do than making sure we know about it
+      add(info);
+   }
+
    public ExportInfo remove(ExportInfo info)
    {
       return info == null ? null : getExportInfos().remove(info.getExportTime());
@@ -71,6 +71,14 @@ public interface MigrationService
     */
    void add(ExportInfo info);
 
+   /**
+    * Persists the current state of the specified ExportInfo, adding it to the ExportInfos managed by this
+    * MigrationService if it wasn't already. Used to record the progress of chunked exports as they happen.
+    *
+    * @param info the ExportInfo to update
+    */
+   void update(ExportInfo info);
+
    /**
     * Removes the specified ExportInfo from the ones managed by this MigrationService.
     *
@@ -27,6 +27,7 @@ import junit.framework.TestCase;
 import org.gatein.wsrp.WSRPConstants;
 import org.gatein.wsrp.WSRPTypeFactory;
 import org.gatein.wsrp.handler.CookieUtil;
+import org.oasis.wsrp.v2.MarkupContext;
 
 import java.util.List;
 
@@ -213,6 +214,40 @@ public class ProducerSessionInformationTestCase extends TestCase
       }
    }
 
+   public void testBundledMarkup()
+   {
+      assertNull(info.removeBundledMarkup("window", "key"));
+
+      final MarkupContext markupContext = WSRPTypeFactory.createMarkupContext("text/html", "markup", null, null);
+      info.setBundledMarkup("window", "key", markupContext);
+
+      // bundled markup is only associated with its window and can only be used once
+      assertNull(info.removeBundledMarkup("other", "key"));
+      assertSame(markupContext, info.removeBundledMarkup("window", "key"));
+      assertNull(info.removeBundledMarkup("window", "key"));
+   }
+
+   public void testBundledMarkupIsDiscardedWhenStateDiffers()
+   {
+      info.setBundledMarkup("window", "key", WSRPTypeFactory.createMarkupContext("text/html", "markup", null, null));
+
+      assertNull(info.removeBundledMarkup("window", "otherKey"));
+      assertNull(info.removeBundledMarkup("window", "key"));
+
+      // a null key only discards bundled markup
+      info.setBundledMarkup("window", "key", WSRPTypeFactory.createMarkupContext("text/html", "markup", null, null));
+      assertNull(info.removeBundledMarkup("window", null));
+      assertNull(info.removeBundledMarkup("window", "key"));
+   }
+
+   public void testBundledMarkupExpires() throws Exception
+   {
+      info.setBundledMarkup("window", "key", WSRPTypeFactory.createMarkupContext("text/html", "markup", null, null), 1000);
+
+      Thread.sleep(SLEEP_TIME);
+      assertNull(info.removeBundledMarkup("window", "key"));
+   }
+
    private void addSession(String handle, String sid, int expires)
    {
       info.addSessionForPortlet(handle, WSRPTypeFactory.createSessionContext(sid, expires));
@@ -0,0 +1,134 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer.metrics;
+
+import junit.framework.TestCase;
+import org.gatein.wsrp.metrics.OperationStatistics;
+import org.oasis.wsrp.v2.InvalidSession;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class ConsumerMetricsTestCase extends TestCase
+{
+   public void testInvocations()
+   {
+      final ConsumerMetrics metrics = new ConsumerMetrics();
+
+      final ConsumerMetrics.Invocation invocation = metrics.start("getMarkup");
+      assertEquals(1, metrics.getInFlight());
+      invocation.end(null, 1000);
+      final InvalidSession fault = new InvalidSession("invalid", null);
+      final ConsumerMetrics.Invocation failed = metrics.start("getMarkup");
+      failed.end(fault, 0);
+      // ending an invocation again shouldn't be recorded
+      failed.end(fault, 0);
+      assertEquals(0, metrics.getInFlight());
+
+      final List<OperationStatistics> statistics = metrics.getOperationStatistics();
+      assertEquals(1, statistics.size());
+      final OperationStatistics getMarkup = statistics.get(0);
+      assertEquals("getMarkup", getMarkup.getOperation());
+      assertEquals(2, getMarkup.getInvocationCount());
+      assertEquals(1, getMarkup.getErrorCount());
+      assertEquals(Long.valueOf(1), getMarkup.getErrorCountsByFault().get("InvalidSession"));
+      assertEquals(500, getMarkup.getMeanResponseSize());
+      assertEquals(1000, getMarkup.getMaxResponseSize());
+      assertEquals(0, getMarkup.getMeanRequestSize());
+   }
+
+   public void testCounters()
+   {
+      final ConsumerMetrics metrics = new ConsumerMetrics();
+      assertEquals(0d, metrics.getPortletCacheHitRate());
+      assertEquals(0d, metrics.getMarkupCacheHitRate());
+
+      metrics.retried();
+      metrics.recoveredFromInvalidCookie();
+      metrics.recoveredFromInvalidSession();
+      metrics.recoveredFromInvalidSession();
+      metrics.serviceDescriptionRefreshed(false);
+      metrics.serviceDescriptionRefreshed(true);
+      metrics.portletLookedUp(true);
+      metrics.portletLookedUp(true);
+      metrics.portletLookedUp(true);
+      metrics.portletLookedUp(false);
+      metrics.mimeResponseReceived(true, true);
+      metrics.mimeResponseReceived(false, true);
+      metrics.mimeResponseReceived(false, false);
+      metrics.mimeResponseReceived(false, false);
+
+      assertEquals(1, metrics.getRetryCount());
+      assertEquals(1, metrics.getInvalidCookieRecoveryCount());
+      assertEquals(2, metrics.getInvalidSessionRecoveryCount());
+      assertEquals(2, metrics.getServiceDescriptionRefreshCount());
+      assertEquals(1, metrics.getFailedServiceDescriptionRefreshCount());
+      assertEquals(3, metrics.getPortletCacheHitCount());
+      assertEquals(1, metrics.getPortletCacheMissCount());
+      assertEquals(0.75, metrics.getPortletCacheHitRate());
+      assertEquals(4, metrics.getMimeResponseCount());
+      assertEquals(1, metrics.getCachedItemCount());
+      assertEquals(0.25, metrics.getMarkupCacheHitRate());
+      assertEquals(2, metrics.getCacheableResponseCount());
+
+      metrics.reset();
+      assertEquals(0, metrics.getRetryCount());
+      assertEquals(0, metrics.getPortletCacheHitCount());
+      assertEquals(0, metrics.getMimeResponseCount());
+   }
+
+   public void testRegistration() throws Exception
+   {
+      final ConsumerMetrics metrics = new ConsumerMetrics();
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+      metrics.register("producer:1");
+      final ObjectName name = ConsumerMetrics.getObjectNameFor("producer:1");
+      try
+      {
+         assertTrue(server.isRegistered(name));
+
+         metrics.retried();
+         assertEquals(1, JMX.newMXBeanProxy(server, name, ConsumerMetricsMXBean.class).getRetryCount());
+
+         // registering under a new identifier should replace the previous registration
+         metrics.register("producer2");
+         assertFalse(server.isRegistered(name));
+         assertTrue(server.isRegistered(ConsumerMetrics.getObjectNameFor("producer2")));
+      }
+      finally
+      {
+         metrics.unregister();
+      }
+
+      assertFalse(server.isRegistered(ConsumerMetrics.getObjectNameFor("producer2")));
+   }
+}
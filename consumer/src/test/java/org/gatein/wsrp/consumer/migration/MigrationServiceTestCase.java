@@ -24,8 +24,13 @@
 package org.gatein.wsrp.consumer.migration;
 
 import junit.framework.TestCase;
+import org.gatein.wsrp.spec.v2.ErrorCodes;
 
+import javax.xml.namespace.QName;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 
 /**
@@ -59,4 +64,72 @@ public class MigrationServiceTestCase extends TestCase
       assertEquals(info, service.getExportInfo(info.getExportTime()));
       assertFalse(service.isAvailableExportInfosEmpty());
    }
+
+   public void testChunkedExport()
+   {
+      ExportInfo info = new ExportInfo(System.currentTimeMillis(), Arrays.asList("a", "b", "c", "d"));
+      service.add(info);
+      assertFalse(info.isComplete());
+      assertEquals(0, info.getProgress());
+      assertEquals(4, info.getTotalPortletsCount());
+
+      byte[] firstContext = {1};
+      info.addExportedChunk(Arrays.asList("a", "b"), firstContext, Collections.singletonMap("a", new byte[]{10}),
+         Collections.<QName, List<String>>singletonMap(ErrorCodes.InvalidHandle, Collections.singletonList("b")));
+      service.update(info);
+      assertEquals(50, info.getProgress());
+      assertEquals(Arrays.asList("c", "d"), info.getRemainingPortletHandles());
+      assertSame(firstContext, info.getExportContext());
+
+      byte[] secondContext = {2};
+      info.addExportedChunk(Arrays.asList("c", "d"), secondContext, Collections.singletonMap("c", new byte[]{30}),
+         Collections.<QName, List<String>>singletonMap(ErrorCodes.InvalidHandle, Collections.singletonList("d")));
+      assertTrue(info.isComplete());
+      assertEquals(100, info.getProgress());
+      assertEquals(4, info.getTotalPortletsCount());
+
+      // each portlet should be associated with the export context of the chunk it was exported in
+      assertSame(firstContext, info.getExportContextFor("a"));
+      assertSame(secondContext, info.getExportContextFor("c"));
+      assertEquals(2, info.getExportContexts().size());
+
+      Map<QName, List<String>> failed = info.getErrorCodesToFailedPortletHandlesMapping();
+      assertEquals(1, failed.size());
+      assertEquals(Arrays.asList("b", "d"), failed.get(ErrorCodes.InvalidHandle));
+   }
+
+   public void testLazilyLoadedExportedData()
+   {
+      TreeMap<String, byte[]> states = new TreeMap<String, byte[]>();
+      states.put("a", null);
+      states.put("b", null);
+      ExportInfo info = new ExportInfo(System.currentTimeMillis(), null, states, new byte[]{1}, null, null);
+
+      final int[] loads = new int[1];
+      info.setExportedDataLoader(new ExportInfo.ExportedDataLoader()
+      {
+         public byte[] loadPortletState(ExportInfo exportInfo, String portletHandle)
+         {
+            loads[0]++;
+            return portletHandle.getBytes();
+         }
+
+         public Map<String, byte[]> loadSpecificExportContexts(ExportInfo exportInfo)
+         {
+            return Collections.singletonMap("b", new byte[]{2});
+         }
+      });
+
+      assertEquals(Arrays.asList("a", "b"), info.getExportedPortletHandles());
+      assertEquals(0, loads[0]);
+
+      assertEquals("a", new String(info.getPortletStateFor("a")));
+      assertEquals("a", new String(info.getPortletStateFor("a")));
+      assertEquals(1, loads[0]);
+      assertNull(info.getPortletStateFor("unknown"));
+      assertEquals(1, loads[0]);
+
+      assertEquals(1, info.getExportContextFor("a")[0]);
+      assertEquals(2, info.getExportContextFor("b")[0]);
+   }
 }
@@ -0,0 +1,125 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.protocol.v2;
+
+import junit.framework.TestCase;
+import org.gatein.wsrp.metrics.OperationStatistics;
+import org.gatein.wsrp.test.load.ConsumerLoadHarness;
+import org.gatein.wsrp.test.load.LoadReport;
+import org.gatein.wsrp.test.support.RequestedMarkupBehavior;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class ConsumerLoadHarnessTestCase extends TestCase
+{
+   private ConsumerLoadHarness harness;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      harness = new ConsumerLoadHarness();
+      harness.setThreads(2);
+      harness.setInvocationsPerThread(40);
+      harness.setWarmupInvocationsPerThread(0);
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      RequestedMarkupBehavior.setRequestedMarkupBehavior(null);
+   }
+
+   public void testAllInvocationTypes() throws Exception
+   {
+      harness.setMix(1, 1, 1, 1);
+
+      LoadReport report = harness.run();
+      assertEquals(80, report.getInvocationCount());
+      assertEquals(0, report.getErrorCount());
+      assertTrue(report.getThroughput() > 0);
+
+      for (OperationStatistics statistics : report.getInvocationStatistics())
+      {
+         assertTrue("No " + statistics.getOperation() + " invocation", statistics.getInvocationCount() > 0);
+      }
+
+      // each invocation should result in exactly one WSRP operation
+      assertEquals(report.getInvocationStatisticsFor(ConsumerLoadHarness.RENDER).getInvocationCount(), getOperationCount(report, "getMarkup"));
+      assertEquals(report.getInvocationStatisticsFor(ConsumerLoadHarness.ACTION).getInvocationCount(), getOperationCount(report, "performBlockingInteraction"));
+      assertEquals(report.getInvocationStatisticsFor(ConsumerLoadHarness.RESOURCE).getInvocationCount(), getOperationCount(report, "getResource"));
+      assertEquals(report.getInvocationStatisticsFor(ConsumerLoadHarness.EVENT).getInvocationCount(), getOperationCount(report, "handleEvents"));
+   }
+
+   public void testMix() throws Exception
+   {
+      harness.setMix(1, 0, 0, 0);
+
+      LoadReport report = harness.run();
+      assertEquals(80, report.getInvocationStatisticsFor(ConsumerLoadHarness.RENDER).getInvocationCount());
+      assertEquals(0, report.getInvocationStatisticsFor(ConsumerLoadHarness.ACTION).getInvocationCount());
+      assertEquals(0, report.getInvocationStatisticsFor(ConsumerLoadHarness.RESOURCE).getInvocationCount());
+      assertEquals(0, report.getInvocationStatisticsFor(ConsumerLoadHarness.EVENT).getInvocationCount());
+
+      try
+      {
+         harness.setMix(0, 0, 0, 0);
+         fail("Should have failed: at least one weight must be non-zero");
+      }
+      catch (IllegalArgumentException e)
+      {
+         // expected
+      }
+   }
+
+   public void testInjectedFailuresAndLatency() throws Exception
+   {
+      harness.getProducerBehavior().setErrorRate(1);
+      harness.getProducerBehavior().setLatency(2, 2);
+
+      LoadReport report = harness.run();
+      assertEquals(80, report.getInvocationCount());
+      assertEquals(80, report.getErrorCount());
+      for (OperationStatistics statistics : report.getInvocationStatistics())
+      {
+         if (statistics.getInvocationCount() > 0)
+         {
+            assertTrue(statistics.getMeanLatencyMillis() >= 2);
+         }
+      }
+   }
+
+   private static long getOperationCount(LoadReport report, String operation)
+   {
+      for (OperationStatistics statistics : report.getOperationStatistics())
+      {
+         if (statistics.getOperation().equals(operation))
+         {
+            return statistics.getInvocationCount();
+         }
+      }
+      return 0;
+   }
+}
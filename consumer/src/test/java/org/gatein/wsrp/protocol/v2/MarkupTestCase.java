@@ -40,6 +40,7 @@ import org.gatein.pc.portlet.impl.spi.AbstractPortalContext;
 import org.gatein.pc.portlet.impl.spi.AbstractSecurityContext;
 import org.gatein.pc.portlet.impl.spi.AbstractUserContext;
 import org.gatein.pc.portlet.impl.spi.AbstractWindowContext;
+import org.gatein.wsrp.BatchMarkupExtension;
 import org.gatein.wsrp.WSRPResourceURL;
 import org.gatein.wsrp.api.extensions.ExtensionAccess;
 import org.gatein.wsrp.api.extensions.InvocationHandlerDelegate;
@@ -49,6 +50,8 @@ import org.gatein.wsrp.payload.PayloadUtils;
 import org.gatein.wsrp.test.ExtendedAssert;
 import org.gatein.wsrp.test.protocol.v2.BehaviorRegistry;
 import org.gatein.wsrp.test.protocol.v2.behaviors.BasicMarkupBehavior;
+import org.gatein.wsrp.test.protocol.v2.behaviors.BatchMarkupBehavior;
+import org.gatein.wsrp.test.protocol.v2.behaviors.BundledMarkupBehavior;
 import org.gatein.wsrp.test.protocol.v2.behaviors.EmptyMarkupBehavior;
 import org.gatein.wsrp.test.protocol.v2.behaviors.ExtensionMarkupBehavior;
 import org.gatein.wsrp.test.protocol.v2.behaviors.GroupedPortletsServiceDescriptionBehavior;
@@ -87,6 +90,7 @@ import javax.servlet.http.HttpSession;
 import javax.xml.ws.Holder;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
@@ -98,12 +102,26 @@ import java.util.Locale;
  */
 public class MarkupTestCase extends V2ConsumerBaseTest
 {
+   private static final String WINDOW_ID = "windowcontext";
+
+   private BundledMarkupBehavior bundledMarkupBehavior;
+   private BatchMarkupBehavior batchMarkupBehavior;
 
    public MarkupTestCase() throws Exception
    {
       super();
    }
 
+   @Override
+   protected void registerAdditionalMarkupBehaviors(BehaviorRegistry registry)
+   {
+      super.registerAdditionalMarkupBehaviors(registry);
+      bundledMarkupBehavior = new BundledMarkupBehavior(registry);
+      registry.registerMarkupBehavior(bundledMarkupBehavior);
+      batchMarkupBehavior = new BatchMarkupBehavior(registry);
+      registry.registerMarkupBehavior(batchMarkupBehavior);
+   }
+
    @Override
    protected void tearDown() throws Exception
    {
@@ -250,6 +268,83 @@ public class MarkupTestCase extends V2ConsumerBaseTest
       consumer.invoke(createActionInvocation(ExtensionMarkupBehavior.PORTLET_HANDLE));
    }
 
+   public void testBundledMarkupIsUsedForNextRender() throws Exception
+   {
+      TestPortletInvocationContext context = new TestPortletInvocationContext();
+      PortletInvocationResponse response = consumer.invoke(createActionInvocation(BundledMarkupBehavior.PORTLET_HANDLE, context));
+      ExtendedAssert.assertTrue(response instanceof UpdateNavigationalStateResponse);
+
+      // rendering the window in the state resulting from the action should use the bundled markup
+      RenderInvocation render = createRenderInvocation(BundledMarkupBehavior.PORTLET_HANDLE, Mode.VIEW, WindowState.MAXIMIZED, BundledMarkupBehavior.NS, context);
+      checkRenderResult(consumer.invoke(render), BundledMarkupBehavior.BUNDLED_MARKUP);
+      ExtendedAssert.assertEquals(0, bundledMarkupBehavior.getCallCount());
+
+      // bundled markup is only used once
+      render = createRenderInvocation(BundledMarkupBehavior.PORTLET_HANDLE, Mode.VIEW, WindowState.MAXIMIZED, BundledMarkupBehavior.NS, context);
+      checkRenderResult(consumer.invoke(render), "rendered:view:maximized:" + BundledMarkupBehavior.NS);
+      ExtendedAssert.assertEquals(1, bundledMarkupBehavior.getCallCount());
+   }
+
+   public void testBundledMarkupIsDiscardedWhenStateDiffers() throws Exception
+   {
+      TestPortletInvocationContext context = new TestPortletInvocationContext();
+      consumer.invoke(createActionInvocation(BundledMarkupBehavior.PORTLET_HANDLE, context));
+
+      // the window isn't rendered in the state the producer rendered so bundled markup cannot be used
+      RenderInvocation render = createRenderInvocation(BundledMarkupBehavior.PORTLET_HANDLE, Mode.VIEW, WindowState.MAXIMIZED, "otherNS", context);
+      checkRenderResult(consumer.invoke(render), "rendered:view:maximized:otherNS");
+      ExtendedAssert.assertEquals(1, bundledMarkupBehavior.getCallCount());
+
+      // and it should have been discarded
+      render = createRenderInvocation(BundledMarkupBehavior.PORTLET_HANDLE, Mode.VIEW, WindowState.MAXIMIZED, BundledMarkupBehavior.NS, context);
+      checkRenderResult(consumer.invoke(render), "rendered:view:maximized:" + BundledMarkupBehavior.NS);
+      ExtendedAssert.assertEquals(2, bundledMarkupBehavior.getCallCount());
+   }
+
+   public void testInvokeAllBatchesRendersWhenSupported() throws Exception
+   {
+      producer.getBehaviorRegistry().getServiceDescriptionBehavior().addExtensionDescription(BatchMarkupExtension.createExtensionDescription());
+      consumer.refreshProducerInfo();
+      ExtendedAssert.assertTrue(consumer.getProducerInfo().isBatchMarkupSupported());
+
+      List<PortletInvocationResponse> responses = consumer.invokeAll(createBatchableRenderInvocations());
+      checkBatchableRenderResults(responses);
+
+      // all portlets were rendered in a single call, except the one failing when batched which was rendered again individually
+      ExtendedAssert.assertEquals(2, batchMarkupBehavior.getBatchedRequestCount());
+      ExtendedAssert.assertEquals(2, batchMarkupBehavior.getCallCount());
+   }
+
+   public void testInvokeAllRendersIndividuallyWhenBatchingIsNotSupported() throws Exception
+   {
+      ExtendedAssert.assertFalse(consumer.getProducerInfo().isBatchMarkupSupported());
+
+      List<PortletInvocationResponse> responses = consumer.invokeAll(createBatchableRenderInvocations());
+      checkBatchableRenderResults(responses);
+
+      ExtendedAssert.assertEquals(0, batchMarkupBehavior.getBatchedRequestCount());
+      ExtendedAssert.assertEquals(3, batchMarkupBehavior.getCallCount());
+   }
+
+   private List<RenderInvocation> createBatchableRenderInvocations()
+   {
+      RenderInvocation basic = createRenderInvocation(BasicMarkupBehavior.PORTLET_HANDLE);
+      RenderInvocation failing = createRenderInvocation(BatchMarkupBehavior.FAILING_HANDLE);
+
+      // created last so that it's the requested markup behavior and receives all markup requests
+      RenderInvocation main = createRenderInvocation(BatchMarkupBehavior.PORTLET_HANDLE);
+
+      return Arrays.asList(main, basic, failing);
+   }
+
+   private void checkBatchableRenderResults(List<PortletInvocationResponse> responses)
+   {
+      ExtendedAssert.assertEquals(3, responses.size());
+      checkRenderResult(responses.get(0), BatchMarkupBehavior.PORTLET_HANDLE + ":view:maximized");
+      checkRenderResult(responses.get(1), "portlet1:view:maximized");
+      checkRenderResult(responses.get(2), BatchMarkupBehavior.FAILING_HANDLE + ":view:maximized");
+   }
+
    public void testSessionHandling() throws Exception
    {
       RenderInvocation render = createRenderInvocation(SessionMarkupBehavior.PORTLET_HANDLE);
@@ -415,7 +510,7 @@ public class MarkupTestCase extends V2ConsumerBaseTest
       render.setInstanceContext(new AbstractInstanceContext(portletHandle));
       render.setSecurityContext(new AbstractSecurityContext(MockHttpServletRequest.createMockRequest(null)));
       render.setUserContext(new MockUserContext());
-      render.setWindowContext(new AbstractWindowContext("windowcontext"));
+      render.setWindowContext(new AbstractWindowContext(WINDOW_ID));
       render.setPortalContext(new AbstractPortalContext());
 
       RequestedMarkupBehavior.setRequestedMarkupBehavior(portletHandle);
@@ -425,10 +520,16 @@ public class MarkupTestCase extends V2ConsumerBaseTest
 
    private ActionInvocation createActionInvocation(String portletHandle)
    {
-      TestPortletInvocationContext ac = new TestPortletInvocationContext();
-      ActionInvocation action = new ActionInvocation(ac);
+      return createActionInvocation(portletHandle, new TestPortletInvocationContext());
+   }
+
+   private ActionInvocation createActionInvocation(String portletHandle, TestPortletInvocationContext invocationContext)
+   {
+      ActionInvocation action = new ActionInvocation(invocationContext);
+      action.setMode(Mode.VIEW);
+      action.setWindowState(WindowState.MAXIMIZED);
       action.setInstanceContext(new AbstractInstanceContext(portletHandle));
-      action.setWindowContext(new AbstractWindowContext("windowContextId"));
+      action.setWindowContext(new AbstractWindowContext(WINDOW_ID));
       action.setSecurityContext(new AbstractSecurityContext(MockHttpServletRequest.createMockRequest(null)));
       action.setUserContext(new MockUserContext());
       action.setTarget(PortletContext.createPortletContext(portletHandle, false));
@@ -0,0 +1,448 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.test.load;
+
+import org.gatein.common.util.ParameterMap;
+import org.gatein.pc.api.Mode;
+import org.gatein.pc.api.PortletContext;
+import org.gatein.pc.api.WindowState;
+import org.gatein.pc.api.cache.CacheLevel;
+import org.gatein.pc.api.invocation.ActionInvocation;
+import org.gatein.pc.api.invocation.EventInvocation;
+import org.gatein.pc.api.invocation.PortletInvocation;
+import org.gatein.pc.api.invocation.RenderInvocation;
+import org.gatein.pc.api.invocation.ResourceInvocation;
+import org.gatein.pc.api.invocation.response.ErrorResponse;
+import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
+import org.gatein.pc.portlet.impl.spi.AbstractInstanceContext;
+import org.gatein.pc.portlet.impl.spi.AbstractPortalContext;
+import org.gatein.pc.portlet.impl.spi.AbstractSecurityContext;
+import org.gatein.pc.portlet.impl.spi.AbstractUserContext;
+import org.gatein.pc.portlet.impl.spi.AbstractWindowContext;
+import org.gatein.wsrp.WSRPResourceURL;
+import org.gatein.wsrp.consumer.EndpointConfigurationInfo;
+import org.gatein.wsrp.consumer.ProducerInfo;
+import org.gatein.wsrp.consumer.WSRPConsumerImpl;
+import org.gatein.wsrp.metrics.OperationMetrics;
+import org.gatein.wsrp.metrics.OperationStatistics;
+import org.gatein.wsrp.spec.v2.WSRP2Constants;
+import org.gatein.wsrp.test.protocol.v2.BehaviorBackedServiceFactory;
+import org.gatein.wsrp.test.protocol.v2.BehaviorRegistry;
+import org.gatein.wsrp.test.protocol.v2.TestWSRPProducer;
+import org.gatein.wsrp.test.protocol.v2.TestWSRPProducerImpl;
+import org.gatein.wsrp.test.protocol.v2.behaviors.BasicPortletManagementBehavior;
+import org.gatein.wsrp.test.protocol.v2.behaviors.BasicServiceDescriptionBehavior;
+import org.gatein.wsrp.test.protocol.v2.behaviors.LoadMarkupBehavior;
+import org.gatein.wsrp.test.support.MockHttpServletRequest;
+import org.gatein.wsrp.test.support.MockConsumerRegistry;
+import org.gatein.wsrp.test.support.RequestedMarkupBehavior;
+import org.gatein.wsrp.test.support.TestPortletInvocationContext;
+
+import javax.xml.namespace.QName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Drives a real {@link WSRPConsumerImpl} with concurrent render, action, resource and event invocations against an
+ * in-process producer backed by {@link BehaviorBackedServiceFactory} and {@link LoadMarkupBehavior}, so that the
+ * consumer-side cost of WSRP invocations (request preparation, session and cookie handling, markup rewriting, metrics,
+ * etc.) can be measured without any network or container. Producer latency and failures are simulated by the markup
+ * behavior.
+ * <p/>
+ * Each worker thread acts as a portal user with its own HTTP session, repeatedly picking an invocation type according
+ * to the configured mix. Results are returned as a {@link LoadReport}. The harness can be run from the command line,
+ * see {@link #main(String[])}.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class ConsumerLoadHarness
+{
+   public static final String RENDER = "render";
+   public static final String ACTION = "action";
+   public static final String RESOURCE = "resource";
+   public static final String EVENT = "event";
+   static final String[] OPERATIONS = {RENDER, ACTION, RESOURCE, EVENT};
+
+   private static final String PRODUCER_ID = "load_producer";
+   private static final QName EVENT_NAME = new QName("urn:gatein:wsrp:load", "quoteSelected");
+   private static final String EVENT_PAYLOAD = "AAPL";
+   private static final String RESOURCE_ID = WSRPResourceURL.encodeResource("chart", null, true);
+   private static final PortletContext TARGET = PortletContext.createPortletContext(LoadMarkupBehavior.PORTLET_HANDLE, false);
+
+   private final WSRPConsumerImpl consumer;
+   private final LoadMarkupBehavior behavior;
+
+   private int threads = 4;
+   private int invocationsPerThread = 0;
+   private long durationMillis = 10000;
+   private int warmupInvocationsPerThread = 200;
+   private final int[] mix = {70, 15, 10, 5};
+
+   public ConsumerLoadHarness() throws Exception
+   {
+      TestWSRPProducer producer = new TestWSRPProducerImpl();
+      BehaviorRegistry registry = producer.getBehaviorRegistry();
+      registry.setServiceDescriptionBehavior(new BasicServiceDescriptionBehavior());
+      registry.setPortletManagementBehavior(new BasicPortletManagementBehavior(registry));
+      behavior = new LoadMarkupBehavior(registry);
+      registry.registerMarkupBehavior(behavior);
+
+      consumer = new WSRPConsumerImpl(new ProducerInfo(new MockConsumerRegistry()));
+      ProducerInfo producerInfo = consumer.getProducerInfo();
+      producerInfo.setId(PRODUCER_ID);
+      producerInfo.setEndpointConfigurationInfo(new EndpointConfigurationInfo(new BehaviorBackedServiceFactory(registry)));
+      producerInfo.setExpirationCacheSeconds(null);
+      consumer.refreshProducerInfo();
+
+      // use cache so that measurements are not skewed by service description refreshes
+      producerInfo.setExpirationCacheSeconds(120);
+      producerInfo.setSupportedOption(WSRP2Constants.OPTIONS_EVENTS);
+   }
+
+   public WSRPConsumerImpl getConsumer()
+   {
+      return consumer;
+   }
+
+   /**
+    * Gives access to the simulated producer to configure its latency, failure rate and markup size.
+    *
+    * @return the markup behavior the consumer invokes
+    */
+   public LoadMarkupBehavior getProducerBehavior()
+   {
+      return behavior;
+   }
+
+   public void setThreads(int threads)
+   {
+      if (threads < 1)
+      {
+         throw new IllegalArgumentException("Need at least one thread");
+      }
+      this.threads = threads;
+   }
+
+   /**
+    * Sets the number of invocations each thread performs. If positive, takes precedence over the duration.
+    *
+    * @param invocationsPerThread the number of invocations per thread, 0 to run for the configured duration instead
+    */
+   public void setInvocationsPerThread(int invocationsPerThread)
+   {
+      this.invocationsPerThread = invocationsPerThread;
+   }
+
+   public void setDurationMillis(long durationMillis)
+   {
+      this.durationMillis = durationMillis;
+   }
+
+   /**
+    * Sets the number of invocations each thread performs before measurements start, so that the results are not skewed
+    * by class loading and JIT compilation.
+    *
+    * @param warmupInvocationsPerThread the number of warm-up invocations per thread
+    */
+   public void setWarmupInvocationsPerThread(int warmupInvocationsPerThread)
+   {
+      this.warmupInvocationsPerThread = warmupInvocationsPerThread;
+   }
+
+   /**
+    * Sets the relative weights of each invocation type.
+    *
+    * @param render   weight of render invocations
+    * @param action   weight of action invocations
+    * @param resource weight of resource invocations
+    * @param event    weight of event invocations
+    */
+   public void setMix(int render, int action, int resource, int event)
+   {
+      if (render < 0 || action < 0 || resource < 0 || event < 0 || render + action + resource + event == 0)
+      {
+         throw new IllegalArgumentException("Weights must be positive and at least one must be non-zero");
+      }
+      mix[0] = render;
+      mix[1] = action;
+      mix[2] = resource;
+      mix[3] = event;
+   }
+
+   /**
+    * Warms up the consumer then runs the load with the current configuration.
+    *
+    * @return the measurements of the run, warm-up excluded
+    * @throws Exception if a worker thread failed unexpectedly
+    */
+   public LoadReport run() throws Exception
+   {
+      if (warmupInvocationsPerThread > 0)
+      {
+         runPhase(warmupInvocationsPerThread, 0, createMetrics());
+      }
+
+      consumer.getMetrics().reset();
+      final List<OperationMetrics> metrics = createMetrics();
+      final long start = System.nanoTime();
+      final long allocatedBytes = runPhase(invocationsPerThread, durationMillis, metrics);
+      final long elapsed = System.nanoTime() - start;
+
+      List<OperationStatistics> statistics = new ArrayList<OperationStatistics>(OPERATIONS.length);
+      for (OperationMetrics operationMetrics : metrics)
+      {
+         statistics.add(operationMetrics.getStatistics());
+      }
+
+      return new LoadReport(threads, elapsed, allocatedBytes, statistics, consumer.getMetrics().getOperationStatistics());
+   }
+
+   private static List<OperationMetrics> createMetrics()
+   {
+      List<OperationMetrics> metrics = new ArrayList<OperationMetrics>(OPERATIONS.length);
+      for (String operation : OPERATIONS)
+      {
+         metrics.add(new OperationMetrics(operation));
+      }
+      return metrics;
+   }
+
+   /** @return the number of bytes allocated by the worker threads or -1 if the JVM cannot measure it */
+   private long runPhase(final int invocations, long duration, final List<OperationMetrics> metrics) throws Exception
+   {
+      final long deadline = invocations > 0 ? Long.MAX_VALUE : System.nanoTime() + duration * 1000000L;
+
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try
+      {
+         List<Future<Long>> results = new ArrayList<Future<Long>>(threads);
+         for (int i = 0; i < threads; i++)
+         {
+            final long seed = i;
+            results.add(executor.submit(new Callable<Long>()
+            {
+               public Long call() throws Exception
+               {
+                  return runUser(new Random(seed), invocations, deadline, metrics);
+               }
+            }));
+         }
+
+         long allocatedBytes = 0;
+         for (Future<Long> result : results)
+         {
+            final long allocated = result.get();
+            allocatedBytes = allocated < 0 || allocatedBytes < 0 ? -1 : allocatedBytes + allocated;
+         }
+         return allocatedBytes;
+      }
+      finally
+      {
+         executor.shutdown();
+      }
+   }
+
+   private long runUser(Random random, int invocations, long deadline, List<OperationMetrics> metrics)
+   {
+      // the same invocation context, and therefore HTTP session, is used for all the invocations of a given user
+      final TestPortletInvocationContext context = new TestPortletInvocationContext();
+      final String userId = "user" + Thread.currentThread().getId();
+      final int totalWeight = mix[0] + mix[1] + mix[2] + mix[3];
+      RequestedMarkupBehavior.setRequestedMarkupBehavior(LoadMarkupBehavior.PORTLET_HANDLE);
+
+      final long allocatedBefore = getAllocatedBytes();
+      int count = 0;
+      while (invocations > 0 ? count < invocations : System.nanoTime() < deadline)
+      {
+         final int operation = pickOperation(random.nextInt(totalWeight));
+         final PortletInvocation invocation = createInvocation(operation, context, userId);
+         final OperationMetrics operationMetrics = metrics.get(operation);
+
+         operationMetrics.started();
+         final long start = System.nanoTime();
+         String fault = null;
+         try
+         {
+            final PortletInvocationResponse response = consumer.invoke(invocation);
+            if (response instanceof ErrorResponse)
+            {
+               final Throwable cause = ((ErrorResponse)response).getCause();
+               fault = cause != null ? cause.getClass().getSimpleName() : ErrorResponse.class.getSimpleName();
+            }
+         }
+         catch (Exception e)
+         {
+            fault = e.getClass().getSimpleName();
+         }
+         operationMetrics.ended(System.nanoTime() - start, fault, 0, 0);
+         count++;
+      }
+
+      final long allocatedAfter = getAllocatedBytes();
+      return allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+   }
+
+   private int pickOperation(int value)
+   {
+      int operation = 0;
+      while (value >= mix[operation])
+      {
+         value -= mix[operation];
+         operation++;
+      }
+      return operation;
+   }
+
+   private static PortletInvocation createInvocation(int operation, TestPortletInvocationContext context, String userId)
+   {
+      final PortletInvocation invocation;
+      switch (operation)
+      {
+         case 0:
+            invocation = new RenderInvocation(context);
+            break;
+         case 1:
+            invocation = new ActionInvocation(context);
+            break;
+         case 2:
+            ResourceInvocation resource = new ResourceInvocation(context);
+            resource.setResourceId(RESOURCE_ID);
+            resource.setCacheLevel(CacheLevel.PAGE);
+            resource.setForm(new ParameterMap());
+            invocation = resource;
+            break;
+         default:
+            EventInvocation event = new EventInvocation(context);
+            event.setName(EVENT_NAME);
+            event.setPayload(EVENT_PAYLOAD);
+            invocation = event;
+      }
+
+      invocation.setTarget(TARGET);
+      invocation.setMode(Mode.VIEW);
+      invocation.setWindowState(WindowState.NORMAL);
+      invocation.setInstanceContext(new AbstractInstanceContext(LoadMarkupBehavior.PORTLET_HANDLE));
+      invocation.setWindowContext(new AbstractWindowContext("load-window"));
+      invocation.setSecurityContext(new AbstractSecurityContext(MockHttpServletRequest.createMockRequest(null)));
+      invocation.setUserContext(new LoadUserContext(userId));
+      invocation.setPortalContext(new AbstractPortalContext());
+      return invocation;
+   }
+
+   private static long getAllocatedBytes()
+   {
+      ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+      if (threadMXBean instanceof com.sun.management.ThreadMXBean)
+      {
+         com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean)threadMXBean;
+         if (sunThreadMXBean.isThreadAllocatedMemorySupported() && sunThreadMXBean.isThreadAllocatedMemoryEnabled())
+         {
+            return sunThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Runs the harness with a configuration specified using system properties and prints the resulting report:
+    * <ul>
+    * <li><code>wsrp.load.threads</code>: number of concurrent users (default: 4)</li>
+    * <li><code>wsrp.load.duration</code>: duration of the measured run in seconds (default: 10)</li>
+    * <li><code>wsrp.load.invocations</code>: number of invocations per user, overrides the duration if set</li>
+    * <li><code>wsrp.load.warmup</code>: number of warm-up invocations per user (default: 200)</li>
+    * <li><code>wsrp.load.mix</code>: render,action,resource,event weights (default: 70,15,10,5)</li>
+    * <li><code>wsrp.load.latency</code>: simulated producer latency range in milliseconds, e.g. 5-20 (default: 0)</li>
+    * <li><code>wsrp.load.errorRate</code>: proportion of failing producer invocations (default: 0)</li>
+    * <li><code>wsrp.load.markupSize</code>: approximate size of the returned markup in characters (default: 4096)</li>
+    * </ul>
+    *
+    * @param args ignored
+    * @throws Exception if the run failed
+    */
+   public static void main(String[] args) throws Exception
+   {
+      ConsumerLoadHarness harness = new ConsumerLoadHarness();
+      harness.setThreads(Integer.getInteger("wsrp.load.threads", 4));
+      harness.setDurationMillis(Long.getLong("wsrp.load.duration", 10) * 1000);
+      harness.setInvocationsPerThread(Integer.getInteger("wsrp.load.invocations", 0));
+      harness.setWarmupInvocationsPerThread(Integer.getInteger("wsrp.load.warmup", 200));
+
+      String[] weights = System.getProperty("wsrp.load.mix", "70,15,10,5").split(",");
+      if (weights.length != OPERATIONS.length)
+      {
+         throw new IllegalArgumentException("wsrp.load.mix must specify " + OPERATIONS.length + " comma-separated weights");
+      }
+      harness.setMix(Integer.parseInt(weights[0].trim()), Integer.parseInt(weights[1].trim()),
+         Integer.parseInt(weights[2].trim()), Integer.parseInt(weights[3].trim()));
+
+      LoadMarkupBehavior producer = harness.getProducerBehavior();
+      String latency = System.getProperty("wsrp.load.latency", "0").trim();
+      int separator = latency.indexOf('-');
+      if (separator < 0)
+      {
+         producer.setLatency(Integer.parseInt(latency), Integer.parseInt(latency));
+      }
+      else
+      {
+         producer.setLatency(Integer.parseInt(latency.substring(0, separator).trim()), Integer.parseInt(latency.substring(separator + 1).trim()));
+      }
+      producer.setErrorRate(Double.parseDouble(System.getProperty("wsrp.load.errorRate", "0")));
+      producer.setMarkupSize(Integer.getInteger("wsrp.load.markupSize", 4096));
+
+      System.out.println(harness.run());
+   }
+
+   /** Each simulated user has its own identity so that per-user producer state (sessions, cookies) is exercised. */
+   private static class LoadUserContext extends AbstractUserContext
+   {
+      private final String userId;
+
+      private LoadUserContext(String userId)
+      {
+         this.userId = userId;
+      }
+
+      @Override
+      public String getId()
+      {
+         return userId;
+      }
+
+      @Override
+      public List<Locale> getLocales()
+      {
+         return Collections.singletonList(Locale.ENGLISH);
+      }
+   }
+}
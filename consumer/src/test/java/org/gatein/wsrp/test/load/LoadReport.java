@@ -0,0 +1,162 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.test.load;
+
+import org.gatein.wsrp.metrics.OperationStatistics;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Results of a {@link ConsumerLoadHarness} run: throughput, latency percentiles and error counts for each invocation
+ * type as seen by the portal, statistics of the WSRP operations the consumer performed as recorded by its metrics, and
+ * the memory allocated by the consumer while processing the invocations.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class LoadReport
+{
+   private final int threads;
+   private final long elapsedNanos;
+   private final long allocatedBytes;
+   private final List<OperationStatistics> invocations;
+   private final List<OperationStatistics> operations;
+
+   LoadReport(int threads, long elapsedNanos, long allocatedBytes, List<OperationStatistics> invocations, List<OperationStatistics> operations)
+   {
+      this.threads = threads;
+      this.elapsedNanos = elapsedNanos;
+      this.allocatedBytes = allocatedBytes;
+      this.invocations = Collections.unmodifiableList(invocations);
+      this.operations = Collections.unmodifiableList(operations);
+   }
+
+   public int getThreads()
+   {
+      return threads;
+   }
+
+   public double getElapsedSeconds()
+   {
+      return elapsedNanos / 1000000000d;
+   }
+
+   /** @return the statistics of each invocation type (render, action, resource, event), as seen by the portal */
+   public List<OperationStatistics> getInvocationStatistics()
+   {
+      return invocations;
+   }
+
+   /**
+    * @param invocationType one of the invocation types defined by {@link ConsumerLoadHarness}
+    * @return the statistics for the specified invocation type or <code>null</code> if it's unknown
+    */
+   public OperationStatistics getInvocationStatisticsFor(String invocationType)
+   {
+      for (OperationStatistics statistics : invocations)
+      {
+         if (statistics.getOperation().equals(invocationType))
+         {
+            return statistics;
+         }
+      }
+      return null;
+   }
+
+   /** @return the statistics of the WSRP operations the consumer performed, as recorded by its metrics */
+   public List<OperationStatistics> getOperationStatistics()
+   {
+      return operations;
+   }
+
+   public long getInvocationCount()
+   {
+      long count = 0;
+      for (OperationStatistics statistics : invocations)
+      {
+         count += statistics.getInvocationCount();
+      }
+      return count;
+   }
+
+   public long getErrorCount()
+   {
+      long count = 0;
+      for (OperationStatistics statistics : invocations)
+      {
+         count += statistics.getErrorCount();
+      }
+      return count;
+   }
+
+   /** @return the number of invocations processed per second */
+   public double getThroughput()
+   {
+      return elapsedNanos == 0 ? 0 : getInvocationCount() / getElapsedSeconds();
+   }
+
+   /** @return the number of bytes allocated by the consumer per invocation or -1 if the JVM cannot measure it */
+   public long getAllocatedBytesPerInvocation()
+   {
+      final long count = getInvocationCount();
+      return allocatedBytes < 0 || count == 0 ? -1 : allocatedBytes / count;
+   }
+
+   /** @return the number of megabytes allocated by the consumer per second or -1 if the JVM cannot measure it */
+   public double getAllocationRate()
+   {
+      return allocatedBytes < 0 || elapsedNanos == 0 ? -1 : allocatedBytes / (1024d * 1024d) / getElapsedSeconds();
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuilder sb = new StringBuilder(1024);
+      sb.append(String.format(Locale.ENGLISH, "%d invocations by %d threads in %.2f s: %.1f invocations/s, %d errors%n",
+         getInvocationCount(), threads, getElapsedSeconds(), getThroughput(), getErrorCount()));
+      if (allocatedBytes >= 0)
+      {
+         sb.append(String.format(Locale.ENGLISH, "Allocated %d bytes/invocation, %.1f MB/s%n", getAllocatedBytesPerInvocation(), getAllocationRate()));
+      }
+
+      sb.append(String.format("%nInvocations:%n"));
+      appendTable(sb, invocations);
+      sb.append(String.format("%nWSRP operations:%n"));
+      appendTable(sb, operations);
+      return sb.toString();
+   }
+
+   private static void appendTable(StringBuilder sb, List<OperationStatistics> statistics)
+   {
+      sb.append(String.format(Locale.ENGLISH, "%-28s %10s %8s %9s %9s %9s %9s %9s%n", "", "count", "errors", "mean ms", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+      for (OperationStatistics stats : statistics)
+      {
+         sb.append(String.format(Locale.ENGLISH, "%-28s %10d %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n", stats.getOperation(),
+            stats.getInvocationCount(), stats.getErrorCount(), stats.getMeanLatencyMillis(), stats.getMedianLatencyMillis(),
+            stats.getPercentile95LatencyMillis(), stats.getPercentile99LatencyMillis(), stats.getMaxLatencyMillis()));
+      }
+   }
+}
@@ -69,6 +69,7 @@ public class ServiceDescriptionBehavior extends TestProducerBehavior implements
    private boolean requiresRegistration;
    private CookieProtocol cookieProtocol;
    private ModelDescription registrationProperties;
+   private List<ExtensionDescription> extensionDescriptions;
 
    public ServiceDescriptionBehavior()
    {
@@ -85,6 +86,15 @@ public class ServiceDescriptionBehavior extends TestProducerBehavior implements
       this.cookieProtocol = requiresInitCookie;
    }
 
+   public void addExtensionDescription(ExtensionDescription extensionDescription)
+   {
+      if (extensionDescriptions == null)
+      {
+         extensionDescriptions = new ArrayList<ExtensionDescription>(1);
+      }
+      extensionDescriptions.add(extensionDescription);
+   }
+
    public void setServiceDescription(boolean requiresRegistration, int numberOfProps)
    {
       ServiceDescription sd = createServiceDescription(requiresRegistration, numberOfProps);
@@ -144,5 +154,9 @@ public class ServiceDescriptionBehavior extends TestProducerBehavior implements
       requiresRegistration.value = this.requiresRegistration;
       requiresInitCookie.value = this.cookieProtocol;
       registrationPropertyDescription.value = registrationProperties;
+      if (this.extensionDescriptions != null)
+      {
+         extensionDescriptions.value = this.extensionDescriptions;
+      }
    }
 }
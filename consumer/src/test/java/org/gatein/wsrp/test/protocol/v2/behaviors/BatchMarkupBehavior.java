@@ -0,0 +1,164 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.test.protocol.v2.behaviors;
+
+import org.gatein.pc.api.Mode;
+import org.gatein.pc.api.WindowState;
+import org.gatein.wsrp.BatchMarkupExtension;
+import org.gatein.wsrp.WSRPTypeFactory;
+import org.gatein.wsrp.test.protocol.v2.BehaviorRegistry;
+import org.gatein.wsrp.test.protocol.v2.MarkupBehavior;
+import org.oasis.wsrp.v2.AccessDenied;
+import org.oasis.wsrp.v2.Extension;
+import org.oasis.wsrp.v2.GetMarkup;
+import org.oasis.wsrp.v2.InconsistentParameters;
+import org.oasis.wsrp.v2.InvalidCookie;
+import org.oasis.wsrp.v2.InvalidHandle;
+import org.oasis.wsrp.v2.InvalidRegistration;
+import org.oasis.wsrp.v2.InvalidSession;
+import org.oasis.wsrp.v2.InvalidUserCategory;
+import org.oasis.wsrp.v2.MarkupContext;
+import org.oasis.wsrp.v2.MarkupParams;
+import org.oasis.wsrp.v2.MarkupResponse;
+import org.oasis.wsrp.v2.MissingParameters;
+import org.oasis.wsrp.v2.ModifyRegistrationRequired;
+import org.oasis.wsrp.v2.OperationFailed;
+import org.oasis.wsrp.v2.PortletContext;
+import org.oasis.wsrp.v2.RegistrationContext;
+import org.oasis.wsrp.v2.ResourceSuspended;
+import org.oasis.wsrp.v2.RuntimeContext;
+import org.oasis.wsrp.v2.SessionContext;
+import org.oasis.wsrp.v2.UnsupportedLocale;
+import org.oasis.wsrp.v2.UnsupportedMimeType;
+import org.oasis.wsrp.v2.UnsupportedMode;
+import org.oasis.wsrp.v2.UnsupportedWindowState;
+import org.oasis.wsrp.v2.UserContext;
+
+import javax.jws.WebParam;
+import javax.xml.ws.Holder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Processes markup requests batched using the {@link BatchMarkupExtension}, dispatching batched requests to the
+ * behaviors associated with their portlet handle. Since it receives all markup requests when it's the requested markup
+ * behavior, requests targeting other portlets are also dispatched to their associated behavior. Requests targeting
+ * {@link #FAILING_HANDLE} fail when batched but succeed when performed individually.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class BatchMarkupBehavior extends MarkupBehavior
+{
+   public static final String PORTLET_HANDLE = "BatchMarkup";
+   public static final String FAILING_HANDLE = "BatchMarkupFailing";
+
+   private final BehaviorRegistry registry;
+   private int batchedRequestCount;
+
+   public BatchMarkupBehavior(BehaviorRegistry registry)
+   {
+      super(registry);
+      this.registry = registry;
+      registerHandle(PORTLET_HANDLE);
+      registerHandle(FAILING_HANDLE);
+   }
+
+   @Override
+   protected String getMarkupString(Mode mode, WindowState windowState, String navigationalState, GetMarkup getMarkup)
+   {
+      return getMarkup.getPortletContext().getPortletHandle() + ":" + mode + ":" + windowState;
+   }
+
+   /**
+    * Retrieves the number of requests which were received batched with another one.
+    *
+    * @return the number of batched requests received so far
+    */
+   public int getBatchedRequestCount()
+   {
+      return batchedRequestCount;
+   }
+
+   @Override
+   public void getMarkup(@WebParam(name = "registrationContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") RegistrationContext registrationContext,
+                         @WebParam(name = "portletContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") PortletContext portletContext,
+                         @WebParam(name = "runtimeContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") RuntimeContext runtimeContext,
+                         @WebParam(name = "userContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") UserContext userContext,
+                         @WebParam(name = "markupParams", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") MarkupParams markupParams,
+                         @WebParam(name = "markupContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<MarkupContext> markupContext,
+                         @WebParam(name = "sessionContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<SessionContext> sessionContext,
+                         @WebParam(name = "extensions", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<List<Extension>> extensions) throws AccessDenied, InconsistentParameters, InvalidCookie, InvalidHandle, InvalidRegistration, InvalidSession, InvalidUserCategory, MissingParameters, ModifyRegistrationRequired, OperationFailed, ResourceSuspended, UnsupportedLocale, UnsupportedMimeType, UnsupportedMode, UnsupportedWindowState
+   {
+      incrementCallCount();
+
+      final List<GetMarkup> batchedRequests = BatchMarkupExtension.removeBatchedRequests(markupParams.getExtensions());
+
+      dispatch(WSRPTypeFactory.createGetMarkup(registrationContext, portletContext, runtimeContext, userContext, markupParams), markupContext, sessionContext, extensions);
+
+      if (batchedRequests != null)
+      {
+         batchedRequestCount += batchedRequests.size();
+
+         final List<MarkupResponse> responses = new ArrayList<MarkupResponse>(batchedRequests.size());
+         for (GetMarkup request : batchedRequests)
+         {
+            if (FAILING_HANDLE.equals(request.getPortletContext().getPortletHandle()))
+            {
+               // mark the request as failed
+               responses.add(null);
+            }
+            else
+            {
+               final Holder<MarkupContext> batchedMarkupContext = new Holder<MarkupContext>();
+               final Holder<SessionContext> batchedSessionContext = new Holder<SessionContext>();
+               dispatch(request, batchedMarkupContext, batchedSessionContext, new Holder<List<Extension>>());
+
+               final MarkupResponse response = WSRPTypeFactory.createMarkupResponse(batchedMarkupContext.value);
+               response.setSessionContext(batchedSessionContext.value);
+               responses.add(response);
+            }
+         }
+
+         if (extensions.value == null)
+         {
+            extensions.value = new ArrayList<Extension>(1);
+         }
+         extensions.value.add(BatchMarkupExtension.createResponseExtension(responses));
+      }
+   }
+
+   private void dispatch(GetMarkup request, Holder<MarkupContext> markupContext, Holder<SessionContext> sessionContext, Holder<List<Extension>> extensions) throws AccessDenied, InconsistentParameters, InvalidCookie, InvalidHandle, InvalidRegistration, InvalidSession, InvalidUserCategory, MissingParameters, ModifyRegistrationRequired, OperationFailed, ResourceSuspended, UnsupportedLocale, UnsupportedMimeType, UnsupportedMode, UnsupportedWindowState
+   {
+      final MarkupBehavior behavior = registry.getMarkupBehaviorFor(request.getPortletContext().getPortletHandle());
+      if (behavior == this)
+      {
+         super.getMarkup(request.getRegistrationContext(), request.getPortletContext(), request.getRuntimeContext(), request.getUserContext(), request.getMarkupParams(), markupContext, sessionContext, extensions);
+      }
+      else
+      {
+         behavior.getMarkup(request.getRegistrationContext(), request.getPortletContext(), request.getRuntimeContext(), request.getUserContext(), request.getMarkupParams(), markupContext, sessionContext, extensions);
+      }
+   }
+}
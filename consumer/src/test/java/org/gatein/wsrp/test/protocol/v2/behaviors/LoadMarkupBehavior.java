@@ -0,0 +1,219 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.test.protocol.v2.behaviors;
+
+import org.gatein.pc.api.Mode;
+import org.gatein.pc.api.OpaqueStateString;
+import org.gatein.pc.api.WindowState;
+import org.gatein.wsrp.WSRPTypeFactory;
+import org.gatein.wsrp.spec.v2.WSRP2ExceptionFactory;
+import org.gatein.wsrp.test.protocol.v2.BehaviorRegistry;
+import org.gatein.wsrp.test.protocol.v2.MarkupBehavior;
+import org.oasis.wsrp.v2.AccessDenied;
+import org.oasis.wsrp.v2.EventParams;
+import org.oasis.wsrp.v2.Extension;
+import org.oasis.wsrp.v2.GetMarkup;
+import org.oasis.wsrp.v2.HandleEventsFailed;
+import org.oasis.wsrp.v2.InconsistentParameters;
+import org.oasis.wsrp.v2.InteractionParams;
+import org.oasis.wsrp.v2.InvalidCookie;
+import org.oasis.wsrp.v2.InvalidHandle;
+import org.oasis.wsrp.v2.InvalidRegistration;
+import org.oasis.wsrp.v2.InvalidSession;
+import org.oasis.wsrp.v2.InvalidUserCategory;
+import org.oasis.wsrp.v2.MarkupParams;
+import org.oasis.wsrp.v2.MissingParameters;
+import org.oasis.wsrp.v2.ModifyRegistrationRequired;
+import org.oasis.wsrp.v2.OperationFailed;
+import org.oasis.wsrp.v2.OperationNotSupported;
+import org.oasis.wsrp.v2.PortletContext;
+import org.oasis.wsrp.v2.PortletStateChangeRequired;
+import org.oasis.wsrp.v2.RegistrationContext;
+import org.oasis.wsrp.v2.ResourceContext;
+import org.oasis.wsrp.v2.ResourceParams;
+import org.oasis.wsrp.v2.ResourceSuspended;
+import org.oasis.wsrp.v2.RuntimeContext;
+import org.oasis.wsrp.v2.SessionContext;
+import org.oasis.wsrp.v2.UnsupportedLocale;
+import org.oasis.wsrp.v2.UnsupportedMimeType;
+import org.oasis.wsrp.v2.UnsupportedMode;
+import org.oasis.wsrp.v2.UnsupportedWindowState;
+import org.oasis.wsrp.v2.UpdateResponse;
+import org.oasis.wsrp.v2.UserContext;
+
+import javax.jws.WebParam;
+import javax.xml.ws.Holder;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Markup behavior used by the consumer load harness: answers all markup operations with realistic payloads (markup
+ * containing URLs and tokens needing rewriting, resources, navigational state updates) after waiting for a
+ * configurable amount of time, failing a configurable proportion of the requests.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class LoadMarkupBehavior extends MarkupBehavior
+{
+   public static final String PORTLET_HANDLE = "load";
+   public static final String RESOURCE_CONTENT = ".portfolio { font-family: sans-serif; }";
+   private static final String MARKUP_SAMPLE = "<div id='wsrp_rewrite_holdings'>" +
+      "<a href='wsrp_rewrite?wsrp-urlType=render&amp;wsrp-navigationalState=view%3Dholdings/wsrp_rewrite'>Holdings</a>" +
+      "<form method='post' action='wsrp_rewrite?wsrp-urlType=blockingAction&amp;wsrp-interactionState=buy/wsrp_rewrite'>" +
+      "<input type='text' name='wsrp_rewrite_symbol'/><input type='submit' value='Buy'/></form>" +
+      "<img src='wsrp_rewrite?wsrp-urlType=resource&amp;wsrp-resourceID=chart&amp;wsrp-preferOperation=true/wsrp_rewrite'/>" +
+      "<p>Market data is delayed by at least 15 minutes.</p></div>";
+
+   private static final ThreadLocal<Random> random = new ThreadLocal<Random>()
+   {
+      @Override
+      protected Random initialValue()
+      {
+         return new Random();
+      }
+   };
+
+   private volatile String markup;
+   private volatile int minLatency;
+   private volatile int maxLatency;
+   private volatile double errorRate;
+
+   public LoadMarkupBehavior(BehaviorRegistry registry)
+   {
+      super(registry);
+      registerHandle(PORTLET_HANDLE);
+      setMarkupSize(4096);
+   }
+
+   /**
+    * Sets the approximate size of the markup returned by getMarkup.
+    *
+    * @param markupSize the minimal number of characters of the returned markup
+    */
+   public void setMarkupSize(int markupSize)
+   {
+      StringBuilder sb = new StringBuilder(markupSize + MARKUP_SAMPLE.length());
+      do
+      {
+         sb.append(MARKUP_SAMPLE);
+      }
+      while (sb.length() < markupSize);
+      markup = sb.toString();
+   }
+
+   /**
+    * Sets the range of the latency, in milliseconds, each operation waits for before answering, simulating a remote
+    * producer.
+    *
+    * @param minLatency the minimal latency
+    * @param maxLatency the maximal latency
+    */
+   public void setLatency(int minLatency, int maxLatency)
+   {
+      if (minLatency < 0 || maxLatency < minLatency)
+      {
+         throw new IllegalArgumentException("Invalid latency range: " + minLatency + "-" + maxLatency);
+      }
+      this.minLatency = minLatency;
+      this.maxLatency = maxLatency;
+   }
+
+   /**
+    * Sets the proportion of operations that fail with an OperationFailed fault.
+    *
+    * @param errorRate a number between 0 (no failure) and 1 (all operations fail)
+    */
+   public void setErrorRate(double errorRate)
+   {
+      if (errorRate < 0 || errorRate > 1)
+      {
+         throw new IllegalArgumentException("Error rate must be between 0 and 1, was: " + errorRate);
+      }
+      this.errorRate = errorRate;
+   }
+
+   /** Waits for the configured latency then randomly fails according to the configured error rate. */
+   private void simulateProducer(String operation) throws OperationFailed
+   {
+      incrementCallCount();
+
+      final Random rnd = random.get();
+      final int latency = maxLatency > minLatency ? minLatency + rnd.nextInt(maxLatency - minLatency + 1) : minLatency;
+      if (latency > 0)
+      {
+         try
+         {
+            Thread.sleep(latency);
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+      }
+
+      if (errorRate > 0 && rnd.nextDouble() < errorRate)
+      {
+         throw WSRP2ExceptionFactory.throwWSException(OperationFailed.class, "Simulated failure of " + operation, null);
+      }
+   }
+
+   private static UpdateResponse createUpdateResponse(String navigationalState)
+   {
+      UpdateResponse updateResponse = WSRPTypeFactory.createUpdateResponse();
+      updateResponse.setNavigationalContext(WSRPTypeFactory.createNavigationalContextOrNull(new OpaqueStateString(navigationalState), null));
+      return updateResponse;
+   }
+
+   @Override
+   protected String getMarkupString(Mode mode, WindowState windowState, String navigationalState, GetMarkup getMarkup) throws UnsupportedWindowState, InvalidCookie, InvalidSession, AccessDenied, InconsistentParameters, InvalidHandle, UnsupportedLocale, UnsupportedMode, OperationFailed, MissingParameters, InvalidUserCategory, InvalidRegistration, UnsupportedMimeType
+   {
+      simulateProducer("getMarkup");
+      return markup;
+   }
+
+   @Override
+   public void performBlockingInteraction(@WebParam(name = "registrationContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") RegistrationContext registrationContext, @WebParam(name = "portletContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") PortletContext portletContext, @WebParam(name = "runtimeContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") RuntimeContext runtimeContext, @WebParam(name = "userContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") UserContext userContext, @WebParam(name = "markupParams", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") MarkupParams markupParams, @WebParam(name = "interactionParams", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") InteractionParams interactionParams, @WebParam(name = "updateResponse", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<UpdateResponse> updateResponse, @WebParam(name = "redirectURL", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<String> redirectURL, @WebParam(name = "extensions", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<List<Extension>> extensions) throws AccessDenied, InconsistentParameters, InvalidCookie, InvalidHandle, InvalidRegistration, InvalidSession, InvalidUserCategory, MissingParameters, ModifyRegistrationRequired, OperationFailed, PortletStateChangeRequired, ResourceSuspended, UnsupportedLocale, UnsupportedMimeType, UnsupportedMode, UnsupportedWindowState
+   {
+      simulateProducer("performBlockingInteraction");
+      updateResponse.value = createUpdateResponse("view=confirmation");
+      extensions.value = updateResponse.value.getExtensions();
+   }
+
+   @Override
+   public void getResource(@WebParam(name = "registrationContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") RegistrationContext registrationContext, @WebParam(name = "portletContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.INOUT) Holder<PortletContext> portletContext, @WebParam(name = "runtimeContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") RuntimeContext runtimeContext, @WebParam(name = "userContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") UserContext userContext, @WebParam(name = "resourceParams", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") ResourceParams resourceParams, @WebParam(name = "resourceContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<ResourceContext> resourceContext, @WebParam(name = "sessionContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<SessionContext> sessionContext, @WebParam(name = "extensions", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<List<Extension>> extensions) throws AccessDenied, InconsistentParameters, InvalidCookie, InvalidHandle, InvalidRegistration, InvalidSession, InvalidUserCategory, MissingParameters, ModifyRegistrationRequired, OperationFailed, OperationNotSupported, ResourceSuspended, UnsupportedLocale, UnsupportedMimeType, UnsupportedMode, UnsupportedWindowState
+   {
+      simulateProducer("getResource");
+      resourceContext.value = WSRPTypeFactory.createMimeResponse("text/css", RESOURCE_CONTENT, null, ResourceContext.class);
+      resourceContext.value.setRequiresRewriting(Boolean.FALSE);
+   }
+
+   @Override
+   public void handleEvents(@WebParam(name = "registrationContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") RegistrationContext registrationContext, @WebParam(name = "portletContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") PortletContext portletContext, @WebParam(name = "runtimeContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") RuntimeContext runtimeContext, @WebParam(name = "userContext", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") UserContext userContext, @WebParam(name = "markupParams", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") MarkupParams markupParams, @WebParam(name = "eventParams", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types") EventParams eventParams, @WebParam(name = "updateResponse", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<UpdateResponse> updateResponse, @WebParam(name = "failedEvents", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<List<HandleEventsFailed>> failedEvents, @WebParam(name = "extensions", targetNamespace = "urn:oasis:names:tc:wsrp:v2:types", mode = WebParam.Mode.OUT) Holder<List<Extension>> extensions) throws AccessDenied, InconsistentParameters, InvalidCookie, InvalidHandle, InvalidRegistration, InvalidSession, InvalidUserCategory, MissingParameters, ModifyRegistrationRequired, OperationFailed, OperationNotSupported, PortletStateChangeRequired, ResourceSuspended, UnsupportedLocale, UnsupportedMimeType, UnsupportedMode, UnsupportedWindowState
+   {
+      simulateProducer("handleEvents");
+      updateResponse.value = createUpdateResponse("view=quote");
+      extensions.value = updateResponse.value.getExtensions();
+   }
+}
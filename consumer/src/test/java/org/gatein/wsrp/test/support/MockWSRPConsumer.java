@@ -40,6 +40,7 @@ import org.gatein.wsrp.consumer.RefreshResult;
 import org.gatein.wsrp.consumer.handlers.ProducerSessionInformation;
 import org.gatein.wsrp.consumer.handlers.SessionHandler;
 import org.gatein.wsrp.consumer.handlers.session.SessionRegistry;
+import org.gatein.wsrp.consumer.metrics.ConsumerMetrics;
 import org.gatein.wsrp.consumer.migration.ExportInfo;
 import org.gatein.wsrp.consumer.migration.ImportInfo;
 import org.gatein.wsrp.consumer.migration.MigrationService;
@@ -241,6 +242,11 @@ public class MockWSRPConsumer implements WSRPConsumerSPI
       throw new NotYetImplemented();
    }
 
+   public ExportInfo resumeExport(ExportInfo exportInfo) throws PortletInvokerException
+   {
+      throw new NotYetImplemented();
+   }
+
    public void releaseExport(ExportInfo exportInfo)
    {
       throw new NotYetImplemented();
@@ -266,6 +272,11 @@ public class MockWSRPConsumer implements WSRPConsumerSPI
       return useWSRP2;
    }
 
+   public ConsumerMetrics getMetrics()
+   {
+      return producerInfo.getMetrics();
+   }
+
    public void setUsingWSRP2(boolean useWSRP2)
    {
       this.useWSRP2 = useWSRP2;
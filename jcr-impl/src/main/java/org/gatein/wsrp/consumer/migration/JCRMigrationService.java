@@ -24,6 +24,7 @@
 package org.gatein.wsrp.consumer.migration;
 
 import org.chromattic.api.ChromatticSession;
+import org.gatein.common.io.IOTools;
 import org.gatein.common.util.ParameterValidation;
 import org.gatein.wsrp.api.context.ConsumerStructureProvider;
 import org.gatein.wsrp.consumer.migration.mapping.ExportErrorMapping;
@@ -34,9 +35,13 @@ import org.gatein.wsrp.jcr.ChromatticPersister;
 import org.gatein.wsrp.jcr.StoresByPathManager;
 import org.gatein.wsrp.jcr.mapping.mixins.LastModified;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * JCR-backed (via Chromattic) persistent implementation of MigrationService.
@@ -44,12 +49,22 @@ import java.util.List;
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @version $Revision$
  */
-public class JCRMigrationService implements MigrationService, StoresByPathManager<ExportInfo>
+public class JCRMigrationService implements PrunableMigrationService, StoresByPathManager<ExportInfo>, ExportInfo.ExportedDataLoader
 {
+   /** System property specifying the maximum number of exports to keep, older ones being pruned. */
+   public static final String MAX_EXPORTS_PROPERTY = "org.gatein.wsrp.consumer.migration.maxExports";
+   /** System property specifying how many days exports are kept before being pruned. */
+   public static final String EXPORT_RETENTION_DAYS_PROPERTY = "org.gatein.wsrp.consumer.migration.exportRetentionDays";
+   private static final long DAY = 24L * 60 * 60 * 1000;
+
    private ConsumerStructureProvider structureProvider;
    private ChromatticPersister persister;
    private static final String EXPORT_INFOS_PATH = ExportInfosMapping.NODE_NAME;
    private int exportInfosCount = -1;
+   /** maximum number of kept exports, 0 or less meaning no limit */
+   private int maxExports = Integer.getInteger(MAX_EXPORTS_PROPERTY, 0);
+   /** how long exports are kept in milliseconds, 0 or less meaning forever */
+   private long exportRetention = Integer.getInteger(EXPORT_RETENTION_DAYS_PROPERTY, 0) * DAY;
 
    public static final List<Class> mappingClasses = new ArrayList<Class>(4);
 
@@ -88,7 +103,8 @@ public class JCRMigrationService implements MigrationService, StoresByPathManage
          List<ExportInfo> exportInfos = new ArrayList<ExportInfo>(exportInfoMappings.size());
          for (ExportInfoMapping eim : exportInfoMappings)
          {
-            exportInfos.add(eim.toModel(null, null));
+            // only retrieve metadata, exported states are loaded when needed
+            exportInfos.add(eim.toLightweightModel(this));
          }
 
          exportInfosCount = exportInfos.size();
@@ -122,7 +138,7 @@ public class JCRMigrationService implements MigrationService, StoresByPathManage
          ExportInfoMapping eim = session.findByPath(ExportInfoMapping.class, getPathFor(exportTime));
          if (eim != null)
          {
-            return eim.toModel(null, null);
+            return eim.toLightweightModel(this);
          }
          else
          {
@@ -155,9 +171,9 @@ public class JCRMigrationService implements MigrationService, StoresByPathManage
             ExportInfoMapping exportInfo = exportInfosMapping.createExportInfo(exportTimeAsString);
             session.persist(exportInfosMapping, exportInfo, exportTimeAsString);
             exportInfo.initFrom(info);
+            exportInfosCount++;
 
             persister.save();
-            exportInfosCount++;
          }
       }
       finally
@@ -166,8 +182,241 @@ public class JCRMigrationService implements MigrationService, StoresByPathManage
       }
    }
 
+   /**
+    * Removes the complete exports that don't satisfy the retention policy anymore. Incomplete exports are kept, without
+    * counting towards the maximum number of exports, so that they can still be resumed. Since the producer keeps the
+    * exported data until it is explicitly released, callers are expected to release the returned exports.
+    *
+    * @return the pruned exports, with their export contexts loaded but without their exported states
+    */
+   public List<ExportInfo> pruneOldExports()
+   {
+      if (maxExports <= 0 && exportRetention <= 0)
+      {
+         return Collections.emptyList();
+      }
+
+      // use a batch so that loading the export contexts of pruned exports reuses our session
+      persister.beginBatch();
+      boolean success = false;
+      try
+      {
+         final ChromatticSession session = persister.getSession();
+         final List<ExportInfo> pruned = pruneOldExports(getExportInfosMapping(session), session);
+         if (!pruned.isEmpty())
+         {
+            persister.save();
+         }
+         success = true;
+         return pruned;
+      }
+      finally
+      {
+         persister.endBatch(success);
+      }
+   }
+
+   private List<ExportInfo> pruneOldExports(ExportInfosMapping exportInfosMapping, ChromatticSession session)
+   {
+      List<ExportInfoMapping> exportInfos = new ArrayList<ExportInfoMapping>(exportInfosMapping.getExportInfos());
+      Collections.sort(exportInfos, new Comparator<ExportInfoMapping>()
+      {
+         public int compare(ExportInfoMapping o1, ExportInfoMapping o2)
+         {
+            // most recent first
+            final long time1 = o1.getExportTime();
+            final long time2 = o2.getExportTime();
+            return time1 < time2 ? 1 : (time1 == time2 ? 0 : -1);
+         }
+      });
+
+      final long oldestKept = exportRetention > 0 ? System.currentTimeMillis() - exportRetention : Long.MIN_VALUE;
+      final List<ExportInfo> pruned = new ArrayList<ExportInfo>();
+      int kept = 0;
+      for (ExportInfoMapping exportInfo : exportInfos)
+      {
+         // incomplete exports are meant to be resumed
+         if (ParameterValidation.existsAndIsNotEmpty(exportInfo.getRemainingHandles()))
+         {
+            continue;
+         }
+
+         if ((maxExports > 0 && kept >= maxExports) || exportInfo.getExportTime() < oldestKept)
+         {
+            pruned.add(detach(exportInfo.toLightweightModel(this)));
+            session.remove(exportInfo);
+            exportInfosCount = exportInfosCount == -1 ? -1 : exportInfosCount - 1;
+         }
+         else
+         {
+            kept++;
+         }
+      }
+
+      return pruned;
+   }
+
+   /**
+    * Loads the export contexts of the specified ExportInfo, which are needed to release it on the producer, and stops
+    * loading exported data from persistent storage since it's about to be removed.
+    *
+    * @param info the ExportInfo about to be removed
+    * @return the ExportInfo
+    */
+   private ExportInfo detach(ExportInfo info)
+   {
+      info.getExportContexts();
+      info.setExportedDataLoader(null);
+      return info;
+   }
+
+   public int getMaxExports()
+   {
+      return maxExports;
+   }
+
+   /**
+    * Specifies how many exports should be kept at most, older ones being pruned when new exports are added.
+    *
+    * @param maxExports the maximum number of kept exports, 0 or less meaning no limit
+    */
+   public void setMaxExports(int maxExports)
+   {
+      this.maxExports = maxExports;
+   }
+
+   public long getExportRetention()
+   {
+      return exportRetention;
+   }
+
+   /**
+    * Specifies how long exports should be kept before being pruned when new exports are added.
+    *
+    * @param exportRetention the retention time in milliseconds, 0 or less meaning exports are kept forever
+    */
+   public void setExportRetention(long exportRetention)
+   {
+      this.exportRetention = exportRetention;
+   }
+
+   public byte[] loadPortletState(ExportInfo exportInfo, String portletHandle)
+   {
+      // use a batch so that we reuse the current session if we're called while one is already active
+      persister.beginBatch();
+      try
+      {
+         final ExportedStateMapping exportedState = getExportedStateMapping(exportInfo, portletHandle);
+         return exportedState != null ? IOTools.safeGetBytes(exportedState.getState()) : null;
+      }
+      finally
+      {
+         persister.endBatch(true);
+      }
+   }
+
+   public Map<String, byte[]> loadSpecificExportContexts(ExportInfo exportInfo)
+   {
+      persister.beginBatch();
+      try
+      {
+         ExportInfoMapping eim = persister.getSession().findByPath(ExportInfoMapping.class, getChildPath(exportInfo));
+         if (eim == null)
+         {
+            return Collections.emptyMap();
+         }
+
+         Map<String, byte[]> contexts = new HashMap<String, byte[]>();
+         for (ExportedStateMapping exportedState : eim.getExportedStates())
+         {
+            final InputStream exportContext = exportedState.getExportContext();
+            if (exportContext != null)
+            {
+               contexts.put(ChromatticPersister.PortletNameFormatter.decode(exportedState.getHandle()), IOTools.safeGetBytes(exportContext));
+            }
+         }
+         return contexts;
+      }
+      finally
+      {
+         persister.endBatch(true);
+      }
+   }
+
+   private ExportedStateMapping getExportedStateMapping(ExportInfo exportInfo, String portletHandle)
+   {
+      final String path = getChildPath(exportInfo) + "/" + ChromatticPersister.PortletNameFormatter.encode(portletHandle);
+      return persister.getSession().findByPath(ExportedStateMapping.class, path);
+   }
+
+   public void update(ExportInfo info)
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(info, "ExportInfo");
+
+      // use a batch so that loading lazily retrieved exported data while updating doesn't close our session
+      persister.beginBatch();
+      boolean success = false;
+      try
+      {
+         ChromatticSession session = persister.getSession();
+
+         ExportInfoMapping eim = session.findByPath(ExportInfoMapping.class, getChildPath(info));
+         if (eim == null)
+         {
+            ExportInfosMapping exportInfosMapping = getExportInfosMapping(session);
+            String exportTimeAsString = "" + info.getExportTime();
+            eim = exportInfosMapping.createExportInfo(exportTimeAsString);
+            session.persist(exportInfosMapping, eim, exportTimeAsString);
+            exportInfosCount = exportInfosCount == -1 ? -1 : exportInfosCount + 1;
+         }
+
+         // only writes what changed since the last update
+         eim.initFrom(info);
+
+         persister.save();
+         success = true;
+      }
+      finally
+      {
+         persister.endBatch(success);
+      }
+   }
+
+   /**
+    * Removes the specified ExportInfo, which can still be released on the producer afterwards. Exported states that
+    * weren't loaded yet won't be available anymore, use {@link #remove(ExportInfo, boolean)} if they are needed.
+    */
    public ExportInfo remove(ExportInfo info)
    {
+      return remove(info, false);
+   }
+
+   /**
+    * Removes the specified ExportInfo.
+    *
+    * @param info               the ExportInfo to remove
+    * @param loadExportedStates whether exported states that weren't loaded yet should be loaded before removing the
+    *                           ExportInfo, so that it can be re-added or imported from afterwards
+    * @return the ExportInfo that was removed or <code>null</code> if the given ExportInfo wasn't managed by this
+    *         MigrationService
+    */
+   public ExportInfo remove(ExportInfo info, boolean loadExportedStates)
+   {
+      if (info == null)
+      {
+         return null;
+      }
+
+      // load lazily retrieved data while we still can
+      if (loadExportedStates)
+      {
+         for (String handle : info.getExportedPortletHandles())
+         {
+            info.getPortletStateFor(handle);
+         }
+      }
+      detach(info);
+
       if (persister.delete(info, this))
       {
          exportInfosCount--;
@@ -35,8 +35,12 @@ import org.gatein.wsrp.jcr.mapping.BaseMapping;
 import javax.xml.namespace.QName;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -64,6 +68,17 @@ public abstract class ExportInfoMapping implements BaseMapping<ExportInfo, Objec
 
    public abstract void setExportContext(InputStream exportContext);
 
+   @Property(name = "remaininghandles")
+   public abstract List<String> getRemainingHandles();
+
+   public abstract void setRemainingHandles(List<String> remainingHandles);
+
+   /** Handles of the exported portlets, kept as metadata so that listing exports doesn't need to access their states. */
+   @Property(name = "exportedhandles")
+   public abstract List<String> getExportedHandles();
+
+   public abstract void setExportedHandles(List<String> exportedHandles);
+
    @OneToMany
    public abstract List<ExportedStateMapping> getExportedStates();
 
@@ -98,16 +113,25 @@ public abstract class ExportInfoMapping implements BaseMapping<ExportInfo, Objec
          setExportContext(is);
       }
 
+      setRemainingHandles(exportInfo.getRemainingPortletHandles());
+
+      // exported states are only ever added (chunked exports are persisted after each chunk) so only create new ones
+      Set<String> alreadyPersisted = new HashSet<String>(getPersistedHandles());
       List<ExportedStateMapping> exportedStates = getExportedStates();
-      exportedStates.clear();
-      for (String handle : exportInfo.getExportedPortletHandles())
+      Map<String, byte[]> specificExportContexts = exportInfo.getSpecificExportContexts();
+      final List<String> exportedHandles = exportInfo.getExportedPortletHandles();
+      for (String handle : exportedHandles)
       {
-         ExportedStateMapping exportedState = createExportedState(handle);
-
-         // add then init idiom
-         exportedStates.add(exportedState);
-         exportedState.initFrom(handle, exportInfo.getPortletStateFor(handle));
+         if (!alreadyPersisted.contains(handle))
+         {
+            ExportedStateMapping exportedState = createExportedState(handle);
+
+            // add then init idiom
+            exportedStates.add(exportedState);
+            exportedState.initFrom(handle, exportInfo.getPortletStateFor(handle), specificExportContexts.get(handle));
+         }
       }
+      setExportedHandles(exportedHandles);
 
       List<ExportErrorMapping> errors = getErrors();
       errors.clear();
@@ -126,19 +150,67 @@ public abstract class ExportInfoMapping implements BaseMapping<ExportInfo, Objec
    {
       List<ExportedStateMapping> exportedStates = getExportedStates();
       SortedMap<String, byte[]> states = new TreeMap<String, byte[]>();
+      Map<String, byte[]> specificExportContexts = new HashMap<String, byte[]>();
       for (ExportedStateMapping exportedState : exportedStates)
       {
-         states.put(ChromatticPersister.PortletNameFormatter.decode(exportedState.getHandle()), IOTools.safeGetBytes(exportedState.getState()));
+         final String handle = ChromatticPersister.PortletNameFormatter.decode(exportedState.getHandle());
+         states.put(handle, IOTools.safeGetBytes(exportedState.getState()));
+
+         final InputStream exportContext = exportedState.getExportContext();
+         if (exportContext != null)
+         {
+            specificExportContexts.put(handle, IOTools.safeGetBytes(exportContext));
+         }
       }
 
+      return new ExportInfo(getExportTime(), getErrorCodesToHandles(), states, IOTools.safeGetBytes(getExportContext()), specificExportContexts, getRemainingHandles());
+   }
+
+   /**
+    * Creates an ExportInfo from the metadata only, the exported states and export contexts being loaded on demand by
+    * the specified loader.
+    *
+    * @param loader the ExportedDataLoader used to load exported data on demand
+    * @return an ExportInfo which exported data will be lazily loaded
+    */
+   public ExportInfo toLightweightModel(ExportInfo.ExportedDataLoader loader)
+   {
+      SortedMap<String, byte[]> states = new TreeMap<String, byte[]>();
+      for (String handle : getPersistedHandles())
+      {
+         states.put(handle, null);
+      }
+
+      ExportInfo exportInfo = new ExportInfo(getExportTime(), getErrorCodesToHandles(), states, IOTools.safeGetBytes(getExportContext()), null, getRemainingHandles());
+      exportInfo.setExportedDataLoader(loader);
+      return exportInfo;
+   }
+
+   private Map<QName, List<String>> getErrorCodesToHandles()
+   {
       List<ExportErrorMapping> errors = getErrors();
-      SortedMap<QName, List<String>> errorCodesToHandles = new TreeMap<QName, List<String>>();
+      Map<QName, List<String>> errorCodesToHandles = new HashMap<QName, List<String>>();
       for (ExportErrorMapping error : errors)
       {
          errorCodesToHandles.put(error.getErrorCode(), error.getPortletHandles());
       }
+      return errorCodesToHandles;
+   }
 
-      return new ExportInfo(getExportTime(), errorCodesToHandles, states, IOTools.safeGetBytes(getExportContext()));
+   private List<String> getPersistedHandles()
+   {
+      List<String> handles = getExportedHandles();
+      if (handles == null || handles.isEmpty())
+      {
+         // exports persisted before handles were recorded as metadata: retrieve them from the exported states
+         List<ExportedStateMapping> exportedStates = getExportedStates();
+         handles = new ArrayList<String>(exportedStates.size());
+         for (ExportedStateMapping exportedState : exportedStates)
+         {
+            handles.add(ChromatticPersister.PortletNameFormatter.decode(exportedState.getHandle()));
+         }
+      }
+      return handles;
    }
 
    public Class<ExportInfo> getModelClass()
@@ -48,7 +48,18 @@ public abstract class ExportedStateMapping
 
    public abstract void setState(InputStream state);
 
+   /** Only set when the portlet was exported in a different chunk than the one providing the main export context. */
+   @Property(name = "exportcontext")
+   public abstract InputStream getExportContext();
+
+   public abstract void setExportContext(InputStream exportContext);
+
    public void initFrom(String handle, byte[] state)
+   {
+      initFrom(handle, state, null);
+   }
+
+   public void initFrom(String handle, byte[] state, byte[] exportContext)
    {
       setHandle(handle);
 
@@ -57,5 +68,10 @@ public abstract class ExportedStateMapping
          ByteArrayInputStream is = new ByteArrayInputStream(state);
          setState(is);
       }
+
+      if (exportContext != null && exportContext.length > 0)
+      {
+         setExportContext(new ByteArrayInputStream(exportContext));
+      }
    }
 }
@@ -31,6 +31,7 @@ import org.gatein.wsrp.SupportsLastModified;
 import org.gatein.wsrp.jcr.mapping.BaseMapping;
 import org.gatein.wsrp.jcr.mapping.mixins.LastModified;
 
+import javax.jcr.RepositoryException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.HashMap;
@@ -57,9 +58,15 @@ public abstract class BaseChromatticPersister implements ChromatticPersister
    /** Records which Java class maps to which mapping class. */
    private Map<Class, Class<? extends BaseMapping>> modelToMapping;
 
-   /** Holds thread-specific ChromatticSessions. */
+   /**
+    * Holds thread-specific ChromatticSessions. Since sessions are confined to the thread using them, saving them
+    * doesn't need any synchronization.
+    */
    private ThreadLocal<ChromatticSession> sessionHolder = new ThreadLocal<ChromatticSession>();
 
+   /** Holds the thread-specific batch, if any. */
+   private ThreadLocal<Batch> batchHolder = new ThreadLocal<Batch>();
+
    public BaseChromatticPersister(String workspaceName)
    {
       this.workspaceName = workspaceName;
@@ -119,12 +126,28 @@ public abstract class BaseChromatticPersister implements ChromatticPersister
    public void closeSession(boolean save)
    {
       ChromatticSession session = getOpenedSessionOrFail();
-      if (save)
+
+      // if we're in a batch, only record that a save is needed, the batch will take care of saving and closing
+      final Batch batch = batchHolder.get();
+      if (batch != null)
       {
-         synchronized (this)
+         if (save)
+         {
+            batch.needsSave = true;
+         }
+         else if (!batch.operationSaved && !batch.needsSave && hasPendingChanges(session))
          {
-            session.save();
+            // the operation modified the session but didn't ask for its modifications to be saved, which means that it
+            // failed: make sure its half-applied modifications won't be saved along with the rest of the batch
+            batch.failed = true;
          }
+         batch.operationSaved = false;
+         return;
+      }
+
+      if (save)
+      {
+         session.save();
       }
       session.close();
       sessionHolder.set(null);
@@ -147,9 +170,69 @@ public abstract class BaseChromatticPersister implements ChromatticPersister
       return session;
    }
 
-   public synchronized void save()
+   public void save()
+   {
+      ChromatticSession session = getOpenedSessionOrFail();
+
+      final Batch batch = batchHolder.get();
+      if (batch != null)
+      {
+         batch.needsSave = true;
+         batch.operationSaved = true;
+      }
+      else
+      {
+         session.save();
+      }
+   }
+
+   private static boolean hasPendingChanges(ChromatticSession session)
+   {
+      try
+      {
+         return session.getJCRSession().hasPendingChanges();
+      }
+      catch (RepositoryException e)
+      {
+         // if we can't tell, assume the worst
+         return true;
+      }
+   }
+
+   public void beginBatch()
    {
-      getOpenedSessionOrFail().save();
+      Batch batch = batchHolder.get();
+      if (batch == null)
+      {
+         batch = new Batch();
+         batchHolder.set(batch);
+      }
+      batch.depth++;
+
+      // make sure we have a session that will be used for the whole batch
+      getSession();
+   }
+
+   public void endBatch(boolean save)
+   {
+      final Batch batch = batchHolder.get();
+      if (batch == null)
+      {
+         throw new IllegalStateException("Cannot end a batch that hasn't been started first!");
+      }
+
+      batch.depth--;
+      if (!save)
+      {
+         // remember that the outermost batch shouldn't save anything if a nested one failed
+         batch.failed = true;
+      }
+
+      if (batch.depth == 0)
+      {
+         batchHolder.set(null);
+         closeSession(batch.needsSave && !batch.failed);
+      }
    }
 
    public <T> boolean delete(T toDelete, StoresByPathManager<T> manager)
@@ -184,4 +267,14 @@ public abstract class BaseChromatticPersister implements ChromatticPersister
          return false;
       }
    }
+
+   /** Records the state of a batch started by a given thread. */
+   private static class Batch
+   {
+      private int depth;
+      private boolean needsSave;
+      private boolean failed;
+      /** Whether the operation currently using the batch session asked for its modifications to be saved. */
+      private boolean operationSaved;
+   }
 }
@@ -52,6 +52,30 @@ public interface ChromatticPersister
    /** Saves the modifications made in the context of the current session but keep the session open. */
    void save();
 
+   /**
+    * Starts a batch for the current thread: until the matching {@link #endBatch(boolean)} call, the current session is
+    * kept open and calls to {@link #save()} or {@link #closeSession(boolean)} are recorded instead of being performed
+    * so that all the modifications made in the context of the batch are committed at once with a single save. Batches
+    * can be nested, only the outermost one actually saves and closes the session.
+    * <p/>
+    * An operation that closes the session with <code>closeSession(false)</code> without having called {@link #save()}
+    * while leaving modifications in a session that didn't hold any modifications to be saved yet is considered failed
+    * and marks the whole batch as failed so that its half-applied modifications are not saved when the batch ends.
+    * Since modifications cannot be told apart once other operations have asked for theirs to be saved, callers must
+    * still end the batch with <code>endBatch(false)</code> when one of the batched operations throws an exception.
+    */
+   void beginBatch();
+
+   /**
+    * Ends the batch started by the matching {@link #beginBatch()} call. If this ends the outermost batch, the
+    * modifications made during the batch are saved, if a save was requested during the batch and the specified
+    * parameter is <code>true</code>, and the session is closed.
+    *
+    * @param save <code>false</code> if the modifications made during the batch should be discarded, for example
+    *             because of a failure, <code>true</code> otherwise
+    */
+   void endBatch(boolean save);
+
    /**
     * Deletes the specified object from the specified manager, the manager being, most of the time, the parent of the object to be deleted.
     *
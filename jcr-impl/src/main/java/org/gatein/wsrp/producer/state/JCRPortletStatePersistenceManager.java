@@ -26,25 +26,59 @@ package org.gatein.wsrp.producer.state;
 import org.chromattic.api.ChromatticSession;
 import org.gatein.common.util.ParameterValidation;
 import org.gatein.pc.api.state.PropertyMap;
+import org.gatein.pc.portlet.impl.state.producer.PortletStateContextImpl;
 import org.gatein.pc.portlet.state.InvalidStateIdException;
 import org.gatein.pc.portlet.state.NoSuchStateException;
+import org.gatein.pc.portlet.state.SimplePropertyMap;
 import org.gatein.pc.portlet.state.producer.AbstractPortletStatePersistenceManager;
 import org.gatein.pc.portlet.state.producer.PortletStateContext;
 import org.gatein.wsrp.jcr.ChromatticPersister;
+import org.gatein.wsrp.producer.StateAccessBatcher;
 import org.gatein.wsrp.producer.state.mapping.PortletStateContextMapping;
 import org.gatein.wsrp.producer.state.mapping.PortletStateContextsMapping;
 import org.gatein.wsrp.producer.state.mapping.PortletStateMapping;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Persists portlet states in JCR. Loaded states can be kept in a bounded read-through cache (see {@link
+ * #setMaxCachedStates(int)}) so that reading a portlet's state doesn't require a repository round-trip every time. The
+ * cache is disabled by default: since modifications made by other cluster nodes are only seen once cached states
+ * expire, it should only be activated when the repository isn't shared or when slightly outdated states are
+ * acceptable. Updates are written synchronously by default but can be queued and written in the background (see
+ * {@link #setWriteBehindFlushInterval(long)}), in which case successive updates to the same state are coalesced into a
+ * single write. Pending updates are written when {@link #stop()} (or {@link #close()}) is called.
+ *
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @version $Revision$
  */
-public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersistenceManager
+public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersistenceManager implements StateAccessBatcher, Closeable
 {
+   private static final Logger log = LoggerFactory.getLogger(JCRPortletStatePersistenceManager.class);
+
+   /** Default maximum number of states kept in the cache: caching is disabled by default. */
+   public static final int DEFAULT_MAX_CACHED_STATES = 0;
+
+   /** Default number of milliseconds after which a cached state is loaded again from JCR. */
+   public static final long DEFAULT_CACHED_STATE_TIME_TO_LIVE = 60 * 1000;
+
    private ChromatticPersister persister;
    private static final String PATH = PortletStateContextsMapping.NODE_NAME + "/";
 
@@ -55,12 +89,268 @@ public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersi
       Collections.addAll(mappingClasses, PortletStateContextsMapping.class, PortletStateContextMapping.class, PortletStateMapping.class);
    }
 
+   /**
+    * Read-through cache of known states, by state id, least recently used states being evicted first. Cached contexts
+    * are never handed out, only copies of them. Accesses need to be synchronized on the cache.
+    */
+   private final Map<String, CachedState> cache = new LinkedHashMap<String, CachedState>(16, 0.75f, true)
+   {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedState> eldest)
+      {
+         return size() > maxCachedStates;
+      }
+   };
+   private volatile int maxCachedStates = DEFAULT_MAX_CACHED_STATES;
+   private volatile long cachedStateTimeToLive = DEFAULT_CACHED_STATE_TIME_TO_LIVE;
+   /**
+    * Incremented, while holding the cache lock, each time a state is written so that states loaded concurrently with a
+    * write are not cached since they might be outdated.
+    */
+   private long cacheGeneration;
+   /** Records the states written by the current thread during a batch, which need to be evicted once it's committed. */
+   private final ThreadLocal<Set<String>> writtenInBatch = new ThreadLocal<Set<String>>();
+
+   /** Updates waiting to be written to JCR when write-behind is active, by state id. */
+   private final ConcurrentMap<String, PropertyMap> pendingUpdates = new ConcurrentHashMap<String, PropertyMap>();
+   /** Serializes writes while write-behind is active so that a queued update cannot overwrite a more recent one. */
+   private final Object writeLock = new Object();
+   private long writeBehindFlushInterval;
+   private volatile ScheduledExecutorService flusher;
+
    public JCRPortletStatePersistenceManager(ChromatticPersister persister) throws Exception
    {
       ParameterValidation.throwIllegalArgExceptionIfNull(persister, "ChromatticPersister");
       this.persister = persister;
    }
 
+   public int getMaxCachedStates()
+   {
+      return maxCachedStates;
+   }
+
+   /**
+    * Specifies how many states can be cached at most, the least recently used ones being evicted once the cache is
+    * full.
+    *
+    * @param maxCachedStates the maximum number of cached states, <code>0</code> (the default) disables caching
+    */
+   public void setMaxCachedStates(int maxCachedStates)
+   {
+      if (maxCachedStates < 0)
+      {
+         throw new IllegalArgumentException("Maximum number of cached states cannot be negative: " + maxCachedStates);
+      }
+
+      synchronized (cache)
+      {
+         this.maxCachedStates = maxCachedStates;
+
+         // evict the least recently used states that don't fit anymore
+         final Iterator<String> ids = cache.keySet().iterator();
+         while (cache.size() > maxCachedStates && ids.hasNext())
+         {
+            ids.next();
+            ids.remove();
+         }
+      }
+   }
+
+   public long getCachedStateTimeToLive()
+   {
+      return cachedStateTimeToLive;
+   }
+
+   /**
+    * Specifies how long a state can stay cached before being loaded again from JCR, which bounds how long
+    * modifications made by other cluster nodes can go unnoticed.
+    *
+    * @param timeToLiveMillis the number of milliseconds a loaded state can stay cached
+    */
+   public void setCachedStateTimeToLive(long timeToLiveMillis)
+   {
+      if (timeToLiveMillis <= 0)
+      {
+         throw new IllegalArgumentException("Time to live of cached states must be positive: " + timeToLiveMillis);
+      }
+      this.cachedStateTimeToLive = timeToLiveMillis;
+   }
+
+   public synchronized long getWriteBehindFlushInterval()
+   {
+      return writeBehindFlushInterval;
+   }
+
+   /**
+    * Activates or deactivates write-behind of state updates. When active, {@link #updateState(String, PropertyMap)}
+    * only records the new properties, which are then written to JCR in the background every
+    * <code>flushIntervalMillis</code> milliseconds, only the last update of a given state being written.
+    *
+    * @param flushIntervalMillis the number of milliseconds between two writes of the pending updates, <code>0</code> to
+    *                            write updates immediately (the default)
+    */
+   public synchronized void setWriteBehindFlushInterval(long flushIntervalMillis)
+   {
+      if (flushIntervalMillis < 0)
+      {
+         throw new IllegalArgumentException("Flush interval cannot be negative: " + flushIntervalMillis);
+      }
+
+      if (flusher != null)
+      {
+         stopFlusher();
+      }
+
+      writeBehindFlushInterval = flushIntervalMillis;
+
+      if (flushIntervalMillis > 0)
+      {
+         flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+         {
+            public Thread newThread(Runnable runnable)
+            {
+               Thread thread = new Thread(runnable, "WSRP portlet state write-behind");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+         flusher.scheduleWithFixedDelay(new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  flush();
+               }
+               catch (Exception e)
+               {
+                  log.error("Couldn't write pending portlet state updates", e);
+               }
+            }
+         }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   /**
+    * Writes pending updates, if any, and stops writing updates in the background. This manager can still be used
+    * afterwards, updates being then written synchronously.
+    */
+   public synchronized void stop()
+   {
+      if (flusher != null)
+      {
+         stopFlusher();
+         writeBehindFlushInterval = 0;
+      }
+   }
+
+   /**
+    * Same as {@link #stop()}, so that the pending updates are written when the producer using this manager is stopped.
+    */
+   public void close()
+   {
+      stop();
+   }
+
+   private void stopFlusher()
+   {
+      flusher.shutdown();
+      try
+      {
+         flusher.awaitTermination(writeBehindFlushInterval, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      flusher = null;
+
+      // write what might have been queued since the last flush
+      flush();
+   }
+
+   private boolean isWriteBehindActive()
+   {
+      return flusher != null;
+   }
+
+   /** Writes all pending state updates to JCR in a single batch. */
+   public void flush()
+   {
+      if (pendingUpdates.isEmpty())
+      {
+         return;
+      }
+
+      synchronized (writeLock)
+      {
+         // only forget about the updates once they're committed so that they're not lost if they cannot be written
+         final Map<String, PropertyMap> toWrite = new HashMap<String, PropertyMap>(pendingUpdates);
+
+         persister.beginBatch();
+         boolean success = false;
+         try
+         {
+            ChromatticSession session = persister.getSession();
+            PortletStateContextsMapping contexts = getContexts(session);
+            for (Map.Entry<String, PropertyMap> update : toWrite.entrySet())
+            {
+               PortletStateContextMapping pscm = contexts.findPortletStateContextById(update.getKey());
+               if (pscm != null)
+               {
+                  pscm.getState().setProperties(update.getValue());
+               }
+            }
+            persister.save();
+            success = true;
+         }
+         finally
+         {
+            persister.endBatch(success);
+         }
+
+         // don't remove updates that were queued since we started writing
+         for (Map.Entry<String, PropertyMap> update : toWrite.entrySet())
+         {
+            pendingUpdates.remove(update.getKey(), update.getValue());
+         }
+      }
+   }
+
+   /** Groups the state loads and saves performed by the current thread in a single JCR session and save. */
+   public void beginBatch()
+   {
+      persister.beginBatch();
+      if (writtenInBatch.get() == null)
+      {
+         writtenInBatch.set(new HashSet<String>());
+      }
+   }
+
+   public void endBatch(boolean success)
+   {
+      try
+      {
+         persister.endBatch(success);
+      }
+      finally
+      {
+         // once the outermost batch is over, states loaded while it was in progress might not reflect its writes
+         if (persister.isSessionClosed())
+         {
+            final Set<String> written = writtenInBatch.get();
+            writtenInBatch.set(null);
+            if (written != null)
+            {
+               for (String stateId : written)
+               {
+                  evict(stateId);
+               }
+            }
+         }
+      }
+   }
+
    private PortletStateContextsMapping getContexts(ChromatticSession session)
    {
       PortletStateContextsMapping portletStateContexts = session.findByPath(PortletStateContextsMapping.class, PortletStateContextsMapping.NODE_NAME);
@@ -77,6 +367,21 @@ public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersi
       // more optimized version of updateState
       ParameterValidation.throwIllegalArgExceptionIfNull(propertyMap, "property map");
 
+      if (isWriteBehindActive())
+      {
+         // make sure the state exists before queueing the update
+         PortletStateContext context = getCachedState(stateId);
+         if (context == null && getStateContext(stateId) == null)
+         {
+            throw new NoSuchStateException("No state with id '" + stateId + "'");
+         }
+
+         PropertyMap copy = new SimplePropertyMap(propertyMap);
+         pendingUpdates.put(stateId, copy);
+         updateCachedState(stateId, copy);
+         return;
+      }
+
       try
       {
          ChromatticSession session = persister.getSession();
@@ -86,6 +391,8 @@ public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersi
          psm.setProperties(propertyMap);
 
          persister.save();
+
+         written(stateId);
       }
       finally
       {
@@ -97,6 +404,14 @@ public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersi
    @Override
    protected PortletStateContext getStateContext(String stateId)
    {
+      PortletStateContext cached = getCachedState(stateId);
+      if (cached != null)
+      {
+         return copy(cached);
+      }
+
+      // needs to be retrieved before loading the state to know whether it was written since
+      final long generation = getCacheGeneration();
       try
       {
          ChromatticSession session = persister.getSession();
@@ -110,6 +425,18 @@ public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersi
          else
          {
             context = pscm.toPortletStateContext();
+
+            // take queued updates into account
+            PropertyMap pending = pendingUpdates.get(stateId);
+            if (pending != null)
+            {
+               PortletStateContextImpl updated = new PortletStateContextImpl(stateId, context.getPortletId(), pending);
+               updated.getState().setTerminationTime(context.getState().getTerminationTime());
+               context = updated;
+            }
+
+            cacheLoaded(context, generation);
+            context = copy(context);
          }
 
          return context;
@@ -122,6 +449,21 @@ public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersi
 
    @Override
    protected String createStateContext(String portletId, PropertyMap propertyMap)
+   {
+      if (isWriteBehindActive())
+      {
+         synchronized (writeLock)
+         {
+            return internalCreateStateContext(portletId, propertyMap);
+         }
+      }
+      else
+      {
+         return internalCreateStateContext(portletId, propertyMap);
+      }
+   }
+
+   private String internalCreateStateContext(String portletId, PropertyMap propertyMap)
    {
       try
       {
@@ -147,6 +489,10 @@ public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersi
          // then save
          persister.save();
 
+         // an existing context might have been reused so any queued update is now obsolete
+         pendingUpdates.remove(key);
+         written(key);
+
          return key;
       }
       finally
@@ -158,6 +504,24 @@ public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersi
    @Override
    protected PortletStateContext destroyStateContext(String stateId)
    {
+      if (isWriteBehindActive())
+      {
+         synchronized (writeLock)
+         {
+            return internalDestroyStateContext(stateId);
+         }
+      }
+      else
+      {
+         return internalDestroyStateContext(stateId);
+      }
+   }
+
+   private PortletStateContext internalDestroyStateContext(String stateId)
+   {
+      // make sure the state is written before being returned, if it had pending updates
+      PropertyMap pending = pendingUpdates.get(stateId);
+
       try
       {
          ChromatticSession session = persister.getSession();
@@ -170,11 +534,18 @@ public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersi
          }
          else
          {
-            getContexts(session).getPortletStateContexts().remove(pscm);
+            if (pending != null)
+            {
+               pscm.getState().setProperties(pending);
+            }
             result = pscm.toPortletStateContext();
+            getContexts(session).getPortletStateContexts().remove(pscm);
          }
 
          persister.save();
+
+         pendingUpdates.remove(stateId);
+         written(stateId);
          return result;
       }
       finally
@@ -193,4 +564,111 @@ public class JCRPortletStatePersistenceManager extends AbstractPortletStatePersi
    {
       return getContexts(session).findPortletStateContextById(stateId);
    }
+
+   private PortletStateContext getCachedState(String stateId)
+   {
+      synchronized (cache)
+      {
+         final CachedState cached = cache.get(stateId);
+         if (cached == null)
+         {
+            return null;
+         }
+
+         if (System.currentTimeMillis() >= cached.expiresAt)
+         {
+            cache.remove(stateId);
+            return null;
+         }
+
+         return cached.context;
+      }
+   }
+
+   private long getCacheGeneration()
+   {
+      synchronized (cache)
+      {
+         return cacheGeneration;
+      }
+   }
+
+   /**
+    * Caches the specified state, loaded from JCR, unless a state was written since the load started, in which case the
+    * loaded state might be outdated, or unless a more recent version of it was cached in the mean time.
+    *
+    * @param context    the loaded state
+    * @param generation the cache generation when the load started
+    */
+   private void cacheLoaded(PortletStateContext context, long generation)
+   {
+      synchronized (cache)
+      {
+         if (generation == cacheGeneration && maxCachedStates > 0 && !cache.containsKey(context.getId()))
+         {
+            cache.put(context.getId(), new CachedState(context, System.currentTimeMillis() + cachedStateTimeToLive));
+         }
+      }
+   }
+
+   /**
+    * Records that the specified state was written so that it will be loaded again from JCR. If we're in a batch, the
+    * write is not committed yet so the state will be evicted again when the batch ends.
+    *
+    * @param stateId the identifier of the written state
+    */
+   private void written(String stateId)
+   {
+      evict(stateId);
+
+      final Set<String> written = writtenInBatch.get();
+      if (written != null)
+      {
+         written.add(stateId);
+      }
+   }
+
+   private void evict(String stateId)
+   {
+      synchronized (cache)
+      {
+         cacheGeneration++;
+         cache.remove(stateId);
+      }
+   }
+
+   private void updateCachedState(String stateId, PropertyMap propertyMap)
+   {
+      synchronized (cache)
+      {
+         cacheGeneration++;
+
+         final CachedState cached = cache.get(stateId);
+         if (cached != null)
+         {
+            PortletStateContextImpl updated = new PortletStateContextImpl(stateId, cached.context.getPortletId(), propertyMap);
+            updated.getState().setTerminationTime(cached.context.getState().getTerminationTime());
+            cache.put(stateId, new CachedState(updated, cached.expiresAt));
+         }
+      }
+   }
+
+   private static PortletStateContext copy(PortletStateContext context)
+   {
+      PortletStateContextImpl copy = new PortletStateContextImpl(context.getId(), context.getPortletId(), new SimplePropertyMap(context.getState().getProperties()));
+      copy.getState().setTerminationTime(context.getState().getTerminationTime());
+      return copy;
+   }
+
+   private static class CachedState
+   {
+      private final PortletStateContext context;
+      private final long expiresAt;
+
+      private CachedState(PortletStateContext context, long expiresAt)
+      {
+         this.context = context;
+         this.expiresAt = expiresAt;
+      }
+   }
 }
@@ -25,6 +25,7 @@ package org.gatein.wsrp.registration;
 
 import org.chromattic.api.ChromatticSession;
 import org.gatein.common.util.ParameterValidation;
+import org.gatein.pc.api.PortletContext;
 import org.gatein.registration.Consumer;
 import org.gatein.registration.ConsumerGroup;
 import org.gatein.registration.Registration;
@@ -35,6 +36,7 @@ import org.gatein.registration.spi.ConsumerSPI;
 import org.gatein.registration.spi.RegistrationSPI;
 import org.gatein.wsrp.jcr.ChromatticPersister;
 import org.gatein.wsrp.jcr.mapping.BaseMapping;
+import org.gatein.wsrp.producer.StateAccessBatcher;
 import org.gatein.wsrp.registration.mapping.ConsumerCapabilitiesMapping;
 import org.gatein.wsrp.registration.mapping.ConsumerGroupMapping;
 import org.gatein.wsrp.registration.mapping.ConsumerMapping;
@@ -42,10 +44,6 @@ import org.gatein.wsrp.registration.mapping.ConsumersAndGroupsMapping;
 import org.gatein.wsrp.registration.mapping.RegistrationMapping;
 import org.gatein.wsrp.registration.mapping.RegistrationPropertiesMapping;
 
-import javax.jcr.RepositoryException;
-import javax.jcr.query.Query;
-import javax.jcr.query.QueryResult;
-import javax.jcr.query.RowIterator;
 import javax.xml.namespace.QName;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -57,10 +55,14 @@ import java.util.Map;
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @version $Revision$
  */
-public class JCRRegistrationPersistenceManager extends AbstractRegistrationPersistenceManager
+public class JCRRegistrationPersistenceManager extends AbstractRegistrationPersistenceManager implements StateAccessBatcher
 {
+   /** Character starting the prefixes used to distinguish consumer and group node names. */
+   static final char NODE_PREFIX_START = '~';
+   static final String GROUP_NODE_PREFIX = NODE_PREFIX_START + "g";
+   static final String ESCAPED_CONSUMER_PREFIX = NODE_PREFIX_START + "c";
+
    private ChromatticPersister persister;
-   private final String rootNodePath;
 
    public static final List<Class> mappingClasses = new ArrayList<Class>(6);
 
@@ -79,7 +81,6 @@ public class JCRRegistrationPersistenceManager extends AbstractRegistrationPersi
    {
       ParameterValidation.throwIllegalArgExceptionIfNull(persister, "ChromatticPersister");
 
-      this.rootNodePath = rootNodePath.endsWith("/") ? rootNodePath : rootNodePath + "/";
       this.persister = persister;
 
       try
@@ -215,29 +216,70 @@ public class JCRRegistrationPersistenceManager extends AbstractRegistrationPersi
       return modelClass.cast(mapping.toModel(null, this));
    }
 
-   private <T extends BaseMapping> T getMapping(ChromatticSession session, Class<T> mappingClass, String name) throws RepositoryException, NoSuchFieldException, IllegalAccessException
+   /**
+    * Computes the name of the node holding the element of the specified type with the specified identifier (for
+    * consumers) or name (for groups). Consumers and groups are children of the same node so their node names need to be
+    * different even when a consumer is identified by the name of a group: group node names are prefixed by {@link
+    * #GROUP_NODE_PREFIX} while consumer node names are their identifier, escaped by {@link #ESCAPED_CONSUMER_PREFIX} if
+    * it starts with the {@link #NODE_PREFIX_START} character.
+    *
+    * @param mappingClass the mapping class of the element
+    * @param name         the identifier or name of the element
+    * @return the name of the node holding the specified element
+    */
+   static String getNodeNameFor(Class<? extends BaseMapping> mappingClass, String name)
    {
-      String jcrType = (String)mappingClass.getField(BaseMapping.JCR_TYPE_NAME_CONSTANT_NAME).get(null);
-      String id;
-      final Query query = session.getJCRSession().getWorkspace().getQueryManager().createQuery("select jcr:uuid from " + jcrType + " where jcr:path = '/%/" + name + "'", Query.SQL);
-      final QueryResult queryResult = query.execute();
-      final RowIterator rows = queryResult.getRows();
-      final long size = rows.getSize();
-      if (size == 0)
+      if (ConsumerMapping.class.equals(mappingClass))
       {
-         return null;
+         return name.charAt(0) == NODE_PREFIX_START ? ESCAPED_CONSUMER_PREFIX + name : name;
+      }
+      else if (ConsumerGroupMapping.class.equals(mappingClass))
+      {
+         return GROUP_NODE_PREFIX + name;
       }
       else
       {
-         if (size != 1)
-         {
-            throw new IllegalArgumentException("There should be only one " + mappingClass.getSimpleName() + " named " + name);
-         }
+         throw new IllegalArgumentException("Cannot look up " + mappingClass.getSimpleName() + " by name");
+      }
+   }
 
-         id = rows.nextRow().getValue("jcr:uuid").getString();
+   /**
+    * Retrieves the mapping of the specified type with the specified name. Consumers and groups are all children of the
+    * same node, named using {@link #getNodeNameFor(Class, String)}, so we can directly look them up instead of having to
+    * query the repository. Elements persisted before group node names were prefixed are named after their identifier or
+    * name so they are looked up using it if needed, ignoring children of the other type.
+    *
+    * @param session      the current session
+    * @param mappingClass the mapping class of the element to retrieve
+    * @param name         the name of the element to retrieve
+    * @return the mapping of the specified type with the specified name or <code>null</code> if none exists
+    */
+   private <T extends BaseMapping> T getMapping(ChromatticSession session, Class<T> mappingClass, String name)
+   {
+      final ConsumersAndGroupsMapping mappings = session.findByPath(ConsumersAndGroupsMapping.class, ConsumersAndGroupsMapping.NODE_NAME);
+      if (mappings == null)
+      {
+         return null;
       }
 
-      return session.findById(mappingClass, id);
+      final String nodeName = getNodeNameFor(mappingClass, name);
+      final Map<String, ? extends BaseMapping> children;
+      if (ConsumerMapping.class.equals(mappingClass))
+      {
+         children = mappings.getIdToConsumerMap();
+      }
+      else
+      {
+         children = mappings.getNameToConsumerGroupMap();
+      }
+      Object mapping = children.get(nodeName);
+      if (mapping == null && !nodeName.equals(name))
+      {
+         mapping = children.get(name);
+      }
+
+      // consumers and groups share the same parent so a child with a legacy name might be of the other type
+      return mappingClass.isInstance(mapping) ? mappingClass.cast(mapping) : null;
    }
 
    @Override
@@ -250,7 +292,7 @@ public class JCRRegistrationPersistenceManager extends AbstractRegistrationPersi
          ChromatticSession session = persister.getSession();
 
          ConsumersAndGroupsMapping mappings = session.findByPath(ConsumersAndGroupsMapping.class, ConsumersAndGroupsMapping.NODE_NAME);
-         ConsumerMapping cm = mappings.createConsumer(consumerId);
+         ConsumerMapping cm = mappings.createConsumer(getNodeNameFor(ConsumerMapping.class, consumerId));
          mappings.getConsumers().add(cm);
          cm.initFrom(consumer);
          consumer.setPersistentKey(cm.getPersistentKey());
@@ -320,6 +362,119 @@ public class JCRRegistrationPersistenceManager extends AbstractRegistrationPersi
       return registrationSPI;
    }
 
+   @Override
+   protected void internalSaveAddedPortletContext(Registration registration, PortletContext portletContext) throws RegistrationException
+   {
+      try
+      {
+         ChromatticSession session = persister.getSession();
+
+         RegistrationMapping rm = session.findById(RegistrationMapping.class, registration.getPersistentKey());
+         if (!rm.getIdToPortletContextMap().containsKey(portletContext.getId()))
+         {
+            rm.addPortletContext(portletContext);
+            persister.save();
+         }
+      }
+      catch (Exception e)
+      {
+         throw new RegistrationException(e);
+      }
+      finally
+      {
+         persister.closeSession(false);
+      }
+   }
+
+   @Override
+   protected void internalSaveRemovedPortletContext(Registration registration, PortletContext portletContext) throws RegistrationException
+   {
+      try
+      {
+         ChromatticSession session = persister.getSession();
+
+         RegistrationMapping rm = session.findById(RegistrationMapping.class, registration.getPersistentKey());
+         if (rm.removePortletContext(portletContext.getId()))
+         {
+            persister.save();
+         }
+      }
+      catch (Exception e)
+      {
+         throw new RegistrationException(e);
+      }
+      finally
+      {
+         persister.closeSession(false);
+      }
+   }
+
+   @Override
+   protected void internalSaveRemovedPortletContexts(Registration registration, Collection<PortletContext> portletContexts) throws RegistrationException
+   {
+      try
+      {
+         ChromatticSession session = persister.getSession();
+
+         RegistrationMapping rm = session.findById(RegistrationMapping.class, registration.getPersistentKey());
+         boolean modified = false;
+         for (PortletContext portletContext : portletContexts)
+         {
+            modified |= rm.removePortletContext(portletContext.getId());
+         }
+
+         if (modified)
+         {
+            persister.save();
+         }
+      }
+      catch (Exception e)
+      {
+         throw new RegistrationException(e);
+      }
+      finally
+      {
+         persister.closeSession(false);
+      }
+   }
+
+   /** Groups the registration loads and saves performed by the current thread in a single JCR session and save. */
+   public void beginBatch()
+   {
+      persister.beginBatch();
+   }
+
+   public void endBatch(boolean success)
+   {
+      persister.endBatch(success);
+   }
+
+   @Override
+   protected PortletContext internalLoadPortletContext(Registration registration, String portletContextId) throws RegistrationException
+   {
+      // PortletContexts might be lazily loaded while the current thread is already using a session (e.g. while saving a
+      // registration): only close the session if we opened it, so as to not close it from under the caller's feet
+      final boolean openedSession = persister.isSessionClosed();
+      try
+      {
+         ChromatticSession session = persister.getSession();
+
+         RegistrationMapping rm = session.findById(RegistrationMapping.class, registration.getPersistentKey());
+         return rm != null ? rm.getPortletContext(portletContextId) : null;
+      }
+      catch (Exception e)
+      {
+         throw new RegistrationException(e);
+      }
+      finally
+      {
+         if (openedSession)
+         {
+            persister.closeSession(false);
+         }
+      }
+   }
+
    @Override
    protected void internalAddConsumerGroup(ConsumerGroupSPI group) throws RegistrationException
    {
@@ -342,7 +497,7 @@ public class JCRRegistrationPersistenceManager extends AbstractRegistrationPersi
          ChromatticSession session = persister.getSession();
 
          ConsumersAndGroupsMapping mappings = session.findByPath(ConsumersAndGroupsMapping.class, ConsumersAndGroupsMapping.NODE_NAME);
-         ConsumerGroupMapping cgm = mappings.createConsumerGroup(name);
+         ConsumerGroupMapping cgm = mappings.createConsumerGroup(getNodeNameFor(ConsumerGroupMapping.class, name));
          mappings.getConsumerGroups().add(cgm);
          group.setPersistentKey(cgm.getPersistentKey());
          cgm.initFrom(group);
@@ -501,20 +656,16 @@ public class JCRRegistrationPersistenceManager extends AbstractRegistrationPersi
 
    public boolean isConsumerExisting(String consumerId) throws RegistrationException
    {
-      return exists(consumerId);
+      return exists(consumerId, ConsumerMapping.class);
    }
 
-   private boolean exists(String name)
+   private boolean exists(String name, Class<? extends BaseMapping> mappingClass)
    {
-      try
-      {
-         ChromatticSession session = persister.getSession();
+      ParameterValidation.throwIllegalArgExceptionIfNullOrEmpty(name, "identifier", null);
 
-         return session.getJCRSession().itemExists(rootNodePath + ConsumersAndGroupsMapping.NODE_NAME + "/" + name);
-      }
-      catch (RepositoryException e)
+      try
       {
-         throw new RuntimeException(e);
+         return getMapping(persister.getSession(), mappingClass, name) != null;
       }
       finally
       {
@@ -524,7 +675,7 @@ public class JCRRegistrationPersistenceManager extends AbstractRegistrationPersi
 
    public boolean isConsumerGroupExisting(String consumerGroupId) throws RegistrationException
    {
-      return exists(consumerGroupId);
+      return exists(consumerGroupId, ConsumerGroupMapping.class);
    }
 
    @Override
@@ -28,6 +28,7 @@ import org.chromattic.api.annotations.OneToMany;
 import org.chromattic.api.annotations.PrimaryType;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -44,6 +45,12 @@ public abstract class ConsumersAndGroupsMapping
    @OneToMany
    public abstract List<ConsumerGroupMapping> getConsumerGroups();
 
+   @OneToMany
+   public abstract Map<String, ConsumerMapping> getIdToConsumerMap();
+
+   @OneToMany
+   public abstract Map<String, ConsumerGroupMapping> getNameToConsumerGroupMap();
+
    @Create
    public abstract ConsumerMapping createConsumer(String id);
 
@@ -40,15 +40,19 @@ import org.gatein.pc.api.PortletStateType;
 import org.gatein.pc.api.StatefulPortletContext;
 import org.gatein.registration.RegistrationException;
 import org.gatein.registration.RegistrationStatus;
+import org.gatein.registration.impl.RegistrationImpl;
 import org.gatein.registration.spi.ConsumerSPI;
 import org.gatein.registration.spi.RegistrationSPI;
 import org.gatein.wsrp.jcr.mapping.BaseMapping;
 import org.gatein.wsrp.registration.JCRRegistrationPersistenceManager;
 
 import javax.xml.namespace.QName;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -75,6 +79,9 @@ public abstract class RegistrationMapping implements BaseMapping<RegistrationSPI
    @OneToMany
    public abstract Collection<PortletContextMapping> getPortletContexts();
 
+   @OneToMany
+   public abstract Map<String, PortletContextMapping> getIdToPortletContextMap();
+
    @Create
    public abstract PortletContextMapping createPortletContext(String id);
 
@@ -104,30 +111,47 @@ public abstract class RegistrationMapping implements BaseMapping<RegistrationSPI
       setStatus(registration.getStatus());
       setRegistrationHandle(registration.getRegistrationHandle());
 
-      // clear and recreate portlet context mappings
-      Collection<PortletContextMapping> contextMappings = getPortletContexts();
-      contextMappings.clear();
-      for (PortletContext portletContext : registration.getKnownPortletContexts())
+      // only persist the difference between the known portlet contexts and the persisted ones, to avoid rewriting all
+      // of them on each save, comparing identifiers so that we don't need to load the state of lazily loaded ones
+      final Set<String> knownIds;
+      final Map<String, PortletContext> loaded;
+      if (registration instanceof RegistrationImpl)
+      {
+         final RegistrationImpl registrationImpl = (RegistrationImpl)registration;
+         knownIds = registrationImpl.getKnownPortletContextIds();
+         loaded = registrationImpl.getLoadedPortletContexts();
+      }
+      else
       {
-         String id = portletContext.getId();
-         PortletContextMapping contextMapping = createPortletContext(id);
-         contextMappings.add(contextMapping);
+         // other implementations don't lazily load their portlet contexts
+         final Set<PortletContext> knownPortletContexts = registration.getKnownPortletContexts();
+         loaded = new HashMap<String, PortletContext>(knownPortletContexts.size());
+         for (PortletContext portletContext : knownPortletContexts)
+         {
+            loaded.put(portletContext.getId(), portletContext);
+         }
+         knownIds = loaded.keySet();
+      }
 
-         if (portletContext instanceof StatefulPortletContext)
+      final Map<String, PortletContextMapping> idToMapping = getIdToPortletContextMap();
+      for (String id : knownIds)
+      {
+         if (!idToMapping.containsKey(id))
          {
-            StatefulPortletContext context = (StatefulPortletContext)portletContext;
-            if (PortletStateType.OPAQUE.equals(context.getType()))
-            {
-               contextMapping.initFrom(id, ((StatefulPortletContext<byte[]>)context).getState());
-            }
-            else
+            // portlet contexts that haven't been persisted yet have necessarily been loaded
+            final PortletContext portletContext = loaded.get(id);
+            if (portletContext != null)
             {
-               throw new IllegalArgumentException("Cannot handle PortletContext state: " + context.getState());
+               addPortletContext(portletContext);
             }
          }
-         else
+      }
+
+      for (String id : new ArrayList<String>(idToMapping.keySet()))
+      {
+         if (!knownIds.contains(id))
          {
-            contextMapping.initFrom(id, null);
+            idToMapping.remove(id);
          }
       }
 
@@ -147,6 +171,46 @@ public abstract class RegistrationMapping implements BaseMapping<RegistrationSPI
       }
    }
 
+   /**
+    * Persists the specified PortletContext as being known by this registration.
+    *
+    * @param portletContext the PortletContext to add
+    */
+   public void addPortletContext(PortletContext portletContext)
+   {
+      String id = portletContext.getId();
+      PortletContextMapping contextMapping = createPortletContext(id);
+      getPortletContexts().add(contextMapping);
+
+      if (portletContext instanceof StatefulPortletContext)
+      {
+         StatefulPortletContext context = (StatefulPortletContext)portletContext;
+         if (PortletStateType.OPAQUE.equals(context.getType()))
+         {
+            contextMapping.initFrom(id, ((StatefulPortletContext<byte[]>)context).getState());
+         }
+         else
+         {
+            throw new IllegalArgumentException("Cannot handle PortletContext state: " + context.getState());
+         }
+      }
+      else
+      {
+         contextMapping.initFrom(id, null);
+      }
+   }
+
+   /**
+    * Removes the PortletContext identified by the specified identifier from the ones known by this registration.
+    *
+    * @param id the identifier of the PortletContext to remove
+    * @return <code>true</code> if the PortletContext was known by this registration, <code>false</code> otherwise
+    */
+   public boolean removePortletContext(String id)
+   {
+      return getIdToPortletContextMap().remove(id) != null;
+   }
+
    public RegistrationSPI toModel(RegistrationSPI initial, JCRRegistrationPersistenceManager persistenceManager)
    {
       ParameterValidation.throwIllegalArgExceptionIfNull(initial, "RegistrationSPI");
@@ -155,23 +219,51 @@ public abstract class RegistrationMapping implements BaseMapping<RegistrationSPI
       initial.setRegistrationHandle(getRegistrationHandle());
       initial.setPersistentKey(getPersistentKey());
 
-      Collection<PortletContextMapping> pcms = getPortletContexts();
-      for (PortletContextMapping pcm : pcms)
+      final Map<String, PortletContextMapping> idToMapping = getIdToPortletContextMap();
+      if (initial instanceof RegistrationImpl)
       {
-         PortletContext pc = PortletContext.createPortletContext(pcm.getId(), IOTools.safeGetBytes(pcm.getState()));
-         try
+         // only record the identifiers of known portlet contexts, their state will be loaded only if needed
+         final RegistrationImpl registrationImpl = (RegistrationImpl)initial;
+         for (String id : idToMapping.keySet())
          {
-            initial.addPortletContext(pc, false); // no need to save since we're loading from persistence :)
+            registrationImpl.addPortletContextId(id);
          }
-         catch (RegistrationException e)
+      }
+      else
+      {
+         for (String id : idToMapping.keySet())
          {
-            throw new RuntimeException(e);
+            try
+            {
+               initial.addPortletContext(getPortletContext(id), false);
+            }
+            catch (RegistrationException e)
+            {
+               throw new IllegalArgumentException("Couldn't add PortletContext '" + id + "' to registration '" + getRegistrationHandle() + "'", e);
+            }
          }
       }
 
       return initial;
    }
 
+   /**
+    * Retrieves the persisted PortletContext, including its state, identified by the specified identifier.
+    *
+    * @param id the identifier of the PortletContext to retrieve
+    * @return the persisted PortletContext or <code>null</code> if this registration doesn't know about it
+    */
+   public PortletContext getPortletContext(String id)
+   {
+      final PortletContextMapping pcm = getIdToPortletContextMap().get(id);
+      if (pcm == null)
+      {
+         return null;
+      }
+
+      return PortletContext.createPortletContext(pcm.getId(), IOTools.safeGetBytes(pcm.getState()));
+   }
+
    public Class<RegistrationSPI> getModelClass()
    {
       return RegistrationSPI.class;
@@ -0,0 +1,132 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.consumer.migration;
+
+import junit.framework.TestCase;
+import org.chromattic.api.ChromatticBuilder;
+import org.gatein.wsrp.jcr.BaseChromatticPersister;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class JCRMigrationServiceTestCase extends TestCase
+{
+   private BaseChromatticPersister persister;
+   private JCRMigrationService service;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      final long random = Math.round(Math.abs(100000 * Math.random()));
+      final String workspaceName = "/wsrp-jcr-test" + random;
+      persister = new BaseChromatticPersister(workspaceName)
+      {
+         @Override
+         protected void setBuilderOptions(ChromatticBuilder builder)
+         {
+            builder.setOptionValue(ChromatticBuilder.ROOT_NODE_PATH, workspaceName);
+            builder.setOptionValue(ChromatticBuilder.ROOT_NODE_TYPE, "nt:unstructured");
+            builder.setOptionValue(ChromatticBuilder.CREATE_ROOT_NODE, true);
+         }
+      };
+      persister.initializeBuilderFor(JCRMigrationService.mappingClasses);
+      service = new JCRMigrationService(persister);
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      final Session session = persister.getSession().getJCRSession();
+      final NodeIterator nodes = session.getRootNode().getNodes();
+      while (nodes.hasNext())
+      {
+         nodes.nextNode().remove();
+      }
+      persister.closeSession(true);
+   }
+
+   public void testPruneOldExports()
+   {
+      final long now = System.currentTimeMillis();
+      service.add(createCompleteExport(now - 3000, (byte)1));
+      service.add(createCompleteExport(now - 2000, (byte)2));
+      service.add(createCompleteExport(now - 1000, (byte)3));
+
+      // an incomplete export needs to be kept so that it can be resumed, however old it is
+      final ExportInfo incomplete = new ExportInfo(now - 4000, Arrays.asList("a", "b"));
+      service.add(incomplete);
+
+      // nothing is pruned without retention policy
+      assertTrue(service.pruneOldExports().isEmpty());
+      assertEquals(4, service.getAvailableExportInfos().size());
+
+      service.setMaxExports(1);
+      final List<ExportInfo> pruned = service.pruneOldExports();
+      assertEquals(2, pruned.size());
+
+      // pruned exports can still be released
+      for (ExportInfo info : pruned)
+      {
+         assertTrue(info.getExportTime() == now - 3000 || info.getExportTime() == now - 2000);
+         assertEquals(1, info.getExportContexts().size());
+      }
+
+      assertNull(service.getExportInfo(now - 3000));
+      assertNull(service.getExportInfo(now - 2000));
+      assertNotNull(service.getExportInfo(now - 1000));
+      assertNotNull(service.getExportInfo(now - 4000));
+      assertEquals(2, service.getAvailableExportInfos().size());
+   }
+
+   public void testRemoveOnlyLoadsExportedStatesIfAsked()
+   {
+      final long now = System.currentTimeMillis();
+      service.add(createCompleteExport(now - 1000, (byte)1));
+      service.add(createCompleteExport(now, (byte)2));
+
+      final ExportInfo removed = service.remove(service.getExportInfo(now - 1000));
+      assertNotNull(removed);
+      assertEquals(1, removed.getExportContexts().get(0)[0]);
+      assertNull(removed.getPortletStateFor("a"));
+
+      final ExportInfo removedWithStates = service.remove(service.getExportInfo(now), true);
+      assertNotNull(removedWithStates);
+      assertEquals(2, removedWithStates.getPortletStateFor("a")[0]);
+      assertTrue(service.isAvailableExportInfosEmpty());
+   }
+
+   private static ExportInfo createCompleteExport(long exportTime, byte marker)
+   {
+      final TreeMap<String, byte[]> states = new TreeMap<String, byte[]>();
+      states.put("a", new byte[]{marker});
+      return new ExportInfo(exportTime, null, states, new byte[]{marker});
+   }
+}
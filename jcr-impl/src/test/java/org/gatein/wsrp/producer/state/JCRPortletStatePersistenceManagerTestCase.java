@@ -0,0 +1,228 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2011, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.state;
+
+import junit.framework.TestCase;
+import org.chromattic.api.ChromatticBuilder;
+import org.chromattic.api.ChromatticSession;
+import org.gatein.pc.api.state.PropertyMap;
+import org.gatein.pc.portlet.state.SimplePropertyMap;
+import org.gatein.pc.portlet.state.producer.PortletStateContext;
+import org.gatein.wsrp.jcr.BaseChromatticPersister;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class JCRPortletStatePersistenceManagerTestCase extends TestCase
+{
+   private BaseChromatticPersister persister;
+   private JCRPortletStatePersistenceManager manager;
+   private int openedSessions;
+   private ChromatticSession lastSession;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      final String workspaceName = "/wsrp-jcr-test" + Math.round(Math.abs(100000 * Math.random()));
+      persister = new BaseChromatticPersister(workspaceName)
+      {
+         @Override
+         protected void setBuilderOptions(ChromatticBuilder builder)
+         {
+            builder.setOptionValue(ChromatticBuilder.ROOT_NODE_PATH, workspaceName);
+            builder.setOptionValue(ChromatticBuilder.ROOT_NODE_TYPE, "nt:unstructured");
+            builder.setOptionValue(ChromatticBuilder.CREATE_ROOT_NODE, true);
+         }
+
+         @Override
+         public ChromatticSession getSession()
+         {
+            // record how many sessions are opened
+            final ChromatticSession session = super.getSession();
+            if (session != lastSession)
+            {
+               openedSessions++;
+               lastSession = session;
+            }
+            return session;
+         }
+      };
+      persister.initializeBuilderFor(JCRPortletStatePersistenceManager.mappingClasses);
+      manager = new JCRPortletStatePersistenceManager(persister);
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      manager.stop();
+
+      final Session session = persister.getSession().getJCRSession();
+      final NodeIterator nodes = session.getRootNode().getNodes();
+      while (nodes.hasNext())
+      {
+         nodes.nextNode().remove();
+      }
+      persister.closeSession(true);
+   }
+
+   public void testLoadedStatesAreCopies() throws Exception
+   {
+      manager.setMaxCachedStates(10);
+      String stateId = manager.createState("portlet", properties("value"));
+
+      PortletStateContext context = manager.loadState(stateId);
+      assertEquals("value", context.getState().getProperties().get("pref").get(0));
+
+      // modifying the returned state shouldn't modify the cached one
+      context.getState().getProperties().put("pref", Collections.singletonList("modified"));
+      assertEquals("value", manager.loadState(stateId).getState().getProperties().get("pref").get(0));
+   }
+
+   public void testCacheIsOptInBoundedAndExpires() throws Exception
+   {
+      final String first = manager.createState("portlet", properties("initial"));
+      final String second = manager.createState("portlet", properties("initial"));
+      final JCRPortletStatePersistenceManager other = new JCRPortletStatePersistenceManager(persister);
+
+      // no caching by default so modifications made by others are seen right away
+      assertEquals("initial", manager.loadState(first).getState().getProperties().get("pref").get(0));
+      other.updateState(first, properties("first"));
+      assertEquals("first", manager.loadState(first).getState().getProperties().get("pref").get(0));
+
+      manager.setMaxCachedStates(1);
+      other.updateState(first, properties("second"));
+      assertEquals("second", manager.loadState(first).getState().getProperties().get("pref").get(0));
+      other.updateState(first, properties("third"));
+      assertEquals("second", manager.loadState(first).getState().getProperties().get("pref").get(0));
+
+      // loading another state should evict the first one
+      manager.loadState(second);
+      assertEquals("third", manager.loadState(first).getState().getProperties().get("pref").get(0));
+
+      // cached states should expire
+      manager.setCachedStateTimeToLive(1);
+      manager.loadState(second);
+      other.updateState(second, properties("updated"));
+      Thread.sleep(10);
+      assertEquals("updated", manager.loadState(second).getState().getProperties().get("pref").get(0));
+   }
+
+   public void testWriteBehind() throws Exception
+   {
+      String stateId = manager.createState("portlet", properties("initial"));
+
+      // use a long interval so that updates are only written when we ask
+      manager.setWriteBehindFlushInterval(60 * 60 * 1000);
+      manager.updateState(stateId, properties("first"));
+      manager.updateState(stateId, properties("second"));
+
+      // updates should be visible right away
+      assertEquals("second", manager.loadState(stateId).getState().getProperties().get("pref").get(0));
+
+      // but not written yet
+      JCRPortletStatePersistenceManager other = new JCRPortletStatePersistenceManager(persister);
+      assertEquals("initial", other.loadState(stateId).getState().getProperties().get("pref").get(0));
+
+      // stopping should write the pending updates
+      manager.stop();
+      assertEquals(0, manager.getWriteBehindFlushInterval());
+      other = new JCRPortletStatePersistenceManager(persister);
+      assertEquals("second", other.loadState(stateId).getState().getProperties().get("pref").get(0));
+   }
+
+   public void testDestroyWithPendingUpdate() throws Exception
+   {
+      String stateId = manager.createState("portlet", properties("initial"));
+
+      manager.setWriteBehindFlushInterval(60 * 60 * 1000);
+      manager.updateState(stateId, properties("updated"));
+      manager.destroyState(stateId);
+      manager.flush();
+
+      JCRPortletStatePersistenceManager other = new JCRPortletStatePersistenceManager(persister);
+      try
+      {
+         other.loadState(stateId);
+         fail("State should have been destroyed");
+      }
+      catch (Exception expected)
+      {
+         // expected
+      }
+   }
+
+   public void testBatchUsesASingleSession() throws Exception
+   {
+      final String existing = manager.createState("portlet", properties("initial"));
+      openedSessions = 0;
+
+      // bulk portlet management operations process each chunk of portlets within a batch, like this
+      manager.beginBatch();
+      final List<String> created = new ArrayList<String>();
+      for (int i = 0; i < 5; i++)
+      {
+         created.add(manager.createState("portlet" + i, properties("value" + i)));
+      }
+      manager.updateState(existing, properties("updated"));
+      manager.destroyState(created.get(0));
+      manager.endBatch(true);
+
+      assertEquals(1, openedSessions);
+      assertTrue(persister.isSessionClosed());
+
+      // check that all the modifications were committed
+      final JCRPortletStatePersistenceManager other = new JCRPortletStatePersistenceManager(persister);
+      assertEquals("updated", other.loadState(existing).getState().getProperties().get("pref").get(0));
+      for (int i = 1; i < 5; i++)
+      {
+         assertEquals("value" + i, other.loadState(created.get(i)).getState().getProperties().get("pref").get(0));
+      }
+   }
+
+   public void testCacheDoesNotKeepDiscardedBatchWrites() throws Exception
+   {
+      final String stateId = manager.createState("portlet", properties("initial"));
+      assertEquals("initial", manager.loadState(stateId).getState().getProperties().get("pref").get(0));
+
+      manager.beginBatch();
+      manager.updateState(stateId, properties("discarded"));
+      manager.endBatch(false);
+
+      assertEquals("initial", manager.loadState(stateId).getState().getProperties().get("pref").get(0));
+   }
+
+   private static PropertyMap properties(String value)
+   {
+      SimplePropertyMap properties = new SimplePropertyMap();
+      properties.put("pref", Collections.singletonList(value));
+      return properties;
+   }
+}
@@ -24,14 +24,28 @@
 package org.gatein.wsrp.registration;
 
 import org.chromattic.api.ChromatticBuilder;
+import org.chromattic.api.ChromatticSession;
+import org.gatein.pc.api.PortletContext;
+import org.gatein.pc.api.StatefulPortletContext;
 import org.gatein.registration.AbstractRegistrationPersistenceManagerTestCase;
+import org.gatein.registration.Consumer;
+import org.gatein.registration.ConsumerGroup;
+import org.gatein.registration.RegistrationStatus;
 import org.gatein.registration.RegistrationPersistenceManager;
+import org.gatein.registration.spi.RegistrationSPI;
 import org.gatein.wsrp.jcr.BaseChromatticPersister;
 import org.gatein.wsrp.jcr.ChromatticPersister;
+import org.gatein.wsrp.registration.mapping.ConsumerGroupMapping;
+import org.gatein.wsrp.registration.mapping.ConsumersAndGroupsMapping;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.Session;
+import javax.xml.namespace.QName;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -84,4 +98,170 @@ public class JCRRegistrationPersistenceManagerTestCase extends AbstractRegistrat
    {
       return persistenceManager;
    }
+
+   public void testBatch() throws Exception
+   {
+      final ChromatticPersister persister = persistenceManager.getPersister();
+
+      persister.beginBatch();
+      persistenceManager.createConsumer("foo", "foo");
+      persistenceManager.createConsumer("bar", "bar");
+      persister.endBatch(false);
+
+      // batch was discarded so nothing should have been persisted
+      assertNull(persistenceManager.getConsumerById("foo"));
+      assertNull(persistenceManager.getConsumerById("bar"));
+
+      persister.beginBatch();
+      persistenceManager.createConsumer("foo", "foo");
+      persister.beginBatch();
+      persistenceManager.createConsumer("bar", "bar");
+      persister.endBatch(true);
+
+      // nested batch shouldn't have closed the session
+      assertFalse(persister.isSessionClosed());
+      persister.endBatch(true);
+
+      assertTrue(persister.isSessionClosed());
+      assertNotNull(persistenceManager.getConsumerById("foo"));
+      assertNotNull(persistenceManager.getConsumerById("bar"));
+   }
+
+   public void testBatchWithFailedOperation() throws Exception
+   {
+      final ChromatticPersister persister = persistenceManager.getPersister();
+
+      persister.beginBatch();
+      // simulate an operation that fails after having modified the session but before asking for a save
+      persister.getSession().getJCRSession().getRootNode().addNode("failed");
+      persister.closeSession(false);
+      persistenceManager.createConsumer("foo", "foo");
+      persister.endBatch(true);
+
+      // the failed operation should have caused the whole batch to be discarded
+      assertNull(persistenceManager.getConsumerById("foo"));
+
+      // read-only operations shouldn't fail the batch
+      persister.beginBatch();
+      assertNull(persistenceManager.getConsumerById("bar"));
+      persistenceManager.createConsumer("bar", "bar");
+      assertNotNull(persistenceManager.getConsumerById("bar"));
+      persister.endBatch(true);
+
+      assertNotNull(persistenceManager.getConsumerById("bar"));
+   }
+
+   public void testSaveReloadedRegistrationWithClones() throws Exception
+   {
+      persistenceManager.createConsumer("foo", "foo");
+      final Map<QName, Object> properties = new HashMap<QName, Object>();
+      properties.put(new QName("prop"), "value");
+      RegistrationSPI registration = persistenceManager.addRegistrationFor("foo", properties);
+      final String id = registration.getPersistentKey();
+
+      final PortletContext clone = PortletContext.createPortletContext("_clone", new byte[]{1, 2, 3});
+      final PortletContext stateless = PortletContext.createPortletContext("_stateless");
+      registration.addPortletContext(clone);
+      registration.addPortletContext(stateless);
+
+      // reload the registration so that its clones are lazily loaded, modify it and save it
+      registration = (RegistrationSPI)persistenceManager.getRegistration(id);
+      assertTrue(registration.knows("_clone"));
+      registration.setStatus(RegistrationStatus.VALID);
+      registration.setPropertyValueFor("prop", "other");
+      persistenceManager.saveChangesTo(registration);
+
+      // saving the consumer also saves its registrations
+      final Consumer consumer = persistenceManager.getConsumerById("foo");
+      persistenceManager.saveChangesTo(consumer);
+
+      registration = (RegistrationSPI)persistenceManager.getRegistration(id);
+      assertEquals(RegistrationStatus.VALID, registration.getStatus());
+      assertEquals("other", registration.getPropertyValueFor("prop"));
+      final Set<PortletContext> knownPortletContexts = registration.getKnownPortletContexts();
+      assertEquals(2, knownPortletContexts.size());
+      for (PortletContext portletContext : knownPortletContexts)
+      {
+         if ("_clone".equals(portletContext.getId()))
+         {
+            assertTrue(Arrays.equals(new byte[]{1, 2, 3}, ((StatefulPortletContext<byte[]>)portletContext).getState()));
+         }
+         else
+         {
+            assertEquals(stateless, portletContext);
+         }
+      }
+
+      // loading the clones while a session is already opened shouldn't close it
+      final ChromatticPersister persister = persistenceManager.getPersister();
+      persister.getSession();
+      assertEquals(2, persistenceManager.getRegistration(id).getKnownPortletContexts().size());
+      assertFalse(persister.isSessionClosed());
+      persister.closeSession(false);
+   }
+
+   public void testConsumerAndGroupWithSameName() throws Exception
+   {
+      persistenceManager.createConsumerGroup("shared");
+      persistenceManager.createConsumer("shared", "shared");
+
+      // consumers and groups are siblings but a consumer can be identified by the name of a group
+      final ConsumerGroup group = persistenceManager.getConsumerGroup("shared");
+      assertNotNull(group);
+      assertEquals("shared", group.getName());
+      final Consumer consumer = persistenceManager.getConsumerById("shared");
+      assertNotNull(consumer);
+      assertEquals("shared", consumer.getName());
+      assertTrue(persistenceManager.isConsumerExisting("shared"));
+      assertTrue(persistenceManager.isConsumerGroupExisting("shared"));
+
+      // removing one shouldn't remove the other
+      persistenceManager.removeConsumer("shared");
+      assertNull(persistenceManager.getConsumerById("shared"));
+      assertNotNull(persistenceManager.getConsumerGroup("shared"));
+
+      persistenceManager.createConsumer("shared", "shared");
+      persistenceManager.removeConsumerGroup("shared");
+      assertNull(persistenceManager.getConsumerGroup("shared"));
+      assertNotNull(persistenceManager.getConsumerById("shared"));
+   }
+
+   public void testConsumerIdentifiedLikeEncodedGroup() throws Exception
+   {
+      final String id = JCRRegistrationPersistenceManager.GROUP_NODE_PREFIX + "group";
+      persistenceManager.createConsumerGroup("group");
+      persistenceManager.createConsumer(id, "consumer");
+
+      assertEquals(id, persistenceManager.getConsumerById(id).getId());
+      assertEquals("group", persistenceManager.getConsumerGroup("group").getName());
+      assertNull(persistenceManager.getConsumerGroup(id));
+      assertNull(persistenceManager.getConsumerById("group"));
+   }
+
+   public void testLegacyGroupNamedAfterItsName() throws Exception
+   {
+      // groups used to be persisted in nodes named after the group name
+      final ChromatticPersister persister = persistenceManager.getPersister();
+      try
+      {
+         final ChromatticSession session = persister.getSession();
+         final ConsumersAndGroupsMapping mappings = session.findByPath(ConsumersAndGroupsMapping.class, ConsumersAndGroupsMapping.NODE_NAME);
+         final ConsumerGroupMapping cgm = mappings.createConsumerGroup("legacy");
+         mappings.getConsumerGroups().add(cgm);
+         cgm.setName("legacy");
+         persister.save();
+      }
+      finally
+      {
+         persister.closeSession(false);
+      }
+
+      assertTrue(persistenceManager.isConsumerGroupExisting("legacy"));
+      assertEquals("legacy", persistenceManager.getConsumerGroup("legacy").getName());
+      assertFalse(persistenceManager.isConsumerExisting("legacy"));
+      assertNull(persistenceManager.getConsumerById("legacy"));
+
+      persistenceManager.removeConsumerGroup("legacy");
+      assertFalse(persistenceManager.isConsumerGroupExisting("legacy"));
+   }
 }
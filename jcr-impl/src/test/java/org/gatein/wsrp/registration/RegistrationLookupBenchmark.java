@@ -0,0 +1,165 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.registration;
+
+import org.chromattic.api.ChromatticBuilder;
+import org.chromattic.api.ChromatticSession;
+import org.gatein.registration.Consumer;
+import org.gatein.registration.RegistrationException;
+import org.gatein.wsrp.jcr.BaseChromatticPersister;
+import org.gatein.wsrp.jcr.ChromatticPersister;
+import org.gatein.wsrp.registration.mapping.ConsumerMapping;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.jcr.query.RowIterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares looking up consumers by identifier in the JCR registration persistence using a direct lookup based on the
+ * node names (what JCRRegistrationPersistenceManager currently does) to using a JCR SQL query on the node path (what it
+ * used to do). Since it isn't a test, it needs to be run explicitly, e.g. using its main method from the test classpath.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RegistrationLookupBenchmark
+{
+   /** Number of consumers in the registry. */
+   @Param({"10000"})
+   public int consumers;
+
+   private JCRRegistrationPersistenceManager persistenceManager;
+   private ChromatticPersister persister;
+   private String[] consumerIds;
+   private int next;
+
+   public static void main(String[] args) throws Exception
+   {
+      new Runner(new OptionsBuilder().include(RegistrationLookupBenchmark.class.getSimpleName()).build()).run();
+   }
+
+   @Setup
+   public void setUp() throws Exception
+   {
+      final String rootPath = "/wsrp-benchmark" + System.nanoTime();
+      BaseChromatticPersister chromatticPersister = new BaseChromatticPersister(rootPath)
+      {
+         @Override
+         protected void setBuilderOptions(ChromatticBuilder builder)
+         {
+            builder.setOptionValue(ChromatticBuilder.ROOT_NODE_PATH, rootPath);
+            builder.setOptionValue(ChromatticBuilder.ROOT_NODE_TYPE, "nt:unstructured");
+            builder.setOptionValue(ChromatticBuilder.CREATE_ROOT_NODE, true);
+         }
+      };
+      chromatticPersister.initializeBuilderFor(JCRRegistrationPersistenceManager.mappingClasses);
+      persister = chromatticPersister;
+      persistenceManager = new JCRRegistrationPersistenceManager(persister, rootPath);
+
+      consumerIds = new String[consumers];
+      for (int i = 0; i < consumers; i++)
+      {
+         consumerIds[i] = "consumer" + i;
+         persistenceManager.createConsumer(consumerIds[i], consumerIds[i]);
+      }
+   }
+
+   @TearDown
+   public void tearDown() throws Exception
+   {
+      final Session session = persister.getSession().getJCRSession();
+      final NodeIterator nodes = session.getRootNode().getNodes();
+      while (nodes.hasNext())
+      {
+         final Node node = nodes.nextNode();
+         if (!node.getName().startsWith("jcr:"))
+         {
+            node.remove();
+         }
+      }
+      persister.closeSession(true);
+   }
+
+   private String nextConsumerId()
+   {
+      // spread look ups over the whole registry
+      next = (next + 7919) % consumers;
+      return consumerIds[next];
+   }
+
+   /** Looks up a consumer using the node name based look up JCRRegistrationPersistenceManager now uses. */
+   @Benchmark
+   public Consumer directLookup() throws RegistrationException
+   {
+      return persistenceManager.getConsumerById(nextConsumerId());
+   }
+
+   /** Looks up a consumer using the path query JCRRegistrationPersistenceManager used to perform. */
+   @Benchmark
+   public Consumer queryLookup() throws Exception
+   {
+      final String id = nextConsumerId();
+      try
+      {
+         final ChromatticSession session = persister.getSession();
+         final Query query = session.getJCRSession().getWorkspace().getQueryManager()
+            .createQuery("select jcr:uuid from " + ConsumerMapping.NODE_NAME + " where jcr:path = '/%/" + id + "'", Query.SQL);
+         final RowIterator rows = query.execute().getRows();
+         if (!rows.hasNext())
+         {
+            return null;
+         }
+
+         final ConsumerMapping mapping = session.findById(ConsumerMapping.class, rows.nextRow().getValue("jcr:uuid").getString());
+         return mapping.toModel(persistenceManager.newConsumerSPI(mapping.getId(), mapping.getName()), persistenceManager);
+      }
+      finally
+      {
+         persister.closeSession(false);
+      }
+   }
+}
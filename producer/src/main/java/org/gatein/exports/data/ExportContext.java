@@ -22,6 +22,8 @@
  */
 package org.gatein.exports.data;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -129,13 +131,25 @@ public class ExportContext extends ExportData
    }
 
    @Override
-   protected void decodeExtraData(ObjectInputStream ois) throws IOException
+   protected void decodeExtraData(DataInput in) throws IOException
    {
       // we currently don't pass any information by value
    }
 
    @Override
-   protected void encodeExtraData(ObjectOutputStream oos) throws IOException
+   protected void decodeLegacyExtraData(ObjectInputStream ois) throws IOException
+   {
+      // we currently don't pass any information by value
+   }
+
+   @Override
+   protected void encodeExtraData(DataOutput out) throws IOException
+   {
+      // we currently don't pass any information by value
+   }
+
+   @Override
+   protected void encodeLegacyExtraData(ObjectOutputStream oos) throws IOException
    {
       // we currently don't pass any information by value
    }
@@ -24,19 +24,51 @@ package org.gatein.exports.data;
 
 import org.gatein.exports.ExportPersistenceManager;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
 
 /**
+ * Base class for data exchanged with consumers during export / import operations. Data is encoded using a compact,
+ * length-prefixed binary format: a {@link #MAGIC} header and format version, followed by the data type, the data
+ * version, the data identifier (when the actual data is persisted on the producer) and finally the data itself, as
+ * written by {@link #encodeExtraData(java.io.DataOutput)}. Data encoded using the previous format, relying on Java
+ * serialization streams, can still be decoded and is still written if the {@link #LEGACY_ENCODING_PROPERTY} system
+ * property is set to <code>true</code>, so that data can be exchanged with producers which haven't been upgraded yet.
+ *
  * @author <a href="mailto:mwringe@redhat.com">Matt Wringe</a>
  * @version $Revision$
  */
 public abstract class ExportData
 {
    protected static final String NO_ID = "__NO_ID__";
+
+   /** Identifies the compact encoding, cannot be mistaken for the serialization stream header of the legacy format. */
+   static final int MAGIC = 0x47544E58; // "GTNX"
+
+   /** Version of the encoding format itself, independent of the version of the encoded data type. */
+   static final byte FORMAT_VERSION = 1;
+
+   /** System property specifying whether data should be encoded using the legacy, serialization-based, format. */
+   public static final String LEGACY_ENCODING_PROPERTY = "org.gatein.wsrp.producer.exports.legacyEncoding";
+
+   /** Maximum length of encoded Strings and byte arrays, to reject corrupted or malicious data early. */
+   static final int MAX_LENGTH = 64 * 1024 * 1024;
+
+   /** Size of the chunks used to read byte arrays so that memory is only allocated for data actually present. */
+   private static final int READ_CHUNK_SIZE = 8192;
+
    private String id = NO_ID;
 
    public static <T extends ExportData> T initExportData(Class<T> expected, byte[] encodedData, ExportPersistenceManager persistenceManager)
@@ -45,82 +77,321 @@ public abstract class ExportData
       {
          try
          {
-            ByteArrayInputStream bais = new ByteArrayInputStream(encodedData);
-            ObjectInputStream ois = new ObjectInputStream(bais);
+            return initExportData(expected, new ByteArrayInputStream(encodedData), persistenceManager);
+         }
+         catch (IOException e)
+         {
+            throw new IllegalArgumentException("Couldn't read from byte array", e);
+         }
+      }
+      throw new IllegalArgumentException("Cannot create ExportData from null or empty byte array");
+   }
 
-            String type = ois.readUTF();
+   /**
+    * Decodes ExportData from the specified stream, which is not closed. Streams that don't support marking are
+    * buffered and might therefore be read past the end of the encoded data.
+    *
+    * @param expected           the expected type of ExportData
+    * @param in                 the stream to read encoded data from
+    * @param persistenceManager the ExportPersistenceManager to load persisted state from if the encoded data refers to
+    *                           it
+    * @return the decoded ExportData
+    * @throws IOException if the stream couldn't be read
+    */
+   public static <T extends ExportData> T initExportData(Class<T> expected, InputStream in, ExportPersistenceManager persistenceManager) throws IOException
+   {
+      if (!in.markSupported())
+      {
+         in = new BufferedInputStream(in);
+      }
 
-            ExportData exportData;
-            if (ExportContext.TYPE.equals(type))
-            {
-               exportData = new ExportContext();
-            }
-            else if (ExportPortletData.TYPE.equals(type))
-            {
-               exportData = new ExportPortletData();
-            }
-            else
-            {
-               throw new IllegalArgumentException("Unknown ExportData type '" + type + "'");
-            }
+      // check which format was used to encode the data
+      in.mark(4);
+      DataInputStream dis = new DataInputStream(in);
+      int header;
+      try
+      {
+         header = dis.readInt();
+      }
+      catch (EOFException e)
+      {
+         throw new IllegalArgumentException("Cannot create ExportData from truncated data", e);
+      }
 
-            T result = expected.cast(exportData);
+      if (header == MAGIC)
+      {
+         byte formatVersion = dis.readByte();
+         if (formatVersion != FORMAT_VERSION)
+         {
+            throw new IllegalArgumentException("Unknown ExportData encoding format version '" + formatVersion + "'");
+         }
 
-            double version = ois.readDouble();
-            if (!result.supports(version))
-            {
-               throw new IllegalArgumentException(expected.getSimpleName() + " doesn't know how to deal with version '" + version + "'");
-            }
+         String type = readString(dis);
+         T result = expected.cast(newExportData(type));
+         checkVersion(expected, result, dis.readDouble());
+         return initFrom(expected, result, readString(dis), dis, false, persistenceManager);
+      }
+      else if ((header >>> 16) == (ObjectStreamConstants.STREAM_MAGIC & 0xFFFF))
+      {
+         in.reset();
+         ObjectInputStream ois = new ObjectInputStream(in);
 
-            String id = ois.readUTF();
-            exportData.id = id;
-            if (NO_ID.equals(id))
-            {
-               result.decodeExtraData(ois);
-            }
-            else
-            {
-               if(persistenceManager == null)
-               {
-                  throw new IllegalStateException("Encoded data points to persisted state, yet no ExportPersistenceManager has been provided to load state from persistence");
-               }
-               result = persistenceManager.loadExportData(id, expected);
-            }
+         String type = ois.readUTF();
+         T result = expected.cast(newExportData(type));
+         checkVersion(expected, result, ois.readDouble());
+         return initFrom(expected, result, ois.readUTF(), ois, true, persistenceManager);
+      }
+      else
+      {
+         throw new IllegalArgumentException("Unknown ExportData encoding");
+      }
+   }
+
+   private static ExportData newExportData(String type)
+   {
+      if (ExportContext.TYPE.equals(type))
+      {
+         return new ExportContext();
+      }
+      else if (ExportPortletData.TYPE.equals(type))
+      {
+         return new ExportPortletData();
+      }
+      else
+      {
+         throw new IllegalArgumentException("Unknown ExportData type '" + type + "'");
+      }
+   }
+
+   private static void checkVersion(Class<?> expected, ExportData exportData, double version)
+   {
+      if (!exportData.supports(version))
+      {
+         throw new IllegalArgumentException(expected.getSimpleName() + " doesn't know how to deal with version '" + version + "'");
+      }
+   }
 
-            return result;
+   private static <T extends ExportData> T initFrom(Class<T> expected, T result, String id, DataInput in, boolean legacy, ExportPersistenceManager persistenceManager) throws IOException
+   {
+      result.setId(id);
+      if (NO_ID.equals(id))
+      {
+         if (legacy)
+         {
+            result.decodeLegacyExtraData((ObjectInputStream)in);
          }
-         catch (IOException e)
+         else
          {
-            throw new IllegalArgumentException("Couldn't read from byte array", e);
+            result.decodeExtraData(in);
          }
+         return result;
+      }
+      else
+      {
+         if (persistenceManager == null)
+         {
+            throw new IllegalStateException("Encoded data points to persisted state, yet no ExportPersistenceManager has been provided to load state from persistence");
+         }
+         return persistenceManager.loadExportData(id, expected);
       }
-      throw new IllegalArgumentException("Cannot create ExportData from null or empty byte array");
    }
 
-
    protected boolean supports(double version)
    {
       return Double.compare(getVersion(), version) == 0;
    }
 
-   protected abstract void decodeExtraData(ObjectInputStream ois) throws IOException;
-   protected abstract void encodeExtraData(ObjectOutputStream oos) throws IOException;
+   /**
+    * Decodes the type-specific data, as written by {@link #encodeExtraData(java.io.DataOutput)}.
+    *
+    * @param in the input to read the data from
+    * @throws IOException
+    */
+   protected abstract void decodeExtraData(DataInput in) throws IOException;
+
+   /**
+    * Decodes the type-specific data from data encoded using the legacy, serialization-based, format.
+    *
+    * @param ois the stream to read the data from
+    * @throws IOException
+    */
+   protected abstract void decodeLegacyExtraData(ObjectInputStream ois) throws IOException;
 
+   /**
+    * Encodes the type-specific data.
+    *
+    * @param out the output to write the data to
+    * @throws IOException
+    */
+   protected abstract void encodeExtraData(DataOutput out) throws IOException;
+
+   /**
+    * Encodes the type-specific data using the legacy, serialization-based, format, as read by {@link
+    * #decodeLegacyExtraData(java.io.ObjectInputStream)}.
+    *
+    * @param oos the stream to write the data to
+    * @throws IOException
+    */
+   protected abstract void encodeLegacyExtraData(ObjectOutputStream oos) throws IOException;
 
    public byte[] encodeAsBytes() throws IOException
    {
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      ObjectOutputStream oos = new ObjectOutputStream(baos);
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(getEncodedSizeEstimate());
+      encodeTo(baos);
+      return baos.toByteArray();
+   }
+
+   /**
+    * Encodes this ExportData to the specified stream, which is flushed but not closed.
+    *
+    * @param out the stream to write the encoded data to
+    * @throws IOException
+    */
+   public void encodeTo(OutputStream out) throws IOException
+   {
+      if (Boolean.getBoolean(LEGACY_ENCODING_PROPERTY))
+      {
+         encodeLegacyTo(out);
+         return;
+      }
+
+      DataOutputStream dos = new DataOutputStream(out);
+
+      dos.writeInt(MAGIC);
+      dos.writeByte(FORMAT_VERSION);
+      writeString(dos, getType());
+      dos.writeDouble(getVersion());
+      writeString(dos, id);
+
+      // only encode the actual data if it's not persisted
+      if (NO_ID.equals(id))
+      {
+         encodeExtraData(dos);
+      }
+
+      dos.flush();
+   }
 
+   private void encodeLegacyTo(OutputStream out) throws IOException
+   {
+      ObjectOutputStream oos = new ObjectOutputStream(out);
       oos.writeUTF(getType());
       oos.writeDouble(getVersion());
       oos.writeUTF(id);
 
-      encodeExtraData(oos);
+      if (NO_ID.equals(id))
+      {
+         encodeLegacyExtraData(oos);
+      }
+
+      oos.flush();
+   }
 
-      oos.close();
+   /**
+    * Estimates the size of the encoded data so that buffers can be sized appropriately.
+    *
+    * @return an estimate of the encoded size of this ExportData
+    */
+   protected int getEncodedSizeEstimate()
+   {
+      return 64;
+   }
 
-      return baos.toByteArray();
+   /**
+    * Writes the specified String prefixed by the length of its UTF-8 encoding. Contrary to {@link
+    * DataOutput#writeUTF(String)}, Strings are not limited to 64KB.
+    */
+   protected static void writeString(DataOutput out, String value) throws IOException
+   {
+      writeBytes(out, value != null ? value.getBytes("UTF-8") : null);
+   }
+
+   protected static String readString(DataInput in) throws IOException
+   {
+      byte[] bytes = readBytes(in);
+      return bytes != null ? new String(bytes, "UTF-8") : null;
+   }
+
+   /** Writes the specified byte array prefixed by its length, <code>null</code> being distinguished from empty. */
+   protected static void writeBytes(DataOutput out, byte[] bytes) throws IOException
+   {
+      if (bytes == null)
+      {
+         writeLength(out, 0);
+      }
+      else
+      {
+         writeLength(out, bytes.length + 1);
+         out.write(bytes);
+      }
+   }
+
+   /**
+    * Reads a byte array written by {@link #writeBytes(java.io.DataOutput, byte[])}. The declared length isn't trusted:
+    * lengths over {@link #MAX_LENGTH} are rejected and large arrays are read in chunks so that truncated data is
+    * detected before allocating more memory than the input actually contains.
+    */
+   protected static byte[] readBytes(DataInput in) throws IOException
+   {
+      int length = readLength(in);
+      if (length == 0)
+      {
+         return null;
+      }
+
+      int remaining = length - 1;
+      if (remaining > MAX_LENGTH)
+      {
+         throw new IOException("Encoded length " + remaining + " exceeds maximum length " + MAX_LENGTH);
+      }
+
+      if (remaining <= READ_CHUNK_SIZE)
+      {
+         byte[] bytes = new byte[remaining];
+         in.readFully(bytes);
+         return bytes;
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(READ_CHUNK_SIZE);
+      byte[] buffer = new byte[READ_CHUNK_SIZE];
+      while (remaining > 0)
+      {
+         int toRead = Math.min(remaining, READ_CHUNK_SIZE);
+         in.readFully(buffer, 0, toRead);
+         bytes.write(buffer, 0, toRead);
+         remaining -= toRead;
+      }
+      return bytes.toByteArray();
+   }
+
+   /** Writes the specified non-negative length using a variable number of bytes, 7 bits at a time. */
+   private static void writeLength(DataOutput out, int length) throws IOException
+   {
+      while ((length & ~0x7F) != 0)
+      {
+         out.writeByte((length & 0x7F) | 0x80);
+         length >>>= 7;
+      }
+      out.writeByte(length);
+   }
+
+   private static int readLength(DataInput in) throws IOException
+   {
+      int length = 0;
+      for (int shift = 0; shift < 32; shift += 7)
+      {
+         int b = in.readUnsignedByte();
+         length |= (b & 0x7F) << shift;
+         if ((b & 0x80) == 0)
+         {
+            if (length < 0)
+            {
+               break;
+            }
+            return length;
+         }
+      }
+      throw new IOException("Malformed length");
    }
 
    protected abstract double getVersion();
@@ -137,4 +408,3 @@ public abstract class ExportData
       this.id = id;
    }
 }
-
@@ -22,7 +22,11 @@
  ******************************************************************************/
 package org.gatein.exports.data;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
@@ -68,19 +72,42 @@ public class ExportPortletData extends ExportData
       return VERSION;
    }
 
-   protected void decodeExtraData(ObjectInputStream ois) throws IOException
+   @Override
+   protected void decodeExtraData(DataInput in) throws IOException
+   {
+      portletHandle = readString(in);
+      portletState = readBytes(in);
+   }
+
+   @Override
+   protected void decodeLegacyExtraData(ObjectInputStream ois) throws IOException
    {
       portletHandle = ois.readUTF();
 
-      if (ois.available() > 0)
+      // the state, if any, is made of all the remaining bytes
+      ByteArrayOutputStream state = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      int read;
+      while ((read = ois.read(buffer)) != -1)
       {
-         portletState = new byte[ois.available()];
-         ois.readFully(portletState);
+         state.write(buffer, 0, read);
+      }
+
+      if (state.size() > 0)
+      {
+         portletState = state.toByteArray();
       }
    }
 
    @Override
-   protected void encodeExtraData(ObjectOutputStream oos) throws IOException
+   protected void encodeExtraData(DataOutput out) throws IOException
+   {
+      writeString(out, portletHandle);
+      writeBytes(out, portletState);
+   }
+
+   @Override
+   protected void encodeLegacyExtraData(ObjectOutputStream oos) throws IOException
    {
       oos.writeUTF(portletHandle);
 
@@ -90,11 +117,22 @@ public class ExportPortletData extends ExportData
       }
    }
 
+   @Override
+   protected int getEncodedSizeEstimate()
+   {
+      return super.getEncodedSizeEstimate() + (portletHandle != null ? portletHandle.length() : 0) + (portletState != null ? portletState.length : 0);
+   }
+
    public static ExportPortletData decodeFrom(byte[] bytes) throws IOException
    {
       return initExportData(ExportPortletData.class, bytes, null);
    }
 
+   public static ExportPortletData decodeFrom(InputStream in) throws IOException
+   {
+      return initExportData(ExportPortletData.class, in, null);
+   }
+
    void setExportContext(ExportContext exportContext)
    {
       this.exportContext = exportContext;
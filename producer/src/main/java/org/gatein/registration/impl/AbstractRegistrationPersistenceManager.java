@@ -24,6 +24,7 @@
 package org.gatein.registration.impl;
 
 import org.gatein.common.util.ParameterValidation;
+import org.gatein.pc.api.PortletContext;
 import org.gatein.registration.Consumer;
 import org.gatein.registration.ConsumerGroup;
 import org.gatein.registration.DuplicateRegistrationException;
@@ -37,7 +38,11 @@ import org.gatein.registration.spi.ConsumerSPI;
 import org.gatein.registration.spi.RegistrationSPI;
 
 import javax.xml.namespace.QName;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -45,7 +50,32 @@ import java.util.Map;
  */
 public abstract class AbstractRegistrationPersistenceManager implements RegistrationPersistenceManager
 {
-   private long lastRegistrationId;
+   private final AtomicLong lastRegistrationId = new AtomicLong();
+   private final List<RegistrationChangeListener> changeListeners = new CopyOnWriteArrayList<RegistrationChangeListener>();
+
+   /** Notified when registrations are modified so that the information cached about them can be discarded. */
+   interface RegistrationChangeListener
+   {
+      void registrationHasChanged(Registration registration);
+   }
+
+   void addRegistrationChangeListener(RegistrationChangeListener listener)
+   {
+      changeListeners.add(listener);
+   }
+
+   void removeRegistrationChangeListener(RegistrationChangeListener listener)
+   {
+      changeListeners.remove(listener);
+   }
+
+   void fireRegistrationHasChanged(Registration registration)
+   {
+      for (RegistrationChangeListener listener : changeListeners)
+      {
+         listener.registrationHasChanged(registration);
+      }
+   }
 
    public Consumer createConsumer(String consumerId, String consumerName) throws RegistrationException
    {
@@ -74,7 +104,20 @@ public abstract class AbstractRegistrationPersistenceManager implements Registra
          throw new IllegalArgumentException("Consumer " + consumer + " hasn't yet been persisted and thus cannot be updated.");
       }
 
-      internalSaveChangesTo(consumer);
+      try
+      {
+         internalSaveChangesTo(consumer);
+      }
+      finally
+      {
+         if (!changeListeners.isEmpty())
+         {
+            for (Registration registration : consumer.getRegistrations())
+            {
+               fireRegistrationHasChanged(registration);
+            }
+         }
+      }
    }
 
    public void saveChangesTo(Registration registration) throws RegistrationException
@@ -85,7 +128,92 @@ public abstract class AbstractRegistrationPersistenceManager implements Registra
       {
          throw new IllegalArgumentException("Registration " + registration + " hasn't yet been persisted and thus cannot be updated");
       }
-      internalSaveChangesTo(registration);
+
+      try
+      {
+         internalSaveChangesTo(registration);
+      }
+      finally
+      {
+         fireRegistrationHasChanged(registration);
+      }
+   }
+
+   /**
+    * Saves the fact that the specified PortletContext was added to the specified registration, without needing to save
+    * the complete registration.
+    *
+    * @param registration   the registration the PortletContext was added to
+    * @param portletContext the added PortletContext
+    * @throws RegistrationException
+    */
+   public void saveAddedPortletContext(Registration registration, PortletContext portletContext) throws RegistrationException
+   {
+      checkPortletContextChange(registration, portletContext);
+      internalSaveAddedPortletContext(registration, portletContext);
+   }
+
+   /**
+    * Saves the fact that the specified PortletContext was removed from the specified registration, without needing to
+    * save the complete registration.
+    *
+    * @param registration   the registration the PortletContext was removed from
+    * @param portletContext the removed PortletContext
+    * @throws RegistrationException
+    */
+   public void saveRemovedPortletContext(Registration registration, PortletContext portletContext) throws RegistrationException
+   {
+      checkPortletContextChange(registration, portletContext);
+      internalSaveRemovedPortletContext(registration, portletContext);
+   }
+
+   /**
+    * Saves the fact that the specified PortletContexts were removed from the specified registration, in one operation.
+    *
+    * @param registration    the registration the PortletContexts were removed from
+    * @param portletContexts the removed PortletContexts
+    * @throws RegistrationException
+    */
+   public void saveRemovedPortletContexts(Registration registration, Collection<PortletContext> portletContexts) throws RegistrationException
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(portletContexts, "PortletContexts");
+      for (PortletContext portletContext : portletContexts)
+      {
+         checkPortletContextChange(registration, portletContext);
+      }
+
+      if (!portletContexts.isEmpty())
+      {
+         internalSaveRemovedPortletContexts(registration, portletContexts);
+      }
+   }
+
+   /**
+    * Loads the PortletContext, including its state, identified by the specified identifier and known by the specified
+    * registration.
+    *
+    * @param registration     the registration knowing the PortletContext to load
+    * @param portletContextId the identifier of the PortletContext to load
+    * @return the persisted PortletContext or <code>null</code> if the specified registration doesn't know about it
+    * @throws RegistrationException
+    */
+   public PortletContext loadPortletContext(Registration registration, String portletContextId) throws RegistrationException
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(registration, "Registration");
+      ParameterValidation.throwIllegalArgExceptionIfNullOrEmpty(portletContextId, "PortletContext identifier", null);
+
+      return internalLoadPortletContext(registration, portletContextId);
+   }
+
+   private void checkPortletContextChange(Registration registration, PortletContext portletContext)
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(registration, "Registration");
+      ParameterValidation.throwIllegalArgExceptionIfNull(portletContext, "PortletContext");
+
+      if (registration.getPersistentKey() == null)
+      {
+         throw new IllegalArgumentException("Registration " + registration + " hasn't yet been persisted and thus cannot be updated");
+      }
    }
 
    public ConsumerGroup createConsumerGroup(String name) throws RegistrationException
@@ -207,7 +335,7 @@ public abstract class AbstractRegistrationPersistenceManager implements Registra
    protected RegistrationSPI internalCreateRegistration(ConsumerSPI consumer, Map<QName, Object> registrationProperties) throws RegistrationException
    {
       RegistrationSPI registrationSPI = newRegistrationSPI(consumer, registrationProperties);
-      registrationSPI.setPersistentKey("" + lastRegistrationId++);
+      registrationSPI.setPersistentKey("" + lastRegistrationId.getAndIncrement());
       return registrationSPI;
    }
 
@@ -226,6 +354,63 @@ public abstract class AbstractRegistrationPersistenceManager implements Registra
 
    protected abstract RegistrationSPI internalSaveChangesTo(Registration registration) throws RegistrationException;
 
+   /**
+    * Persists the addition of the specified PortletContext to the specified registration. Subclasses backed by a
+    * persistent store should override this method to only persist the delta, default implementation saves the whole
+    * registration.
+    *
+    * @param registration   the registration the PortletContext was added to
+    * @param portletContext the added PortletContext
+    * @throws RegistrationException
+    */
+   protected void internalSaveAddedPortletContext(Registration registration, PortletContext portletContext) throws RegistrationException
+   {
+      internalSaveChangesTo(registration);
+   }
+
+   /**
+    * Persists the removal of the specified PortletContext from the specified registration. Subclasses backed by a
+    * persistent store should override this method to only persist the delta, default implementation saves the whole
+    * registration.
+    *
+    * @param registration   the registration the PortletContext was removed from
+    * @param portletContext the removed PortletContext
+    * @throws RegistrationException
+    */
+   protected void internalSaveRemovedPortletContext(Registration registration, PortletContext portletContext) throws RegistrationException
+   {
+      internalSaveChangesTo(registration);
+   }
+
+   /**
+    * Persists the removal of the specified PortletContexts from the specified registration. Subclasses backed by a
+    * persistent store should override this method to persist all the removals at once, default implementation saves
+    * the whole registration.
+    *
+    * @param registration    the registration the PortletContexts were removed from
+    * @param portletContexts the removed PortletContexts
+    * @throws RegistrationException
+    */
+   protected void internalSaveRemovedPortletContexts(Registration registration, Collection<PortletContext> portletContexts) throws RegistrationException
+   {
+      internalSaveChangesTo(registration);
+   }
+
+   /**
+    * Loads the specified PortletContext from persistence. Only needed by subclasses which lazily load PortletContexts
+    * using {@link RegistrationImpl#addPortletContextId(String)}, default implementation returns a stateless
+    * PortletContext.
+    *
+    * @param registration     the registration knowing the PortletContext to load
+    * @param portletContextId the identifier of the PortletContext to load
+    * @return the persisted PortletContext or <code>null</code> if the specified registration doesn't know about it
+    * @throws RegistrationException
+    */
+   protected PortletContext internalLoadPortletContext(Registration registration, String portletContextId) throws RegistrationException
+   {
+      return PortletContext.createPortletContext(portletContextId);
+   }
+
    protected abstract void internalAddConsumerGroup(ConsumerGroupSPI group) throws RegistrationException;
 
    protected abstract ConsumerGroupSPI internalRemoveConsumerGroup(String name) throws RegistrationException;
@@ -31,8 +31,8 @@ import org.gatein.registration.spi.ConsumerGroupSPI;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author <a href="mailto:julien@jboss.org">Julien Viet</a>
@@ -42,8 +42,8 @@ public class ConsumerGroupImpl implements ConsumerGroupSPI
 {
    private String key;
    private String name;
-   private Map<String, Consumer> consumers;
-   private RegistrationStatus status;
+   private ConcurrentMap<String, Consumer> consumers;
+   private volatile RegistrationStatus status;
 
 
    private ConsumerGroupImpl()
@@ -59,7 +59,7 @@ public class ConsumerGroupImpl implements ConsumerGroupSPI
 
    private void init()
    {
-      this.consumers = new HashMap<String, Consumer>();
+      this.consumers = new ConcurrentHashMap<String, Consumer>();
       status = RegistrationStatus.PENDING;
    }
 
@@ -130,13 +130,12 @@ public class ConsumerGroupImpl implements ConsumerGroupSPI
    {
       ParameterValidation.throwIllegalArgExceptionIfNull(consumer, "Consumer");
       String identity = consumer.getId();
-      if (consumers.containsKey(identity))
+      if (consumers.putIfAbsent(identity, consumer) != null)
       {
          throw new IllegalArgumentException("ConsumerGroup named '" + name
             + "' already contains a Consumer named '" + consumer.getName() + "' (identity: '" + identity + "')");
       }
 
-      consumers.put(identity, consumer);
       consumer.setGroup(this);
    }
 
@@ -35,8 +35,8 @@ import org.gatein.registration.spi.RegistrationSPI;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -50,7 +50,7 @@ public class ConsumerImpl implements ConsumerSPI
    private String identity;
    private String consumerAgent;
    private Map<String, Registration> registrations;
-   private ConsumerGroup group;
+   private volatile ConsumerGroup group;
    private ConsumerCapabilities capabilities = new ConsumerCapabilitiesImpl();
    private String key;
 
@@ -73,7 +73,7 @@ public class ConsumerImpl implements ConsumerSPI
 
    private void init()
    {
-      registrations = new HashMap<String, Registration>(7);
+      registrations = new ConcurrentHashMap<String, Registration>(7);
       capabilities = new ConsumerCapabilitiesImpl();
    }
 
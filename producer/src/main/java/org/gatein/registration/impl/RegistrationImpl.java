@@ -33,11 +33,16 @@ import org.gatein.registration.spi.ConsumerSPI;
 import org.gatein.registration.spi.RegistrationSPI;
 
 import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -49,10 +54,13 @@ public class RegistrationImpl implements RegistrationSPI
 
    private String key;
    private ConsumerSPI consumer;
-   private RegistrationStatus status;
-   private Map<QName, Object> properties;
+   private volatile RegistrationStatus status;
+   private volatile Map<QName, Object> properties;
    private String registrationHandle;
-   private Set<PortletContext> portletContexts;
+   /** Known PortletContexts, indexed by identifier. */
+   private ConcurrentMap<String, PortletContext> portletContexts;
+   /** Identifiers of the known PortletContexts which haven't been loaded from persistence yet. */
+   private Set<String> lazyPortletContextIds;
    private transient RegistrationPersistenceManager manager;
 
 
@@ -61,7 +69,9 @@ public class RegistrationImpl implements RegistrationSPI
       this.consumer = consumer;
       this.status = status;
       this.properties = new HashMap<QName, Object>(properties);
-      portletContexts = new HashSet<PortletContext>();
+      // clones might be added concurrently by different requests scoped to this registration
+      portletContexts = new ConcurrentHashMap<String, PortletContext>();
+      lazyPortletContextIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
       this.manager = manager;
    }
 
@@ -125,10 +135,21 @@ public class RegistrationImpl implements RegistrationSPI
 
    public void addPortletContext(PortletContext portletContext, boolean needsSaving) throws RegistrationException
    {
-      portletContexts.add(portletContext);
-      if (needsSaving)
+      ParameterValidation.throwIllegalArgExceptionIfNull(portletContext, "PortletContext");
+
+      // only persist the new portlet context if we didn't already know about it
+      final String id = portletContext.getId();
+      final boolean wasLazy = lazyPortletContextIds.remove(id);
+      if (portletContexts.putIfAbsent(id, portletContext) == null && !wasLazy && needsSaving)
       {
-         manager.saveChangesTo(this);
+         if (manager instanceof AbstractRegistrationPersistenceManager)
+         {
+            ((AbstractRegistrationPersistenceManager)manager).saveAddedPortletContext(this, portletContext);
+         }
+         else
+         {
+            manager.saveChangesTo(this);
+         }
       }
    }
 
@@ -139,8 +160,58 @@ public class RegistrationImpl implements RegistrationSPI
 
    public void removePortletContext(PortletContext portletContext, boolean needsSaving) throws RegistrationException
    {
-      portletContexts.remove(portletContext);
-      manager.saveChangesTo(this);
+      ParameterValidation.throwIllegalArgExceptionIfNull(portletContext, "PortletContext");
+
+      final String id = portletContext.getId();
+      final boolean wasLazy = lazyPortletContextIds.remove(id);
+      if ((portletContexts.remove(id) != null || wasLazy) && needsSaving)
+      {
+         if (manager instanceof AbstractRegistrationPersistenceManager)
+         {
+            ((AbstractRegistrationPersistenceManager)manager).saveRemovedPortletContext(this, portletContext);
+         }
+         else
+         {
+            manager.saveChangesTo(this);
+         }
+      }
+   }
+
+   /**
+    * Removes the specified PortletContexts from this registration, persisting all the removals at once.
+    *
+    * @param toRemove the PortletContexts to remove
+    * @throws RegistrationException
+    */
+   public void removePortletContexts(Collection<PortletContext> toRemove) throws RegistrationException
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(toRemove, "PortletContexts");
+
+      // only persist the removal of the portlet contexts we actually knew about
+      final List<PortletContext> removed = new ArrayList<PortletContext>(toRemove.size());
+      for (PortletContext portletContext : toRemove)
+      {
+         ParameterValidation.throwIllegalArgExceptionIfNull(portletContext, "PortletContext");
+
+         final String id = portletContext.getId();
+         final boolean wasLazy = lazyPortletContextIds.remove(id);
+         if (portletContexts.remove(id) != null || wasLazy)
+         {
+            removed.add(portletContext);
+         }
+      }
+
+      if (!removed.isEmpty())
+      {
+         if (manager instanceof AbstractRegistrationPersistenceManager)
+         {
+            ((AbstractRegistrationPersistenceManager)manager).saveRemovedPortletContexts(this, removed);
+         }
+         else
+         {
+            manager.saveChangesTo(this);
+         }
+      }
    }
 
    public Map<QName, Object> getProperties()
@@ -242,7 +313,14 @@ public class RegistrationImpl implements RegistrationSPI
    public void setStatus(RegistrationStatus status)
    {
       ParameterValidation.throwIllegalArgExceptionIfNull(status, "RegistrationStatus");
+      final boolean changed = this.status != status;
       this.status = status;
+
+      // other copies of this registration might be cached: notify once it has been fully created or loaded
+      if (changed && registrationHandle != null && manager instanceof AbstractRegistrationPersistenceManager)
+      {
+         ((AbstractRegistrationPersistenceManager)manager).fireRegistrationHasChanged(this);
+      }
    }
 
    public void updateProperties(Map registrationProperties)
@@ -250,18 +328,96 @@ public class RegistrationImpl implements RegistrationSPI
       properties = new HashMap(registrationProperties);
    }
 
+   /**
+    * Records that the PortletContext identified by the specified identifier is known by this registration, without
+    * loading its state. The complete PortletContext will be retrieved from persistence only if and when needed.
+    *
+    * @param portletContextId the identifier of the known PortletContext
+    */
+   public void addPortletContextId(String portletContextId)
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNullOrEmpty(portletContextId, "PortletContext identifier", null);
+
+      if (!portletContexts.containsKey(portletContextId))
+      {
+         lazyPortletContextIds.add(portletContextId);
+      }
+   }
+
    public boolean knows(PortletContext portletContext)
    {
-      return portletContexts.contains(portletContext);
+      ParameterValidation.throwIllegalArgExceptionIfNull(portletContext, "PortletContext");
+      return knows(portletContext.getId());
    }
 
    public boolean knows(String portletContextId)
    {
-      return knows(PortletContext.createPortletContext(portletContextId));
+      ParameterValidation.throwIllegalArgExceptionIfNullOrEmpty(portletContextId, "PortletContext identifier", null);
+
+      // no need to load the PortletContexts to know whether we know about them
+      return portletContexts.containsKey(portletContextId) || lazyPortletContextIds.contains(portletContextId);
+   }
+
+   /**
+    * Retrieves the identifiers of the PortletContexts known by this registration, without loading the ones that haven't
+    * been loaded from persistence yet.
+    *
+    * @return the identifiers of the known PortletContexts
+    */
+   public Set<String> getKnownPortletContextIds()
+   {
+      final Set<String> ids = new HashSet<String>(portletContexts.keySet());
+      ids.addAll(lazyPortletContextIds);
+      return ids;
+   }
+
+   /**
+    * Retrieves the known PortletContexts that have already been loaded, indexed by identifier, without loading the
+    * other ones.
+    *
+    * @return the already loaded PortletContexts, indexed by identifier
+    */
+   public Map<String, PortletContext> getLoadedPortletContexts()
+   {
+      return Collections.unmodifiableMap(portletContexts);
    }
 
    public Set<PortletContext> getKnownPortletContexts()
    {
-      return Collections.unmodifiableSet(portletContexts);
+      // load the PortletContexts we only know the identifier of
+      if (!lazyPortletContextIds.isEmpty())
+      {
+         for (String id : lazyPortletContextIds)
+         {
+            try
+            {
+               final PortletContext portletContext = loadPortletContext(id);
+               if (portletContext != null)
+               {
+                  portletContexts.putIfAbsent(id, portletContext);
+               }
+            }
+            catch (RegistrationException e)
+            {
+               throw new IllegalStateException("Couldn't load PortletContext '" + id + "' for registration '" + registrationHandle + "'", e);
+            }
+            lazyPortletContextIds.remove(id);
+         }
+      }
+
+      return Collections.unmodifiableSet(new HashSet<PortletContext>(portletContexts.values()));
+   }
+
+   private PortletContext loadPortletContext(String id) throws RegistrationException
+   {
+      if (manager instanceof AbstractRegistrationPersistenceManager)
+      {
+         return ((AbstractRegistrationPersistenceManager)manager).loadPortletContext(this, id);
+      }
+      else
+      {
+         // other persistence managers don't record state for portlet contexts
+         return PortletContext.createPortletContext(id);
+      }
    }
 }
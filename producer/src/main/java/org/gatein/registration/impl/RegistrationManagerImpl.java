@@ -46,9 +46,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -65,6 +68,45 @@ public class RegistrationManagerImpl implements RegistrationManager
    private AtomicReference<CopyOnWriteArrayList<RegistrationDestructionListener>> listeners = new AtomicReference<CopyOnWriteArrayList<RegistrationDestructionListener>>();
    public static final String NON_REGISTERED_CONSUMER = "NONREGISTERED";
 
+   /** Default maximum number of cached registrations. */
+   public static final int DEFAULT_MAX_CACHED_REGISTRATIONS = 1000;
+   /**
+    * Default number of milliseconds after which a cached registration is retrieved again from the persistence layer so
+    * that modifications made by other cluster nodes are eventually taken into account.
+    */
+   public static final long DEFAULT_CACHED_REGISTRATION_TIME_TO_LIVE = 30 * 1000;
+
+   /**
+    * Registrations indexed by registration handle, so that we don't hit the persistence layer on each WSRP request
+    * since each of them needs to validate the registration it's scoped to. Least recently used registrations are
+    * evicted first. Accesses need to be synchronized on the map.
+    */
+   private final Map<String, CachedRegistration> cachedRegistrations = new LinkedHashMap<String, CachedRegistration>(16, 0.75f, true)
+   {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedRegistration> eldest)
+      {
+         return size() > maxCachedRegistrations;
+      }
+   };
+   private volatile int maxCachedRegistrations = DEFAULT_MAX_CACHED_REGISTRATIONS;
+   private volatile long cachedRegistrationTimeToLive = DEFAULT_CACHED_REGISTRATION_TIME_TO_LIVE;
+   /** Cached registration associated with non-registered consumers. */
+   private volatile CachedRegistration nonRegisteredRegistration;
+   /**
+    * Incremented each time cached registrations are invalidated so that lookups racing with an invalidation don't put
+    * stale data back in the cache.
+    */
+   private final AtomicLong cacheVersion = new AtomicLong();
+   /** Discards cached registrations when they are modified through the persistence layer. */
+   private final AbstractRegistrationPersistenceManager.RegistrationChangeListener changeListener = new AbstractRegistrationPersistenceManager.RegistrationChangeListener()
+   {
+      public void registrationHasChanged(Registration registration)
+      {
+         RegistrationManagerImpl.this.registrationHasChanged(registration);
+      }
+   };
+
    public RegistrationManagerImpl()
    {
    }
@@ -77,6 +119,47 @@ public class RegistrationManagerImpl implements RegistrationManager
    public void setPolicy(RegistrationPolicy policy)
    {
       this.policy = policy;
+      invalidateCachedRegistrations();
+   }
+
+   public int getMaxCachedRegistrations()
+   {
+      return maxCachedRegistrations;
+   }
+
+   /**
+    * Specifies how many registrations can be cached at most, the least recently used ones being evicted once the cache
+    * is full.
+    *
+    * @param maxCachedRegistrations the maximum number of cached registrations, <code>0</code> disables caching
+    */
+   public void setMaxCachedRegistrations(int maxCachedRegistrations)
+   {
+      if (maxCachedRegistrations < 0)
+      {
+         throw new IllegalArgumentException("Maximum number of cached registrations cannot be negative: " + maxCachedRegistrations);
+      }
+      this.maxCachedRegistrations = maxCachedRegistrations;
+      invalidateCachedRegistrations();
+   }
+
+   public long getCachedRegistrationTimeToLive()
+   {
+      return cachedRegistrationTimeToLive;
+   }
+
+   /**
+    * Specifies how long a registration can stay cached before being retrieved again from the persistence layer.
+    *
+    * @param timeToLiveMillis the number of milliseconds a registration can stay cached
+    */
+   public void setCachedRegistrationTimeToLive(long timeToLiveMillis)
+   {
+      if (timeToLiveMillis <= 0)
+      {
+         throw new IllegalArgumentException("Time to live of cached registrations must be positive: " + timeToLiveMillis);
+      }
+      this.cachedRegistrationTimeToLive = timeToLiveMillis;
    }
 
    public RegistrationPersistenceManager getPersistenceManager()
@@ -86,7 +169,19 @@ public class RegistrationManagerImpl implements RegistrationManager
 
    public void setPersistenceManager(RegistrationPersistenceManager persistenceManager)
    {
+      if (this.persistenceManager instanceof AbstractRegistrationPersistenceManager)
+      {
+         ((AbstractRegistrationPersistenceManager)this.persistenceManager).removeRegistrationChangeListener(changeListener);
+      }
+
       this.persistenceManager = persistenceManager;
+
+      // registrations might be modified and saved without going through us so make sure we know when that happens
+      if (persistenceManager instanceof AbstractRegistrationPersistenceManager)
+      {
+         ((AbstractRegistrationPersistenceManager)persistenceManager).addRegistrationChangeListener(changeListener);
+      }
+      invalidateCachedRegistrations();
    }
 
    public void addRegistrationDestructionListener(RegistrationDestructionListener listener)
@@ -240,15 +335,23 @@ public class RegistrationManagerImpl implements RegistrationManager
          group.removeConsumer(consumer);
       }
 
-      // cascade delete the registrations
-      ArrayList<Registration> registrations = new ArrayList<Registration>(consumer.getRegistrations());
-      for (Registration reg : registrations)
+      try
       {
-         removeRegistration(reg);
-      }
+         // cascade delete the registrations
+         ArrayList<Registration> registrations = new ArrayList<Registration>(consumer.getRegistrations());
+         for (Registration reg : registrations)
+         {
+            removeRegistration(reg);
+         }
 
-      // let the registry do the actual deletion
-      persistenceManager.removeConsumer(identity);
+         // let the registry do the actual deletion
+         persistenceManager.removeConsumer(identity);
+      }
+      finally
+      {
+         // make sure that no registration of the consumer stays cached, even if removing it failed half-way
+         evictRegistrationsOf(identity);
+      }
    }
 
    public void removeConsumer(Consumer consumer) throws RegistrationException, NoSuchRegistrationException
@@ -283,6 +386,18 @@ public class RegistrationManagerImpl implements RegistrationManager
 
    public Registration getNonRegisteredRegistration() throws RegistrationException
    {
+      final CachedRegistration cached = nonRegisteredRegistration;
+      if (cached != null)
+      {
+         if (System.currentTimeMillis() < cached.expiresAt && RegistrationStatus.INVALID != cached.registration.getStatus())
+         {
+            return cached.registration;
+         }
+         nonRegisteredRegistration = null;
+      }
+
+      long version = cacheVersion.get();
+
       //TODO: this might be better to place somewhere else and use the RegistrationHandler.register instead of
       // doing basically the same thing below.
       Consumer unregConsumer = getConsumerByIdentity(NON_REGISTERED_CONSUMER);
@@ -291,7 +406,9 @@ public class RegistrationManagerImpl implements RegistrationManager
          Registration registration = addRegistrationTo(NON_REGISTERED_CONSUMER, new HashMap<QName, Object>(), null, true);
          registration.setStatus(RegistrationStatus.VALID);
          getPersistenceManager().saveChangesTo(registration);
-         return registration;
+
+         // we just saved the registration so it is up to date, even though saving it invalidated the cache
+         return cacheNonRegisteredRegistration(registration, cacheVersion.get());
       }
       else
       {
@@ -305,9 +422,26 @@ public class RegistrationManagerImpl implements RegistrationManager
             createAndSetRegistrationHandle((RegistrationSPI)registration);
             registration.setStatus(RegistrationStatus.VALID);
             getPersistenceManager().saveChangesTo(registration);
+            version = cacheVersion.get();
          }
+         return cacheNonRegisteredRegistration(registration, version);
+      }
+   }
+
+   private Registration cacheNonRegisteredRegistration(Registration registration, long version)
+   {
+      if (maxCachedRegistrations == 0)
+      {
          return registration;
       }
+
+      nonRegisteredRegistration = new CachedRegistration(registration, System.currentTimeMillis() + cachedRegistrationTimeToLive);
+      if (cacheVersion.get() != version)
+      {
+         // cache was invalidated while we were retrieving the registration so don't keep it around
+         nonRegisteredRegistration = null;
+      }
+      return registration;
    }
 
    public void removeRegistration(String registrationHandle) throws RegistrationException, NoSuchRegistrationException
@@ -340,7 +474,121 @@ public class RegistrationManagerImpl implements RegistrationManager
          }
       }
 
-      persistenceManager.removeRegistration(registration.getPersistentKey());
+      try
+      {
+         persistenceManager.removeRegistration(registration.getPersistentKey());
+      }
+      finally
+      {
+         registrationHasChanged(registration);
+      }
+   }
+
+   /**
+    * Notifies this RegistrationManager that the specified registration (or its associated consumer) has been modified
+    * so that any information it might have cached about it can be discarded. Modifications saved through an {@link
+    * AbstractRegistrationPersistenceManager} and status changes are automatically taken into account.
+    *
+    * @param registration the registration that was modified
+    */
+   public void registrationHasChanged(Registration registration)
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(registration, "Registration");
+
+      final String handle = registration.getRegistrationHandle();
+      synchronized (cachedRegistrations)
+      {
+         cacheVersion.incrementAndGet();
+         if (handle != null)
+         {
+            cachedRegistrations.remove(handle);
+         }
+      }
+      final CachedRegistration nonRegistered = nonRegisteredRegistration;
+      if (nonRegistered != null && registration.equals(nonRegistered.registration))
+      {
+         nonRegisteredRegistration = null;
+      }
+   }
+
+   private void evictRegistrationsOf(String consumerIdentity)
+   {
+      synchronized (cachedRegistrations)
+      {
+         cacheVersion.incrementAndGet();
+         for (Iterator<CachedRegistration> cached = cachedRegistrations.values().iterator(); cached.hasNext(); )
+         {
+            final Consumer consumer = cached.next().registration.getConsumer();
+            if (consumer == null || consumerIdentity.equals(consumer.getId()))
+            {
+               cached.remove();
+            }
+         }
+      }
+      nonRegisteredRegistration = null;
+   }
+
+   private void invalidateCachedRegistrations()
+   {
+      synchronized (cachedRegistrations)
+      {
+         cacheVersion.incrementAndGet();
+         cachedRegistrations.clear();
+      }
+      nonRegisteredRegistration = null;
+   }
+
+   /**
+    * Retrieves the cached registration with the specified handle, if it is still usable: expired and invalid
+    * registrations are evicted so that they are retrieved again from the persistence layer.
+    *
+    * @param registrationHandle the registration handle
+    * @return the cached registration or <code>null</code> if no usable registration is cached for this handle
+    */
+   private Registration getCachedRegistration(String registrationHandle)
+   {
+      synchronized (cachedRegistrations)
+      {
+         final CachedRegistration cached = cachedRegistrations.get(registrationHandle);
+         if (cached == null)
+         {
+            return null;
+         }
+
+         if (System.currentTimeMillis() >= cached.expiresAt || RegistrationStatus.INVALID == cached.registration.getStatus())
+         {
+            cachedRegistrations.remove(registrationHandle);
+            return null;
+         }
+
+         return cached.registration;
+      }
+   }
+
+   /**
+    * Caches the specified registration unless an invalidation happened since we started retrieving it, in which case
+    * it might be stale, or unless another registration was cached for the same handle in the mean time.
+    *
+    * @return the registration that should be used
+    */
+   private Registration cacheRegistration(String registrationHandle, Registration registration, long version)
+   {
+      synchronized (cachedRegistrations)
+      {
+         if (cacheVersion.get() != version || maxCachedRegistrations == 0)
+         {
+            return registration;
+         }
+
+         final CachedRegistration previous = cachedRegistrations.get(registrationHandle);
+         if (previous != null)
+         {
+            return previous.registration;
+         }
+
+         cachedRegistrations.put(registrationHandle, new CachedRegistration(registration, System.currentTimeMillis() + cachedRegistrationTimeToLive));
+         return registration;
+      }
    }
 
    public ConsumerGroup getConsumerGroup(String groupName) throws RegistrationException
@@ -371,15 +619,20 @@ public class RegistrationManagerImpl implements RegistrationManager
    {
       ParameterValidation.throwIllegalArgExceptionIfNullOrEmpty(registrationHandle, "registration handle", null);
 
-      Registration registration = persistenceManager.getRegistration(registrationHandle);
+      Registration registration = getCachedRegistration(registrationHandle);
       if (registration == null)
       {
-         return null;
-      }
-      else
-      {
-         return getConsumer ? registration.getConsumer() : registration;
+         final long version = cacheVersion.get();
+         registration = persistenceManager.getRegistration(registrationHandle);
+         if (registration == null)
+         {
+            return null;
+         }
+
+         registration = cacheRegistration(registrationHandle, registration, version);
       }
+
+      return getConsumer ? registration.getConsumer() : registration;
    }
 
    public Collection<? extends ConsumerGroup> getConsumerGroups() throws RegistrationException
@@ -471,7 +724,11 @@ public class RegistrationManagerImpl implements RegistrationManager
             log.debug("Couldn't retrieve registrations...", e);
          }
       }
-
+      finally
+      {
+         // cached registrations don't reflect the new status anymore
+         invalidateCachedRegistrations();
+      }
    }
 
    /**
@@ -484,4 +741,16 @@ public class RegistrationManagerImpl implements RegistrationManager
    {
       setPolicy(policy);
    }
+
+   private static class CachedRegistration
+   {
+      private final Registration registration;
+      private final long expiresAt;
+
+      private CachedRegistration(Registration registration, long expiresAt)
+      {
+         this.registration = registration;
+         this.expiresAt = expiresAt;
+      }
+   }
 }
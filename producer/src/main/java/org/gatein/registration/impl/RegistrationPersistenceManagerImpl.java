@@ -26,27 +26,158 @@ package org.gatein.registration.impl;
 import org.gatein.common.util.ParameterValidation;
 import org.gatein.registration.Consumer;
 import org.gatein.registration.ConsumerGroup;
+import org.gatein.registration.DuplicateRegistrationException;
+import org.gatein.registration.NoSuchRegistrationException;
 import org.gatein.registration.Registration;
 import org.gatein.registration.RegistrationException;
 import org.gatein.registration.spi.ConsumerGroupSPI;
 import org.gatein.registration.spi.ConsumerSPI;
 import org.gatein.registration.spi.RegistrationSPI;
 
+import javax.xml.namespace.QName;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * In-memory RegistrationPersistenceManager implementation, safe for concurrent use. Simple lookups are served directly
+ * from concurrent maps while compound operations modifying a consumer and its associated registrations or group are
+ * serialized per consumer using lock striping so that operations on different consumers don't contend. Removing a
+ * group, which is rare, holds all the locks since it can affect consumers from any stripe.
+ *
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @version $Revision: 8784 $
  * @since 2.6
  */
 public class RegistrationPersistenceManagerImpl extends AbstractRegistrationPersistenceManager
 {
-   private Map<String, ConsumerSPI> consumers = new HashMap<String, ConsumerSPI>();
-   private Map<String, ConsumerGroupSPI> groups = new HashMap<String, ConsumerGroupSPI>();
-   private Map<String, RegistrationSPI> registrations = new HashMap<String, RegistrationSPI>();
+   /** Number of lock stripes, must be a power of 2. */
+   private static final int LOCK_STRIPES = 32;
+
+   private final ConcurrentMap<String, ConsumerSPI> consumers = new ConcurrentHashMap<String, ConsumerSPI>();
+   private final ConcurrentMap<String, ConsumerGroupSPI> groups = new ConcurrentHashMap<String, ConsumerGroupSPI>();
+   private final ConcurrentMap<String, RegistrationSPI> registrations = new ConcurrentHashMap<String, RegistrationSPI>();
+   private final Object[] locks = new Object[LOCK_STRIPES];
+
+   public RegistrationPersistenceManagerImpl()
+   {
+      for (int i = 0; i < LOCK_STRIPES; i++)
+      {
+         locks[i] = new Object();
+      }
+   }
+
+   /**
+    * Retrieves the lock guarding compound operations on the consumer identified by the specified identifier.
+    *
+    * @param consumerId the consumer identifier
+    * @return the lock associated with the specified consumer
+    */
+   private Object lockFor(String consumerId)
+   {
+      // spread the hash bits to avoid clustering of stripes for similar identifiers
+      int hash = consumerId.hashCode();
+      hash ^= (hash >>> 20) ^ (hash >>> 12);
+      hash ^= (hash >>> 7) ^ (hash >>> 4);
+      return locks[hash & (LOCK_STRIPES - 1)];
+   }
+
+   @Override
+   public Consumer createConsumer(String consumerId, String consumerName) throws RegistrationException
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNullOrEmpty(consumerId, "Consumer identity", null);
+
+      synchronized (lockFor(consumerId))
+      {
+         return super.createConsumer(consumerId, consumerName);
+      }
+   }
+
+   @Override
+   public void removeConsumer(String consumerId) throws RegistrationException
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNullOrEmpty(consumerId, "Consumer identity", null);
+
+      synchronized (lockFor(consumerId))
+      {
+         super.removeConsumer(consumerId);
+      }
+   }
+
+   @Override
+   public void removeRegistration(String registrationId) throws RegistrationException
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNullOrEmpty(registrationId, "Registration identity", null);
+
+      RegistrationSPI registration = registrations.get(registrationId);
+      if (registration == null)
+      {
+         // let super class deal with the error reporting
+         super.removeRegistration(registrationId);
+      }
+      else
+      {
+         synchronized (lockFor(registration.getConsumer().getId()))
+         {
+            super.removeRegistration(registrationId);
+         }
+      }
+   }
+
+   @Override
+   public RegistrationSPI addRegistrationFor(ConsumerSPI consumer, Map<QName, Object> registrationProperties) throws RegistrationException
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNull(consumer, "Consumer");
+
+      synchronized (lockFor(consumer.getId()))
+      {
+         if (!consumers.containsKey(consumer.getId()))
+         {
+            throw new NoSuchRegistrationException("Consumer with identity '" + consumer.getId()
+               + "' has been removed, cannot add a Registration to it.");
+         }
+
+         return super.addRegistrationFor(consumer, registrationProperties);
+      }
+   }
+
+   @Override
+   public Consumer addConsumerToGroupNamed(String consumerId, String groupName) throws RegistrationException
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNullOrEmpty(consumerId, "Consumer identity", null);
+
+      synchronized (lockFor(consumerId))
+      {
+         return super.addConsumerToGroupNamed(consumerId, groupName);
+      }
+   }
+
+   @Override
+   public void removeConsumerGroup(String name) throws RegistrationException
+   {
+      ParameterValidation.throwIllegalArgExceptionIfNullOrEmpty(name, "ConsumerGroup name", null);
+
+      // consumers from any stripe might be concurrently added to the group so hold all the locks, always acquired in
+      // the same order to avoid deadlocks
+      removeConsumerGroupHoldingLocksFrom(0, name);
+   }
+
+   private void removeConsumerGroupHoldingLocksFrom(int stripe, String name) throws RegistrationException
+   {
+      if (stripe == LOCK_STRIPES)
+      {
+         super.removeConsumerGroup(name);
+      }
+      else
+      {
+         synchronized (locks[stripe])
+         {
+            removeConsumerGroupHoldingLocksFrom(stripe + 1, name);
+         }
+      }
+   }
 
    public Collection<ConsumerSPI> getConsumers() throws RegistrationException
    {
@@ -111,7 +242,10 @@ public class RegistrationPersistenceManagerImpl extends AbstractRegistrationPers
    @Override
    protected void internalAddConsumerGroup(ConsumerGroupSPI group) throws RegistrationException
    {
-      groups.put(group.getName(), group);
+      if (groups.putIfAbsent(group.getName(), group) != null)
+      {
+         throw new DuplicateRegistrationException("A ConsumerGroup named '" + group.getName() + "' has already been registered.");
+      }
    }
 
    @Override
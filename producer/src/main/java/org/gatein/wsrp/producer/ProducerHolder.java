@@ -57,7 +57,7 @@ public class ProducerHolder
    {
       if (allowUnstartedProducer || WSRPProducerImpl.isProducerStarted())
       {
-         return WSRPProducerImpl.getInstance();
+         return WSRPProducerImpl.getInstrumentedInstance();
       }
       else
       {
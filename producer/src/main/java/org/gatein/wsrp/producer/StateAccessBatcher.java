@@ -0,0 +1,49 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer;
+
+/**
+ * Optionally implemented by the persistent stores backing the producer (for example, the portlet state store) so that
+ * operations working on many portlets at once, such as exports and imports, can group the accesses they perform from
+ * the current thread instead of paying for a full persistence round-trip per portlet.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public interface StateAccessBatcher
+{
+   /**
+    * Starts grouping the accesses performed by the current thread until the matching {@link #endBatch(boolean)}
+    * call.
+    */
+   void beginBatch();
+
+   /**
+    * Ends the batch started by the matching {@link #beginBatch()} call.
+    *
+    * @param success <code>true</code> if the modifications performed during the batch should be committed,
+    *                <code>false</code> if they should be discarded
+    */
+   void endBatch(boolean success);
+}
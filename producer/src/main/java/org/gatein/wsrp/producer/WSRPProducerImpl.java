@@ -30,7 +30,10 @@ import org.gatein.pc.api.Portlet;
 import org.gatein.pc.api.PortletInvoker;
 import org.gatein.pc.api.PortletInvokerException;
 import org.gatein.pc.api.info.RuntimeOptionInfo;
+import org.gatein.pc.portlet.PortletInvokerInterceptor;
 import org.gatein.pc.portlet.container.managed.ManagedObjectRegistryEvent;
+import org.gatein.pc.portlet.state.producer.PortletStatePersistenceManager;
+import org.gatein.pc.portlet.state.producer.ProducerPortletInvoker;
 import org.gatein.registration.Registration;
 import org.gatein.registration.RegistrationLocal;
 import org.gatein.registration.RegistrationManager;
@@ -45,7 +48,9 @@ import org.gatein.wsrp.producer.handlers.MarkupHandler;
 import org.gatein.wsrp.producer.handlers.PortletManagementHandler;
 import org.gatein.wsrp.producer.handlers.RegistrationHandler;
 import org.gatein.wsrp.producer.handlers.ServiceDescriptionHandler;
+import org.gatein.wsrp.producer.handlers.processors.FragmentCache;
 import org.gatein.wsrp.producer.handlers.processors.ProducerHelper;
+import org.gatein.wsrp.producer.metrics.ProducerMetrics;
 import org.gatein.wsrp.producer.v2.WSRP2Producer;
 import org.gatein.wsrp.spec.v2.WSRP2ExceptionFactory;
 import org.oasis.wsrp.v2.AccessDenied;
@@ -116,6 +121,7 @@ import org.oasis.wsrp.v2.UnsupportedWindowState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -159,6 +165,15 @@ public class WSRPProducerImpl implements WSRP2Producer, ProducerHelper
    /** producer context */
    private ProducerContext producerContext;
 
+   /** groups persistent state accesses during bulk operations, if available */
+   private StateAccessBatcher stateAccessBatcher;
+
+   /** producer-side markup fragment cache */
+   private final FragmentCache fragmentCache = new FragmentCache();
+
+   /** records the metrics of the WSRP invocations */
+   private final ProducerMetrics metrics = new ProducerMetrics();
+
    private boolean started = false;
 
    // On-demand class holder Singleton pattern (multi-thread safe)
@@ -166,6 +181,7 @@ public class WSRPProducerImpl implements WSRP2Producer, ProducerHelper
    private static final class InstanceHolder
    {
       public static final WSRPProducerImpl producer = new WSRPProducerImpl();
+      public static final WSRP2Producer instrumented = ProducerMetrics.isEnabled() ? producer.metrics.instrument(producer) : producer;
    }
 
    static WSRPProducerImpl getInstance()
@@ -173,6 +189,17 @@ public class WSRPProducerImpl implements WSRP2Producer, ProducerHelper
       return InstanceHolder.producer;
    }
 
+   /**
+    * Retrieves the producer as it should be exposed to consumers, i.e. recording the metrics of the WSRP invocations
+    * unless instrumentation has been disabled using the {@link ProducerMetrics#ENABLED_PROPERTY} system property.
+    *
+    * @return the producer to dispatch WSRP invocations to
+    */
+   static WSRP2Producer getInstrumentedInstance()
+   {
+      return InstanceHolder.instrumented;
+   }
+
    static boolean isProducerStarted()
    {
       return InstanceHolder.producer.started;
@@ -406,6 +433,8 @@ public class WSRPProducerImpl implements WSRP2Producer, ProducerHelper
 
          registrationManager.setPolicy(registrationRequirements.getPolicy());
 
+         metrics.register();
+
          started = true;
       }
    }
@@ -420,6 +449,25 @@ public class WSRPProducerImpl implements WSRP2Producer, ProducerHelper
 
          getProducerConfiguration().removeChangeListener(this);
 
+         metrics.unregister();
+
+         markupHandler.stop();
+         portletManagementHandler.stop();
+
+         // make sure the portlet state store writes the updates it might still have queued
+         final PortletStatePersistenceManager statePersistenceManager = findStatePersistenceManager(invoker);
+         if (statePersistenceManager instanceof Closeable)
+         {
+            try
+            {
+               ((Closeable)statePersistenceManager).close();
+            }
+            catch (Exception e)
+            {
+               log.warn("Couldn't stop the portlet state store", e);
+            }
+         }
+
          started = false;
       }
    }
@@ -504,9 +552,63 @@ public class WSRPProducerImpl implements WSRP2Producer, ProducerHelper
       return registration;
    }
 
+   /**
+    * Retrieves the StateAccessBatcher used to group persistent state accesses during bulk operations. If none was
+    * explicitly set, the portlet state persistence manager used by the portlet invoker is used if it supports batching.
+    *
+    * @return the StateAccessBatcher or <code>null</code> if none was set and the portlet state persistence manager
+    *         doesn't support batching
+    */
+   public StateAccessBatcher getStateAccessBatcher()
+   {
+      if (stateAccessBatcher == null)
+      {
+         // the state persistence manager might be set on the invoker after the invoker is set on the producer so look it up lazily
+         stateAccessBatcher = findStateAccessBatcher(invoker);
+      }
+      return stateAccessBatcher;
+   }
+
+   private static StateAccessBatcher findStateAccessBatcher(PortletInvoker invoker)
+   {
+      final PortletStatePersistenceManager persistenceManager = findStatePersistenceManager(invoker);
+      return persistenceManager instanceof StateAccessBatcher ? (StateAccessBatcher)persistenceManager : null;
+   }
+
+   private static PortletStatePersistenceManager findStatePersistenceManager(PortletInvoker invoker)
+   {
+      PortletInvoker current = invoker;
+      while (current instanceof PortletInvokerInterceptor)
+      {
+         if (current instanceof ProducerPortletInvoker)
+         {
+            return ((ProducerPortletInvoker)current).getPersistenceManager();
+         }
+
+         current = ((PortletInvokerInterceptor)current).getNext();
+      }
+      return null;
+   }
+
+   public void setStateAccessBatcher(StateAccessBatcher stateAccessBatcher)
+   {
+      this.stateAccessBatcher = stateAccessBatcher;
+   }
+
    public void reset()
    {
       serviceDescriptionHandler.reset();
+      fragmentCache.clear();
+   }
+
+   public ProducerMetrics getMetrics()
+   {
+      return metrics;
+   }
+
+   public FragmentCache getFragmentCache()
+   {
+      return fragmentCache;
    }
 
    private Boolean remotableByDefault;
@@ -0,0 +1,349 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.handlers;
+
+import org.gatein.registration.Registration;
+import org.gatein.registration.RegistrationLocal;
+import org.gatein.wsrp.LazyThreadPool;
+import org.gatein.wsrp.producer.StateAccessBatcher;
+import org.gatein.common.logging.Logger;
+import org.gatein.common.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Processes the elements of bulk portlet management requests (exports, imports...) in chunks, each chunk being
+ * processed sequentially within a single persistence batch, chunks being processed concurrently on a bounded pool of
+ * threads. Failures are recorded per element so that they can be reported as such to the consumer. Since a failed
+ * element might have left partial modifications behind, a chunk in which some elements failed is discarded and its
+ * successful elements are processed again, once, in a new batch, after {@link DiscardableItemProcessor processors}
+ * had a chance to undo the side effects that discarding the batch doesn't roll back.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+class ChunkedProcessor
+{
+   private static final Logger log = LoggerFactory.getLogger(ChunkedProcessor.class);
+
+   /** System property specifying how many elements are processed within a single persistence batch. */
+   public static final String CHUNK_SIZE_PROPERTY = "org.gatein.wsrp.producer.bulkChunkSize";
+
+   /** System property specifying how many chunks can be processed concurrently. */
+   public static final String PARALLELISM_PROPERTY = "org.gatein.wsrp.producer.bulkParallelism";
+
+   /** How many times the successful elements of a discarded batch are processed again. */
+   static final int MAX_REPLAYS = 1;
+
+   static final String DISCARDED_MESSAGE = "Element wasn't persisted since other elements processed along with it failed";
+
+   private final int chunkSize;
+   private final int parallelism;
+   private final LazyThreadPool pool;
+
+   ChunkedProcessor()
+   {
+      this(Integer.getInteger(CHUNK_SIZE_PROPERTY, 100), Integer.getInteger(PARALLELISM_PROPERTY, Math.min(4, Runtime.getRuntime().availableProcessors())));
+   }
+
+   ChunkedProcessor(int chunkSize, int parallelism)
+   {
+      this.chunkSize = Math.max(1, chunkSize);
+      this.parallelism = Math.max(1, parallelism);
+      this.pool = new LazyThreadPool("WSRP bulk portlet management", this.parallelism);
+   }
+
+   /** Releases the threads used to process chunks concurrently, new ones will be created if needed. */
+   void shutdown()
+   {
+      pool.shutdown();
+   }
+
+   /**
+    * Processes a single element of a bulk request.
+    *
+    * @param <T> the type of the elements to process
+    * @param <R> the type of the results
+    */
+   interface ItemProcessor<T, R>
+   {
+      R process(T item) throws Exception;
+   }
+
+   /**
+    * Processes a single element of a bulk request, producing side effects that cannot be rolled back by discarding the
+    * persistence batch (e.g. modifying in-memory registrations) and therefore need to be undone explicitly when an
+    * element needs to be processed again.
+    *
+    * @param <T> the type of the elements to process
+    * @param <R> the type of the results
+    */
+   interface DiscardableItemProcessor<T, R> extends ItemProcessor<T, R>
+   {
+      /**
+       * Undoes the side effects of successfully processing the specified element, since the batch it was processed in
+       * was discarded.
+       *
+       * @param item   the element that was processed
+       * @param result the result of processing the element
+       */
+      void discard(T item, R result) throws Exception;
+   }
+
+   /** The outcome of processing an element: either a result or the error that prevented the element to be processed. */
+   static class Outcome<R>
+   {
+      private final R result;
+      private final Exception error;
+
+      private Outcome(R result, Exception error)
+      {
+         this.result = result;
+         this.error = error;
+      }
+
+      R getResult()
+      {
+         return result;
+      }
+
+      Exception getError()
+      {
+         return error;
+      }
+
+      boolean isSuccess()
+      {
+         return error == null;
+      }
+   }
+
+   /**
+    * Processes the specified elements.
+    *
+    * @param items     the elements to process
+    * @param processor processes each element
+    * @param batcher   used to group persistent accesses of each chunk, might be <code>null</code>
+    * @return the outcomes of processing each element, in the same order as the elements
+    */
+   <T, R> List<Outcome<R>> process(List<T> items, final ItemProcessor<T, R> processor, final StateAccessBatcher batcher)
+   {
+      final int size = items.size();
+      final List<Outcome<R>> outcomes = new ArrayList<Outcome<R>>(size);
+
+      if (parallelism == 1 || size <= chunkSize)
+      {
+         for (int start = 0; start < size; start += chunkSize)
+         {
+            outcomes.addAll(processChunk(items.subList(start, Math.min(size, start + chunkSize)), processor, batcher));
+         }
+         return outcomes;
+      }
+
+      // workers need to know which registration the request is performed for
+      final Registration registration = RegistrationLocal.getRegistration();
+
+      final List<Future<List<Outcome<R>>>> futures = new ArrayList<Future<List<Outcome<R>>>>(size / chunkSize + 1);
+      for (int start = 0; start < size; start += chunkSize)
+      {
+         final List<T> chunk = items.subList(start, Math.min(size, start + chunkSize));
+         futures.add(pool.getExecutor().submit(new Callable<List<Outcome<R>>>()
+         {
+            public List<Outcome<R>> call() throws Exception
+            {
+               RegistrationLocal.setRegistration(registration);
+               try
+               {
+                  return processChunk(chunk, processor, batcher);
+               }
+               finally
+               {
+                  RegistrationLocal.setRegistration(null);
+               }
+            }
+         }));
+      }
+
+      for (int i = 0; i < futures.size(); i++)
+      {
+         final int chunkLength = Math.min(size, (i + 1) * chunkSize) - i * chunkSize;
+         try
+         {
+            outcomes.addAll(futures.get(i).get());
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            outcomes.addAll(Collections.nCopies(chunkLength, new Outcome<R>(null, e)));
+         }
+         catch (ExecutionException e)
+         {
+            final Throwable cause = e.getCause();
+            outcomes.addAll(Collections.nCopies(chunkLength, new Outcome<R>(null, cause instanceof Exception ? (Exception)cause : e)));
+         }
+      }
+
+      return outcomes;
+   }
+
+   private <T, R> List<Outcome<R>> processChunk(List<T> chunk, ItemProcessor<T, R> processor, StateAccessBatcher batcher)
+   {
+      final int size = chunk.size();
+      final List<Outcome<R>> outcomes = new ArrayList<Outcome<R>>(Collections.<Outcome<R>>nCopies(size, null));
+
+      // indices of the elements that still need to be processed
+      List<Integer> pending = new ArrayList<Integer>(size);
+      for (int i = 0; i < size; i++)
+      {
+         pending.add(i);
+      }
+
+      // successful elements of a discarded batch are only processed again once, so that elements failing intermittently
+      // don't cause the chunk to be processed over and over
+      for (int attempt = 0; !pending.isEmpty(); attempt++)
+      {
+         final List<Outcome<R>> batchOutcomes = new ArrayList<Outcome<R>>(pending.size());
+         boolean success = false;
+         try
+         {
+            if (batcher != null)
+            {
+               batcher.beginBatch();
+            }
+
+            try
+            {
+               for (Integer index : pending)
+               {
+                  try
+                  {
+                     batchOutcomes.add(new Outcome<R>(processor.process(chunk.get(index)), null));
+                  }
+                  catch (Exception e)
+                  {
+                     batchOutcomes.add(new Outcome<R>(null, e));
+                  }
+               }
+
+               // without a batch, there's nothing to roll back so the elements that were successfully processed stay so
+               success = batcher == null || allSucceeded(batchOutcomes);
+            }
+            finally
+            {
+               if (batcher != null)
+               {
+                  batcher.endBatch(success);
+               }
+            }
+         }
+         catch (RuntimeException e)
+         {
+            // if the batch couldn't be committed, none of the remaining elements were successfully processed
+            log.debug("Couldn't process chunk of " + pending.size() + " elements", e);
+            discard(chunk, pending, batchOutcomes, processor);
+            for (Integer index : pending)
+            {
+               outcomes.set(index, new Outcome<R>(null, e));
+            }
+            return outcomes;
+         }
+
+         // if some elements failed, the batch was discarded: record the failures and process the other elements again,
+         // unless they already were, in which case they're reported as failed since they were not persisted
+         if (!success)
+         {
+            discard(chunk, pending, batchOutcomes, processor);
+         }
+         final boolean replay = !success && attempt < MAX_REPLAYS;
+         final List<Integer> succeeded = new ArrayList<Integer>(pending.size());
+         for (int i = 0; i < batchOutcomes.size(); i++)
+         {
+            Outcome<R> outcome = batchOutcomes.get(i);
+            final Integer index = pending.get(i);
+            if (outcome.isSuccess())
+            {
+               succeeded.add(index);
+               if (!success && !replay)
+               {
+                  outcome = new Outcome<R>(null, new IllegalStateException(DISCARDED_MESSAGE));
+               }
+            }
+            outcomes.set(index, outcome);
+         }
+
+         pending = replay ? succeeded : Collections.<Integer>emptyList();
+      }
+
+      return outcomes;
+   }
+
+   /**
+    * Undoes the side effects of the elements that were successfully processed in a discarded batch, if needed.
+    *
+    * @param chunk         the processed chunk
+    * @param indices       the indices, within the chunk, of the elements processed in the discarded batch
+    * @param batchOutcomes the outcomes of the elements processed in the discarded batch, in the same order as indices
+    * @param processor     the processor used to process the elements
+    */
+   private static <T, R> void discard(List<T> chunk, List<Integer> indices, List<Outcome<R>> batchOutcomes, ItemProcessor<T, R> processor)
+   {
+      if (processor instanceof DiscardableItemProcessor)
+      {
+         final DiscardableItemProcessor<T, R> discardable = (DiscardableItemProcessor<T, R>)processor;
+         for (int i = 0; i < batchOutcomes.size(); i++)
+         {
+            final Outcome<R> outcome = batchOutcomes.get(i);
+            if (outcome.isSuccess())
+            {
+               final T item = chunk.get(indices.get(i));
+               try
+               {
+                  discardable.discard(item, outcome.getResult());
+               }
+               catch (Exception e)
+               {
+                  log.debug("Couldn't undo the processing of " + item, e);
+               }
+            }
+         }
+      }
+   }
+
+   private static <R> boolean allSucceeded(List<Outcome<R>> outcomes)
+   {
+      for (Outcome<R> outcome : outcomes)
+      {
+         if (!outcome.isSuccess())
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+}
@@ -23,6 +23,7 @@
 
 package org.gatein.wsrp.producer.handlers;
 
+import org.gatein.common.util.ParameterValidation;
 import org.gatein.pc.api.PortletInvokerException;
 import org.gatein.pc.api.invocation.PortletInvocation;
 import org.gatein.pc.api.invocation.response.ContentResponse;
@@ -34,11 +35,15 @@ import org.gatein.pc.api.invocation.response.UpdateNavigationalStateResponse;
 import org.gatein.pc.portlet.state.producer.PortletStateChangeRequiredException;
 import org.gatein.registration.Registration;
 import org.gatein.registration.RegistrationLocal;
+import org.gatein.wsrp.BatchMarkupExtension;
+import org.gatein.wsrp.LazyThreadPool;
+import org.gatein.wsrp.WSRPTypeFactory;
 import org.gatein.wsrp.api.extensions.InvocationHandlerDelegate;
 import org.gatein.wsrp.api.servlet.ServletAccess;
 import org.gatein.wsrp.producer.MarkupInterface;
 import org.gatein.wsrp.producer.Utils;
 import org.gatein.wsrp.producer.WSRPProducerImpl;
+import org.gatein.wsrp.producer.handlers.processors.FragmentCache;
 import org.gatein.wsrp.producer.handlers.processors.ProcessorFactory;
 import org.gatein.wsrp.producer.handlers.processors.RequestProcessor;
 import org.gatein.wsrp.spec.v2.WSRP2ExceptionFactory;
@@ -56,12 +61,15 @@ import org.oasis.wsrp.v2.InvalidHandle;
 import org.oasis.wsrp.v2.InvalidRegistration;
 import org.oasis.wsrp.v2.InvalidSession;
 import org.oasis.wsrp.v2.InvalidUserCategory;
+import org.oasis.wsrp.v2.MarkupParams;
 import org.oasis.wsrp.v2.MarkupResponse;
 import org.oasis.wsrp.v2.MissingParameters;
 import org.oasis.wsrp.v2.ModifyRegistrationRequired;
+import org.oasis.wsrp.v2.NavigationalContext;
 import org.oasis.wsrp.v2.OperationFailed;
 import org.oasis.wsrp.v2.OperationNotSupported;
 import org.oasis.wsrp.v2.PerformBlockingInteraction;
+import org.oasis.wsrp.v2.PortletContext;
 import org.oasis.wsrp.v2.PortletStateChangeRequired;
 import org.oasis.wsrp.v2.ReleaseSessions;
 import org.oasis.wsrp.v2.ResourceResponse;
@@ -70,11 +78,18 @@ import org.oasis.wsrp.v2.UnsupportedLocale;
 import org.oasis.wsrp.v2.UnsupportedMimeType;
 import org.oasis.wsrp.v2.UnsupportedMode;
 import org.oasis.wsrp.v2.UnsupportedWindowState;
+import org.oasis.wsrp.v2.UpdateResponse;
 
 import javax.portlet.PortletModeException;
 import javax.portlet.WindowStateException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Handles WSRP Markup requests on behalf of the producer. Actual processing is delegated to {@link RequestProcessor} instances while the handler provides the template for each
@@ -86,11 +101,35 @@ import java.util.List;
  */
 public class MarkupHandler extends ServiceHandler implements MarkupInterface
 {
+   /**
+    * System property specifying how many batched markup requests can be processed concurrently. Defaults to 1, meaning
+    * that batched requests are processed sequentially in the thread processing the enclosing request.
+    */
+   public static final String BATCH_MARKUP_PARALLELISM_PROPERTY = "org.gatein.wsrp.producer.batchMarkupParallelism";
+
+   private static final int BATCH_MARKUP_PARALLELISM = Math.max(1, Integer.getInteger(BATCH_MARKUP_PARALLELISM_PROPERTY, 1));
+
+   /**
+    * System property specifying whether the producer should render portlets after having processed a blocking
+    * interaction and bundle the resulting markup with its response, thus allowing consumers to skip the follow-up
+    * getMarkup call. Defaults to <code>false</code> since consumers are not required to use bundled markup. The
+    * property is checked for each blocking interaction so that bundling can be switched on or off at runtime.
+    */
+   public static final String BUNDLE_MARKUP_ON_ACTION_PROPERTY = "org.gatein.wsrp.producer.bundleMarkupOnAction";
+
+   private final LazyThreadPool batchPool = new LazyThreadPool("WSRP batched markup", BATCH_MARKUP_PARALLELISM);
+
    public MarkupHandler(WSRPProducerImpl producer)
    {
       super(producer);
    }
 
+   /** Releases the resources used by this handler when the producer is stopped. */
+   public void stop()
+   {
+      batchPool.shutdown();
+   }
+
    // Markup implementation ********************************************************************************************
 
 
@@ -99,9 +138,20 @@ public class MarkupHandler extends ServiceHandler implements MarkupInterface
       InvalidUserCategory, MissingParameters, ModifyRegistrationRequired, OperationFailed, ResourceSuspended,
       UnsupportedLocale, UnsupportedMimeType, UnsupportedMode, UnsupportedWindowState
    {
+      // extract batched requests, if any, before the main request is processed so that they don't leak in its invocation
+      final MarkupParams markupParams = getMarkup.getMarkupParams();
+      final List<GetMarkup> batchedRequests = markupParams != null ? BatchMarkupExtension.removeBatchedRequests(markupParams.getExtensions()) : null;
+
       try
       {
-         return invoke(getMarkup);
+         final MarkupResponse response = invoke(getMarkup);
+
+         if (batchedRequests != null)
+         {
+            response.getExtensions().add(BatchMarkupExtension.createResponseExtension(processBatchedRequests(batchedRequests)));
+         }
+
+         return response;
       }
       catch (PortletStateChangeRequired portletStateChangeRequired)
       {
@@ -113,6 +163,109 @@ public class MarkupHandler extends ServiceHandler implements MarkupInterface
       }
    }
 
+   /**
+    * Processes the specified batched markup requests, concurrently if allowed by {@link
+    * #BATCH_MARKUP_PARALLELISM_PROPERTY}.
+    *
+    * @param requests the batched requests
+    * @return the associated responses, in the same order, <code>null</code> indicating that the associated request
+    *         failed and that the consumer needs to perform it again on its own to get the proper error
+    */
+   private List<MarkupResponse> processBatchedRequests(List<GetMarkup> requests)
+   {
+      // each batched invoke sets RegistrationLocal for the current thread, restore the caller's registration afterwards
+      final Registration registration = RegistrationLocal.getRegistration();
+      try
+      {
+         return doProcessBatchedRequests(requests);
+      }
+      finally
+      {
+         RegistrationLocal.setRegistration(registration);
+      }
+   }
+
+   private List<MarkupResponse> doProcessBatchedRequests(List<GetMarkup> requests)
+   {
+      final int size = requests.size();
+      final List<MarkupResponse> responses = new ArrayList<MarkupResponse>(size);
+
+      if (BATCH_MARKUP_PARALLELISM == 1 || size < 2)
+      {
+         for (GetMarkup request : requests)
+         {
+            responses.add(processBatchedRequest(request));
+         }
+         return responses;
+      }
+
+      // make the current servlet request and response available to worker threads
+      final HttpServletRequest servletRequest = ServletAccess.getRequest();
+      final HttpServletResponse servletResponse = ServletAccess.getResponse();
+
+      final List<Future<MarkupResponse>> futures = new ArrayList<Future<MarkupResponse>>(size);
+      for (final GetMarkup request : requests)
+      {
+         futures.add(batchPool.getExecutor().submit(new Callable<MarkupResponse>()
+         {
+            public MarkupResponse call()
+            {
+               ServletAccess.setRequestAndResponse(servletRequest, servletResponse);
+               try
+               {
+                  return processBatchedRequest(request);
+               }
+               finally
+               {
+                  ServletAccess.setRequestAndResponse(null, null);
+                  RegistrationLocal.setRegistration(null);
+               }
+            }
+         }));
+      }
+
+      for (Future<MarkupResponse> future : futures)
+      {
+         try
+         {
+            responses.add(future.get());
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            responses.add(null);
+         }
+         catch (ExecutionException e)
+         {
+            log.debug("Batched getMarkup failed", e.getCause());
+            responses.add(null);
+         }
+      }
+
+      return responses;
+   }
+
+   private MarkupResponse processBatchedRequest(GetMarkup request)
+   {
+      try
+      {
+         // nested batches are not supported
+         final MarkupParams markupParams = request.getMarkupParams();
+         if (markupParams != null)
+         {
+            BatchMarkupExtension.removeBatchedRequests(markupParams.getExtensions());
+         }
+
+         return invoke(request);
+      }
+      catch (Exception e)
+      {
+         // the consumer will perform the request again on its own to get the error
+         log.debug("Batched getMarkup on portlet '" + (request.getPortletContext() != null ? request.getPortletContext().getPortletHandle() : null) + "' failed", e);
+         return null;
+      }
+   }
+
    public ResourceResponse getResource(GetResource getResource)
       throws AccessDenied, InconsistentParameters, InvalidCookie, InvalidHandle, InvalidRegistration, InvalidSession,
       InvalidUserCategory, MissingParameters, ModifyRegistrationRequired, OperationFailed, OperationNotSupported,
@@ -135,7 +288,14 @@ public class MarkupHandler extends ServiceHandler implements MarkupInterface
    {
       try
       {
-         return invoke(performBlockingInteraction);
+         final BlockingInteractionResponse response = invoke(performBlockingInteraction);
+
+         if (Boolean.getBoolean(BUNDLE_MARKUP_ON_ACTION_PROPERTY))
+         {
+            bundleMarkupIfPossible(performBlockingInteraction, response.getUpdateResponse());
+         }
+
+         return response;
       }
       catch (OperationNotSupported operationNotSupported)
       {
@@ -143,6 +303,55 @@ public class MarkupHandler extends ServiceHandler implements MarkupInterface
       }
    }
 
+   /**
+    * Renders the portlet targeted by the specified blocking interaction in the state resulting from the interaction and
+    * adds the resulting markup to the specified UpdateResponse. Nothing is bundled if the interaction resulted in a
+    * redirection or in events being fired since processing them might change what the portlet renders. Failures are
+    * ignored: the consumer will then simply perform a getMarkup call as usual.
+    *
+    * @param interaction    the blocking interaction that has been processed
+    * @param updateResponse the state update that resulted from the interaction, <code>null</code> if the interaction
+    *                       resulted in a redirection
+    */
+   private void bundleMarkupIfPossible(PerformBlockingInteraction interaction, UpdateResponse updateResponse)
+   {
+      if (updateResponse == null || ParameterValidation.existsAndIsNotEmpty(updateResponse.getEvents()))
+      {
+         return;
+      }
+
+      final MarkupParams original = interaction.getMarkupParams();
+      final String mode = updateResponse.getNewMode() != null ? updateResponse.getNewMode() : original.getMode();
+      final String windowState = updateResponse.getNewWindowState() != null ? updateResponse.getNewWindowState() : original.getWindowState();
+      final MarkupParams markupParams = WSRPTypeFactory.createMarkupParams(original.isSecureClientCommunication(), original.getLocales(), original.getMimeTypes(), mode, windowState);
+      markupParams.setClientData(original.getClientData());
+      // consumers keep the current navigational state if the interaction didn't provide a new one
+      final NavigationalContext navigationalContext = updateResponse.getNavigationalContext();
+      markupParams.setNavigationalContext(navigationalContext != null && navigationalContext.getOpaqueValue() != null ? navigationalContext : original.getNavigationalContext());
+      markupParams.getMarkupCharacterSets().addAll(original.getMarkupCharacterSets());
+      markupParams.getValidNewModes().addAll(original.getValidNewModes());
+      markupParams.getValidNewWindowStates().addAll(original.getValidNewWindowStates());
+
+      // the interaction might have cloned the portlet
+      final PortletContext portletContext = updateResponse.getPortletContext() != null ? updateResponse.getPortletContext() : interaction.getPortletContext();
+
+      final GetMarkup getMarkup = WSRPTypeFactory.createGetMarkup(interaction.getRegistrationContext(), portletContext,
+         interaction.getRuntimeContext(), interaction.getUserContext(), markupParams);
+      try
+      {
+         final MarkupResponse markupResponse = invoke(getMarkup);
+         updateResponse.setMarkupContext(markupResponse.getMarkupContext());
+         if (updateResponse.getSessionContext() == null)
+         {
+            updateResponse.setSessionContext(markupResponse.getSessionContext());
+         }
+      }
+      catch (Exception e)
+      {
+         log.debug("Couldn't render portlet '" + portletContext.getPortletHandle() + "' after blocking interaction, not bundling markup", e);
+      }
+   }
+
    public List<Extension> releaseSessions(ReleaseSessions releaseSessions)
       throws AccessDenied, InvalidRegistration, MissingParameters, ModifyRegistrationRequired, OperationFailed,
       OperationNotSupported, ResourceSuspended
@@ -185,13 +394,14 @@ public class MarkupHandler extends ServiceHandler implements MarkupInterface
       String handle = requestProcessor.getPortletContext().getPortletHandle();
       String invocationType = request.getClass().getSimpleName();
 
+      final FragmentCache fragmentCache = producer.getFragmentCache();
+
       try
       {
          log.debug(invocationType + " on portlet '" + handle + "'");
 
-         // check the registration and make it available to other parts of the code via RegistrationLocal
-         Registration registration = producer.getRegistrationOrFailIfInvalid(requestProcessor.getRegistrationContext());
-         RegistrationLocal.setRegistration(registration);
+         // make the registration, already validated when the RequestProcessor prepared the invocation, available to other parts of the code via RegistrationLocal
+         RegistrationLocal.setRegistration(requestProcessor.getRegistration());
 
          // get the portlet container invocation from the RequestProcessor
          final PortletInvocation invocation = requestProcessor.getInvocation();
@@ -203,8 +413,18 @@ public class MarkupHandler extends ServiceHandler implements MarkupInterface
             delegate.processInvocation(invocation);
          }
 
-         // get the portlet invoker to perform the invocation
-         response = producer.getPortletInvoker().invoke(invocation);
+         // if the markup can be retrieved from the fragment cache, we don't need to invoke the portlet
+         final PortletInvocationResponse cachedResponse = requestProcessor.getCachedInvocationResponse(fragmentCache);
+         if (cachedResponse != null)
+         {
+            log.debug(invocationType + " on portlet '" + handle + "' answered from fragment cache");
+            response = cachedResponse;
+         }
+         else
+         {
+            // get the portlet invoker to perform the invocation
+            response = producer.getPortletInvoker().invoke(invocation);
+         }
 
          // let the producer invocation handler delegate get a chance to process the response
          if (delegate != null)
@@ -212,6 +432,12 @@ public class MarkupHandler extends ServiceHandler implements MarkupInterface
             delegate.processInvocationResponse(response, invocation);
          }
 
+         // processing an action or an event might change what the portlet renders
+         if (request instanceof PerformBlockingInteraction || request instanceof HandleEvents)
+         {
+            fragmentCache.invalidate(handle);
+         }
+
          log.debug(invocationType + " done");
 
       }
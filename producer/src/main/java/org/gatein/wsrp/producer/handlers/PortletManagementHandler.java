@@ -45,14 +45,21 @@ import org.gatein.pc.api.state.DestroyCloneFailure;
 import org.gatein.pc.api.state.PropertyChange;
 import org.gatein.pc.api.state.PropertyMap;
 import org.gatein.registration.Registration;
+import org.gatein.registration.RegistrationException;
 import org.gatein.registration.RegistrationLocal;
+import org.gatein.registration.RegistrationPersistenceManager;
+import org.gatein.registration.spi.RegistrationSPI;
 import org.gatein.wsrp.WSRPConstants;
 import org.gatein.wsrp.WSRPExceptionFactory;
 import org.gatein.wsrp.WSRPTypeFactory;
 import org.gatein.wsrp.WSRPUtils;
 import org.gatein.wsrp.producer.PortletManagementInterface;
+import org.gatein.wsrp.producer.StateAccessBatcher;
 import org.gatein.wsrp.producer.Utils;
 import org.gatein.wsrp.producer.WSRPProducerImpl;
+import org.gatein.wsrp.producer.handlers.ChunkedProcessor.DiscardableItemProcessor;
+import org.gatein.wsrp.producer.handlers.ChunkedProcessor.ItemProcessor;
+import org.gatein.wsrp.producer.handlers.ChunkedProcessor.Outcome;
 import org.gatein.wsrp.spec.v2.ErrorCodes;
 import org.gatein.wsrp.spec.v2.WSRP2ExceptionFactory;
 import org.oasis.wsrp.v2.AccessDenied;
@@ -136,11 +143,20 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
 
    private static final Logger log = LoggerFactory.getLogger(PortletManagementHandler.class);
 
+   /** Processes bulk export, import and copy requests in chunks, possibly concurrently */
+   private final ChunkedProcessor chunkedProcessor = new ChunkedProcessor();
+
    public PortletManagementHandler(WSRPProducerImpl producer)
    {
       super(producer);
    }
 
+   /** Releases the resources used by this handler when the producer is stopped. */
+   public void stop()
+   {
+      chunkedProcessor.shutdown();
+   }
+
    public PortletDescriptionResponse getPortletDescription(GetPortletDescription getPortletDescription)
       throws AccessDenied, InconsistentParameters, InvalidHandle, InvalidRegistration, InvalidUserCategory,
       MissingParameters, ModifyRegistrationRequired, OperationFailed, OperationNotSupported, ResourceSuspended
@@ -275,7 +291,32 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
       try
       {
          RegistrationLocal.setRegistration(registration);
-         List<DestroyCloneFailure> failuresList = producer.getPortletInvoker().destroyClones(portletContexts);
+
+         // destroy all the clones and update the registration within a single persistence batch
+         final StateAccessBatcher batcher = getStateAccessBatcher(registration);
+         List<DestroyCloneFailure> failuresList;
+         if (batcher != null)
+         {
+            batcher.beginBatch();
+            boolean success = false;
+            try
+            {
+               failuresList = producer.getPortletInvoker().destroyClones(portletContexts);
+               success = true;
+            }
+            finally
+            {
+               batcher.endBatch(success);
+            }
+         }
+         else
+         {
+            failuresList = producer.getPortletInvoker().destroyClones(portletContexts);
+         }
+         for (String handle : handles)
+         {
+            producer.getFragmentCache().invalidate(handle);
+         }
          int failuresNumber = failuresList.size();
          List<FailedPortlets> failedPortlets;
          if (failuresNumber > 0)
@@ -364,9 +405,13 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
 
          List<CopiedPortlet> copiedPortlets = new ArrayList<CopiedPortlet>(portletContexts.size());
 
-         for (PortletContext portletContext : portletContexts)
+         // copy the portlets in chunks, the clones of each chunk and the associated registration updates being
+         // persisted within a single persistence batch
+         final Registration from = fromRegistration;
+         final Registration to = toRegistration;
+         final List<Outcome<CopiedPortlet>> outcomes = chunkedProcessor.process(portletContexts, new DiscardableItemProcessor<PortletContext, CopiedPortlet>()
          {
-            try
+            public CopiedPortlet process(PortletContext portletContext) throws Exception
             {
                org.gatein.pc.api.PortletContext portalPC = WSRPUtils.convertToPortalPortletContext(portletContext);
 
@@ -375,18 +420,36 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
                // create the copy under the toRegistration and we would need to add extra checks here to make sure the toRegistration has the proper permissions.
                // Not sure why there is even a copy portlet operation since it can be replicated by an export and then an import operation.
 
+               // make sure we export using the source registration, since the previous copy switched to the target one
+               RegistrationLocal.setRegistration(from);
                org.gatein.pc.api.PortletContext exportedPortletContext = producer.getPortletInvoker().exportPortlet(PortletStateType.OPAQUE, portalPC);
                //Change the registration to the new registration and try and do an import. This should force the new import to be under the new registration context
-               RegistrationLocal.setRegistration(toRegistration);
+               RegistrationLocal.setRegistration(to);
                org.gatein.pc.api.PortletContext copiedPortletContext = producer.getPortletInvoker().importPortlet(PortletStateType.OPAQUE, exportedPortletContext);
 
                PortletContext wsrpClonedPC = WSRPUtils.convertToWSRPPortletContext(copiedPortletContext);
 
-               CopiedPortlet copiedPortlet = WSRPTypeFactory.createCopiedPortlet(wsrpClonedPC, portletContext.getPortletHandle());
-               copiedPortlets.add(copiedPortlet);
+               return WSRPTypeFactory.createCopiedPortlet(wsrpClonedPC, portletContext.getPortletHandle());
             }
-            catch (Exception e)
+
+            public void discard(PortletContext portletContext, CopiedPortlet copiedPortlet) throws Exception
             {
+               // the copy will be processed again: the target registration shouldn't reference the discarded clone
+               discardClone(to, copiedPortlet.getNewPortletContext());
+            }
+         }, getStateAccessBatcher(fromRegistration, toRegistration));
+
+         for (int i = 0; i < outcomes.size(); i++)
+         {
+            final Outcome<CopiedPortlet> outcome = outcomes.get(i);
+            if (outcome.isSuccess())
+            {
+               copiedPortlets.add(outcome.getResult());
+            }
+            else
+            {
+               final Exception e = outcome.getError();
+               final PortletContext portletContext = portletContexts.get(i);
                if (log.isWarnEnabled())
                {
                   log.warn("Error occured while trying to export a portlet.", e);
@@ -526,6 +589,10 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
             org.gatein.pc.api.PortletContext resultContext =
                producer.getPortletInvoker().setProperties(WSRPUtils.convertToPortalPortletContext(portletContext),
                   changes.toArray(new PropertyChange[changes.size()]));
+
+            // cached fragments don't reflect the new properties anymore
+            producer.getFragmentCache().invalidate(portletContext.getPortletHandle());
+
             return WSRPUtils.convertToWSRPPortletContext(resultContext);
          }
          catch (NoSuchPortletException e)
@@ -692,9 +759,10 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
             exportContext = exportManager.createExportContext(exportByValueRequired, -1, -1, -1);
          }
 
-         for (PortletContext portletContext : portletContexts)
+         final ExportContext context = exportContext;
+         final List<Outcome<ExportedPortlet>> outcomes = chunkedProcessor.process(portletContexts, new ItemProcessor<PortletContext, ExportedPortlet>()
          {
-            try
+            public ExportedPortlet process(PortletContext portletContext) throws Exception
             {
                WSRP2ExceptionFactory.throwOperationFailedIfValueIsMissing(portletContext, "Portlet context");
                String portletHandle = portletContext.getPortletHandle();
@@ -711,16 +779,25 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
                byte[] portletState = WSRPUtils.getStateOrNullFor(exportedPortalPC);
 
                //get the exportPortletData
-               ExportPortletData exportPortletData = exportManager.createExportPortletData(exportContext, portletHandle, portletState);
+               ExportPortletData exportPortletData = exportManager.createExportPortletData(context, portletHandle, portletState);
 
                //Create the exportedPortlet
-               byte[] exportPortletBytes = exportManager.encodeExportPortletData(exportContext, exportPortletData);
-               ExportedPortlet exportedPortlet = WSRPTypeFactory.createExportedPortlet(portletHandle, exportPortletBytes);
-               exportedPortlets.add(exportedPortlet);
+               byte[] exportPortletBytes = exportManager.encodeExportPortletData(context, exportPortletData);
+               return WSRPTypeFactory.createExportedPortlet(portletHandle, exportPortletBytes);
             }
+         }, getStateAccessBatcher(registration));
 
-            catch (Exception e)
+         for (int i = 0; i < outcomes.size(); i++)
+         {
+            final Outcome<ExportedPortlet> outcome = outcomes.get(i);
+            if (outcome.isSuccess())
             {
+               exportedPortlets.add(outcome.getResult());
+            }
+            else
+            {
+               final Exception e = outcome.getError();
+               final PortletContext portletContext = portletContexts.get(i);
                if (log.isWarnEnabled())
                {
                   log.warn("Error occured while trying to export a portlet.", e);
@@ -805,7 +882,7 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
 
          byte[] importContext = importPortlets.getImportContext();
 
-         Lifetime lifeTime = importPortlets.getLifetime();
+         final Lifetime lifeTime = importPortlets.getLifetime();
 
          List<ImportedPortlet> importedPortlets = new ArrayList<ImportedPortlet>();
          Map<String, ImportPortletsFailed> failedPortletsMap = new HashMap<String, ImportPortletsFailed>();
@@ -821,9 +898,11 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
             throw WSRPExceptionFactory.createWSException(OperationFailed.class, "Invalid ImportContext.", e);
          }
 
-         for (ImportPortlet importPortlet : importPortletList)
+         final ExportContext context = exportContext;
+         final Registration importRegistration = registration;
+         final List<Outcome<ImportedPortlet>> outcomes = chunkedProcessor.process(importPortletList, new DiscardableItemProcessor<ImportPortlet, ImportedPortlet>()
          {
-            try
+            public ImportedPortlet process(ImportPortlet importPortlet) throws Exception
             {
                byte[] portletData = importPortlet.getExportData();
 
@@ -833,11 +912,11 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
                   long currentTime = toLongDate(lifeTime.getCurrentTime());
                   long terminationTime = toLongDate(lifeTime.getTerminationTime());
                   long refreshDuration = lifeTime.getRefreshDuration().getTimeInMillis(lifeTime.getCurrentTime().toGregorianCalendar());
-                  exportPortletData = exportManager.createExportPortletData(exportContext, currentTime, terminationTime, refreshDuration, portletData);
+                  exportPortletData = exportManager.createExportPortletData(context, currentTime, terminationTime, refreshDuration, portletData);
                }
                else
                {
-                  exportPortletData = exportManager.createExportPortletData(exportContext, -1, -1, -1, portletData);
+                  exportPortletData = exportManager.createExportPortletData(context, -1, -1, -1, portletData);
                }
 
                String portletHandle = exportPortletData.getPortletHandle();
@@ -849,12 +928,27 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
                org.gatein.pc.api.PortletContext cpc = producer.getPortletInvoker().importPortlet(PortletStateType.OPAQUE, pcPortletContext);
                PortletContext wpc = WSRPUtils.convertToWSRPPortletContext(cpc);
 
-               ImportedPortlet importedPortlet = WSRPTypeFactory.createImportedPortlet(importPortlet.getImportID(), wpc);
+               return WSRPTypeFactory.createImportedPortlet(importPortlet.getImportID(), wpc);
+            }
 
-               importedPortlets.add(importedPortlet);
+            public void discard(ImportPortlet importPortlet, ImportedPortlet importedPortlet) throws Exception
+            {
+               // the import will be processed again: the registration shouldn't reference the discarded clone
+               discardClone(importRegistration, importedPortlet.getNewPortletContext());
+            }
+         }, getStateAccessBatcher(registration));
+
+         for (int i = 0; i < outcomes.size(); i++)
+         {
+            final Outcome<ImportedPortlet> outcome = outcomes.get(i);
+            if (outcome.isSuccess())
+            {
+               importedPortlets.add(outcome.getResult());
             }
-            catch (Exception e)
+            else
             {
+               final Exception e = outcome.getError();
+               final ImportPortlet importPortlet = importPortletList.get(i);
                if (log.isWarnEnabled())
                {
                   log.warn("Error occured while trying to import a portlet.", e);
@@ -975,6 +1069,51 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
       }
    }
 
+   /**
+    * Retrieves the StateAccessBatcher grouping the portlet state and registration persistent accesses performed during
+    * bulk operations, so that clones and the related registration updates are committed together, see {@link
+    * BulkOperationBatcher} for the guarantees this provides.
+    *
+    * @param registrations the registrations modified by the bulk operation
+    * @return the StateAccessBatcher to use or <code>null</code> if none of the persistent stores support batching
+    */
+   private StateAccessBatcher getStateAccessBatcher(Registration... registrations)
+   {
+      final StateAccessBatcher stateBatcher = producer.getStateAccessBatcher();
+      final RegistrationPersistenceManager persistenceManager = producer.getRegistrationManager().getPersistenceManager();
+      final StateAccessBatcher registrationBatcher;
+      if (persistenceManager instanceof StateAccessBatcher && persistenceManager != stateBatcher)
+      {
+         registrationBatcher = (StateAccessBatcher)persistenceManager;
+      }
+      else
+      {
+         registrationBatcher = null;
+      }
+
+      if (stateBatcher == null && registrationBatcher == null)
+      {
+         return null;
+      }
+      return new BulkOperationBatcher(stateBatcher, registrationBatcher, registrations);
+   }
+
+   /**
+    * Removes the specified clone, created within a discarded persistence batch and therefore not persisted, from the
+    * in-memory registration it was added to, without persisting the removal.
+    *
+    * @param registration the registration the clone was added to
+    * @param clone        the discarded clone
+    * @throws RegistrationException
+    */
+   static void discardClone(Registration registration, PortletContext clone) throws RegistrationException
+   {
+      if (registration instanceof RegistrationSPI && clone != null)
+      {
+         ((RegistrationSPI)registration).removePortletContext(WSRPUtils.convertToPortalPortletContext(clone), false);
+      }
+   }
+
    private void checkUserAuthorization(UserContext userContext)
    {
       //todo: implement
@@ -1044,4 +1183,104 @@ public class PortletManagementHandler extends ServiceHandler implements PortletM
          return null;
       }
    }
+
+   /**
+    * Groups the accesses of the portlet state and registration stores performed during a bulk operation. Both stores
+    * are independent so their batches cannot be committed atomically: the state batch is committed first, the
+    * registration one being discarded if that fails, but the registration batch might still fail once the state one is
+    * committed, in which case the committed clones are not referenced by their registration or, for destroyed clones,
+    * the registration still references clones that don't exist anymore. Since registrations are modified in memory as
+    * clones are created or destroyed, before anything is committed, the registrations involved in the bulk operation
+    * are also evicted from the registration manager's cache unless both batches were committed, so that they are
+    * retrieved again in their persisted state. The registrations held by the current request are not reloaded though:
+    * operations creating clones remove the clones of discarded elements from them before processing them again, see
+    * {@link ChunkedProcessor.DiscardableItemProcessor}.
+    */
+   private class BulkOperationBatcher implements StateAccessBatcher
+   {
+      private final StateAccessBatcher stateBatcher;
+      private final StateAccessBatcher registrationBatcher;
+      private final Registration[] registrations;
+
+      /**
+       * @param stateBatcher        the portlet state store batcher, might be <code>null</code>
+       * @param registrationBatcher the registration store batcher, might be <code>null</code>
+       * @param registrations       the registrations modified by the bulk operation
+       */
+      private BulkOperationBatcher(StateAccessBatcher stateBatcher, StateAccessBatcher registrationBatcher, Registration[] registrations)
+      {
+         this.stateBatcher = stateBatcher;
+         this.registrationBatcher = registrationBatcher;
+         this.registrations = registrations;
+      }
+
+      public void beginBatch()
+      {
+         if (stateBatcher != null)
+         {
+            stateBatcher.beginBatch();
+         }
+
+         if (registrationBatcher != null)
+         {
+            try
+            {
+               registrationBatcher.beginBatch();
+            }
+            catch (RuntimeException e)
+            {
+               if (stateBatcher != null)
+               {
+                  stateBatcher.endBatch(false);
+               }
+               throw e;
+            }
+         }
+      }
+
+      public void endBatch(boolean success)
+      {
+         boolean committed = false;
+         try
+         {
+            if (stateBatcher != null)
+            {
+               try
+               {
+                  stateBatcher.endBatch(success);
+               }
+               catch (RuntimeException e)
+               {
+                  // don't commit the registration modifications if the state ones couldn't be
+                  if (registrationBatcher != null)
+                  {
+                     registrationBatcher.endBatch(false);
+                  }
+                  throw e;
+               }
+            }
+
+            if (registrationBatcher != null)
+            {
+               registrationBatcher.endBatch(success);
+            }
+
+            committed = success;
+         }
+         finally
+         {
+            if (!committed)
+            {
+               // the in-memory registrations might have been modified by the discarded operations
+               for (Registration registration : registrations)
+               {
+                  if (registration != null)
+                  {
+                     registrationHasChanged(registration);
+                  }
+               }
+            }
+         }
+      }
+   }
 }
@@ -225,9 +225,10 @@ public class RegistrationHandler extends ServiceHandler implements RegistrationI
 
          log.debug("Attempting to modify registration with handle '" + registrationHandle + "'");
          String msg = "Could not modify registration with handle '" + registrationHandle + "'";
+         Registration registration = null;
          try
          {
-            Registration registration = producer.getRegistrationManager().getRegistration(registrationHandle);
+            registration = producer.getRegistrationManager().getRegistration(registrationHandle);
 
             Map<QName, Object> properties = createRegistrationProperties(registrationData);
 
@@ -248,7 +249,14 @@ public class RegistrationHandler extends ServiceHandler implements RegistrationI
             log.debug(msg, e);
             throw WSRP2ExceptionFactory.throwWSException(OperationFailed.class, msg, e);
          }
-
+         finally
+         {
+            // make sure we don't keep using a stale or partially updated registration
+            if (registration != null)
+            {
+               registrationHasChanged(registration);
+            }
+         }
 
          log.debug("Modified registration with handle '" + registrationHandle + "'");
          return null;
@@ -48,6 +48,7 @@ import org.gatein.pc.portlet.container.managed.ManagedObjectRegistryEventListene
 import org.gatein.pc.portlet.container.managed.ManagedPortletContainer;
 import org.gatein.registration.Registration;
 import org.gatein.registration.RegistrationLocal;
+import org.gatein.wsrp.BatchMarkupExtension;
 import org.gatein.wsrp.SupportsLastModified;
 import org.gatein.wsrp.WSRPTypeFactory;
 import org.gatein.wsrp.WSRPUtils;
@@ -84,6 +85,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Handles service description calls on behalf of the producer. Implements {@link ManagedObjectRegistryEventListener} to listen to portlet deployment operations to be able to
@@ -98,9 +101,11 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
    // JBPORTAL-1220: force call to initCookie... Required so that BEA version < 9.2 will behave properly as a Consumer
    private static final CookieProtocol BEA_8_CONSUMER_FIX = CookieProtocol.PER_USER;
    /** Stores service description so that we don't constantly need to regenerate it on each call. */
-   private ServiceDescriptionInfo serviceDescription;
+   private volatile ServiceDescriptionInfo serviceDescription;
 
    private static final List<String> OPTIONS = new ArrayList<String>(5);
+   /** Maximum number of ready-to-send service descriptions we keep around. */
+   private static final int MAX_CACHED_DESCRIPTIONS = 128;
 
    static
    {
@@ -281,26 +286,19 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
       return runtimeOptionInfo != null && "true".equals(runtimeOptionInfo.getValues().get(0));
    }
 
-   /** Stores all service description related metadata so that we don't constantly need to re-generate it on each call. */
+   /**
+    * Stores all service description related metadata so that we don't constantly need to re-generate it on each call. The metadata is held in an immutable {@link Snapshot}
+    * which request threads read without locking. Modifications, which only happen when portlets are deployed or undeployed or when the registration requirements change, are
+    * serialized and performed incrementally by copying the current snapshot, modifying only what is affected by the change and publishing the new snapshot.
+    */
    private class ServiceDescriptionInfo
    {
-      /** When were we last generated? */
-      private long lastGenerated;
-      /** Event descriptions */
-      private Map<QName, EventDescription> eventDescriptions;
-      /**
-       * Since events can be declared by several portlets, we need to have a reference counting mechanism on event descriptions so that we can ensure that, when a portlet is
-       * removed, we only remove the related event description if and only if no other portlets reference it.
-       */
-      private Map<QName, Integer> eventReferenceCount;
-      /** Portlet descriptions */
-      private Map<String, PortletDescriptionInfo> portletDescriptions;
-      /** Registration properties */
-      private ModelDescription registrationProperties;
+      /** Current metadata, replaced as a whole whenever something changes. */
+      private volatile Snapshot snapshot;
       /** Whether we've already been initialized or not */
-      private boolean initialized = false;
-      /** Does the associated producer require registration? */
-      private boolean requireRegistrations;
+      private volatile boolean initialized = false;
+      /** Serializes modifications of the snapshot */
+      private final Object lock = new Object();
 
       private ServiceDescriptionInfo()
       {
@@ -310,13 +308,11 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
       /** Resets all metadata. */
       void reset()
       {
-         lastGenerated = 0;
-         eventDescriptions = new HashMap<QName, EventDescription>(37);
-         eventReferenceCount = new HashMap<QName, Integer>(37);
-         portletDescriptions = new HashMap<String, PortletDescriptionInfo>(37);
-         registrationProperties = null;
-         initialized = false;
-         requireRegistrations = false;
+         synchronized (lock)
+         {
+            snapshot = new Snapshot();
+            initialized = false;
+         }
       }
 
       /**
@@ -328,29 +324,31 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
       {
          // only update our information if the new requirements are posterior to our last modification, since, presumably, we updated them at that time
          long lastModified = requirements.getLastModified();
-         if (lastModified > lastGenerated)
+         if (lastModified > snapshot.lastGenerated)
          {
-            if (log.isDebugEnabled())
+            synchronized (lock)
             {
-               log.debug("Re-generating registration properties information for service description.");
-            }
-
-            // do not create a ModelDescription if there is no registration properties
-            Map<QName, RegistrationPropertyDescription> info = requirements.getRegistrationProperties();
-            if (ParameterValidation.existsAndIsNotEmpty(info))
-            {
-               registrationProperties = Utils.convertRegistrationPropertiesToModelDescription(info);
-            }
-            else
-            {
-               registrationProperties = null;
-            }
+               // check again now that we hold the lock since another thread might have performed the update while we were waiting
+               Snapshot current = snapshot;
+               if (lastModified > current.lastGenerated)
+               {
+                  if (log.isDebugEnabled())
+                  {
+                     log.debug("Re-generating registration properties information for service description.");
+                  }
 
-            // update need to register
-            requireRegistrations = requirements.isRegistrationRequired();
+                  // do not create a ModelDescription if there is no registration properties
+                  ModelDescription registrationProperties = null;
+                  Map<QName, RegistrationPropertyDescription> info = requirements.getRegistrationProperties();
+                  if (ParameterValidation.existsAndIsNotEmpty(info))
+                  {
+                     registrationProperties = Utils.convertRegistrationPropertiesToModelDescription(info);
+                  }
 
-            // we just got re-generated
-            lastGenerated = SupportsLastModified.now();
+                  // update need to register, we just got re-generated
+                  snapshot = new Snapshot(current, registrationProperties, requirements.isRegistrationRequired(), SupportsLastModified.now());
+               }
+            }
          }
       }
 
@@ -359,16 +357,34 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
       {
          try
          {
+            // generate the descriptions without holding the lock since this might take a while and only depends on the portlet metadata
             Set<Portlet> portlets = producer.getRemotablePortlets();
+            Map<String, PortletDescriptionInfo> descriptions = new HashMap<String, PortletDescriptionInfo>(portlets != null ? portlets.size() : 0);
             if (ParameterValidation.existsAndIsNotEmpty(portlets))
             {
                for (Portlet portlet : portlets)
                {
-                  addPortletDescription(portlet.getContext(), portlet.getInfo());
+                  String handle = portlet.getContext().getId();
+                  descriptions.put(handle, createPortletDescription(portlet.getInfo(), handle));
                }
             }
 
-            initialized = true;
+            synchronized (lock)
+            {
+               // another thread might have initialized us while we were generating the descriptions
+               if (!initialized)
+               {
+                  // batch all additions in a single new snapshot
+                  SnapshotBuilder builder = new SnapshotBuilder(snapshot);
+                  for (Map.Entry<String, PortletDescriptionInfo> entry : descriptions.entrySet())
+                  {
+                     builder.addPortletDescription(entry.getKey(), entry.getValue());
+                  }
+                  snapshot = builder.build();
+
+                  initialized = true;
+               }
+            }
          }
          catch (PortletInvokerException e)
          {
@@ -390,17 +406,54 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
          // initialize if needed
          initIfNeeded();
 
+         // work on a consistent view of the metadata
+         final Snapshot current = snapshot;
+
+         // check if we've already generated a service description for these parameters
+         ServiceDescriptionKey key = new ServiceDescriptionKey(needsRegistrationProperties, needsPortletDescriptions, portletHandles, desiredLocales);
+         ServiceDescription serviceDescription = current.cachedDescriptions.get(key);
+         if (serviceDescription == null)
+         {
+            serviceDescription = createServiceDescription(current, needsRegistrationProperties, needsPortletDescriptions, portletHandles, desiredLocales);
+
+            // cached descriptions are tied to the snapshot they were generated from so they are automatically discarded when the metadata changes
+            // very basic eviction: consumers usually ask for a small number of different combinations so just start over if we reach the limit
+            if (current.cachedDescriptions.size() >= MAX_CACHED_DESCRIPTIONS)
+            {
+               current.cachedDescriptions.clear();
+            }
+            current.cachedDescriptions.put(key, serviceDescription);
+         }
+
+         return serviceDescription;
+      }
+
+      /**
+       * Creates a new ServiceDescription with the specified information. Since the returned instance might be shared between threads, all its lazily initialized lists are
+       * initialized before it is returned so that it can be safely read concurrently.
+       *
+       * @param snapshot                    the metadata from which to generate the description
+       * @param needsRegistrationProperties do we want to include registration properties?
+       * @param needsPortletDescriptions    do we want to include portlet descriptions?
+       * @param portletHandles              list of portlet handles that we only want to include in the service description
+       * @param desiredLocales              desired locales for which the service description should be adapted along a best effort policy
+       * @return a new ServiceDescription instance ready to be sent to the consumer with the specified information.
+       */
+      private ServiceDescription createServiceDescription(Snapshot snapshot, boolean needsRegistrationProperties, boolean needsPortletDescriptions, List<String> portletHandles, List<String> desiredLocales)
+      {
          // only add registration properties if we asked for them
-         ModelDescription registrationProperties = needsRegistrationProperties ? this.registrationProperties : null;
+         ModelDescription registrationProperties = needsRegistrationProperties ? snapshot.registrationProperties : null;
 
          // set the service description details
          ServiceDescription serviceDescription = WSRPTypeFactory.createServiceDescription(false);
          serviceDescription.setRequiresInitCookie(BEA_8_CONSUMER_FIX);
          serviceDescription.getSupportedOptions().addAll(OPTIONS);
+         serviceDescription.getExtensionDescriptions().add(BatchMarkupExtension.createExtensionDescription());
          serviceDescription.setRegistrationPropertyDescription(registrationProperties);
-         serviceDescription.setRequiresRegistration(requireRegistrations);
+         serviceDescription.setRequiresRegistration(snapshot.requireRegistrations);
 
          // init supported locales. Note that this doesn't mean that all portlets support all these languages but rather that at least one portlet supports at least one of these languages.
+         final Map<String, PortletDescriptionInfo> portletDescriptions = snapshot.portletDescriptions;
          final Set<String> knownPortletHandles = portletDescriptions.keySet();
          Set<String> supportedLocales = new HashSet<String>(knownPortletHandles.size() * 2);
 
@@ -433,9 +486,17 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
          serviceDescription.getLocales().addAll(supportedLocales);
 
          // events
-         Collection<EventDescription> events = eventDescriptions.values();
+         Collection<EventDescription> events = snapshot.eventDescriptions.values();
          serviceDescription.getEventDescriptions().addAll(events);
 
+         // make sure that lazily initialized lists are created before the description is shared
+         serviceDescription.getOfferedPortlets();
+         serviceDescription.getUserCategoryDescriptions();
+         serviceDescription.getExtensionDescriptions();
+         serviceDescription.getCustomWindowStateDescriptions();
+         serviceDescription.getCustomModeDescriptions();
+         serviceDescription.getExtensions();
+
          return serviceDescription;
       }
 
@@ -449,66 +510,24 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
       }
 
       /**
-       * Adds the specified event metadata in the specified locale
-       *
-       * @param info
-       * @param locale
-       */
-      private void addEventInfo(EventInfo info, Locale locale)
-      {
-         QName name = info.getName();
-         if (!eventDescriptions.containsKey(name))
-         {
-            EventDescription desc = WSRPTypeFactory.createEventDescription(name);
-            desc.setDescription(Utils.convertToWSRPLocalizedString(info.getDescription(), locale));
-            desc.setLabel(Utils.convertToWSRPLocalizedString(info.getDisplayName(), locale));
-            Collection<QName> aliases = info.getAliases();
-            if (ParameterValidation.existsAndIsNotEmpty(aliases))
-            {
-               desc.getAliases().addAll(aliases);
-            }
-            // todo: deal with type info...
-            eventDescriptions.put(name, desc);
-            eventReferenceCount.put(name, 1);
-         }
-         else
-         {
-            Integer current = eventReferenceCount.get(name);
-            eventReferenceCount.put(name, current + 1); // increase reference count
-         }
-      }
-
-      /**
-       * Removes the even information associated with the specified QName
+       * Adds (or replaces if the portlet was already known) the description of the specified portlet.
        *
-       * @param name the name of the event which information we want to remove
+       * @param context the portlet context of the portlet to add
+       * @param info    the portlet metadata
        */
-      private void removeEvent(QName name)
-      {
-         // retrieve the reference count for this event
-         Integer current = eventReferenceCount.get(name);
-         if (current != null)
-         {
-            if (current == 1)
-            {
-               // only remove the even description if we only have one reference to it left
-               eventDescriptions.remove(name);
-               eventReferenceCount.remove(name);
-            }
-            else
-            {
-               // otherwise, simply decrease the reference count for that event
-               eventReferenceCount.put(name, current - 1);
-            }
-         }
-      }
-
       private void addPortletDescription(org.gatein.pc.api.PortletContext context, PortletInfo info)
       {
          String handle = context.getId();
+
+         // generate the description outside of the lock since it only depends on the portlet metadata
          PortletDescriptionInfo desc = createPortletDescription(info, handle);
 
-         portletDescriptions.put(handle, desc);
+         synchronized (lock)
+         {
+            SnapshotBuilder builder = new SnapshotBuilder(snapshot);
+            builder.addPortletDescription(handle, desc);
+            snapshot = builder.build();
+         }
       }
 
       /**
@@ -551,13 +570,15 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
             supportedLanguages = WSRPUtils.convertLocalesToRFC3066LanguageTags(new ArrayList<Locale>(supportedLocales));
          }
 
-         PortletDescriptionInfo descriptionInfo = portletDescriptions.get(handle);
-         if (descriptionInfo == null)
+         Map<String, PortletDescription> languageToDescription = new HashMap<String, PortletDescription>(supportedLanguages.size());
+         for (String supportedLanguage : supportedLanguages)
          {
-            descriptionInfo = new PortletDescriptionInfo(supportedLanguages);
-            portletDescriptions.put(handle, descriptionInfo);
+            languageToDescription.put(supportedLanguage, null);
          }
 
+         // events referenced by this portlet
+         Map<QName, EventDescription> events = new HashMap<QName, EventDescription>(7);
+
          // iterate over locales and create a portlet description for each
          MetaInfo metaInfo = info.getMeta();
          for (Locale localeMatch : supportedLocales)
@@ -609,7 +630,7 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
                   for (Map.Entry<QName, ? extends EventInfo> entry : producedEvents.entrySet())
                   {
                      publishedEvents.add(entry.getKey());
-                     addEventInfo(entry.getValue(), localeMatch);
+                     addEventInfo(entry.getValue(), localeMatch, events);
                   }
                }
 
@@ -621,7 +642,7 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
                   for (Map.Entry<QName, ? extends EventInfo> entry : consumedEvents.entrySet())
                   {
                      handledEvents.add(entry.getKey());
-                     addEventInfo(entry.getValue(), localeMatch);
+                     addEventInfo(entry.getValue(), localeMatch, events);
                   }
                }
             }
@@ -661,8 +682,8 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
                desc.setOnlySecure(true);
             }
 
-            // add the portlet description to the appropriate PortletDescriptionInfo
-            descriptionInfo.addDescriptionFor(WSRPUtils.toString(localeMatch), desc);
+            // record the portlet description for the appropriate language
+            languageToDescription.put(WSRPUtils.toString(localeMatch), desc);
          }
 
          /* todo:
@@ -680,7 +701,32 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
          *[O]Extension extensions[]
          */
 
-         return descriptionInfo;
+         return new PortletDescriptionInfo(languageToDescription, events);
+      }
+
+      /**
+       * Adds the specified event metadata in the specified locale to the specified event descriptions if it's not already present.
+       *
+       * @param info   the event metadata
+       * @param locale the locale to use for the event description
+       * @param events the event descriptions to add the event to
+       */
+      private void addEventInfo(EventInfo info, Locale locale, Map<QName, EventDescription> events)
+      {
+         QName name = info.getName();
+         if (!events.containsKey(name))
+         {
+            EventDescription desc = WSRPTypeFactory.createEventDescription(name);
+            desc.setDescription(Utils.convertToWSRPLocalizedString(info.getDescription(), locale));
+            desc.setLabel(Utils.convertToWSRPLocalizedString(info.getDisplayName(), locale));
+            Collection<QName> aliases = info.getAliases();
+            if (ParameterValidation.existsAndIsNotEmpty(aliases))
+            {
+               desc.getAliases().addAll(aliases);
+            }
+            // todo: deal with type info...
+            events.put(name, desc);
+         }
       }
 
       /**
@@ -696,12 +742,15 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
       {
          initIfNeeded();
 
+         // work on a consistent view of the metadata
+         final Snapshot current = snapshot;
+
          org.gatein.pc.api.PortletContext pcContext = WSRPUtils.convertToPortalPortletContext(context);
 
          // does the specified registration allow access to the specified portlet?
          if (producer.getRegistrationManager().getPolicy().allowAccessTo(pcContext, registration, "getPortletDescription"))
          {
-            PortletDescription description = getPortletDescription(context.getPortletHandle(), desiredLocales);
+            PortletDescription description = getPortletDescription(current, context.getPortletHandle(), desiredLocales);
 
             // the producer doesn't know of the portlet so it's not a producer-offered portlet
             if (description == null)
@@ -715,7 +764,7 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
                      Portlet portlet = producer.getPortletWith(pcContext, registration);
                      PortletInfo info = portlet.getInfo();
                      org.gatein.pc.api.PortletContext original = org.gatein.pc.api.PortletContext.createPortletContext(info.getApplicationName(), info.getName());
-                     return getPortletDescription(original.getId(), desiredLocales);
+                     return getPortletDescription(current, original.getId(), desiredLocales);
                   }
                   catch (Exception e)
                   {
@@ -732,9 +781,9 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
          }
       }
 
-      private PortletDescription getPortletDescription(final String portletHandle, List<String> desiredLocales)
+      private PortletDescription getPortletDescription(Snapshot snapshot, final String portletHandle, List<String> desiredLocales)
       {
-         PortletDescriptionInfo descriptionInfo = portletDescriptions.get(portletHandle);
+         PortletDescriptionInfo descriptionInfo = snapshot.portletDescriptions.get(portletHandle);
          if (descriptionInfo != null)
          {
             return descriptionInfo.getBestDescriptionFor(desiredLocales);
@@ -754,20 +803,200 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
       {
          String handle = WSRPUtils.convertToWSRPPortletContext(pc).getPortletHandle();
 
-         PortletDescription description = getPortletDescription(handle, null);
-         if (description != null)
+         synchronized (lock)
+         {
+            if (snapshot.portletDescriptions.containsKey(handle))
+            {
+               SnapshotBuilder builder = new SnapshotBuilder(snapshot);
+               builder.removePortletDescription(handle);
+               snapshot = builder.build();
+            }
+         }
+      }
+
+      /**
+       * Immutable service description metadata. Instances are never modified once published so that request threads can use them without locking. The only mutable part is
+       * the cache of service descriptions generated from this snapshot, which is thus automatically discarded when a new snapshot replaces this one.
+       */
+      private class Snapshot
+      {
+         /** When were the registration information last generated? */
+         private final long lastGenerated;
+         /** Portlet descriptions */
+         private final Map<String, PortletDescriptionInfo> portletDescriptions;
+         /** Event descriptions */
+         private final Map<QName, EventDescription> eventDescriptions;
+         /**
+          * Since events can be declared by several portlets, we need to have a reference counting mechanism on event descriptions so that we can ensure that, when a portlet
+          * is removed, we only remove the related event description if and only if no other portlets reference it.
+          */
+         private final Map<QName, Integer> eventReferenceCount;
+         /** Registration properties */
+         private final ModelDescription registrationProperties;
+         /** Does the associated producer require registration? */
+         private final boolean requireRegistrations;
+         /** Ready-to-send service descriptions generated from this snapshot, keyed by the parameters that were used to generate them. */
+         private final ConcurrentMap<ServiceDescriptionKey, ServiceDescription> cachedDescriptions = new ConcurrentHashMap<ServiceDescriptionKey, ServiceDescription>(37);
+
+         /** Creates an empty snapshot. */
+         private Snapshot()
+         {
+            this(0, Collections.<String, PortletDescriptionInfo>emptyMap(), Collections.<QName, EventDescription>emptyMap(), Collections.<QName, Integer>emptyMap(), null, false);
+         }
+
+         /** Creates a snapshot with the same portlet metadata as the specified one but with the specified registration information. */
+         private Snapshot(Snapshot other, ModelDescription registrationProperties, boolean requireRegistrations, long lastGenerated)
+         {
+            this(lastGenerated, other.portletDescriptions, other.eventDescriptions, other.eventReferenceCount, registrationProperties, requireRegistrations);
+         }
+
+         private Snapshot(long lastGenerated, Map<String, PortletDescriptionInfo> portletDescriptions, Map<QName, EventDescription> eventDescriptions,
+                          Map<QName, Integer> eventReferenceCount, ModelDescription registrationProperties, boolean requireRegistrations)
+         {
+            this.lastGenerated = lastGenerated;
+            this.portletDescriptions = portletDescriptions;
+            this.eventDescriptions = eventDescriptions;
+            this.eventReferenceCount = eventReferenceCount;
+            this.registrationProperties = registrationProperties;
+            this.requireRegistrations = requireRegistrations;
+         }
+      }
+
+      /**
+       * Creates a new Snapshot from an existing one by only modifying the metadata of the portlets that are added or removed. Only the maps holding the references to the
+       * portlet and event descriptions are copied, descriptions themselves are immutable and shared between snapshots.
+       */
+      private class SnapshotBuilder
+      {
+         private final Snapshot original;
+         private final Map<String, PortletDescriptionInfo> portletDescriptions;
+         private final Map<QName, EventDescription> eventDescriptions;
+         private final Map<QName, Integer> eventReferenceCount;
+
+         private SnapshotBuilder(Snapshot original)
+         {
+            this.original = original;
+            portletDescriptions = new HashMap<String, PortletDescriptionInfo>(original.portletDescriptions);
+            eventDescriptions = new HashMap<QName, EventDescription>(original.eventDescriptions);
+            eventReferenceCount = new HashMap<QName, Integer>(original.eventReferenceCount);
+         }
+
+         /**
+          * Adds the specified portlet description, replacing any previous description for the same handle.
+          *
+          * @param handle the handle of the portlet being added
+          * @param info   the metadata of the portlet being added
+          */
+         private void addPortletDescription(String handle, PortletDescriptionInfo info)
+         {
+            // if the portlet was already known (redeployment, for example), first remove the references its previous version held
+            removePortletDescription(handle);
+
+            portletDescriptions.put(handle, info);
+
+            for (Map.Entry<QName, EventDescription> event : info.getEvents().entrySet())
+            {
+               QName name = event.getKey();
+               Integer current = eventReferenceCount.get(name);
+               if (current == null)
+               {
+                  eventDescriptions.put(name, event.getValue());
+                  eventReferenceCount.put(name, 1);
+               }
+               else
+               {
+                  eventReferenceCount.put(name, current + 1); // increase reference count
+               }
+            }
+         }
+
+         /**
+          * Removes the description associated with the specified portlet handle along with the events that were only referenced by that portlet.
+          *
+          * @param handle the handle of the portlet being removed
+          */
+         private void removePortletDescription(String handle)
+         {
+            PortletDescriptionInfo info = portletDescriptions.remove(handle);
+            if (info != null)
+            {
+               for (QName name : info.getEvents().keySet())
+               {
+                  // retrieve the reference count for this event
+                  Integer current = eventReferenceCount.get(name);
+                  if (current != null)
+                  {
+                     if (current == 1)
+                     {
+                        // only remove the even description if we only have one reference to it left
+                        eventDescriptions.remove(name);
+                        eventReferenceCount.remove(name);
+                     }
+                     else
+                     {
+                        // otherwise, simply decrease the reference count for that event
+                        eventReferenceCount.put(name, current - 1);
+                     }
+                  }
+               }
+            }
+         }
+
+         private Snapshot build()
+         {
+            return new Snapshot(original.lastGenerated, Collections.unmodifiableMap(portletDescriptions), Collections.unmodifiableMap(eventDescriptions),
+               Collections.unmodifiableMap(eventReferenceCount), original.registrationProperties, original.requireRegistrations);
+         }
+      }
+
+      /** Identifies a generated service description by the parameters that were used to generate it. */
+      private class ServiceDescriptionKey
+      {
+         private final boolean needsRegistrationProperties;
+         private final boolean needsPortletDescriptions;
+         private final List<String> portletHandles;
+         private final List<String> desiredLocales;
+         private final int hashCode;
+
+         private ServiceDescriptionKey(boolean needsRegistrationProperties, boolean needsPortletDescriptions, List<String> portletHandles, List<String> desiredLocales)
+         {
+            this.needsRegistrationProperties = needsRegistrationProperties;
+            this.needsPortletDescriptions = needsPortletDescriptions;
+            // copy the lists since they come from the request and might be modified afterwards
+            this.portletHandles = new ArrayList<String>(portletHandles);
+            this.desiredLocales = new ArrayList<String>(desiredLocales);
+
+            int result = (needsRegistrationProperties ? 1 : 0);
+            result = 31 * result + (needsPortletDescriptions ? 1 : 0);
+            result = 31 * result + this.portletHandles.hashCode();
+            result = 31 * result + this.desiredLocales.hashCode();
+            hashCode = result;
+         }
+
+         @Override
+         public boolean equals(Object o)
          {
-            // remove associated events
-            for (QName event : description.getHandledEvents())
+            if (this == o)
             {
-               removeEvent(event);
+               return true;
             }
-            for (QName event : description.getPublishedEvents())
+            if (o == null || getClass() != o.getClass())
             {
-               removeEvent(event);
+               return false;
             }
 
-            portletDescriptions.remove(handle);
+            ServiceDescriptionKey that = (ServiceDescriptionKey)o;
+
+            return needsRegistrationProperties == that.needsRegistrationProperties
+               && needsPortletDescriptions == that.needsPortletDescriptions
+               && portletHandles.equals(that.portletHandles)
+               && desiredLocales.equals(that.desiredLocales);
+         }
+
+         @Override
+         public int hashCode()
+         {
+            return hashCode;
          }
       }
 
@@ -778,15 +1007,24 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
       private class PortletDescriptionInfo
       {
          /** Associates a language to a portlet description */
-         private Map<String, PortletDescription> languageToDescription;
+         private final Map<String, PortletDescription> languageToDescription;
+         /** Descriptions of the events the portlet publishes or handles */
+         private final Map<QName, EventDescription> events;
 
-         private PortletDescriptionInfo(List<String> supportedLanguages)
+         private PortletDescriptionInfo(Map<String, PortletDescription> languageToDescription, Map<QName, EventDescription> events)
          {
-            languageToDescription = new HashMap<String, PortletDescription>(supportedLanguages.size());
-            for (String supportedLanguage : supportedLanguages)
-            {
-               languageToDescription.put(supportedLanguage, null);
-            }
+            this.languageToDescription = Collections.unmodifiableMap(languageToDescription);
+            this.events = Collections.unmodifiableMap(events);
+         }
+
+         /**
+          * Retrieves the descriptions of the events the associated portlet publishes or handles.
+          *
+          * @return the descriptions of the events referenced by the associated portlet
+          */
+         public Map<QName, EventDescription> getEvents()
+         {
+            return events;
          }
 
          /**
@@ -851,17 +1089,6 @@ public class ServiceDescriptionHandler extends ServiceHandler implements Service
 
             return languageToDescription.get(language);
          }
-
-         /**
-          * Adds the specified portlet description for the specified language.
-          *
-          * @param language the language for which we're adding a description
-          * @param desc     the portlet description to associate to the specified language
-          */
-         public void addDescriptionFor(String language, PortletDescription desc)
-         {
-            languageToDescription.put(language, desc);
-         }
       }
    }
 }
@@ -23,6 +23,9 @@
 
 package org.gatein.wsrp.producer.handlers;
 
+import org.gatein.registration.Registration;
+import org.gatein.registration.RegistrationManager;
+import org.gatein.registration.impl.RegistrationManagerImpl;
 import org.gatein.wsrp.producer.WSRPProducerImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,4 +47,19 @@ class ServiceHandler
    {
       this.producer = producer;
    }
+
+   /**
+    * Makes sure that the RegistrationManager doesn't keep using cached information about the specified registration,
+    * which might have been modified in ways the RegistrationManager cannot be notified of.
+    *
+    * @param registration the registration that might have been modified
+    */
+   protected void registrationHasChanged(Registration registration)
+   {
+      final RegistrationManager registrationManager = producer.getRegistrationManager();
+      if (registrationManager instanceof RegistrationManagerImpl)
+      {
+         ((RegistrationManagerImpl)registrationManager).registrationHasChanged(registration);
+      }
+   }
 }
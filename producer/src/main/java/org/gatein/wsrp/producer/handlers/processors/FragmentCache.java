@@ -0,0 +1,321 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.handlers.processors;
+
+import org.gatein.common.util.ParameterValidation;
+import org.gatein.pc.api.cache.CacheControl;
+import org.gatein.pc.api.cache.CacheScope;
+import org.gatein.pc.api.invocation.response.ContentResponse;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches markup fragments produced by portlets on the producer side, according to the cache information
+ * (expiration and scope) provided by the portlets, so that rendering a portlet which output hasn't expired yet doesn't
+ * require invoking it. Cached fragments are associated with a validation tag that is sent to consumers so that they
+ * can ask whether the version they have is still valid, in which case only a <code>useCachedItem</code> flag needs to
+ * be sent back.
+ * <p/>
+ * The cache is disabled by default. It can be activated by specifying the maximum number of fragments it can hold,
+ * either using {@link #setMaxEntries(int)} or the {@value #MAX_ENTRIES_PROPERTY} system property. Once the cache is
+ * full, expired fragments are purged and, if that's not enough, the least recently used fragments are evicted.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class FragmentCache
+{
+   public static final String MAX_ENTRIES_PROPERTY = "org.gatein.wsrp.producer.fragmentCacheMaxEntries";
+
+   /** Cached fragments, least recently used first. Accesses need to be synchronized on the map. */
+   private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true)
+   {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest)
+      {
+         return size() > maxEntries;
+      }
+   };
+   private volatile int maxEntries;
+
+   /** Validation tags need to differ from the ones sent before a restart so prefix them with the creation time. */
+   private final String tagPrefix = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX) + "-";
+   private final AtomicLong tagCounter = new AtomicLong();
+
+   public FragmentCache()
+   {
+      int max = 0;
+      final String property = System.getProperty(MAX_ENTRIES_PROPERTY);
+      if (!ParameterValidation.isNullOrEmpty(property))
+      {
+         try
+         {
+            max = Math.max(0, Integer.parseInt(property));
+         }
+         catch (NumberFormatException e)
+         {
+            // leave the cache disabled if the property is not a number
+         }
+      }
+      maxEntries = max;
+   }
+
+   public boolean isEnabled()
+   {
+      return maxEntries > 0;
+   }
+
+   public int getMaxEntries()
+   {
+      return maxEntries;
+   }
+
+   /**
+    * Specifies the maximum number of fragments that can be cached, <code>0</code> disabling the cache.
+    *
+    * @param maxEntries the maximum number of cached fragments
+    */
+   public void setMaxEntries(int maxEntries)
+   {
+      if (maxEntries < 0)
+      {
+         throw new IllegalArgumentException("Maximum number of cached fragments cannot be negative: " + maxEntries);
+      }
+      this.maxEntries = maxEntries;
+      synchronized (entries)
+      {
+         // evict the least recently used fragments if the cache is now too small
+         for (Iterator<Key> keys = entries.keySet().iterator(); entries.size() > maxEntries && keys.hasNext(); )
+         {
+            keys.next();
+            keys.remove();
+         }
+      }
+   }
+
+   public int size()
+   {
+      synchronized (entries)
+      {
+         return entries.size();
+      }
+   }
+
+   /**
+    * Retrieves the non-expired cache entry associated with the specified key, if any.
+    *
+    * @param key the key identifying the fragment
+    * @return the associated entry or <code>null</code> if no valid entry exists for this key
+    */
+   public Entry get(Key key)
+   {
+      if (!isEnabled())
+      {
+         return null;
+      }
+
+      synchronized (entries)
+      {
+         final Entry entry = entries.get(key);
+         if (entry != null && entry.isExpired(System.currentTimeMillis()))
+         {
+            entries.remove(key);
+            return null;
+         }
+         return entry;
+      }
+   }
+
+   /**
+    * Caches the specified response if its cache information allows it, evicting expired or, if needed, least recently
+    * used fragments if the cache is full.
+    *
+    * @param key      the key identifying the fragment, including the user if the response is cached per user
+    * @param response the response to cache
+    * @return the newly created entry or <code>null</code> if the response couldn't be cached
+    */
+   public Entry put(Key key, ContentResponse response)
+   {
+      final CacheControl cacheControl = response.getCacheControl();
+      if (!isEnabled() || cacheControl == null || cacheControl.getExpirationSecs() == 0)
+      {
+         return null;
+      }
+
+      final long now = System.currentTimeMillis();
+      final int expirationSecs = cacheControl.getExpirationSecs();
+      final long expirationTime = expirationSecs < 0 ? Long.MAX_VALUE : now + expirationSecs * 1000L;
+      final Entry entry = new Entry(response, expirationTime, tagPrefix + Long.toString(tagCounter.incrementAndGet(), Character.MAX_RADIX));
+      synchronized (entries)
+      {
+         // only evict fragments that are still valid if expired ones don't free enough room
+         if (entries.size() >= maxEntries && !entries.containsKey(key))
+         {
+            purgeExpired(now);
+         }
+         entries.put(key, entry);
+      }
+      return entry;
+   }
+
+   /**
+    * Removes all the fragments cached for the portlet identified by the specified handle, for example because the
+    * portlet processed an action or its properties were modified.
+    *
+    * @param portletHandle the handle of the portlet which fragments need to be removed from the cache
+    */
+   public void invalidate(String portletHandle)
+   {
+      synchronized (entries)
+      {
+         for (Iterator<Key> keys = entries.keySet().iterator(); keys.hasNext(); )
+         {
+            if (keys.next().portletHandle.equals(portletHandle))
+            {
+               keys.remove();
+            }
+         }
+      }
+   }
+
+   public void clear()
+   {
+      synchronized (entries)
+      {
+         entries.clear();
+      }
+   }
+
+   /** Needs to be called while holding the lock on the entries. */
+   private void purgeExpired(long now)
+   {
+      for (Iterator<Entry> values = entries.values().iterator(); values.hasNext(); )
+      {
+         if (values.next().isExpired(now))
+         {
+            values.remove();
+         }
+      }
+   }
+
+   static boolean isPublic(ContentResponse response)
+   {
+      final CacheControl cacheControl = response.getCacheControl();
+      return cacheControl != null && CacheScope.PUBLIC.equals(cacheControl.getCacheScope());
+   }
+
+   /** Identifies a fragment: everything that might make the output of a portlet differ. */
+   public static class Key
+   {
+      private final String portletHandle;
+      private final byte[] portletState;
+      private final String[] values;
+      private final int hashCode;
+
+      /**
+       * @param portletHandle the handle of the portlet
+       * @param portletState  the state of the portlet, if any
+       * @param values        the other values identifying the fragment (registration, navigational state, mode,
+       *                      window state, locale, user if the fragment is private, etc.)
+       */
+      public Key(String portletHandle, byte[] portletState, String... values)
+      {
+         ParameterValidation.throwIllegalArgExceptionIfNull(portletHandle, "portlet handle");
+         this.portletHandle = portletHandle;
+         this.portletState = portletState;
+         this.values = values;
+         this.hashCode = 31 * (31 * portletHandle.hashCode() + Arrays.hashCode(portletState)) + Arrays.hashCode(values);
+      }
+
+      @Override
+      public boolean equals(Object o)
+      {
+         if (this == o)
+         {
+            return true;
+         }
+         if (!(o instanceof Key))
+         {
+            return false;
+         }
+
+         Key key = (Key)o;
+         return hashCode == key.hashCode && portletHandle.equals(key.portletHandle)
+            && Arrays.equals(values, key.values) && Arrays.equals(portletState, key.portletState);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hashCode;
+      }
+   }
+
+   public static class Entry
+   {
+      private final ContentResponse response;
+      private final long expirationTime;
+      private final String validateTag;
+
+      private Entry(ContentResponse response, long expirationTime, String validateTag)
+      {
+         this.response = response;
+         this.expirationTime = expirationTime;
+         this.validateTag = validateTag;
+      }
+
+      public ContentResponse getResponse()
+      {
+         return response;
+      }
+
+      public String getValidateTag()
+      {
+         return validateTag;
+      }
+
+      /**
+       * @return the number of seconds until this entry expires, <code>-1</code> if it never expires
+       */
+      public int getRemainingSeconds()
+      {
+         if (expirationTime == Long.MAX_VALUE)
+         {
+            return -1;
+         }
+
+         // round up so that we never return 0 which would mean "don't cache" to the consumer
+         return (int)Math.max(1, (expirationTime - System.currentTimeMillis() + 999) / 1000);
+      }
+
+      boolean isExpired(long now)
+      {
+         return now >= expirationTime;
+      }
+   }
+}
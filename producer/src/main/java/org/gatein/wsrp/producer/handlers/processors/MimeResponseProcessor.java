@@ -23,13 +23,13 @@
 
 package org.gatein.wsrp.producer.handlers.processors;
 
-import org.gatein.common.net.URLTools;
 import org.gatein.common.util.MultiValuedPropertyMap;
 import org.gatein.common.util.ParameterValidation;
 import org.gatein.pc.api.invocation.PortletInvocation;
 import org.gatein.pc.api.invocation.response.ContentResponse;
 import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
 import org.gatein.pc.api.invocation.response.ResponseProperties;
+import org.gatein.wsrp.AbsoluteURLRewriter;
 import org.gatein.wsrp.MIMEUtils;
 import org.gatein.wsrp.WSRPConstants;
 import org.gatein.wsrp.WSRPTypeFactory;
@@ -86,12 +86,31 @@ abstract class MimeResponseProcessor<Request, LocalMimeResponse extends MimeResp
       {
          if (WSRPUtils.getPropertyAccessor().isURLRewritingActive())
          {
-            return URLTools.replaceURLsBy(renderString, new WSRPUtils.AbsoluteURLReplacementGenerator(ServletAccess.getRequest()));
+            return AbsoluteURLRewriter.getFor(ServletAccess.getRequest()).rewrite(renderString);
          }
       }
       return renderString;
    }
 
+   /**
+    * Binary counterpart of {@link #processFragmentString(String)}, rewriting the markup without decoding it.
+    *
+    * @param renderBytes the bytes to be processed
+    * @param contentType the content type of the markup, used to determine how it is encoded
+    * @return the processed bytes
+    */
+   protected byte[] processFragmentBytes(byte[] renderBytes, String contentType)
+   {
+      if (renderBytes != null && renderBytes.length > 0)
+      {
+         if (WSRPUtils.getPropertyAccessor().isURLRewritingActive())
+         {
+            return AbsoluteURLRewriter.getFor(ServletAccess.getRequest()).rewrite(renderBytes, MIMEUtils.getCharsetFrom(contentType));
+         }
+      }
+      return renderBytes;
+   }
+
    protected Response internalProcessResponse(PortletInvocationResponse response)
    {
       ContentResponse content = (ContentResponse)response;
@@ -110,6 +129,7 @@ abstract class MimeResponseProcessor<Request, LocalMimeResponse extends MimeResp
             // set rewriting to true if needed
             if (MIMEUtils.needsRewriting(contentType))
             {
+               itemBinary = processFragmentBytes(itemBinary, contentType);
                requiresRewriting = Boolean.TRUE;
             }
             break;
@@ -124,7 +144,7 @@ abstract class MimeResponseProcessor<Request, LocalMimeResponse extends MimeResp
 
       mimeResponse.setLocale(markupRequest.getLocale());
 
-      //TODO: figure out useCachedItem
+      // we're sending actual content, telling the consumer to use its cached version is handled by RenderRequestProcessor
       Boolean useCachedItem = false;
       mimeResponse.setRequiresRewriting(requiresRewriting);
       mimeResponse.setUseCachedItem(useCachedItem);
@@ -25,9 +25,13 @@ package org.gatein.wsrp.producer.handlers.processors;
 
 import org.gatein.pc.api.invocation.PortletInvocation;
 import org.gatein.pc.api.invocation.RenderInvocation;
+import org.gatein.pc.api.invocation.response.ContentResponse;
 import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
 import org.gatein.pc.api.state.AccessMode;
+import org.gatein.wsrp.WSRPConstants;
 import org.gatein.wsrp.WSRPTypeFactory;
+import org.gatein.wsrp.api.servlet.ServletAccess;
+import org.oasis.wsrp.v2.CacheControl;
 import org.oasis.wsrp.v2.Extension;
 import org.oasis.wsrp.v2.GetMarkup;
 import org.oasis.wsrp.v2.InvalidHandle;
@@ -37,6 +41,8 @@ import org.oasis.wsrp.v2.MarkupResponse;
 import org.oasis.wsrp.v2.MimeRequest;
 import org.oasis.wsrp.v2.MissingParameters;
 import org.oasis.wsrp.v2.ModifyRegistrationRequired;
+import org.oasis.wsrp.v2.NamedString;
+import org.oasis.wsrp.v2.NavigationalContext;
 import org.oasis.wsrp.v2.OperationFailed;
 import org.oasis.wsrp.v2.OperationNotSupported;
 import org.oasis.wsrp.v2.PortletContext;
@@ -47,6 +53,7 @@ import org.oasis.wsrp.v2.UnsupportedMimeType;
 import org.oasis.wsrp.v2.UnsupportedMode;
 import org.oasis.wsrp.v2.UnsupportedWindowState;
 
+import javax.servlet.http.HttpSession;
 import java.util.List;
 
 /**
@@ -56,6 +63,11 @@ import java.util.List;
  */
 class RenderRequestProcessor extends MimeResponseProcessor<GetMarkup, MarkupContext, MarkupResponse>
 {
+   /** The producer-side fragment cache, only set if it is enabled. */
+   private FragmentCache fragmentCache;
+   /** The cache entry used to answer the request, if any. */
+   private FragmentCache.Entry cacheEntry;
+
    public RenderRequestProcessor(ProducerHelper producer, GetMarkup getMarkup) throws UnsupportedMimeType, UnsupportedWindowState, InvalidHandle, UnsupportedMode,
       MissingParameters, InvalidRegistration, OperationFailed, ModifyRegistrationRequired, UnsupportedLocale, OperationNotSupported
    {
@@ -92,6 +104,118 @@ class RenderRequestProcessor extends MimeResponseProcessor<GetMarkup, MarkupCont
       return AccessMode.READ_ONLY;
    }
 
+   @Override
+   public PortletInvocationResponse getCachedInvocationResponse(FragmentCache cache)
+   {
+      if (!cache.isEnabled())
+      {
+         return null;
+      }
+      fragmentCache = cache;
+
+      // fragments shared by all users first, then the ones specific to the current user, if we can identify them
+      cacheEntry = cache.get(getFragmentCacheKey(null));
+      if (cacheEntry == null)
+      {
+         final String userKey = getUserKey();
+         if (userKey != null)
+         {
+            cacheEntry = cache.get(getFragmentCacheKey(userKey));
+         }
+      }
+
+      return cacheEntry != null ? cacheEntry.getResponse() : null;
+   }
+
+   /**
+    * Computes the key identifying the fragment this request would produce.
+    *
+    * @param user the key identifying the user for fragments that are cached per user, <code>null</code> for fragments
+    *             shared by all users
+    * @return the fragment key
+    */
+   private FragmentCache.Key getFragmentCacheKey(String user)
+   {
+      final PortletContext portletContext = getPortletContext();
+      final RuntimeContext runtimeContext = getRuntimeContext();
+
+      String navigationalState = null;
+      StringBuilder publicNavigationalState = null;
+      final NavigationalContext navigationalContext = request.getMarkupParams().getNavigationalContext();
+      if (navigationalContext != null)
+      {
+         navigationalState = navigationalContext.getOpaqueValue();
+         final List<NamedString> publicValues = navigationalContext.getPublicValues();
+         if (publicValues != null && !publicValues.isEmpty())
+         {
+            publicNavigationalState = new StringBuilder();
+            for (NamedString publicValue : publicValues)
+            {
+               publicNavigationalState.append(publicValue.getName()).append('=').append(publicValue.getValue()).append('&');
+            }
+         }
+      }
+
+      return new FragmentCache.Key(portletContext.getPortletHandle(), portletContext.getPortletState(),
+         registration != null ? registration.getRegistrationHandle() : null,
+         navigationalState,
+         publicNavigationalState != null ? publicNavigationalState.toString() : null,
+         markupRequest.getMode(),
+         markupRequest.getWindowState(),
+         markupRequest.getLocale(),
+         markupRequest.getMediaTypeWithCharset(),
+         runtimeContext.getNamespacePrefix(),
+         runtimeContext.getPortletInstanceKey(),
+         user);
+   }
+
+   /**
+    * Identifies the user for fragments cached per user: the user context key along with the producer session, since
+    * the portlet's output can depend on its session. User context keys are only meaningful for a given consumer so the
+    * consumer also needs to be identified, either by its registration, the handle of which is part of the fragment key,
+    * or by the producer session, which is specific to a consumer.
+    *
+    * @return the key identifying the current user or <code>null</code> if the consumer cannot be identified, in which
+    *         case fragments specific to the user cannot be cached
+    */
+   private String getUserKey()
+   {
+      final RegistrationContext registrationContext = getRegistrationContext();
+      final boolean registered = registrationContext != null && registrationContext.getRegistrationHandle() != null;
+      final HttpSession session = ServletAccess.getRequest().getSession(false);
+      if (!registered && session == null)
+      {
+         // all unregistered consumers share the same registration, so their users cannot be told apart
+         return null;
+      }
+
+      final org.oasis.wsrp.v2.UserContext userContext = getUserContext();
+      return (userContext != null ? userContext.getUserContextKey() : "") + '|' + (session != null ? session.getId() : "");
+   }
+
+   @Override
+   protected MarkupResponse internalProcessResponse(PortletInvocationResponse response)
+   {
+      if (cacheEntry != null && cacheEntry.getValidateTag().equals(request.getMarkupParams().getValidateTag()))
+      {
+         // the consumer already has the current version of the markup, tell it to use it
+         final MarkupContext markupContext = WSRPTypeFactory.createMarkupContext(cacheEntry.getResponse().getContentType(), null, null, Boolean.TRUE);
+         markupContext.setCacheControl(createCacheControlFor(cacheEntry));
+         return createResponse(markupContext);
+      }
+
+      return super.internalProcessResponse(response);
+   }
+
+   private CacheControl createCacheControlFor(FragmentCache.Entry entry)
+   {
+      // public fragments are shared by all users so the consumer can share them as well
+      final String userScope = FragmentCache.isPublic(entry.getResponse()) ? WSRPConstants.CACHE_FOR_ALL : WSRPConstants.CACHE_PER_USER;
+      final CacheControl cacheControl = WSRPTypeFactory.createCacheControl(entry.getRemainingSeconds(), userScope);
+      cacheControl.setValidateTag(entry.getValidateTag());
+      return cacheControl;
+   }
+
    @Override
    List<Extension> getResponseExtensionsFor(MarkupResponse markupResponse)
    {
@@ -121,5 +245,32 @@ class RenderRequestProcessor extends MimeResponseProcessor<GetMarkup, MarkupCont
    protected void additionallyProcessIfNeeded(MarkupContext markupContext, PortletInvocationResponse response)
    {
       markupContext.setPreferredTitle(portletDescription.getTitle().getValue());
+
+      if (fragmentCache != null)
+      {
+         // cache the fragment if we just rendered it, fragments specific to a user only if we can identify the user
+         if (cacheEntry == null)
+         {
+            final ContentResponse content = (ContentResponse)response;
+            if (FragmentCache.isPublic(content))
+            {
+               cacheEntry = fragmentCache.put(getFragmentCacheKey(null), content);
+            }
+            else
+            {
+               final String userKey = getUserKey();
+               if (userKey != null)
+               {
+                  cacheEntry = fragmentCache.put(getFragmentCacheKey(userKey), content);
+               }
+            }
+         }
+
+         // let the consumer know how long the fragment is still valid and how to validate it afterwards
+         if (cacheEntry != null)
+         {
+            markupContext.setCacheControl(createCacheControlFor(cacheEntry));
+         }
+      }
    }
 }
@@ -102,6 +102,7 @@ public abstract class RequestProcessor<Request, Response>
    protected Portlet portlet;
    protected WSRPInstanceContext instanceContext;
    protected ProducerHelper producer;
+   protected Registration registration;
    protected final Request request;
 
    protected RequestProcessor(ProducerHelper producer, Request request) throws MissingParameters, InvalidRegistration, InvalidHandle, UnsupportedLocale, UnsupportedMimeType, UnsupportedWindowState, OperationFailed, UnsupportedMode, ModifyRegistrationRequired, OperationNotSupported
@@ -145,8 +146,8 @@ public abstract class RequestProcessor<Request, Response>
       // the context name for error messages
       final String contextName = request.getClass().getSimpleName();
 
-      // retrieve the registration associated with the request or fail
-      Registration registration = producer.getRegistrationOrFailIfInvalid(getRegistrationContext());
+      // retrieve the registration associated with the request or fail, keeping it around so that it can be reused for the rest of the request processing
+      registration = producer.getRegistrationOrFailIfInvalid(getRegistrationContext());
 
       // get session information and deal with it
       final RuntimeContext runtimeContext = getRuntimeContext();
@@ -250,6 +251,29 @@ public abstract class RequestProcessor<Request, Response>
 
    public abstract RegistrationContext getRegistrationContext();
 
+   /**
+    * Retrieves the validated registration associated with the request being processed.
+    *
+    * @return the registration that was resolved when the invocation was prepared
+    */
+   public Registration getRegistration()
+   {
+      return registration;
+   }
+
+   /**
+    * Retrieves the portlet response to the request from the specified producer-side fragment cache, if the request can
+    * be answered from it. The returned response is then processed as if the portlet had been invoked. The default
+    * implementation doesn't use the cache at all.
+    *
+    * @param cache the producer-side fragment cache
+    * @return the cached portlet response or <code>null</code> if the portlet needs to be invoked
+    */
+   public PortletInvocationResponse getCachedInvocationResponse(FragmentCache cache)
+   {
+      return null;
+   }
+
    abstract RuntimeContext getRuntimeContext();
 
    abstract MimeRequest getParams();
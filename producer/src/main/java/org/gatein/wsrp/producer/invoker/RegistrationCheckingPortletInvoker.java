@@ -44,6 +44,7 @@ import org.gatein.registration.RegistrationException;
 import org.gatein.registration.RegistrationLocal;
 import org.gatein.registration.RegistrationManager;
 import org.gatein.registration.RegistrationPolicy;
+import org.gatein.registration.impl.RegistrationImpl;
 import org.gatein.registration.spi.RegistrationSPI;
 import org.gatein.wsrp.producer.handlers.processors.WSRPInstanceContext;
 
@@ -286,21 +287,43 @@ public class RegistrationCheckingPortletInvoker extends PortletInvokerIntercepto
 
       if (registration != null)
       {
-         for (PortletContext portletContext : portletContexts)
+         // only remove the portlet contexts if there are no failures or they're not part of the failed clones
+         List<PortletContext> destroyed;
+         if (noFailures)
          {
-            // only remove the portlet context if there are no failures or it's not part of the failed clones
-            if (noFailures || !cloneFailures.contains(new DestroyCloneFailure(portletContext.getId())))
+            destroyed = portletContexts;
+         }
+         else
+         {
+            destroyed = new ArrayList<PortletContext>(portletContexts.size());
+            for (PortletContext portletContext : portletContexts)
             {
-               try
+               if (!cloneFailures.contains(new DestroyCloneFailure(portletContext.getId())))
                {
-                  registration.removePortletContext(portletContext);
+                  destroyed.add(portletContext);
                }
-               catch (RegistrationException e)
+            }
+         }
+
+         // remove all the destroyed portlet contexts at once so that the registration is only saved once, if possible
+         try
+         {
+            if (registration instanceof RegistrationImpl)
+            {
+               ((RegistrationImpl)registration).removePortletContexts(destroyed);
+            }
+            else
+            {
+               for (PortletContext portletContext : destroyed)
                {
-                  throw new PortletInvokerException("Couldn't remove portlet context '" + portletContext + "' to registration '" + registration.getRegistrationHandle() + "'", e);
+                  registration.removePortletContext(portletContext);
                }
             }
          }
+         catch (RegistrationException e)
+         {
+            throw new PortletInvokerException("Couldn't remove portlet contexts " + destroyed + " from registration '" + registration.getRegistrationHandle() + "'", e);
+         }
       }
 
       return cloneFailures;
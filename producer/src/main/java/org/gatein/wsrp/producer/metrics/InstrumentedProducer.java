@@ -0,0 +1,308 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.metrics;
+
+import org.gatein.wsrp.producer.MarkupInterface;
+import org.gatein.wsrp.producer.PortletManagementInterface;
+import org.gatein.wsrp.producer.RegistrationInterface;
+import org.gatein.wsrp.producer.ServiceDescriptionInterface;
+import org.gatein.wsrp.producer.v2.WSRP2Producer;
+import org.oasis.wsrp.v2.BlockingInteractionResponse;
+import org.oasis.wsrp.v2.ExportPortletsResponse;
+import org.oasis.wsrp.v2.ExportedPortlet;
+import org.oasis.wsrp.v2.HandleEventsResponse;
+import org.oasis.wsrp.v2.ImportPortlet;
+import org.oasis.wsrp.v2.ImportPortlets;
+import org.oasis.wsrp.v2.MarkupResponse;
+import org.oasis.wsrp.v2.MimeResponse;
+import org.oasis.wsrp.v2.PortletContext;
+import org.oasis.wsrp.v2.RegistrationContext;
+import org.oasis.wsrp.v2.ResourceResponse;
+import org.oasis.wsrp.v2.UpdateResponse;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records the metrics of the WSRP operations invoked on the wrapped producer, all the other methods being passed
+ * through without being instrumented. Only invocations going through the proxy, i.e. obtained from {@link
+ * org.gatein.wsrp.producer.ProducerHolder}, are measured: calls made directly on the producer or its handlers, for
+ * example from within the producer itself, bypass the instrumentation.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+class InstrumentedProducer implements InvocationHandler
+{
+   private static final Set<Class> WSRP_INTERFACES = new HashSet<Class>(Arrays.<Class>asList(MarkupInterface.class,
+      PortletManagementInterface.class, RegistrationInterface.class, ServiceDescriptionInterface.class));
+
+   /** Marks methods that aren't instrumented, since we cannot store <code>null</code> values in accessors */
+   private static final RequestAccessor NOT_INSTRUMENTED = new RequestAccessor(Object.class);
+
+   /**
+    * Requests accessors, indexed by invoked method, since the request classes don't share a common interface and we
+    * don't want to resolve their getters on each invocation
+    */
+   private static final ConcurrentMap<Method, RequestAccessor> accessors = new ConcurrentHashMap<Method, RequestAccessor>();
+
+   private final WSRP2Producer producer;
+   private final ProducerMetrics metrics;
+
+   InstrumentedProducer(WSRP2Producer producer, ProducerMetrics metrics)
+   {
+      this.producer = producer;
+      this.metrics = metrics;
+   }
+
+   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+   {
+      // Object methods are handled by the proxy itself so that it's equal to itself and not to the wrapped producer
+      if (Object.class.equals(method.getDeclaringClass()))
+      {
+         final String name = method.getName();
+         if ("equals".equals(name))
+         {
+            return proxy == args[0];
+         }
+         else if ("hashCode".equals(name))
+         {
+            return System.identityHashCode(proxy);
+         }
+         else if ("toString".equals(name))
+         {
+            return "Instrumented " + producer;
+         }
+      }
+
+      final RequestAccessor accessor = getAccessor(method);
+      if (accessor == NOT_INSTRUMENTED || args[0] == null)
+      {
+         return invokeProducer(method, args);
+      }
+
+      final Object request = args[0];
+      final PortletContext portletContext = accessor.getPortletContext(request);
+      final String portletHandle = portletContext != null ? portletContext.getPortletHandle() : null;
+      final ProducerMetrics.Invocation invocation = metrics.start(method.getName(), accessor.getRegistrationHandle(request), portletHandle, getRequestSize(request, portletContext));
+
+      Throwable failure = null;
+      Object response = null;
+      try
+      {
+         response = invokeProducer(method, args);
+         return response;
+      }
+      catch (Throwable t)
+      {
+         failure = t;
+         throw t;
+      }
+      finally
+      {
+         invocation.end(failure, failure == null ? getResponseSize(response) : 0);
+      }
+   }
+
+   private Object invokeProducer(Method method, Object[] args) throws Throwable
+   {
+      try
+      {
+         return method.invoke(producer, args);
+      }
+      catch (InvocationTargetException e)
+      {
+         throw e.getCause();
+      }
+   }
+
+   private static RequestAccessor getAccessor(Method method)
+   {
+      RequestAccessor accessor = accessors.get(method);
+      if (accessor == null)
+      {
+         final Class[] parameterTypes = method.getParameterTypes();
+         if (WSRP_INTERFACES.contains(method.getDeclaringClass()) && parameterTypes.length == 1)
+         {
+            accessor = new RequestAccessor(parameterTypes[0]);
+         }
+         else
+         {
+            accessor = NOT_INSTRUMENTED;
+         }
+
+         final RequestAccessor existing = accessors.putIfAbsent(method, accessor);
+         if (existing != null)
+         {
+            accessor = existing;
+         }
+      }
+      return accessor;
+   }
+
+   private static long getRequestSize(Object request, PortletContext portletContext)
+   {
+      if (request instanceof ImportPortlets)
+      {
+         final ImportPortlets importPortlets = (ImportPortlets)request;
+         long size = sizeOf(importPortlets.getImportContext());
+         for (ImportPortlet importPortlet : importPortlets.getImportPortlet())
+         {
+            size += sizeOf(importPortlet.getExportData());
+         }
+         return size;
+      }
+
+      return portletContext != null ? sizeOf(portletContext.getPortletState()) : 0;
+   }
+
+   private static long getResponseSize(Object response)
+   {
+      if (response instanceof MarkupResponse)
+      {
+         return sizeOf(((MarkupResponse)response).getMarkupContext());
+      }
+      else if (response instanceof ResourceResponse)
+      {
+         return sizeOf(((ResourceResponse)response).getResourceContext());
+      }
+      else if (response instanceof BlockingInteractionResponse)
+      {
+         return sizeOf(((BlockingInteractionResponse)response).getUpdateResponse());
+      }
+      else if (response instanceof HandleEventsResponse)
+      {
+         return sizeOf(((HandleEventsResponse)response).getUpdateResponse());
+      }
+      else if (response instanceof ExportPortletsResponse)
+      {
+         final ExportPortletsResponse exportPortletsResponse = (ExportPortletsResponse)response;
+         long size = sizeOf(exportPortletsResponse.getExportContext());
+         for (ExportedPortlet exportedPortlet : exportPortletsResponse.getExportedPortlet())
+         {
+            size += sizeOf(exportedPortlet.getExportData());
+         }
+         return size;
+      }
+      else if (response instanceof PortletContext)
+      {
+         return sizeOf(((PortletContext)response).getPortletState());
+      }
+      return 0;
+   }
+
+   private static long sizeOf(UpdateResponse updateResponse)
+   {
+      if (updateResponse == null)
+      {
+         return 0;
+      }
+
+      final PortletContext portletContext = updateResponse.getPortletContext();
+      return sizeOf(updateResponse.getMarkupContext()) + (portletContext != null ? sizeOf(portletContext.getPortletState()) : 0);
+   }
+
+   private static long sizeOf(MimeResponse mimeResponse)
+   {
+      if (mimeResponse == null)
+      {
+         return 0;
+      }
+
+      final String itemString = mimeResponse.getItemString();
+      return itemString != null ? itemString.length() : sizeOf(mimeResponse.getItemBinary());
+   }
+
+   private static long sizeOf(byte[] bytes)
+   {
+      return bytes != null ? bytes.length : 0;
+   }
+
+   /** Extracts the registration and portlet handles targeted by a request using the getters of its class. */
+   private static class RequestAccessor
+   {
+      private final Method registrationContextGetter;
+      private final Method portletContextGetter;
+
+      private RequestAccessor(Class requestClass)
+      {
+         Method registrationGetter = getGetter(requestClass, "getRegistrationContext", RegistrationContext.class);
+         if (registrationGetter == null)
+         {
+            // CopyPortlets
+            registrationGetter = getGetter(requestClass, "getFromRegistrationContext", RegistrationContext.class);
+         }
+         registrationContextGetter = registrationGetter;
+         portletContextGetter = getGetter(requestClass, "getPortletContext", PortletContext.class);
+      }
+
+      private static Method getGetter(Class requestClass, String name, Class returnType)
+      {
+         try
+         {
+            final Method getter = requestClass.getMethod(name);
+            return returnType.equals(getter.getReturnType()) ? getter : null;
+         }
+         catch (NoSuchMethodException e)
+         {
+            return null;
+         }
+      }
+
+      String getRegistrationHandle(Object request)
+      {
+         final RegistrationContext registrationContext = (RegistrationContext)get(registrationContextGetter, request);
+         return registrationContext != null ? registrationContext.getRegistrationHandle() : null;
+      }
+
+      PortletContext getPortletContext(Object request)
+      {
+         return (PortletContext)get(portletContextGetter, request);
+      }
+
+      private static Object get(Method getter, Object request)
+      {
+         if (getter == null)
+         {
+            return null;
+         }
+
+         try
+         {
+            return getter.invoke(request);
+         }
+         catch (Exception e)
+         {
+            // metrics shouldn't prevent the request from being processed
+            return null;
+         }
+      }
+   }
+}
@@ -0,0 +1,84 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the metrics recorded for a given registration or portlet handle, as published by {@link
+ * ProducerMetricsMXBean}.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class KeyStatistics
+{
+   private final String key;
+   private final long invocationCount;
+   private final long errorCount;
+   private final int inFlight;
+   private final double totalLatencyMillis;
+
+   @ConstructorProperties({"key", "invocationCount", "errorCount", "inFlight", "totalLatencyMillis"})
+   public KeyStatistics(String key, long invocationCount, long errorCount, int inFlight, double totalLatencyMillis)
+   {
+      this.key = key;
+      this.invocationCount = invocationCount;
+      this.errorCount = errorCount;
+      this.inFlight = inFlight;
+      this.totalLatencyMillis = totalLatencyMillis;
+   }
+
+   /** @return the registration handle or portlet handle these metrics were recorded for */
+   public String getKey()
+   {
+      return key;
+   }
+
+   public long getInvocationCount()
+   {
+      return invocationCount;
+   }
+
+   public long getErrorCount()
+   {
+      return errorCount;
+   }
+
+   public int getInFlight()
+   {
+      return inFlight;
+   }
+
+   /** @return the total time spent processing invocations for this key, i.e. the load it put on the producer */
+   public double getTotalLatencyMillis()
+   {
+      return totalLatencyMillis;
+   }
+
+   public double getMeanLatencyMillis()
+   {
+      return invocationCount == 0 ? 0 : totalLatencyMillis / invocationCount;
+   }
+}
@@ -0,0 +1,161 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.metrics;
+
+import org.gatein.wsrp.metrics.OperationMetrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records invocation metrics broken down by key (registration handle, portlet handle), so that the keys putting the
+ * most load on the producer can be identified. To bound memory usage, only a limited number of keys are tracked: when
+ * that limit is reached, the half of the keys with the least load are evicted, which keeps the heaviest ones.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+class KeyedMetrics
+{
+   /** Orders statistics by decreasing load. */
+   private static final Comparator<KeyStatistics> BY_LOAD = new Comparator<KeyStatistics>()
+   {
+      public int compare(KeyStatistics o1, KeyStatistics o2)
+      {
+         return Double.compare(o2.getTotalLatencyMillis(), o1.getTotalLatencyMillis());
+      }
+   };
+
+   private final int maxKeys;
+   private final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<String, Counters>();
+
+   KeyedMetrics(int maxKeys)
+   {
+      this.maxKeys = Math.max(1, maxKeys);
+   }
+
+   /**
+    * Records the start of an invocation for the specified key.
+    *
+    * @param key the key to record the invocation for
+    * @return the counters to pass to {@link #ended(Counters, long, boolean)} when the invocation completes
+    */
+   Counters started(String key)
+   {
+      Counters keyCounters = counters.get(key);
+      if (keyCounters == null)
+      {
+         if (counters.size() >= maxKeys)
+         {
+            evict();
+         }
+
+         Counters newCounters = new Counters();
+         keyCounters = counters.putIfAbsent(key, newCounters);
+         if (keyCounters == null)
+         {
+            keyCounters = newCounters;
+         }
+      }
+
+      keyCounters.inFlight.incrementAndGet();
+      return keyCounters;
+   }
+
+   void ended(Counters keyCounters, long nanos, boolean failed)
+   {
+      keyCounters.inFlight.decrementAndGet();
+      keyCounters.invocations.incrementAndGet();
+      keyCounters.totalNanos.addAndGet(nanos);
+      if (failed)
+      {
+         keyCounters.errors.incrementAndGet();
+      }
+   }
+
+   private synchronized void evict()
+   {
+      // another thread might already have evicted keys
+      if (counters.size() < maxKeys)
+      {
+         return;
+      }
+
+      final List<KeyStatistics> statistics = getSortedStatistics();
+      for (KeyStatistics keyStatistics : statistics.subList(maxKeys / 2, statistics.size()))
+      {
+         counters.remove(keyStatistics.getKey());
+      }
+   }
+
+   /**
+    * Retrieves the statistics of the keys putting the most load on the producer.
+    *
+    * @param n the maximum number of keys to return
+    * @return the statistics of at most <code>n</code> keys, by decreasing load
+    */
+   List<KeyStatistics> getTop(int n)
+   {
+      final List<KeyStatistics> statistics = getSortedStatistics();
+      return new ArrayList<KeyStatistics>(statistics.subList(0, Math.min(Math.max(0, n), statistics.size())));
+   }
+
+   /**
+    * Snapshots the counters before sorting them since they keep changing while being sorted.
+    *
+    * @return the statistics of all tracked keys, by decreasing load
+    */
+   private List<KeyStatistics> getSortedStatistics()
+   {
+      final List<KeyStatistics> statistics = new ArrayList<KeyStatistics>(counters.size());
+      for (Map.Entry<String, Counters> entry : counters.entrySet())
+      {
+         final Counters keyCounters = entry.getValue();
+         statistics.add(new KeyStatistics(entry.getKey(), keyCounters.invocations.get(), keyCounters.errors.get(),
+            keyCounters.inFlight.get(), OperationMetrics.toMillis(keyCounters.totalNanos.get())));
+      }
+      Collections.sort(statistics, BY_LOAD);
+      return statistics;
+   }
+
+   void reset()
+   {
+      counters.clear();
+   }
+
+   static class Counters
+   {
+      private final AtomicLong invocations = new AtomicLong();
+      private final AtomicLong errors = new AtomicLong();
+      private final AtomicInteger inFlight = new AtomicInteger();
+      private final AtomicLong totalNanos = new AtomicLong();
+   }
+}
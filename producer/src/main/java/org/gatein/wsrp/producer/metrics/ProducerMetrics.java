@@ -0,0 +1,250 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.metrics;
+
+import org.gatein.wsrp.metrics.OperationMetrics;
+import org.gatein.wsrp.metrics.OperationStatistics;
+import org.gatein.wsrp.producer.handlers.processors.ProducerHelper;
+import org.gatein.wsrp.producer.v2.WSRP2Producer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records latency, in-flight, error and payload size metrics for each WSRP operation processed by the producer, broken
+ * down by registration and portlet handle, and publishes them over JMX.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class ProducerMetrics implements ProducerMetricsMXBean
+{
+   private static final Logger log = LoggerFactory.getLogger(ProducerMetrics.class);
+
+   /** The name under which the metrics are published over JMX. */
+   public static final String OBJECT_NAME = "gatein.wsrp:service=ProducerMetrics";
+
+   /** System property specifying whether WSRP invocations should be instrumented, <code>true</code> by default. */
+   public static final String ENABLED_PROPERTY = "org.gatein.wsrp.producer.metrics.enabled";
+
+   /** System property specifying how many registrations and portlets are tracked at most. */
+   public static final String MAX_TRACKED_KEYS_PROPERTY = "org.gatein.wsrp.producer.metrics.maxTrackedKeys";
+
+   /** Key under which invocations performed without a registration are tracked. */
+   public static final String NO_REGISTRATION = "<none>";
+
+   private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<String, OperationMetrics>();
+   private final KeyedMetrics registrations;
+   private final KeyedMetrics portlets;
+   private volatile int topN = 10;
+
+   public ProducerMetrics()
+   {
+      this(Integer.getInteger(MAX_TRACKED_KEYS_PROPERTY, 1000));
+   }
+
+   ProducerMetrics(int maxTrackedKeys)
+   {
+      registrations = new KeyedMetrics(maxTrackedKeys);
+      portlets = new KeyedMetrics(maxTrackedKeys);
+   }
+
+   public static boolean isEnabled()
+   {
+      return Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+   }
+
+   /**
+    * Wraps the specified producer so that the WSRP invocations it processes are recorded by this ProducerMetrics. The
+    * returned view also implements {@link ProducerHelper} if the specified producer does.
+    *
+    * @param producer the producer to instrument
+    * @return an instrumented view of the specified producer
+    */
+   public WSRP2Producer instrument(WSRP2Producer producer)
+   {
+      final Class[] interfaces = producer instanceof ProducerHelper ? new Class[]{WSRP2Producer.class, ProducerHelper.class} : new Class[]{WSRP2Producer.class};
+      return (WSRP2Producer)Proxy.newProxyInstance(producer.getClass().getClassLoader(), interfaces, new InstrumentedProducer(producer, this));
+   }
+
+   /**
+    * Records the start of an invocation of the specified operation.
+    *
+    * @param operation          the name of the invoked WSRP operation
+    * @param registrationHandle the handle of the registration the operation is invoked for, <code>null</code> if none
+    * @param portletHandle      the handle of the target portlet, <code>null</code> if the operation doesn't target a
+    *                           single portlet
+    * @param requestSize        the size of the portlet data carried by the request
+    * @return the Invocation to end once the operation completes
+    */
+   public Invocation start(String operation, String registrationHandle, String portletHandle, long requestSize)
+   {
+      OperationMetrics operationMetrics = operations.get(operation);
+      if (operationMetrics == null)
+      {
+         OperationMetrics newMetrics = new OperationMetrics(operation);
+         operationMetrics = operations.putIfAbsent(operation, newMetrics);
+         if (operationMetrics == null)
+         {
+            operationMetrics = newMetrics;
+         }
+      }
+
+      return new Invocation(operationMetrics, registrationHandle == null ? NO_REGISTRATION : registrationHandle, portletHandle, requestSize);
+   }
+
+   public List<OperationStatistics> getOperationStatistics()
+   {
+      final List<OperationStatistics> statistics = new ArrayList<OperationStatistics>(operations.size());
+      for (OperationMetrics operationMetrics : operations.values())
+      {
+         statistics.add(operationMetrics.getStatistics());
+      }
+      return statistics;
+   }
+
+   public List<KeyStatistics> getTopRegistrations()
+   {
+      return registrations.getTop(topN);
+   }
+
+   public List<KeyStatistics> getTopPortlets()
+   {
+      return portlets.getTop(topN);
+   }
+
+   public int getInFlight()
+   {
+      int inFlight = 0;
+      for (OperationMetrics operationMetrics : operations.values())
+      {
+         inFlight += operationMetrics.getInFlight();
+      }
+      return inFlight;
+   }
+
+   public int getTopN()
+   {
+      return topN;
+   }
+
+   public void setTopN(int topN)
+   {
+      if (topN < 1)
+      {
+         throw new IllegalArgumentException("Must return at least one element, was given: " + topN);
+      }
+      this.topN = topN;
+   }
+
+   public void reset()
+   {
+      for (OperationMetrics operationMetrics : operations.values())
+      {
+         operationMetrics.reset();
+      }
+      registrations.reset();
+      portlets.reset();
+   }
+
+   /** Publishes these metrics on the platform MBean server. */
+   public void register()
+   {
+      try
+      {
+         final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         final ObjectName name = new ObjectName(OBJECT_NAME);
+         if (!server.isRegistered(name))
+         {
+            server.registerMBean(this, name);
+         }
+      }
+      catch (Exception e)
+      {
+         log.warn("Couldn't publish producer metrics over JMX", e);
+      }
+   }
+
+   public void unregister()
+   {
+      try
+      {
+         final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         final ObjectName name = new ObjectName(OBJECT_NAME);
+         if (server.isRegistered(name))
+         {
+            server.unregisterMBean(name);
+         }
+      }
+      catch (Exception e)
+      {
+         log.debug("Couldn't unpublish producer metrics", e);
+      }
+   }
+
+   /** An invocation being recorded. */
+   public class Invocation
+   {
+      private final long start = System.nanoTime();
+      private final OperationMetrics operationMetrics;
+      private final KeyedMetrics.Counters registrationCounters;
+      private final KeyedMetrics.Counters portletCounters;
+      private final long requestSize;
+
+      private Invocation(OperationMetrics operationMetrics, String registrationHandle, String portletHandle, long requestSize)
+      {
+         this.operationMetrics = operationMetrics;
+         this.requestSize = requestSize;
+         operationMetrics.started();
+         registrationCounters = registrations.started(registrationHandle);
+         portletCounters = portletHandle != null ? portlets.started(portletHandle) : null;
+      }
+
+      /**
+       * Records the completion of this invocation.
+       *
+       * @param failure      the fault or exception the invocation resulted in, <code>null</code> if it succeeded
+       * @param responseSize the size of the portlet data carried by the response
+       */
+      public void end(Throwable failure, long responseSize)
+      {
+         final long duration = System.nanoTime() - start;
+         final boolean failed = failure != null;
+         operationMetrics.ended(duration, failed ? failure.getClass().getSimpleName() : null, requestSize, responseSize);
+         registrations.ended(registrationCounters, duration, failed);
+         if (portletCounters != null)
+         {
+            portlets.ended(portletCounters, duration, failed);
+         }
+      }
+   }
+}
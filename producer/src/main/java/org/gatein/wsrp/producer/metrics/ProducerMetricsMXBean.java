@@ -0,0 +1,58 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.metrics;
+
+import org.gatein.wsrp.metrics.OperationStatistics;
+
+import java.util.List;
+
+/**
+ * Management interface publishing the producer metrics over JMX, registered under {@link
+ * ProducerMetrics#OBJECT_NAME}.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public interface ProducerMetricsMXBean
+{
+   /** @return the statistics of each WSRP operation invoked since the producer started or the last reset */
+   List<OperationStatistics> getOperationStatistics();
+
+   /** @return the statistics of the registrations putting the most load on the producer */
+   List<KeyStatistics> getTopRegistrations();
+
+   /** @return the statistics of the portlets putting the most load on the producer */
+   List<KeyStatistics> getTopPortlets();
+
+   /** @return the total number of WSRP invocations currently being processed */
+   int getInFlight();
+
+   /** @return how many registrations and portlets are returned by {@link #getTopRegistrations()} and {@link #getTopPortlets()} */
+   int getTopN();
+
+   void setTopN(int topN);
+
+   /** Discards all the metrics recorded so far. */
+   void reset();
+}
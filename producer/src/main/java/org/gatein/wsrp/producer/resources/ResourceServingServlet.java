@@ -24,27 +24,51 @@
 package org.gatein.wsrp.producer.resources;
 
 import org.gatein.common.util.ParameterValidation;
+import org.gatein.wsrp.MIMEUtils;
 import org.gatein.wsrp.ResourceServingUtil;
+import org.gatein.wsrp.WSRPConstants;
 import org.gatein.wsrp.producer.ProducerHolder;
 import org.gatein.wsrp.producer.v2.WSRP2Producer;
+import org.oasis.wsrp.v2.CacheControl;
 import org.oasis.wsrp.v2.GetResource;
 import org.oasis.wsrp.v2.ResourceContext;
 import org.oasis.wsrp.v2.ResourceResponse;
 
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * A simple resource serving servlet delegating direct resource calls to the producer.
+ * <p/>
+ * Responses are made cacheable by browsers and proxies: <code>Cache-Control</code> and <code>Expires</code> headers are
+ * derived from the resource's {@link CacheControl} and an <code>ETag</code> is sent (the resource's validate tag if
+ * any, a digest of its content otherwise), so that conditional requests can be answered with a <code>304 Not
+ * Modified</code> status. Single byte ranges are served for binary resources and textual resources are compressed
+ * when the client accepts it.
  *
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @version $Revision$
  */
 public class ResourceServingServlet extends HttpServlet
 {
+   /** Textual resources smaller than this are not worth compressing. */
+   static final int MIN_COMPRESSION_SIZE = 1024;
+   /** How long resources that never expire are cached by clients: one year as recommended by RFC 2616. */
+   static final int NEVER_EXPIRES_MAX_AGE = 365 * 24 * 60 * 60;
+   private static final String GZIP = "gzip";
+   private static final String X_GZIP = "x-" + GZIP;
+   private static final String GZIP_ETAG_SUFFIX = "-" + GZIP;
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
    @Override
    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
    {
@@ -52,33 +76,302 @@ public class ResourceServingServlet extends HttpServlet
 
       GetResource getResource = ResourceServingUtil.decode(req);
 
+      final ResourceContext resourceContext;
       try
       {
          ResourceResponse resource = producer.getResource(getResource);
-         ResourceContext resourceContext = resource.getResourceContext();
-         byte[] itemBinary = resourceContext.getItemBinary();
-         String itemString = resourceContext.getItemString();
+         resourceContext = resource.getResourceContext();
+      }
+      catch (Exception exception)
+      {
+         throw new ServletException("Couldn't get resource " + getResource.getResourceParams().getResourceID()
+            + " for portlet " + getResource.getPortletContext(), exception);
+      }
 
-         final String mimeType = resourceContext.getMimeType();
-         if (!ParameterValidation.isNullOrEmpty(mimeType))
+      final String mimeType = resourceContext.getMimeType();
+      if (!ParameterValidation.isNullOrEmpty(mimeType))
+      {
+         resp.setContentType(mimeType);
+      }
+
+      // retrieve the content as bytes so that we can compute its length, digest it and serve ranges of it
+      byte[] content = resourceContext.getItemBinary();
+      if (content == null || content.length == 0)
+      {
+         final String itemString = resourceContext.getItemString();
+         if (ParameterValidation.isNullOrEmpty(itemString))
          {
-            resp.setContentType(mimeType);
+            content = new byte[0];
          }
+         else
+         {
+            final String charset = MIMEUtils.getCharsetFrom(mimeType);
+            resp.setCharacterEncoding(charset);
+            content = itemString.getBytes(charset);
+         }
+      }
 
-         if (itemBinary != null && itemBinary.length > 0)
+      final CacheControl cacheControl = resourceContext.getCacheControl();
+      final String validateTag = cacheControl != null ? cacheControl.getValidateTag() : null;
+      final String eTag = ParameterValidation.isNullOrEmpty(validateTag) ? computeETag(content) : '"' + validateTag + '"';
+
+      final boolean compress = content.length >= MIN_COMPRESSION_SIZE && MIMEUtils.isInterpretableAsText(mimeType) && acceptsGzip(req);
+      final String responseETag = compress ? withSuffix(eTag, GZIP_ETAG_SUFFIX) : eTag;
+
+      setCacheHeaders(resp, cacheControl);
+      resp.setHeader("ETag", responseETag);
+      if (MIMEUtils.isInterpretableAsText(mimeType))
+      {
+         resp.setHeader("Vary", "Accept-Encoding");
+      }
+
+      // conditional request: nothing to send if the client already has the current version
+      if (matches(req.getHeader("If-None-Match"), eTag))
+      {
+         resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+         return;
+      }
+
+      if (compress)
+      {
+         resp.setHeader("Content-Encoding", GZIP);
+         final ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 3);
+         final GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+         gzip.write(content);
+         gzip.close();
+         write(resp, compressed.toByteArray(), 0, compressed.size());
+         return;
+      }
+
+      resp.setHeader("Accept-Ranges", "bytes");
+
+      // only honor the range if the client's version, if specified, is still the current one
+      final String ifRange = req.getHeader("If-Range");
+      final long[] range = (ifRange == null || ifRange.equals(eTag)) ? parseRange(req.getHeader("Range"), content.length) : null;
+      if (range == null)
+      {
+         write(resp, content, 0, content.length);
+      }
+      else if (range.length == 0)
+      {
+         resp.setHeader("Content-Range", "bytes */" + content.length);
+         resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      }
+      else
+      {
+         resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+         resp.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + content.length);
+         write(resp, content, (int)range[0], (int)(range[1] - range[0] + 1));
+      }
+   }
+
+   private static void write(HttpServletResponse resp, byte[] content, int offset, int length) throws IOException
+   {
+      resp.setContentLength(length);
+      if (length > 0)
+      {
+         final ServletOutputStream outputStream = resp.getOutputStream();
+         outputStream.write(content, offset, length);
+      }
+   }
+
+   static void setCacheHeaders(HttpServletResponse resp, CacheControl cacheControl)
+   {
+      final int expires = cacheControl != null ? cacheControl.getExpires() : 0;
+      if (expires == 0)
+      {
+         resp.setHeader("Cache-Control", "no-cache");
+         return;
+      }
+
+      final int maxAge = expires < 0 ? NEVER_EXPIRES_MAX_AGE : expires;
+      final String scope = WSRPConstants.CACHE_FOR_ALL.equals(cacheControl.getUserScope()) ? "public" : "private";
+      resp.setHeader("Cache-Control", scope + ", max-age=" + maxAge);
+      resp.setDateHeader("Expires", System.currentTimeMillis() + maxAge * 1000L);
+   }
+
+   static boolean acceptsGzip(HttpServletRequest req)
+   {
+      return acceptsGzip(req.getHeader("Accept-Encoding"));
+   }
+
+   /**
+    * Determines whether the specified <code>Accept-Encoding</code> header value allows gzip-compressed content, as
+    * specified by RFC 2616 section 14.3: gzip is acceptable if it's listed with a non-zero quality value or, if it
+    * isn't listed, if the <code>*</code> wildcard is listed with a non-zero quality value.
+    *
+    * @param acceptEncoding the value of the <code>Accept-Encoding</code> header
+    * @return <code>true</code> if gzip-compressed content can be sent
+    */
+   static boolean acceptsGzip(String acceptEncoding)
+   {
+      if (acceptEncoding == null)
+      {
+         return false;
+      }
+
+      boolean wildcard = false;
+      for (String entry : acceptEncoding.split(","))
+      {
+         final String[] parts = entry.split(";");
+         final String coding = parts[0].trim().toLowerCase(Locale.ENGLISH);
+
+         // the quality value is 1 unless specified otherwise
+         float quality = 1;
+         for (int i = 1; i < parts.length; i++)
          {
-            resp.getOutputStream().write(itemBinary);
+            final String parameter = parts[i].trim().toLowerCase(Locale.ENGLISH);
+            if (parameter.startsWith("q="))
+            {
+               try
+               {
+                  quality = Float.parseFloat(parameter.substring(2).trim());
+               }
+               catch (NumberFormatException e)
+               {
+                  // be conservative with invalid quality values
+                  quality = 0;
+               }
+            }
          }
 
-         if (!ParameterValidation.isNullOrEmpty(itemString))
+         if (GZIP.equals(coding) || X_GZIP.equals(coding))
          {
-            resp.getWriter().write(itemString);
+            return quality > 0;
+         }
+         else if ("*".equals(coding))
+         {
+            wildcard = quality > 0;
          }
       }
-      catch (Exception exception)
+
+      return wildcard;
+   }
+
+   /**
+    * Determines whether the specified <code>If-None-Match</code> header value matches the specified entity tag,
+    * ignoring any content encoding suffix we might have added to the tag we sent.
+    *
+    * @param ifNoneMatch the value of the <code>If-None-Match</code> header
+    * @param eTag        the resource's entity tag
+    * @return <code>true</code> if the client already has the current version of the resource
+    */
+   static boolean matches(String ifNoneMatch, String eTag)
+   {
+      if (ifNoneMatch == null)
       {
-         throw new ServletException("Couldn't get resource " + getResource.getResourceParams().getResourceID()
-            + " for portlet " + getResource.getPortletContext(), exception);
+         return false;
+      }
+
+      for (String candidate : ifNoneMatch.split(","))
+      {
+         candidate = candidate.trim();
+         if (candidate.startsWith("W/"))
+         {
+            candidate = candidate.substring(2);
+         }
+
+         if ("*".equals(candidate) || eTag.equals(candidate) || withSuffix(eTag, GZIP_ETAG_SUFFIX).equals(candidate))
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Parses the specified <code>Range</code> header value. Only single byte ranges are supported, other ranges being
+    * ignored, resulting in the whole content being sent as allowed by RFC 2616.
+    *
+    * @param range  the value of the <code>Range</code> header
+    * @param length the length of the content
+    * @return <code>null</code> if the whole content should be sent, an empty array if the range cannot be satisfied,
+    *         the first and last (inclusive) positions of the range to send otherwise
+    */
+   static long[] parseRange(String range, long length)
+   {
+      if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0)
+      {
+         return null;
+      }
+
+      final String spec = range.substring("bytes=".length()).trim();
+      final int dash = spec.indexOf('-');
+      if (dash < 0)
+      {
+         return null;
+      }
+
+      try
+      {
+         final String firstValue = spec.substring(0, dash).trim();
+         final String lastValue = spec.substring(dash + 1).trim();
+         long first;
+         long last;
+         if (firstValue.length() == 0)
+         {
+            // suffix range: last n bytes
+            if (lastValue.length() == 0)
+            {
+               return null;
+            }
+            final long suffixLength = Long.parseLong(lastValue);
+            if (suffixLength == 0)
+            {
+               return new long[0];
+            }
+            first = Math.max(0, length - suffixLength);
+            last = length - 1;
+         }
+         else
+         {
+            first = Long.parseLong(firstValue);
+            last = lastValue.length() == 0 ? length - 1 : Math.min(Long.parseLong(lastValue), length - 1);
+         }
+
+         if (last < first)
+         {
+            // syntactically invalid ranges (last before first) are ignored, ranges starting after the end cannot be satisfied
+            return first >= length ? new long[0] : null;
+         }
+
+         if (first >= length)
+         {
+            return new long[0];
+         }
+
+         return new long[]{first, last};
+      }
+      catch (NumberFormatException e)
+      {
+         return null;
       }
    }
+
+   static String computeETag(byte[] content)
+   {
+      try
+      {
+         final byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+         final char[] chars = new char[digest.length * 2 + 2];
+         chars[0] = '"';
+         for (int i = 0; i < digest.length; i++)
+         {
+            chars[1 + 2 * i] = HEX[(digest[i] >> 4) & 0xF];
+            chars[2 + 2 * i] = HEX[digest[i] & 0xF];
+         }
+         chars[chars.length - 1] = '"';
+         return new String(chars);
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+         // MD5 is always available
+         throw new RuntimeException(e);
+      }
+   }
+
+   private static String withSuffix(String eTag, String suffix)
+   {
+      return eTag.substring(0, eTag.length() - 1) + suffix + '"';
+   }
 }
@@ -22,7 +22,12 @@
  ******************************************************************************/
 package org.gatein.export;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.UnsupportedEncodingException;
 
 import org.gatein.exports.data.ExportData;
@@ -76,6 +81,131 @@ public class ExportTestCase extends TestCase
       ExtendedAssert.assertEquals(state, portletDataFromBytes.getPortletState());
    }
    
+   public void testDecodeLegacyFormat() throws IOException
+   {
+      String portletId = "TestPortletID_123";
+      byte[] state = new byte[]{-66, 0, 1, 2, 3, 'a', 'b', 'c'};
+
+      // encode as previous versions did
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(baos);
+      oos.writeUTF("WSRP_EPD");
+      oos.writeDouble(1.0);
+      oos.writeUTF("__NO_ID__");
+      oos.writeUTF(portletId);
+      oos.write(state);
+      oos.close();
+      byte[] legacy = baos.toByteArray();
+
+      ExportPortletData portletDataFromBytes = ExportPortletData.decodeFrom(legacy);
+      assertEquals(portletId, portletDataFromBytes.getPortletHandle());
+      ExtendedAssert.assertEquals(state, portletDataFromBytes.getPortletState());
+
+      // new encoding should be more compact
+      assertTrue(new ExportPortletData(portletId, state).encodeAsBytes().length < legacy.length);
+   }
+
+   public void testStreamingAndLargeValues() throws IOException
+   {
+      StringBuilder handle = new StringBuilder(70000);
+      while (handle.length() < 70000)
+      {
+         handle.append("handle");
+      }
+      byte[] state = new byte[100000];
+      state[state.length - 1] = 42;
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new ExportPortletData(handle.toString(), state).encodeTo(out);
+      new ExportPortletData("other", new byte[0]).encodeTo(out);
+
+      ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+      ExportPortletData first = ExportPortletData.decodeFrom(in);
+      assertEquals(handle.toString(), first.getPortletHandle());
+      ExtendedAssert.assertEquals(state, first.getPortletState());
+
+      // decoding only consumed the first encoded data
+      ExportPortletData second = ExportPortletData.decodeFrom(in);
+      assertEquals("other", second.getPortletHandle());
+      assertEquals(0, second.getPortletState().length);
+   }
+
+   public void testUnknownEncodingIsRejected() throws IOException
+   {
+      try
+      {
+         ExportPortletData.decodeFrom(new byte[]{1, 2, 3, 4, 5});
+         fail("Should have failed on unknown encoding");
+      }
+      catch (IllegalArgumentException e)
+      {
+         // expected
+      }
+   }
+
+   public void testLegacyEncodingCanBeEnabled() throws IOException
+   {
+      String portletId = "TestPortletID_123";
+      byte[] state = new byte[]{-66, 0, 1, 2, 3, 'a', 'b', 'c'};
+
+      System.setProperty(ExportData.LEGACY_ENCODING_PROPERTY, "true");
+      byte[] legacy;
+      try
+      {
+         legacy = new ExportPortletData(portletId, state).encodeAsBytes();
+      }
+      finally
+      {
+         System.clearProperty(ExportData.LEGACY_ENCODING_PROPERTY);
+      }
+
+      // data should be encoded using a serialization stream, as previous versions did, and decode properly
+      ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(legacy));
+      assertEquals("WSRP_EPD", ois.readUTF());
+      assertEquals(1.0, ois.readDouble());
+      assertEquals("__NO_ID__", ois.readUTF());
+      assertEquals(portletId, ois.readUTF());
+
+      ExportPortletData portletDataFromBytes = ExportPortletData.decodeFrom(legacy);
+      assertEquals(portletId, portletDataFromBytes.getPortletHandle());
+      ExtendedAssert.assertEquals(state, portletDataFromBytes.getPortletState());
+
+      // new encoding is used by default
+      assertTrue(new ExportPortletData(portletId, state).encodeAsBytes().length < legacy.length);
+   }
+
+   public void testOversizedLengthIsRejected() throws IOException
+   {
+      // declares a type name of Integer.MAX_VALUE bytes
+      checkInvalidLengthIsRejected(new byte[]{(byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x07});
+   }
+
+   public void testLengthLargerThanDataIsRejected() throws IOException
+   {
+      // declares a type name of a little less than 16MB but only provides a few bytes
+      checkInvalidLengthIsRejected(new byte[]{(byte)0xFF, (byte)0xFF, (byte)0xFF, 0x07, 'W', 'S', 'R', 'P'});
+   }
+
+   private void checkInvalidLengthIsRejected(byte[] lengthAndData) throws IOException
+   {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      DataOutputStream dos = new DataOutputStream(baos);
+      dos.writeInt(0x47544E58);
+      dos.writeByte(1);
+      dos.write(lengthAndData);
+      dos.close();
+
+      try
+      {
+         ExportPortletData.decodeFrom(baos.toByteArray());
+         fail("Should have failed on invalid length");
+      }
+      catch (IllegalArgumentException e)
+      {
+         // expected
+      }
+   }
+
    /**
     * ADD MORE TESTS
     * - decode from a stored byte array
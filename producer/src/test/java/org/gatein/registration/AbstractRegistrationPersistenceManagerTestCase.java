@@ -24,9 +24,13 @@ package org.gatein.registration;
 
 import junit.framework.TestCase;
 import org.gatein.common.util.MapBuilder;
+import org.gatein.pc.api.PortletContext;
+import org.gatein.registration.impl.RegistrationImpl;
+import org.gatein.registration.spi.RegistrationSPI;
 
 import javax.xml.namespace.QName;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -440,4 +444,59 @@ public abstract class AbstractRegistrationPersistenceManagerTestCase extends Tes
       reg = consumer.getRegistrations().iterator().next();
       assertEquals(MapBuilder.hashMap().put(new QName("prop2"), "value2").put(new QName("prop3"), "value3").get(), reg.getProperties());
    }
+
+   public void testAddAndRemovePortletContexts() throws Exception
+   {
+      getManager().createConsumer("Bar", "Bar");
+      RegistrationSPI reg = getManager().addRegistrationFor("Bar", registrationProperties);
+      String regId = reg.getPersistentKey();
+
+      PortletContext foo = PortletContext.createPortletContext("_foo", new byte[]{1, 2, 3});
+      PortletContext bar = PortletContext.createPortletContext("_bar");
+      reg.addPortletContext(foo);
+      reg.addPortletContext(bar);
+
+      Registration registration = getManager().getRegistration(regId);
+      assertEquals(2, registration.getKnownPortletContexts().size());
+      assertTrue(registration.knows(foo));
+      assertTrue(registration.knows("_bar"));
+
+      reg.removePortletContext(foo);
+
+      registration = getManager().getRegistration(regId);
+      assertEquals(1, registration.getKnownPortletContexts().size());
+      assertFalse(registration.knows(foo));
+      assertTrue(registration.knows(bar));
+
+      // saving the whole registration shouldn't change the known portlet contexts
+      getManager().saveChangesTo(reg);
+      registration = getManager().getRegistration(regId);
+      assertEquals(Collections.singleton(bar), registration.getKnownPortletContexts());
+   }
+
+   public void testRemovePortletContextsAtOnce() throws Exception
+   {
+      getManager().createConsumer("Bar", "Bar");
+      RegistrationSPI reg = getManager().addRegistrationFor("Bar", registrationProperties);
+      String regId = reg.getPersistentKey();
+
+      PortletContext foo = PortletContext.createPortletContext("_foo", new byte[]{1, 2, 3});
+      PortletContext bar = PortletContext.createPortletContext("_bar");
+      PortletContext baz = PortletContext.createPortletContext("_baz");
+      reg.addPortletContext(foo);
+      reg.addPortletContext(bar);
+      reg.addPortletContext(baz);
+
+      // unknown portlet contexts should be ignored
+      ((RegistrationImpl)reg).removePortletContexts(Arrays.asList(foo, baz, PortletContext.createPortletContext("_unknown")));
+
+      Registration registration = getManager().getRegistration(regId);
+      assertEquals(Collections.singleton(bar), registration.getKnownPortletContexts());
+      assertFalse(registration.knows(foo));
+      assertFalse(registration.knows("_baz"));
+
+      // removing nothing shouldn't fail
+      ((RegistrationImpl)reg).removePortletContexts(Collections.<PortletContext>emptyList());
+      assertEquals(Collections.singleton(bar), getManager().getRegistration(regId).getKnownPortletContexts());
+   }
 }
@@ -35,6 +35,7 @@ import javax.xml.namespace.QName;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
@@ -429,4 +430,144 @@ public class RegistrationManagerTestCase extends TestCase
       assertNull(manager.getRegistration(r1.getRegistrationHandle()));
       assertNull(manager.getRegistration(r2.getRegistrationHandle()));
    }
+
+   public void testRegistrationLookupsAreCached() throws Exception
+   {
+      final AtomicInteger lookups = new AtomicInteger();
+      manager.setPersistenceManager(new RegistrationPersistenceManagerImpl()
+      {
+         @Override
+         public Registration getRegistration(String registrationId) throws RegistrationException
+         {
+            lookups.incrementAndGet();
+            return super.getRegistration(registrationId);
+         }
+      });
+
+      Registration reg = manager.addRegistrationTo("consumer", registrationProperties, expectations, true);
+      String handle = reg.getRegistrationHandle();
+
+      assertEquals(reg, manager.getRegistration(handle));
+      assertEquals(reg, manager.getRegistration(handle));
+      assertEquals(reg.getConsumer(), manager.getConsumerFor(handle));
+      assertEquals(1, lookups.get());
+
+      // modifying the registration should invalidate the cached version
+      ((RegistrationManagerImpl)manager).registrationHasChanged(reg);
+      assertEquals(reg, manager.getRegistration(handle));
+      assertEquals(2, lookups.get());
+
+      // so should changing registration properties, since it changes the status of all registrations
+      manager.propertiesHaveChanged(expectations);
+      assertEquals(RegistrationStatus.PENDING, manager.getRegistration(handle).getStatus());
+      assertEquals(3, lookups.get());
+
+      // and removing the registration, of course
+      manager.removeRegistration(handle);
+      assertNull(manager.getRegistration(handle));
+   }
+
+   public void testCachedRegistrationsAreBoundedAndExpire() throws Exception
+   {
+      final AtomicInteger lookups = new AtomicInteger();
+      manager.setPersistenceManager(new RegistrationPersistenceManagerImpl()
+      {
+         @Override
+         public Registration getRegistration(String registrationId) throws RegistrationException
+         {
+            lookups.incrementAndGet();
+            return super.getRegistration(registrationId);
+         }
+      });
+      final RegistrationManagerImpl managerImpl = (RegistrationManagerImpl)manager;
+      managerImpl.setMaxCachedRegistrations(1);
+
+      String first = manager.addRegistrationTo("first", registrationProperties, expectations, true).getRegistrationHandle();
+      String second = manager.addRegistrationTo("second", registrationProperties, expectations, true).getRegistrationHandle();
+
+      manager.getRegistration(first);
+      manager.getRegistration(first);
+      assertEquals(1, lookups.get());
+
+      // only one registration can be cached so looking up the second one evicts the first one
+      manager.getRegistration(second);
+      manager.getRegistration(first);
+      assertEquals(3, lookups.get());
+
+      // invalid registrations are looked up again
+      manager.getRegistration(first).setStatus(RegistrationStatus.INVALID);
+      manager.getRegistration(first);
+      assertEquals(4, lookups.get());
+
+      // cached registrations expire
+      managerImpl.setCachedRegistrationTimeToLive(1);
+      manager.getRegistration(second);
+      Thread.sleep(10);
+      manager.getRegistration(second);
+      assertEquals(6, lookups.get());
+   }
+
+   public void testCachedRegistrationsAreDiscardedWhenModified() throws Exception
+   {
+      final AtomicInteger lookups = new AtomicInteger();
+      manager.setPersistenceManager(new RegistrationPersistenceManagerImpl()
+      {
+         @Override
+         public Registration getRegistration(String registrationId) throws RegistrationException
+         {
+            lookups.incrementAndGet();
+            return super.getRegistration(registrationId);
+         }
+      });
+
+      Registration reg = manager.addRegistrationTo("consumer", registrationProperties, expectations, true);
+      String handle = reg.getRegistrationHandle();
+      manager.getRegistration(handle);
+      assertEquals(1, lookups.get());
+
+      // saving the registration or its consumer without going through the manager should invalidate the cached version
+      manager.getPersistenceManager().saveChangesTo(reg);
+      manager.getRegistration(handle);
+      assertEquals(2, lookups.get());
+
+      manager.getPersistenceManager().saveChangesTo(reg.getConsumer());
+      manager.getRegistration(handle);
+      assertEquals(3, lookups.get());
+
+      // so should changing its status, even if the change isn't saved
+      reg.setStatus(RegistrationStatus.PENDING);
+      manager.getRegistration(handle);
+      manager.getRegistration(handle);
+      assertEquals(4, lookups.get());
+
+      // setting the same status again isn't a change
+      reg.setStatus(RegistrationStatus.PENDING);
+      manager.getRegistration(handle);
+      assertEquals(4, lookups.get());
+   }
+
+   public void testCachedNonRegisteredRegistrationExpires() throws Exception
+   {
+      final AtomicInteger lookups = new AtomicInteger();
+      manager.setPersistenceManager(new RegistrationPersistenceManagerImpl()
+      {
+         @Override
+         public Consumer getConsumerById(String consumerId) throws RegistrationException
+         {
+            lookups.incrementAndGet();
+            return super.getConsumerById(consumerId);
+         }
+      });
+
+      final Registration registration = manager.getNonRegisteredRegistration();
+      final int afterCreation = lookups.get();
+      assertEquals(registration, manager.getNonRegisteredRegistration());
+      assertEquals(afterCreation, lookups.get());
+
+      ((RegistrationManagerImpl)manager).setCachedRegistrationTimeToLive(1);
+      manager.getNonRegisteredRegistration();
+      Thread.sleep(10);
+      assertEquals(registration, manager.getNonRegisteredRegistration());
+      assertTrue(lookups.get() > afterCreation);
+   }
 }
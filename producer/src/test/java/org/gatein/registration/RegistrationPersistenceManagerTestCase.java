@@ -25,6 +25,15 @@ package org.gatein.registration;
 
 import org.gatein.registration.impl.RegistrationPersistenceManagerImpl;
 
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /**
  * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
  * @version $Revision: 8784 $
@@ -56,4 +65,52 @@ public class RegistrationPersistenceManagerTestCase extends AbstractRegistration
    {
       return manager;
    }
+
+   public void testConcurrentRegistrations() throws Exception
+   {
+      final int consumerNb = 20;
+      final int registrationsPerConsumer = 50;
+      final ConsumerGroup group = manager.createConsumerGroup("group");
+
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      try
+      {
+         List<Future<Void>> results = new ArrayList<Future<Void>>();
+         for (int i = 0; i < consumerNb; i++)
+         {
+            final String consumerId = "consumer" + i;
+            results.add(executor.submit(new Callable<Void>()
+            {
+               public Void call() throws Exception
+               {
+                  manager.createConsumer(consumerId, consumerId);
+                  manager.addConsumerToGroupNamed(consumerId, group.getName());
+                  for (int j = 0; j < registrationsPerConsumer; j++)
+                  {
+                     manager.addRegistrationFor(consumerId, Collections.<QName, Object>emptyMap());
+                  }
+                  return null;
+               }
+            }));
+         }
+
+         for (Future<Void> result : results)
+         {
+            result.get();
+         }
+      }
+      finally
+      {
+         executor.shutdown();
+      }
+
+      assertEquals(consumerNb, manager.getConsumers().size());
+      assertEquals(consumerNb, group.getConsumers().size());
+      assertEquals(consumerNb * registrationsPerConsumer, manager.getRegistrations().size());
+      for (Consumer consumer : manager.getConsumers())
+      {
+         assertEquals(registrationsPerConsumer, consumer.getRegistrations().size());
+         assertEquals(group, consumer.getGroup());
+      }
+   }
 }
@@ -25,6 +25,7 @@ package org.gatein.registration;
 
 import junit.framework.TestCase;
 import org.gatein.pc.api.PortletContext;
+import org.gatein.registration.impl.RegistrationImpl;
 import org.gatein.registration.impl.RegistrationManagerImpl;
 import org.gatein.registration.impl.RegistrationPersistenceManagerImpl;
 import org.gatein.registration.policies.DefaultRegistrationPolicy;
@@ -175,4 +176,29 @@ public class RegistrationTestCase extends TestCase
       knownPortletContexts = registration.getKnownPortletContexts();
       assertTrue(knownPortletContexts.isEmpty());
    }
+
+   public void testLazilyLoadedPortletContexts() throws RegistrationException
+   {
+      PortletContext foo = PortletContext.createPortletContext("webapp", "foo");
+
+      ((RegistrationImpl)registration).addPortletContextId(foo.getId());
+      assertTrue(registration.knows(foo));
+      assertTrue(registration.knows(foo.getId()));
+
+      // adding an already known portlet context shouldn't result in a duplicate
+      registration.addPortletContext(foo);
+      Set<PortletContext> knownPortletContexts = registration.getKnownPortletContexts();
+      assertEquals(1, knownPortletContexts.size());
+      assertTrue(knownPortletContexts.contains(foo));
+
+      PortletContext bar = PortletContext.createPortletContext("webapp", "bar");
+      ((RegistrationImpl)registration).addPortletContextId(bar.getId());
+      knownPortletContexts = registration.getKnownPortletContexts();
+      assertEquals(2, knownPortletContexts.size());
+      assertTrue(knownPortletContexts.contains(bar));
+
+      registration.removePortletContext(bar);
+      assertFalse(registration.knows(bar));
+      assertEquals(1, registration.getKnownPortletContexts().size());
+   }
 }
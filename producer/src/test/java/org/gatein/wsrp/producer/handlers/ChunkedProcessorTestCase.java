@@ -0,0 +1,259 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.handlers;
+
+import junit.framework.TestCase;
+import org.gatein.pc.api.PortletContext;
+import org.gatein.registration.impl.RegistrationPersistenceManagerImpl;
+import org.gatein.registration.spi.RegistrationSPI;
+import org.gatein.wsrp.WSRPTypeFactory;
+import org.gatein.wsrp.WSRPUtils;
+import org.gatein.wsrp.producer.StateAccessBatcher;
+import org.oasis.wsrp.v2.CopiedPortlet;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class ChunkedProcessorTestCase extends TestCase
+{
+   private static final ChunkedProcessor.ItemProcessor<Integer, Integer> DOUBLER = new ChunkedProcessor.ItemProcessor<Integer, Integer>()
+   {
+      public Integer process(Integer item) throws Exception
+      {
+         if (item % 5 == 0)
+         {
+            throw new IllegalArgumentException("" + item);
+         }
+         return item * 2;
+      }
+   };
+
+   public void testOutcomesAreOrderedAndFailuresRecordedPerItem()
+   {
+      checkOutcomes(new ChunkedProcessor(3, 1));
+      checkOutcomes(new ChunkedProcessor(3, 4));
+      checkOutcomes(new ChunkedProcessor(100, 4));
+   }
+
+   public void testEachChunkIsProcessedInABatch()
+   {
+      final CountingBatcher batcher = new CountingBatcher();
+      new ChunkedProcessor(3, 4).process(createItems(10), DOUBLER, batcher);
+
+      // 4 chunks, 2 of which contain a failing element and are therefore processed again without it
+      assertEquals(6, batcher.begun.get());
+      assertEquals(6, batcher.ended.get());
+      assertEquals(2, batcher.failed.get());
+   }
+
+   public void testChunkWithFailuresIsDiscardedAndSuccessfulElementsProcessedAgain()
+   {
+      final List<Integer> processed = new ArrayList<Integer>();
+      final CountingBatcher batcher = new CountingBatcher();
+      final List<ChunkedProcessor.Outcome<Integer>> outcomes = new ChunkedProcessor(4, 1).process(createItems(4), new ChunkedProcessor.ItemProcessor<Integer, Integer>()
+      {
+         public Integer process(Integer item) throws Exception
+         {
+            processed.add(item);
+            return DOUBLER.process(item);
+         }
+      }, batcher);
+
+      // first batch fails because of element 0 so elements 1 to 3 are processed again in a second batch
+      assertEquals(2, batcher.begun.get());
+      assertEquals(1, batcher.failed.get());
+      assertEquals(7, processed.size());
+      assertEquals(Arrays.asList(1, 2, 3), processed.subList(4, 7));
+
+      assertFalse(outcomes.get(0).isSuccess());
+      for (int i = 1; i < 4; i++)
+      {
+         assertEquals(i * 2, outcomes.get(i).getResult().intValue());
+      }
+   }
+
+   public void testSuccessfulElementsAreOnlyProcessedAgainOnce()
+   {
+      final List<Integer> processed = new ArrayList<Integer>();
+      final CountingBatcher batcher = new CountingBatcher();
+      final List<ChunkedProcessor.Outcome<Integer>> outcomes = new ChunkedProcessor(4, 1).process(createItems(4), new ChunkedProcessor.ItemProcessor<Integer, Integer>()
+      {
+         public Integer process(Integer item) throws Exception
+         {
+            processed.add(item);
+
+            // element 0 fails on the first pass, element 1 on the second one
+            if ((item == 0 && processed.size() == 1) || (item == 1 && processed.size() > 4))
+            {
+               throw new IllegalArgumentException("" + item);
+            }
+            return item;
+         }
+      }, batcher);
+
+      // the second batch also failed but its elements shouldn't be processed a third time
+      assertEquals(2, batcher.begun.get());
+      assertEquals(2, batcher.failed.get());
+      assertEquals(7, processed.size());
+
+      assertEquals("0", outcomes.get(0).getError().getMessage());
+      assertEquals("1", outcomes.get(1).getError().getMessage());
+      for (int i = 2; i < 4; i++)
+      {
+         final ChunkedProcessor.Outcome<Integer> outcome = outcomes.get(i);
+         assertFalse(outcome.isSuccess());
+         assertEquals(ChunkedProcessor.DISCARDED_MESSAGE, outcome.getError().getMessage());
+      }
+   }
+
+   public void testDiscardedCopiesAreRemovedFromRegistration() throws Exception
+   {
+      final RegistrationPersistenceManagerImpl persistenceManager = new RegistrationPersistenceManagerImpl();
+      persistenceManager.createConsumer("consumer", "consumer");
+      final RegistrationSPI registration = persistenceManager.addRegistrationFor("consumer", new HashMap<QName, Object>());
+
+      // simulate copying portlets: each copy creates a new clone, with a new handle, added to the target registration
+      final AtomicInteger clones = new AtomicInteger();
+      final List<ChunkedProcessor.Outcome<CopiedPortlet>> outcomes = new ChunkedProcessor(4, 1).process(createItems(4), new ChunkedProcessor.DiscardableItemProcessor<Integer, CopiedPortlet>()
+      {
+         public CopiedPortlet process(Integer item) throws Exception
+         {
+            if (item == 1)
+            {
+               throw new IllegalArgumentException("" + item);
+            }
+
+            final PortletContext clone = PortletContext.createPortletContext("_clone" + clones.incrementAndGet());
+            registration.addPortletContext(clone);
+            return WSRPTypeFactory.createCopiedPortlet(WSRPUtils.convertToWSRPPortletContext(clone), "" + item);
+         }
+
+         public void discard(Integer item, CopiedPortlet result) throws Exception
+         {
+            PortletManagementHandler.discardClone(registration, result.getNewPortletContext());
+         }
+      }, new CountingBatcher());
+
+      // the clones created in the discarded batch shouldn't be referenced by the registration anymore
+      assertEquals(6, clones.get());
+      final Set<String> expected = new HashSet<String>();
+      for (ChunkedProcessor.Outcome<CopiedPortlet> outcome : outcomes)
+      {
+         if (outcome.isSuccess())
+         {
+            expected.add(outcome.getResult().getNewPortletContext().getPortletHandle());
+         }
+      }
+      assertEquals(new HashSet<String>(Arrays.asList("_clone4", "_clone5", "_clone6")), expected);
+
+      final Set<String> known = new HashSet<String>();
+      for (PortletContext portletContext : registration.getKnownPortletContexts())
+      {
+         known.add(portletContext.getId());
+      }
+      assertEquals(expected, known);
+   }
+
+   public void testFailedBatchFailsWholeChunk()
+   {
+      final CountingBatcher batcher = new CountingBatcher()
+      {
+         @Override
+         public void endBatch(boolean success)
+         {
+            super.endBatch(success);
+            throw new IllegalStateException("Couldn't save");
+         }
+      };
+
+      final List<ChunkedProcessor.Outcome<Integer>> outcomes = new ChunkedProcessor(3, 2).process(createItems(7), DOUBLER, batcher);
+      assertEquals(7, outcomes.size());
+      for (ChunkedProcessor.Outcome<Integer> outcome : outcomes)
+      {
+         assertFalse(outcome.isSuccess());
+         assertTrue(outcome.getError() instanceof IllegalStateException);
+      }
+   }
+
+   private void checkOutcomes(ChunkedProcessor processor)
+   {
+      final List<ChunkedProcessor.Outcome<Integer>> outcomes = processor.process(createItems(11), DOUBLER, null);
+      assertEquals(11, outcomes.size());
+      for (int i = 0; i < outcomes.size(); i++)
+      {
+         final ChunkedProcessor.Outcome<Integer> outcome = outcomes.get(i);
+         if (i % 5 == 0)
+         {
+            assertFalse(outcome.isSuccess());
+            assertEquals("" + i, outcome.getError().getMessage());
+         }
+         else
+         {
+            assertTrue(outcome.isSuccess());
+            assertEquals(i * 2, outcome.getResult().intValue());
+         }
+      }
+   }
+
+   private static List<Integer> createItems(int number)
+   {
+      final List<Integer> items = new ArrayList<Integer>(number);
+      for (int i = 0; i < number; i++)
+      {
+         items.add(i);
+      }
+      return items;
+   }
+
+   private static class CountingBatcher implements StateAccessBatcher
+   {
+      final AtomicInteger begun = new AtomicInteger();
+      final AtomicInteger ended = new AtomicInteger();
+      final AtomicInteger failed = new AtomicInteger();
+
+      public void beginBatch()
+      {
+         begun.incrementAndGet();
+      }
+
+      public void endBatch(boolean success)
+      {
+         ended.incrementAndGet();
+         if (!success)
+         {
+            failed.incrementAndGet();
+         }
+      }
+   }
+}
@@ -0,0 +1,146 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.handlers.processors;
+
+import junit.framework.TestCase;
+import org.gatein.pc.api.cache.CacheControl;
+import org.gatein.pc.api.cache.CacheScope;
+import org.gatein.pc.api.invocation.response.ContentResponse;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class FragmentCacheTestCase extends TestCase
+{
+   private FragmentCache cache;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      cache = new FragmentCache();
+      cache.setMaxEntries(2);
+   }
+
+   public void testDisabledByDefault()
+   {
+      FragmentCache disabled = new FragmentCache();
+      assertFalse(disabled.isEnabled());
+      FragmentCache.Key key = new FragmentCache.Key("handle", null, "view");
+      assertNull(disabled.put(key, createResponse(60)));
+      assertNull(disabled.get(key));
+   }
+
+   public void testPutAndGet()
+   {
+      FragmentCache.Key key = new FragmentCache.Key("handle", new byte[]{1, 2}, "registration", "view", null);
+      ContentResponse response = createResponse(60);
+      FragmentCache.Entry entry = cache.put(key, response);
+      assertNotNull(entry);
+      assertNotNull(entry.getValidateTag());
+      assertTrue(entry.getRemainingSeconds() > 0 && entry.getRemainingSeconds() <= 60);
+
+      // equivalent keys should retrieve the same entry
+      assertSame(entry, cache.get(new FragmentCache.Key("handle", new byte[]{1, 2}, "registration", "view", null)));
+
+      // different state or values shouldn't
+      assertNull(cache.get(new FragmentCache.Key("handle", new byte[]{1, 3}, "registration", "view", null)));
+      assertNull(cache.get(new FragmentCache.Key("handle", new byte[]{1, 2}, "registration", "edit", null)));
+   }
+
+   public void testResponsesWithoutExpirationAreNotCached()
+   {
+      FragmentCache.Key key = new FragmentCache.Key("handle", null, "view");
+      assertNull(cache.put(key, createResponse(0)));
+      assertNull(cache.get(key));
+
+      // -1 means never expires
+      FragmentCache.Entry entry = cache.put(key, createResponse(-1));
+      assertEquals(-1, entry.getRemainingSeconds());
+   }
+
+   public void testLeastRecentlyUsedEntryIsEvictedWhenFull()
+   {
+      FragmentCache.Key key1 = new FragmentCache.Key("handle1", null);
+      FragmentCache.Key key2 = new FragmentCache.Key("handle2", null);
+      FragmentCache.Key key3 = new FragmentCache.Key("handle3", null);
+      assertNotNull(cache.put(key1, createResponse(60)));
+      assertNotNull(cache.put(key2, createResponse(60)));
+
+      // accessing key1 makes key2 the least recently used fragment
+      assertNotNull(cache.get(key1));
+
+      assertNotNull(cache.put(key3, createResponse(60)));
+      assertEquals(2, cache.size());
+      assertNotNull(cache.get(key1));
+      assertNull(cache.get(key2));
+      assertNotNull(cache.get(key3));
+   }
+
+   public void testReplacingEntryDoesNotEvictOthers()
+   {
+      FragmentCache.Key key1 = new FragmentCache.Key("handle1", null);
+      FragmentCache.Key key2 = new FragmentCache.Key("handle2", null);
+      cache.put(key1, createResponse(60));
+      cache.put(key2, createResponse(60));
+
+      assertNotNull(cache.put(key1, createResponse(60)));
+      assertEquals(2, cache.size());
+      assertNotNull(cache.get(key2));
+   }
+
+   public void testReducingMaxEntriesEvicts()
+   {
+      cache.put(new FragmentCache.Key("handle1", null), createResponse(60));
+      cache.put(new FragmentCache.Key("handle2", null), createResponse(60));
+
+      cache.setMaxEntries(1);
+      assertEquals(1, cache.size());
+      assertNotNull(cache.get(new FragmentCache.Key("handle2", null)));
+   }
+
+   public void testValidateTagsAreUnique()
+   {
+      FragmentCache.Entry first = cache.put(new FragmentCache.Key("handle", null), createResponse(60));
+      FragmentCache.Entry second = cache.put(new FragmentCache.Key("handle", null), createResponse(60));
+      assertFalse(first.getValidateTag().equals(second.getValidateTag()));
+   }
+
+   public void testInvalidate()
+   {
+      FragmentCache.Key key1 = new FragmentCache.Key("handle1", null, "view");
+      FragmentCache.Key key2 = new FragmentCache.Key("handle2", null, "view");
+      cache.put(key1, createResponse(60));
+      cache.put(key2, createResponse(60));
+
+      cache.invalidate("handle1");
+      assertNull(cache.get(key1));
+      assertNotNull(cache.get(key2));
+   }
+
+   private static ContentResponse createResponse(int expirationSecs)
+   {
+      return new ContentResponse(null, null, "text/html", null, "markup", new CacheControl(expirationSecs, CacheScope.PRIVATE, null));
+   }
+}
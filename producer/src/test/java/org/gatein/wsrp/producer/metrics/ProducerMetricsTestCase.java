@@ -0,0 +1,148 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2010, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.metrics;
+
+import junit.framework.TestCase;
+import org.gatein.wsrp.metrics.OperationStatistics;
+import org.gatein.wsrp.producer.v2.WSRP2Producer;
+import org.oasis.wsrp.v2.InvalidHandle;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class ProducerMetricsTestCase extends TestCase
+{
+   public void testOperationStatistics()
+   {
+      final ProducerMetrics metrics = new ProducerMetrics(10);
+
+      final ProducerMetrics.Invocation first = metrics.start("getMarkup", "reg1", "portlet1", 10);
+      final ProducerMetrics.Invocation second = metrics.start("getMarkup", "reg1", "portlet2", 0);
+      assertEquals(2, metrics.getInFlight());
+
+      first.end(null, 100);
+      second.end(new InvalidHandle("invalid", null), 0);
+      metrics.start("getMarkup", null, "portlet1", 0).end(new InvalidHandle("invalid", null), 0);
+      assertEquals(0, metrics.getInFlight());
+
+      final List<OperationStatistics> statistics = metrics.getOperationStatistics();
+      assertEquals(1, statistics.size());
+      final OperationStatistics getMarkup = statistics.get(0);
+      assertEquals("getMarkup", getMarkup.getOperation());
+      assertEquals(3, getMarkup.getInvocationCount());
+      assertEquals(2, getMarkup.getErrorCount());
+      assertEquals(Long.valueOf(2), getMarkup.getErrorCountsByFault().get("InvalidHandle"));
+      assertEquals(100, getMarkup.getMaxResponseSize());
+      assertEquals(33, getMarkup.getMeanResponseSize());
+      assertTrue(getMarkup.getMaxLatencyMillis() >= getMarkup.getMeanLatencyMillis());
+      assertTrue(getMarkup.getPercentile99LatencyMillis() >= getMarkup.getMedianLatencyMillis());
+
+      metrics.reset();
+      assertEquals(0, metrics.getOperationStatistics().get(0).getInvocationCount());
+      assertTrue(metrics.getTopRegistrations().isEmpty());
+   }
+
+   public void testTopKeys()
+   {
+      final ProducerMetrics metrics = new ProducerMetrics(10);
+
+      metrics.start("getMarkup", "reg1", "portlet1", 0).end(null, 0);
+      final ProducerMetrics.Invocation slow = metrics.start("getMarkup", "reg2", "portlet2", 0);
+      sleep();
+      slow.end(null, 0);
+      metrics.start("getServiceDescription", null, null, 0).end(null, 0);
+
+      // registrations are ordered by decreasing load
+      final List<KeyStatistics> registrations = metrics.getTopRegistrations();
+      assertEquals(3, registrations.size());
+      assertEquals("reg2", registrations.get(0).getKey());
+
+      // operations not targeting a portlet are not recorded for any portlet
+      final List<KeyStatistics> portlets = metrics.getTopPortlets();
+      assertEquals(2, portlets.size());
+      assertEquals("portlet2", portlets.get(0).getKey());
+
+      metrics.setTopN(1);
+      assertEquals(1, metrics.getTopPortlets().size());
+   }
+
+   public void testTrackedKeysAreBounded()
+   {
+      final ProducerMetrics metrics = new ProducerMetrics(4);
+      metrics.setTopN(100);
+
+      final ProducerMetrics.Invocation heavy = metrics.start("getMarkup", "heavy", null, 0);
+      sleep();
+      heavy.end(null, 0);
+
+      for (int i = 0; i < 20; i++)
+      {
+         metrics.start("getMarkup", "reg" + i, null, 0).end(null, 0);
+      }
+
+      final List<KeyStatistics> registrations = metrics.getTopRegistrations();
+      assertTrue(registrations.size() <= 4);
+      assertEquals("heavy", registrations.get(0).getKey());
+   }
+
+   public void testInstrumentedProducerHandlesObjectMethods()
+   {
+      final WSRP2Producer producer = (WSRP2Producer)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{WSRP2Producer.class}, new InvocationHandler()
+      {
+         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+         {
+            if ("toString".equals(method.getName()))
+            {
+               return "producer";
+            }
+            throw new UnsupportedOperationException(method.getName());
+         }
+      });
+
+      final WSRP2Producer instrumented = new ProducerMetrics(10).instrument(producer);
+      assertTrue(instrumented.equals(instrumented));
+      assertFalse(instrumented.equals(producer));
+      assertFalse(instrumented.equals(new ProducerMetrics(10).instrument(producer)));
+      assertEquals(System.identityHashCode(instrumented), instrumented.hashCode());
+      assertEquals("Instrumented producer", instrumented.toString());
+   }
+
+   private static void sleep()
+   {
+      try
+      {
+         Thread.sleep(5);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+}
@@ -0,0 +1,99 @@
+/*
+ * JBoss, a division of Red Hat
+ * Copyright 2012, Red Hat Middleware, LLC, and individual
+ * contributors as indicated by the @authors tag. See the
+ * copyright.txt in the distribution for a full listing of
+ * individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.gatein.wsrp.producer.resources;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class ResourceServingServletTestCase extends TestCase
+{
+   public void testParseRange()
+   {
+      assertNull(ResourceServingServlet.parseRange(null, 100));
+      assertNull(ResourceServingServlet.parseRange("items=0-10", 100));
+      assertNull(ResourceServingServlet.parseRange("bytes=0-10,20-30", 100));
+      assertNull(ResourceServingServlet.parseRange("bytes=foo", 100));
+      assertNull(ResourceServingServlet.parseRange("bytes=10-5", 100));
+
+      assertTrue(Arrays.equals(new long[]{0, 10}, ResourceServingServlet.parseRange("bytes=0-10", 100)));
+      assertTrue(Arrays.equals(new long[]{50, 99}, ResourceServingServlet.parseRange("bytes=50-", 100)));
+      assertTrue(Arrays.equals(new long[]{90, 99}, ResourceServingServlet.parseRange("bytes=-10", 100)));
+      assertTrue(Arrays.equals(new long[]{0, 99}, ResourceServingServlet.parseRange("bytes=-200", 100)));
+      assertTrue(Arrays.equals(new long[]{90, 99}, ResourceServingServlet.parseRange("bytes=90-200", 100)));
+
+      // unsatisfiable
+      assertEquals(0, ResourceServingServlet.parseRange("bytes=100-", 100).length);
+      assertEquals(0, ResourceServingServlet.parseRange("bytes=-0", 100).length);
+   }
+
+   public void testMatches()
+   {
+      String eTag = ResourceServingServlet.computeETag("content".getBytes());
+      assertTrue(eTag.startsWith("\"") && eTag.endsWith("\""));
+      assertEquals(eTag, ResourceServingServlet.computeETag("content".getBytes()));
+      assertFalse(eTag.equals(ResourceServingServlet.computeETag("other".getBytes())));
+
+      assertFalse(ResourceServingServlet.matches(null, eTag));
+      assertFalse(ResourceServingServlet.matches("\"foo\"", eTag));
+      assertTrue(ResourceServingServlet.matches(eTag, eTag));
+      assertTrue(ResourceServingServlet.matches("\"foo\", " + eTag, eTag));
+      assertTrue(ResourceServingServlet.matches("W/" + eTag, eTag));
+      assertTrue(ResourceServingServlet.matches("*", eTag));
+
+      // compressed variant of the same content
+      String gzipETag = eTag.substring(0, eTag.length() - 1) + "-gzip\"";
+      assertTrue(ResourceServingServlet.matches(gzipETag, eTag));
+   }
+
+   public void testAcceptsGzip()
+   {
+      assertFalse(ResourceServingServlet.acceptsGzip((String)null));
+      assertFalse(ResourceServingServlet.acceptsGzip(""));
+      assertFalse(ResourceServingServlet.acceptsGzip("deflate"));
+      assertTrue(ResourceServingServlet.acceptsGzip("gzip"));
+      assertTrue(ResourceServingServlet.acceptsGzip("deflate, GZIP"));
+      assertTrue(ResourceServingServlet.acceptsGzip("x-gzip"));
+      assertTrue(ResourceServingServlet.acceptsGzip("gzip;q=0.5"));
+      assertTrue(ResourceServingServlet.acceptsGzip("gzip ; q=0.01, identity"));
+
+      // explicitly refused
+      assertFalse(ResourceServingServlet.acceptsGzip("gzip;q=0"));
+      assertFalse(ResourceServingServlet.acceptsGzip("gzip; q=0.0"));
+      assertFalse(ResourceServingServlet.acceptsGzip("gzip;q=0.000, *"));
+      assertFalse(ResourceServingServlet.acceptsGzip("gzip;q=invalid"));
+
+      // a non-zero quality value that happens to start with 0 shouldn't be mistaken for a refusal
+      assertTrue(ResourceServingServlet.acceptsGzip("gzip;q=0.8"));
+
+      // wildcard only applies if gzip isn't listed
+      assertTrue(ResourceServingServlet.acceptsGzip("*"));
+      assertFalse(ResourceServingServlet.acceptsGzip("*;q=0"));
+      assertTrue(ResourceServingServlet.acceptsGzip("gzip, *;q=0"));
+   }
+}
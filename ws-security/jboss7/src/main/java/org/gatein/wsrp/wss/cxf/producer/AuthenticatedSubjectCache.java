@@ -0,0 +1,215 @@
+/******************************************************************************
+ * JBoss, a division of Red Hat                                               *
+ * Copyright 2012, Red Hat Middleware, LLC, and individual                    *
+ * contributors as indicated by the @authors tag. See the                     *
+ * copyright.txt in the distribution for a full listing of                    *
+ * individual contributors.                                                   *
+ *                                                                            *
+ * This is free software; you can redistribute it and/or modify it            *
+ * under the terms of the GNU Lesser General Public License as                *
+ * published by the Free Software Foundation; either version 2.1 of           *
+ * the License, or (at your option) any later version.                        *
+ *                                                                            *
+ * This software is distributed in the hope that it will be useful,           *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU           *
+ * Lesser General Public License for more details.                            *
+ *                                                                            *
+ * You should have received a copy of the GNU Lesser General Public           *
+ * License along with this software; if not, write to the Free                *
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA         *
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.                   *
+ ******************************************************************************/
+package org.gatein.wsrp.wss.cxf.producer;
+
+import javax.security.auth.Subject;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the Subjects created for already verified username / password pairs, so that repeated calls from
+ * the same consumer user don't require verifying the credentials against the security domain again. Credentials are
+ * never kept as such: entries are keyed by a salted SHA-256 hash of the credentials and expire after a configurable
+ * amount of time so that password changes and revoked accounts are eventually taken into account. Cached Subjects are
+ * never shared: callers get their own copy, which they are free to modify.
+ *
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class AuthenticatedSubjectCache
+{
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   private final int maxEntries;
+   private final long ttl;
+   private final byte[] salt;
+   private final Map<String, Entry> entries;
+
+   /**
+    * @param maxEntries the maximum number of cached Subjects, <code>0</code> disabling the cache
+    * @param ttl        how long, in milliseconds, a cached Subject can be reused
+    */
+   public AuthenticatedSubjectCache(final int maxEntries, long ttl)
+   {
+      if (maxEntries < 0)
+      {
+         throw new IllegalArgumentException("Maximum number of entries must be positive or zero");
+      }
+      if (ttl < 0)
+      {
+         throw new IllegalArgumentException("Time to live must be positive or zero");
+      }
+
+      this.maxEntries = maxEntries;
+      this.ttl = ttl;
+
+      // salt hashes so that they cannot be matched against precomputed hashes of common passwords
+      salt = new byte[16];
+      new SecureRandom().nextBytes(salt);
+
+      entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+      {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+         {
+            return size() > maxEntries;
+         }
+      };
+   }
+
+   public boolean isEnabled()
+   {
+      return maxEntries > 0 && ttl > 0;
+   }
+
+   /**
+    * Computes the key associated with the specified credentials.
+    *
+    * @param username the user name
+    * @param password the password
+    * @param isDigest whether the password is digested, in which case it depends on the nonce and creation time of the
+    *                 message it was sent with so that the associated Subject cannot be reused
+    * @return the key under which a Subject authenticated with these credentials is cached or <code>null</code> if it
+    *         cannot be cached
+    */
+   public String keyFor(String username, String password, boolean isDigest)
+   {
+      if (isDigest || !isEnabled())
+      {
+         return null;
+      }
+
+      try
+      {
+         MessageDigest digest = MessageDigest.getInstance("SHA-256");
+         digest.update(salt);
+         digest.update(username.getBytes("UTF-8"));
+         digest.update((byte)0);
+         digest.update((password != null ? password : "").getBytes("UTF-8"));
+
+         byte[] hash = digest.digest();
+         char[] key = new char[hash.length * 2];
+         for (int i = 0; i < hash.length; i++)
+         {
+            key[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+            key[2 * i + 1] = HEX[hash[i] & 0xF];
+         }
+         return new String(key);
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+         throw new IllegalStateException("SHA-256 should always be available", e);
+      }
+      catch (UnsupportedEncodingException e)
+      {
+         throw new IllegalStateException("UTF-8 should always be available", e);
+      }
+   }
+
+   /**
+    * Retrieves a copy of the Subject cached for the specified key if it hasn't expired yet.
+    *
+    * @param key a key obtained from {@link #keyFor(String, String, boolean)}
+    * @return a copy of the cached Subject or <code>null</code> if none is available
+    */
+   public Subject get(String key)
+   {
+      if (key == null || !isEnabled())
+      {
+         return null;
+      }
+
+      synchronized (entries)
+      {
+         Entry entry = entries.get(key);
+         if (entry == null)
+         {
+            return null;
+         }
+
+         if (System.currentTimeMillis() >= entry.expiresAt)
+         {
+            entries.remove(key);
+            return null;
+         }
+
+         return copy(entry.subject);
+      }
+   }
+
+   /**
+    * Caches a copy of the specified Subject, so that later modifications of the Subject don't affect the cached one.
+    *
+    * @param key     a key obtained from {@link #keyFor(String, String, boolean)}, nothing being cached if it is
+    *                <code>null</code>
+    * @param subject the Subject authenticated with the credentials associated with the key
+    */
+   public void put(String key, Subject subject)
+   {
+      if (key != null && isEnabled())
+      {
+         final Entry entry = new Entry(copy(subject), System.currentTimeMillis() + ttl);
+         synchronized (entries)
+         {
+            entries.put(key, entry);
+         }
+      }
+   }
+
+   private static Subject copy(Subject subject)
+   {
+      return new Subject(false, subject.getPrincipals(), subject.getPublicCredentials(), subject.getPrivateCredentials());
+   }
+
+   public void clear()
+   {
+      synchronized (entries)
+      {
+         entries.clear();
+      }
+   }
+
+   public int size()
+   {
+      synchronized (entries)
+      {
+         return entries.size();
+      }
+   }
+
+   private static class Entry
+   {
+      private final Subject subject;
+      private final long expiresAt;
+
+      private Entry(Subject subject, long expiresAt)
+      {
+         this.subject = subject;
+         this.expiresAt = expiresAt;
+      }
+   }
+}
@@ -23,11 +23,15 @@
 package org.gatein.wsrp.wss.cxf.producer;
 
 import org.apache.cxf.binding.soap.SoapMessage;
+import org.apache.cxf.helpers.CastUtils;
 import org.apache.cxf.interceptor.Fault;
 import org.apache.ws.security.WSConstants;
 import org.apache.ws.security.WSSecurityEngineResult;
 import org.apache.ws.security.WSUsernameTokenPrincipal;
 import org.apache.ws.security.handler.WSHandlerConstants;
+import org.apache.ws.security.handler.WSHandlerResult;
+import org.jboss.wsf.spi.deployment.Endpoint;
+import org.jboss.wsf.spi.security.SecurityDomainContext;
 import org.jboss.wsf.stack.cxf.security.authentication.SubjectCreatingInterceptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,9 +56,23 @@ public class GTNSubjectCreatingInterceptor extends SubjectCreatingInterceptor
 
    private static final String USERNAME_TOKEN_IFAVAILABLE = "gtn.UsernameToken.ifAvailable";
 
-   protected boolean gtnUsernameTokenIfAvailable = false;
+   /** Maximum number of authenticated Subjects to cache, 0 disabling the cache. */
+   public static final String SUBJECT_CACHE_MAX_ENTRIES = "gtn.subjectCache.maxEntries";
 
-   private WSUsernameTokenPrincipal wsUsernameTokenPrincipal = null;
+   /** How long, in seconds, an authenticated Subject can be reused before credentials are verified again. */
+   public static final String SUBJECT_CACHE_TTL = "gtn.subjectCache.ttl";
+
+   private static final int DEFAULT_SUBJECT_CACHE_MAX_ENTRIES = 1000;
+   private static final int DEFAULT_SUBJECT_CACHE_TTL = 60;
+
+   protected volatile boolean gtnUsernameTokenIfAvailable = false;
+
+   private volatile boolean configured = false;
+
+   private volatile AuthenticatedSubjectCache subjectCache;
+
+   /** Security domain of the endpoint the message being processed by the current thread is sent to. */
+   private final ThreadLocal<SecurityDomainContext> securityDomainContext = new ThreadLocal<SecurityDomainContext>();
 
    public GTNSubjectCreatingInterceptor()
    {
@@ -66,16 +84,56 @@ public class GTNSubjectCreatingInterceptor extends SubjectCreatingInterceptor
       super(properties);
    }
 
+   /**
+    * Resolves the gtn.UsernameToken.ifAvailable pseudo-action once and for all instead of rewriting the shared action
+    * property for each message, which isn't safe when messages are processed concurrently.
+    */
+   private synchronized void configureIfNeeded()
+   {
+      if (!configured)
+      {
+         String actionProperty = (String)getProperties().get(WSHandlerConstants.ACTION);
+         if (actionProperty != null && actionProperty.contains(USERNAME_TOKEN_IFAVAILABLE))
+         {
+            gtnUsernameTokenIfAvailable = true;
+            setProperty(WSHandlerConstants.ACTION, actionProperty.replace(USERNAME_TOKEN_IFAVAILABLE, WSHandlerConstants.USERNAME_TOKEN));
+         }
+
+         subjectCache = new AuthenticatedSubjectCache(getIntProperty(SUBJECT_CACHE_MAX_ENTRIES, DEFAULT_SUBJECT_CACHE_MAX_ENTRIES),
+            getIntProperty(SUBJECT_CACHE_TTL, DEFAULT_SUBJECT_CACHE_TTL) * 1000L);
+
+         configured = true;
+      }
+   }
+
+   private int getIntProperty(String name, int defaultValue)
+   {
+      Object value = getProperties().get(name);
+      if (value != null)
+      {
+         try
+         {
+            return Integer.parseInt(value.toString().trim());
+         }
+         catch (NumberFormatException e)
+         {
+            log.warn("Invalid value '" + value + "' for " + name + ", using " + defaultValue + " instead.");
+         }
+      }
+      return defaultValue;
+   }
+
    @Override
    public void handleMessage(SoapMessage msg) throws Fault
    {
-      String actionProperty = (String)this.getProperties().get(WSHandlerConstants.ACTION);
-      if (actionProperty.contains(USERNAME_TOKEN_IFAVAILABLE))
+      if (!configured)
       {
-         gtnUsernameTokenIfAvailable = true;
-         this.setProperty(WSHandlerConstants.ACTION, actionProperty.replace(USERNAME_TOKEN_IFAVAILABLE, WSHandlerConstants.USERNAME_TOKEN));
+         configureIfNeeded();
       }
 
+      // remember the security domain so that Subjects can be associated with it without verifying credentials again
+      final Endpoint endpoint = msg.getExchange().get(Endpoint.class);
+      securityDomainContext.set(endpoint != null ? endpoint.getSecurityDomainContext() : null);
       try
       {
          //handle the message here which will create the SecurityContext containing the username and password
@@ -83,33 +141,35 @@ public class GTNSubjectCreatingInterceptor extends SubjectCreatingInterceptor
       }
       finally
       {
-         //Replace the action property with the original property after the parent has handled the message
-         //Note: needed since on the next invocation, the user may have logged out but the action property will  have already been set as "UsernameToken" and the above checks will not be performed.
-         if (gtnUsernameTokenIfAvailable)
-         {
-            this.setProperty(WSHandlerConstants.ACTION, actionProperty);
-         }
+         securityDomainContext.remove();
       }
 
       HttpServletRequest request = (HttpServletRequest)msg.get("HTTP.REQUEST");
+      WSUsernameTokenPrincipal wsUsernameTokenPrincipal = getUsernameTokenPrincipal(msg);
       if (wsUsernameTokenPrincipal != null)
       {
          String username = wsUsernameTokenPrincipal.getName();
          String password = wsUsernameTokenPrincipal.getPassword();
 
-         wsUsernameTokenPrincipal = null;
          try
          {
-            //only perform a login if the user is not already authenticated
-            if (request.getRemoteUser() == null)
+            //only perform a login if the user is not already authenticated as the user sending the message
+            String remoteUser = request.getRemoteUser();
+            if (remoteUser != null && !remoteUser.equals(username))
             {
+               request.logout();
+               remoteUser = null;
+            }
+            if (remoteUser == null)
+            {
+               // note that this authenticates the user again through the container, which should be configured to
+               // cache authentications in the security domain to avoid repeated accesses to the identity store
                request.login(username, password);
             }
          }
          catch (ServletException e)
          {
-            // FIXME
-            e.printStackTrace();
+            log.warn("Couldn't log user '" + username + "' in.", e);
          }
       }
       // if we didn't get a wsUsernameTokenPrincipal but there is a remote user logged in, then we need to log out the user
@@ -122,17 +182,79 @@ public class GTNSubjectCreatingInterceptor extends SubjectCreatingInterceptor
          }
          catch (ServletException e)
          {
-            //FIXME
-            e.printStackTrace();
+            log.warn("Couldn't log user '" + request.getRemoteUser() + "' out.", e);
          }
       }
    }
 
+   /**
+    * Retrieves the username token principal from the WS-Security processing results of the specified message, if
+    * any. Looking at the message instead of keeping the principal in the interceptor keeps concurrent messages apart.
+    *
+    * @param msg the message being processed
+    * @return the username token principal sent with the message or <code>null</code>
+    */
+   private WSUsernameTokenPrincipal getUsernameTokenPrincipal(SoapMessage msg)
+   {
+      if (!gtnUsernameTokenIfAvailable)
+      {
+         return null;
+      }
+
+      List<WSHandlerResult> handlerResults = CastUtils.cast((List<?>)msg.get(WSHandlerConstants.RECV_RESULTS));
+      if (handlerResults != null)
+      {
+         for (WSHandlerResult handlerResult : handlerResults)
+         {
+            for (WSSecurityEngineResult wsResult : handlerResult.getResults())
+            {
+               Integer actInt = (Integer)wsResult.get(WSSecurityEngineResult.TAG_ACTION);
+               if (actInt != null && actInt == WSConstants.UT)
+               {
+                  Object principal = wsResult.get(WSSecurityEngineResult.TAG_PRINCIPAL);
+                  if (principal instanceof WSUsernameTokenPrincipal)
+                  {
+                     return (WSUsernameTokenPrincipal)principal;
+                  }
+               }
+            }
+         }
+      }
+      return null;
+   }
+
    /* NOTE: this method should be removed when JBWS-3541 has been fixed in the supported version of JBossAS
     * See https://issues.jboss.org/browse/JBWS-3541
     */
    @Override
    public Subject createSubject(String name, String password, boolean isDigest, String nonce, String created)
+   {
+      if (!configured)
+      {
+         configureIfNeeded();
+      }
+
+      // only the verification of the credentials is cached: the Subject still needs to be associated with the current
+      // thread for each message, as the super class does
+      final SecurityDomainContext context = securityDomainContext.get();
+      final String cacheKey = context != null ? subjectCache.keyFor(name, password, isDigest) : null;
+      Subject subject = subjectCache.get(cacheKey);
+      if (subject != null)
+      {
+         log.debug("Reusing Subject previously authenticated for user '" + name + "'");
+         context.pushSubjectContext(subject, subject.getPrincipals().iterator().next(), password);
+         return subject;
+      }
+
+      subject = createSubjectWithNamePrincipalFirst(name, password, isDigest, nonce, created);
+      if (cacheKey != null)
+      {
+         subjectCache.put(cacheKey, subject);
+      }
+      return subject;
+   }
+
+   private Subject createSubjectWithNamePrincipalFirst(String name, String password, boolean isDigest, String nonce, String created)
    {
       Subject originalSubject = super.createSubject(name, password, isDigest, nonce, created);
 
@@ -172,7 +294,7 @@ public class GTNSubjectCreatingInterceptor extends SubjectCreatingInterceptor
       // if the action contains gtn.UsernameToken.ifAvailable then we need to override how this method works
       // so that we don't run into an error that the actions are mismatched. Otherwise the method will fail
       // if we have a username token in the soap message but didn't specify it, or the other way around.
-      wsUsernameTokenPrincipal = null;
+      // Note: actions is a per-message copy of the configured actions so it can safely be modified here.
       if (gtnUsernameTokenIfAvailable)
       {
          boolean foundUsernameTokenResult = false;
@@ -182,17 +304,7 @@ public class GTNSubjectCreatingInterceptor extends SubjectCreatingInterceptor
             Integer actInt = (Integer)wsResult.get(WSSecurityEngineResult.TAG_ACTION);
             if (actInt == WSConstants.UT)
             {
-               //usernametokenResult = wsResult;
                foundUsernameTokenResult = true;
-
-               //since we already have the result and the result contains the username and
-               //password, its easiest to just grab the data here and store it for later.
-               Object principal = wsResult.get(WSSecurityEngineResult.TAG_PRINCIPAL);
-               if (principal != null && principal instanceof WSUsernameTokenPrincipal)
-               {
-                  this.wsUsernameTokenPrincipal = (WSUsernameTokenPrincipal)principal;
-               }
-
                break;
             }
          }
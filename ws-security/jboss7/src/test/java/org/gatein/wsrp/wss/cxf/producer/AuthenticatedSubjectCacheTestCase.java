@@ -0,0 +1,151 @@
+/******************************************************************************
+ * JBoss, a division of Red Hat                                               *
+ * Copyright 2012, Red Hat Middleware, LLC, and individual                    *
+ * contributors as indicated by the @authors tag. See the                     *
+ * copyright.txt in the distribution for a full listing of                    *
+ * individual contributors.                                                   *
+ *                                                                            *
+ * This is free software; you can redistribute it and/or modify it            *
+ * under the terms of the GNU Lesser General Public License as                *
+ * published by the Free Software Foundation; either version 2.1 of           *
+ * the License, or (at your option) any later version.                        *
+ *                                                                            *
+ * This software is distributed in the hope that it will be useful,           *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU           *
+ * Lesser General Public License for more details.                            *
+ *                                                                            *
+ * You should have received a copy of the GNU Lesser General Public           *
+ * License along with this software; if not, write to the Free                *
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA         *
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.                   *
+ ******************************************************************************/
+
+package org.gatein.wsrp.wss.cxf.producer;
+
+import junit.framework.TestCase;
+
+import javax.security.auth.Subject;
+import java.security.Principal;
+
+/**
+ * @author <a href="mailto:chris.laprun@jboss.com">Chris Laprun</a>
+ * @version $Revision$
+ */
+public class AuthenticatedSubjectCacheTestCase extends TestCase
+{
+   public void testKeyDependsOnCredentials()
+   {
+      AuthenticatedSubjectCache cache = new AuthenticatedSubjectCache(10, 60000);
+
+      String key = cache.keyFor("user", "password", false);
+      assertNotNull(key);
+      assertEquals(key, cache.keyFor("user", "password", false));
+      assertFalse(key.equals(cache.keyFor("user", "other", false)));
+      assertFalse(key.equals(cache.keyFor("other", "password", false)));
+
+      // user name and password shouldn't be ambiguous when concatenated
+      assertFalse(cache.keyFor("us", "erpassword", false).equals(key));
+
+      // credentials shouldn't appear in keys and keys shouldn't be predictable across caches
+      assertFalse(key.contains("password"));
+      assertFalse(key.equals(new AuthenticatedSubjectCache(10, 60000).keyFor("user", "password", false)));
+   }
+
+   public void testDigestedPasswordsAreNotCached()
+   {
+      AuthenticatedSubjectCache cache = new AuthenticatedSubjectCache(10, 60000);
+
+      String key = cache.keyFor("user", "digest", true);
+      assertNull(key);
+      cache.put(key, createSubject("user"));
+      assertNull(cache.get(key));
+      assertEquals(0, cache.size());
+   }
+
+   public void testDisabledCache()
+   {
+      AuthenticatedSubjectCache cache = new AuthenticatedSubjectCache(0, 60000);
+      assertFalse(cache.isEnabled());
+      assertNull(cache.keyFor("user", "password", false));
+
+      assertFalse(new AuthenticatedSubjectCache(10, 0).isEnabled());
+   }
+
+   public void testCachedSubjectsAreCopies()
+   {
+      AuthenticatedSubjectCache cache = new AuthenticatedSubjectCache(10, 60000);
+      String key = cache.keyFor("user", "password", false);
+      Subject subject = createSubject("user");
+      cache.put(key, subject);
+
+      // modifying the original Subject shouldn't affect the cached one
+      subject.getPrincipals().add(new TestPrincipal("role"));
+
+      Subject cached = cache.get(key);
+      assertNotSame(subject, cached);
+      assertEquals(1, cached.getPrincipals().size());
+      assertEquals("user", cached.getPrincipals().iterator().next().getName());
+      assertFalse(cached.isReadOnly());
+
+      // and neither should modifying the retrieved one
+      cached.getPrincipals().clear();
+      assertEquals(1, cache.get(key).getPrincipals().size());
+   }
+
+   public void testEntriesExpire() throws Exception
+   {
+      AuthenticatedSubjectCache cache = new AuthenticatedSubjectCache(10, 1);
+      String key = cache.keyFor("user", "password", false);
+      cache.put(key, createSubject("user"));
+
+      Thread.sleep(10);
+      assertNull(cache.get(key));
+      assertEquals(0, cache.size());
+   }
+
+   public void testLeastRecentlyUsedEntriesAreEvicted()
+   {
+      AuthenticatedSubjectCache cache = new AuthenticatedSubjectCache(2, 60000);
+      String first = cache.keyFor("first", "password", false);
+      String second = cache.keyFor("second", "password", false);
+      String third = cache.keyFor("third", "password", false);
+
+      cache.put(first, createSubject("first"));
+      cache.put(second, createSubject("second"));
+
+      // accessing the first entry makes the second one the least recently used
+      assertNotNull(cache.get(first));
+      cache.put(third, createSubject("third"));
+
+      assertEquals(2, cache.size());
+      assertNotNull(cache.get(first));
+      assertNull(cache.get(second));
+      assertNotNull(cache.get(third));
+
+      cache.clear();
+      assertEquals(0, cache.size());
+   }
+
+   private static Subject createSubject(String name)
+   {
+      Subject subject = new Subject();
+      subject.getPrincipals().add(new TestPrincipal(name));
+      return subject;
+   }
+
+   private static class TestPrincipal implements Principal
+   {
+      private final String name;
+
+      private TestPrincipal(String name)
+      {
+         this.name = name;
+      }
+
+      public String getName()
+      {
+         return name;
+      }
+   }
+}
@@ -28,6 +28,7 @@ import org.gatein.common.util.ParameterValidation;
 import org.gatein.pc.api.StateString;
 import org.gatein.pc.api.invocation.PortletInvocation;
 import org.gatein.pc.api.invocation.response.PortletInvocationResponse;
+import org.gatein.wsrp.BatchMarkupExtension;
 import org.gatein.wsrp.WSRPActionURL;
 import org.gatein.wsrp.WSRPConstants;
 import org.gatein.wsrp.WSRPPortletURL;
@@ -40,6 +41,7 @@ import org.gatein.wsrp.api.servlet.ServletAccess;
 import org.gatein.wsrp.payload.PayloadUtils;
 import org.gatein.wsrp.payload.SerializableSimplePayload;
 import org.gatein.wsrp.portlet.utils.MockRequest;
+import org.gatein.wsrp.producer.handlers.MarkupHandler;
 import org.gatein.wsrp.test.ExtendedAssert;
 import org.gatein.wsrp.test.support.MockHttpServletResponse;
 import org.jboss.arquillian.container.test.api.Deployment;
@@ -86,6 +88,8 @@ import javax.portlet.MimeResponse;
 import javax.xml.namespace.QName;
 import java.io.Serializable;
 import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 
@@ -209,6 +213,44 @@ public class MarkupTestCase extends org.gatein.wsrp.protocol.v2.NeedPortletHandl
       }
    }
 
+   @Test
+   public void testBatchedGetMarkup() throws Exception
+   {
+      GetMarkup getMarkup = createMarkupRequest();
+
+      GetMarkup batched = createMarkupRequest();
+      batched.getMarkupParams().setMode(WSRPConstants.EDIT_MODE);
+      // nested batches are not supported and should be ignored
+      batched.getMarkupParams().getExtensions().add(BatchMarkupExtension.createRequestExtension(Collections.singletonList(createMarkupRequest())));
+
+      GetMarkup failing = createMarkupRequest();
+      failing.getMarkupParams().setMode("invalid mode");
+
+      getMarkup.getMarkupParams().getExtensions().add(BatchMarkupExtension.createRequestExtension(Arrays.asList(batched, failing)));
+
+      MarkupResponse response = producer.getMarkup(getMarkup);
+      checkMarkupResponse(response, DEFAULT_VIEW_MARKUP);
+
+      List<MarkupResponse> batchedResponses = BatchMarkupExtension.removeBatchedResponses(response.getExtensions());
+      ExtendedAssert.assertNotNull(batchedResponses);
+      ExtendedAssert.assertEquals(2, batchedResponses.size());
+
+      MarkupResponse batchedResponse = batchedResponses.get(0);
+      String namespacePrefix = batched.getRuntimeContext().getNamespacePrefix();
+      checkMarkupResponse(batchedResponse, "<form method='post' action='wsrp_rewrite?wsrp-urlType=blockingAction&wsrp" +
+         "-interactionState=JBPNS_/wsrp_rewrite' id='" + namespacePrefix + "portfolioManager'><table><tr><td>Stock symbol</t" +
+         "d><td><input name='symbol'/></td></tr><tr><td><input type='submit' value='Submit'></td></tr></table></form>");
+      ExtendedAssert.assertNull(BatchMarkupExtension.removeBatchedResponses(batchedResponse.getExtensions()));
+
+      // failed batched requests are marked as such so that the consumer can perform them again on its own
+      ExtendedAssert.assertNull(batchedResponses.get(1));
+
+      // nothing is batched if not asked to
+      response = producer.getMarkup(createMarkupRequest());
+      checkMarkupResponse(response, DEFAULT_VIEW_MARKUP);
+      ExtendedAssert.assertNull(BatchMarkupExtension.removeBatchedResponses(response.getExtensions()));
+   }
+
    @Test
    public void testInvalidGetMarkup() throws Exception
    {
@@ -455,6 +497,56 @@ public class MarkupTestCase extends org.gatein.wsrp.protocol.v2.NeedPortletHandl
       checkMarkupResponse(response, "<p>" + symbol + " stock value: 123.45</p>");
    }
 
+   @Test
+   public void testBundledMarkupOnAction() throws Exception
+   {
+      System.setProperty(MarkupHandler.BUNDLE_MARKUP_ON_ACTION_PROPERTY, "true");
+      try
+      {
+         PerformBlockingInteraction performBlockingInteraction = createDefaultPerformBlockingInteraction(getDefaultHandle());
+         performBlockingInteraction.getInteractionParams().getFormParameters().add(createNamedString("symbol", "RHAT"));
+
+         BlockingInteractionResponse response = producer.performBlockingInteraction(performBlockingInteraction);
+         UpdateResponse updateResponse = response.getUpdateResponse();
+         ExtendedAssert.assertNotNull(updateResponse);
+         MarkupContext markupContext = updateResponse.getMarkupContext();
+         ExtendedAssert.assertNotNull(markupContext);
+
+         // bundled markup should be what rendering the portlet in its new state returns
+         GetMarkup getMarkup = createMarkupRequest();
+         getMarkup.getMarkupParams().setNavigationalContext(updateResponse.getNavigationalContext());
+         MarkupResponse markupResponse = producer.getMarkup(getMarkup);
+         checkMarkupResponse(markupResponse, "<p>RHAT stock value: 123.45</p>");
+         ExtendedAssert.assertEquals(markupResponse.getMarkupContext().getItemString(), markupContext.getItemString());
+      }
+      finally
+      {
+         System.clearProperty(MarkupHandler.BUNDLE_MARKUP_ON_ACTION_PROPERTY);
+      }
+
+      // markup isn't bundled by default
+      checkPBIAndGetNavigationalState("RHAT");
+   }
+
+   @Test
+   public void testNoBundledMarkupOnRedirect() throws Exception
+   {
+      System.setProperty(MarkupHandler.BUNDLE_MARKUP_ON_ACTION_PROPERTY, "true");
+      try
+      {
+         PerformBlockingInteraction performBlockingInteraction = createDefaultPerformBlockingInteraction(getDefaultHandle());
+         performBlockingInteraction.getInteractionParams().getFormParameters().add(createNamedString("symbol", "HELP"));
+
+         BlockingInteractionResponse response = producer.performBlockingInteraction(performBlockingInteraction);
+         ExtendedAssert.assertNotNull(response.getRedirectURL());
+         ExtendedAssert.assertNull(response.getUpdateResponse());
+      }
+      finally
+      {
+         System.clearProperty(MarkupHandler.BUNDLE_MARKUP_ON_ACTION_PROPERTY);
+      }
+   }
+
    @Test
    public void testPBIWithSessionID() throws Exception
    {
@@ -1056,6 +1148,40 @@ public class MarkupTestCase extends org.gatein.wsrp.protocol.v2.NeedPortletHandl
       }
    }
 
+   @Test
+   public void testNoBundledMarkupWhenEventsAreFired() throws Exception
+   {
+      undeploy(DEFAULT_MARKUP_PORTLET_WAR);
+      String archive = "test-events-portlet.war";
+      deploy(archive);
+
+      System.setProperty(MarkupHandler.BUNDLE_MARKUP_ON_ACTION_PROPERTY, "true");
+      try
+      {
+         String generatorHandle = null;
+         for (String portletHandle : getHandlesForCurrentlyDeployedArchive())
+         {
+            if (portletHandle.contains("Generator"))
+            {
+               generatorHandle = portletHandle;
+            }
+         }
+         PerformBlockingInteraction action = createDefaultPerformBlockingInteraction(generatorHandle);
+         action.getInteractionParams().getFormParameters().add(createNamedString("parameter", "param-value"));
+         BlockingInteractionResponse actionResponse = producer.performBlockingInteraction(action);
+
+         // processing the events might change what portlets render so markup shouldn't be bundled
+         UpdateResponse updateResponse = actionResponse.getUpdateResponse();
+         assertEquals(1, updateResponse.getEvents().size());
+         assertNull(updateResponse.getMarkupContext());
+      }
+      finally
+      {
+         System.clearProperty(MarkupHandler.BUNDLE_MARKUP_ON_ACTION_PROPERTY);
+         undeploy(archive);
+      }
+   }
+
    @Test
    public void testGetMarkupWithPublicRenderParameter() throws Exception
    {
@@ -398,4 +398,36 @@ public class ServiceDescriptionTestCase extends V2ProducerBaseTest
          undeploy(warFileName);
       }
    }
+
+   @Test
+   public void testServiceDescriptionIsReusedUntilPortletsChange() throws Exception
+   {
+      GetServiceDescription gsd = getNoRegistrationServiceDescriptionRequest();
+      try
+      {
+         deploy("test-basic-portlet.war");
+
+         ServiceDescription first = producer.getServiceDescription(gsd);
+         assertEquals(1, first.getOfferedPortlets().size());
+
+         // asking again with the same parameters should return the same description
+         assertSame(first, producer.getServiceDescription(gsd));
+
+         // asking with different parameters shouldn't
+         gsd.getDesiredLocales().add("fr");
+         assertNotSame(first, producer.getServiceDescription(gsd));
+         gsd.getDesiredLocales().remove("fr");
+
+         // deploying a new portlet should invalidate the previously generated description
+         deploy("test-markup-portlet.war");
+         ServiceDescription second = producer.getServiceDescription(gsd);
+         assertNotSame(first, second);
+         assertEquals(2, second.getOfferedPortlets().size());
+      }
+      finally
+      {
+         undeploy("test-basic-portlet.war");
+         undeploy("test-markup-portlet.war");
+      }
+   }
 }